@@ -26,6 +26,12 @@ public class DLedgerConfig {
     public static final String MEMORY = "MEMORY";
     public static final String FILE = "FILE";
 
+    public static final String PUSH = "PUSH";
+    public static final String PULL = "PULL";
+
+    public static final String ASYNC_FLUSH = "ASYNC_FLUSH";
+    public static final String SYNC_FLUSH = "SYNC_FLUSH";
+
     @Parameter(names = {"--group", "-g"}, description = "Group of this server")
     private String group = "default";
 
@@ -45,6 +51,12 @@ public class DLedgerConfig {
     @Parameter(names = {"--peer-push-quotas"}, description = "The quotas of the pusher")
     private int peerPushQuota = 20 * 1024 * 1024;
 
+    @Parameter(names = {"--json-codec"}, description = "Encode the rpc requests by json instead of the binary codec, for the peers of the old versions")
+    private boolean useJsonCodec = false;
+
+    @Parameter(names = {"--replication-mode"}, description = "How the entries are replicated, PUSH by the leader or PULL by the followers")
+    private String replicationMode = PUSH; //PUSH, PULL
+
     private String storeType = FILE; //FILE, MEMORY
     private String dataStorePath;
 
@@ -54,6 +66,26 @@ public class DLedgerConfig {
 
     private int maxPushTimeOutMs = 1000;
 
+    //the max number of the pushed entries waiting for the response of a peer, counted by entry rather than by batch
+    private int maxPendingPushNum = 1000;
+
+    private int maxBatchPushNum = 64;
+
+    private int maxBatchPushSize = 4 * 1024 * 1024;
+
+    private int maxBatchAppendNum = 256;
+
+    private int maxBatchAppendSize = 4 * 1024 * 1024;
+
+    //the off-heap cache of the recently appended entries on the leader, shared by the replication to all the peers
+    private int replicationCacheSize = 32 * 1024 * 1024;
+
+    private int maxPullWaitMs = 1000;
+
+    private int maxPullNum = 256;
+
+    private int maxPullSize = 4 * 1024 * 1024;
+
     private boolean enableLeaderElector = true;
 
     private int heartBeatTimeIntervalMs = 2000;
@@ -73,10 +105,38 @@ public class DLedgerConfig {
 
     private long flushFileInterval = 10;
 
+    //in the SYNC_FLUSH mode, the entries are acked by this node only after they are forced to the disk
+    @Parameter(names = {"--flush-disk-type"}, description = "When the entries are acked by this node, ASYNC_FLUSH once appended or SYNC_FLUSH once forced to the disk")
+    private String flushDiskType = ASYNC_FLUSH; //ASYNC_FLUSH, SYNC_FLUSH
+
+    //append the new data files to the pooled off-heap buffers, and commit them to the file channels in background
+    private boolean transientStorePoolEnable = false;
+    private int transientStorePoolSize = 5;
+    private long commitFileInterval = 200;
+    private int commitFileLeastPages = 4;
+    private long commitFileThoroughInterval = 200;
+
+    //create and map the next data and index files ahead in background, and optionally touch their pages
+    private boolean preallocateMappedFile = true;
+    private boolean warmMappedFile = false;
+
     private long checkPointInterval = 3000;
 
+    //verify the crc of the entries scanned by the recovery, and of 1 in every N entries read, 0 for none
+    private boolean checkCrcOnRecover = true;
+    private int checkCrcOnReadInterval = 0;
+    //the threads to verify the sealed data files in parallel by the recovery after a crash, 1 to scan them serially
+    private int recoverThreadNum = Runtime.getRuntime().availableProcessors();
+
     private int mappedFileSizeForEntryData = 1024 * 1024 * 1024;
     private int mappedFileSizeForEntryIndex = DLedgerMmapFileStore.INDEX_UNIT_SIZE * 5 * 1024 * 1024;
+    //the max number of the mapped data files, the cold sealed ones are unmapped and mapped again on demand, 0 for no limit
+    private int maxMappedFilesForEntryData = 64;
+    //the entries further than the distance from the ledger end are read by the file channel with the read-ahead, 0 to disable
+    private int coldReadDistance = 100000;
+    private int coldReadAheadSize = 1024 * 1024;
+    //the max number of the read-ahead buffers shared by the cold reads, which go through the mapping once all are in use
+    private int coldReadAheadBufferNum = 16;
 
     private boolean enablePushToFollower = true;
 
@@ -331,4 +391,220 @@ public class DLedgerConfig {
     public void setCheckPointInterval(long checkPointInterval) {
         this.checkPointInterval = checkPointInterval;
     }
+
+    public int getMaxBatchPushNum() {
+        return maxBatchPushNum;
+    }
+
+    public void setMaxBatchPushNum(int maxBatchPushNum) {
+        this.maxBatchPushNum = maxBatchPushNum;
+    }
+
+    public int getMaxBatchPushSize() {
+        return maxBatchPushSize;
+    }
+
+    public void setMaxBatchPushSize(int maxBatchPushSize) {
+        this.maxBatchPushSize = maxBatchPushSize;
+    }
+
+    public int getMaxBatchAppendNum() {
+        return maxBatchAppendNum;
+    }
+
+    public void setMaxBatchAppendNum(int maxBatchAppendNum) {
+        this.maxBatchAppendNum = maxBatchAppendNum;
+    }
+
+    public int getMaxBatchAppendSize() {
+        return maxBatchAppendSize;
+    }
+
+    public void setMaxBatchAppendSize(int maxBatchAppendSize) {
+        this.maxBatchAppendSize = maxBatchAppendSize;
+    }
+
+    public boolean isUseJsonCodec() {
+        return useJsonCodec;
+    }
+
+    public void setUseJsonCodec(boolean useJsonCodec) {
+        this.useJsonCodec = useJsonCodec;
+    }
+
+    public int getMaxPendingPushNum() {
+        return maxPendingPushNum;
+    }
+
+    public void setMaxPendingPushNum(int maxPendingPushNum) {
+        this.maxPendingPushNum = maxPendingPushNum;
+    }
+
+    public String getReplicationMode() {
+        return replicationMode;
+    }
+
+    public void setReplicationMode(String replicationMode) {
+        this.replicationMode = replicationMode;
+    }
+
+    public boolean isPullReplication() {
+        return PULL.equals(replicationMode);
+    }
+
+    public int getMaxPullWaitMs() {
+        return maxPullWaitMs;
+    }
+
+    public void setMaxPullWaitMs(int maxPullWaitMs) {
+        this.maxPullWaitMs = maxPullWaitMs;
+    }
+
+    public int getMaxPullNum() {
+        return maxPullNum;
+    }
+
+    public void setMaxPullNum(int maxPullNum) {
+        this.maxPullNum = maxPullNum;
+    }
+
+    public int getMaxPullSize() {
+        return maxPullSize;
+    }
+
+    public void setMaxPullSize(int maxPullSize) {
+        this.maxPullSize = maxPullSize;
+    }
+
+    public int getReplicationCacheSize() {
+        return replicationCacheSize;
+    }
+
+    public void setReplicationCacheSize(int replicationCacheSize) {
+        this.replicationCacheSize = replicationCacheSize;
+    }
+
+    public boolean isTransientStorePoolEnable() {
+        return transientStorePoolEnable;
+    }
+
+    public void setTransientStorePoolEnable(boolean transientStorePoolEnable) {
+        this.transientStorePoolEnable = transientStorePoolEnable;
+    }
+
+    public int getTransientStorePoolSize() {
+        return transientStorePoolSize;
+    }
+
+    public void setTransientStorePoolSize(int transientStorePoolSize) {
+        this.transientStorePoolSize = transientStorePoolSize;
+    }
+
+    public long getCommitFileInterval() {
+        return commitFileInterval;
+    }
+
+    public void setCommitFileInterval(long commitFileInterval) {
+        this.commitFileInterval = commitFileInterval;
+    }
+
+    public int getCommitFileLeastPages() {
+        return commitFileLeastPages;
+    }
+
+    public void setCommitFileLeastPages(int commitFileLeastPages) {
+        this.commitFileLeastPages = commitFileLeastPages;
+    }
+
+    public long getCommitFileThoroughInterval() {
+        return commitFileThoroughInterval;
+    }
+
+    public void setCommitFileThoroughInterval(long commitFileThoroughInterval) {
+        this.commitFileThoroughInterval = commitFileThoroughInterval;
+    }
+
+    public boolean isPreallocateMappedFile() {
+        return preallocateMappedFile;
+    }
+
+    public void setPreallocateMappedFile(boolean preallocateMappedFile) {
+        this.preallocateMappedFile = preallocateMappedFile;
+    }
+
+    public boolean isWarmMappedFile() {
+        return warmMappedFile;
+    }
+
+    public void setWarmMappedFile(boolean warmMappedFile) {
+        this.warmMappedFile = warmMappedFile;
+    }
+
+    public String getFlushDiskType() {
+        return flushDiskType;
+    }
+
+    public void setFlushDiskType(String flushDiskType) {
+        this.flushDiskType = flushDiskType;
+    }
+
+    public boolean isSyncFlush() {
+        return SYNC_FLUSH.equals(flushDiskType);
+    }
+
+    public boolean isCheckCrcOnRecover() {
+        return checkCrcOnRecover;
+    }
+
+    public void setCheckCrcOnRecover(boolean checkCrcOnRecover) {
+        this.checkCrcOnRecover = checkCrcOnRecover;
+    }
+
+    public int getCheckCrcOnReadInterval() {
+        return checkCrcOnReadInterval;
+    }
+
+    public void setCheckCrcOnReadInterval(int checkCrcOnReadInterval) {
+        this.checkCrcOnReadInterval = checkCrcOnReadInterval;
+    }
+
+    public int getRecoverThreadNum() {
+        return recoverThreadNum;
+    }
+
+    public void setRecoverThreadNum(int recoverThreadNum) {
+        this.recoverThreadNum = recoverThreadNum;
+    }
+
+    public int getMaxMappedFilesForEntryData() {
+        return maxMappedFilesForEntryData;
+    }
+
+    public void setMaxMappedFilesForEntryData(int maxMappedFilesForEntryData) {
+        this.maxMappedFilesForEntryData = maxMappedFilesForEntryData;
+    }
+
+    public int getColdReadDistance() {
+        return coldReadDistance;
+    }
+
+    public void setColdReadDistance(int coldReadDistance) {
+        this.coldReadDistance = coldReadDistance;
+    }
+
+    public int getColdReadAheadSize() {
+        return coldReadAheadSize;
+    }
+
+    public void setColdReadAheadSize(int coldReadAheadSize) {
+        this.coldReadAheadSize = coldReadAheadSize;
+    }
+
+    public int getColdReadAheadBufferNum() {
+        return coldReadAheadBufferNum;
+    }
+
+    public void setColdReadAheadBufferNum(int coldReadAheadBufferNum) {
+        this.coldReadAheadBufferNum = coldReadAheadBufferNum;
+    }
 }
@@ -0,0 +1,225 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.openmessaging.storage.dledger;
+
+import io.openmessaging.storage.dledger.entry.DLedgerEntry;
+import io.openmessaging.storage.dledger.entry.DLedgerEntryCoder;
+import io.openmessaging.storage.dledger.protocol.DLedgerResponseCode;
+import io.openmessaging.storage.dledger.protocol.PullEntriesRequest;
+import io.openmessaging.storage.dledger.protocol.PullEntriesResponse;
+import io.openmessaging.storage.dledger.store.DLedgerStore;
+import io.openmessaging.storage.dledger.utils.DLedgerUtils;
+import io.openmessaging.storage.dledger.utils.PreConditions;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The follower side of the pull mode replication, only works if the replication mode is PULL.
+ * The follower pulls the entries after its ledger end from the leader, and the leader holds the pull if there is nothing new.
+ * The next pull carries the term of the last entry, which acks the entries to the leader.
+ * In the SYNC_FLUSH mode, the next pull is sent only after the entries are flushed.
+ */
+public class DLedgerEntryPuller {
+
+    private static Logger logger = LoggerFactory.getLogger(DLedgerEntryPuller.class);
+
+    private static final long MAX_IDLE_WAIT_MS = 100;
+
+    private DLedgerConfig dLedgerConfig;
+    private DLedgerStore dLedgerStore;
+
+    private final MemberState memberState;
+
+    private DLedgerRpcService dLedgerRpcService;
+
+    private EntryPuller entryPuller = new EntryPuller(logger);
+
+    public DLedgerEntryPuller(DLedgerConfig dLedgerConfig, MemberState memberState, DLedgerStore dLedgerStore,
+        DLedgerRpcService dLedgerRpcService) {
+        this.dLedgerConfig = dLedgerConfig;
+        this.memberState = memberState;
+        this.dLedgerStore = dLedgerStore;
+        this.dLedgerRpcService = dLedgerRpcService;
+        this.dLedgerStore.addFlushHook(flushedIndex -> entryPuller.wakeup());
+    }
+
+    public void startup() {
+        if (dLedgerConfig.isPullReplication()) {
+            entryPuller.start();
+        }
+    }
+
+    public void shutdown() {
+        if (dLedgerConfig.isPullReplication()) {
+            entryPuller.shutdown();
+        }
+    }
+
+    public void handleRoleChange(long term, MemberState.Role role) {
+        entryPuller.wakeup();
+    }
+
+    /**
+     * This thread will be activated by the follower.
+     * It pulls from the ledger end normally. If the leader finds the entry before the begin index does not match,
+     * it probes backward until the entries match, then the stale entries after the matched one are truncated.
+     */
+    private class EntryPuller extends ShutdownAbleThread {
+
+        private long term = -1;
+        private String leaderId = null;
+        //the begin index to probe the consistency with the leader, -1 means pulling from the ledger end
+        private long probeIndex = -1;
+
+        public EntryPuller(Logger logger) {
+            super("EntryPuller", logger);
+        }
+
+        private boolean checkAndFreshState() {
+            if (!memberState.isFollower() || memberState.getLeaderId() == null) {
+                return false;
+            }
+            if (term != memberState.currTerm() || !memberState.getLeaderId().equals(leaderId)) {
+                synchronized (memberState) {
+                    if (!memberState.isFollower() || memberState.getLeaderId() == null) {
+                        return false;
+                    }
+                    term = memberState.currTerm();
+                    leaderId = memberState.getLeaderId();
+                    probeIndex = -1;
+                    logger.info("[Pull]Start to pull from leader={} term={}", leaderId, term);
+                }
+            }
+            return true;
+        }
+
+        private PullEntriesRequest buildPullRequest() {
+            long beginIndex = probeIndex != -1 ? probeIndex : dLedgerStore.getLedgerEndIndex() + 1;
+            long prevIndex = beginIndex - 1;
+            long prevTerm = -1;
+            if (prevIndex >= 0 && prevIndex >= dLedgerStore.getLedgerBeginIndex() && prevIndex <= dLedgerStore.getLedgerEndIndex()) {
+                DLedgerEntry prevEntry = dLedgerStore.getMeta(prevIndex);
+                if (prevEntry != null) {
+                    prevTerm = prevEntry.getTerm();
+                }
+            }
+            PullEntriesRequest request = new PullEntriesRequest();
+            request.setGroup(memberState.getGroup());
+            request.setRemoteId(leaderId);
+            request.setLeaderId(leaderId);
+            request.setTerm(term);
+            request.setNodeId(memberState.getSelfId());
+            request.setBeginIndex(beginIndex);
+            request.setPrevTerm(prevTerm);
+            request.setMaxCount(dLedgerConfig.getMaxPullNum());
+            request.setMaxSize(dLedgerConfig.getMaxPullSize());
+            request.setMaxWaitMs(dLedgerConfig.getMaxPullWaitMs());
+            return request;
+        }
+
+        private void handleEntries(PullEntriesRequest request, PullEntriesResponse response) {
+            long beginIndex = request.getBeginIndex();
+            if (beginIndex <= dLedgerStore.getLedgerEndIndex() && beginIndex - 1 >= dLedgerStore.getLedgerBeginIndex()) {
+                //the probe succeeds, the entries after the matched one are stale
+                DLedgerEntry matched = dLedgerStore.getEntryHeader(beginIndex - 1);
+                PreConditions.check(matched != null, DLedgerResponseCode.INCONSISTENT_STATE, "matchIndex=%d", beginIndex - 1);
+                if (!matched.hasCrc()) {
+                    matched = dLedgerStore.get(beginIndex - 1);
+                }
+                logger.info("[Pull]Truncate the entries after the matched index={} ledgerEndIndex={}", beginIndex - 1, dLedgerStore.getLedgerEndIndex());
+                dLedgerStore.truncate(matched, term, leaderId);
+            }
+            probeIndex = -1;
+            List<DLedgerEntry> entries = response.getEntries();
+            if (!entries.isEmpty()) {
+                int from = 0;
+                if (entries.get(0).getIndex() != dLedgerStore.getLedgerEndIndex() + 1) {
+                    //the leader has deleted the entries the follower needs, or the follower has stale entries
+                    DLedgerEntry first = response.isEncoded() ? DLedgerEntryCoder.decode(response.getEntryBuffers().get(0).duplicate()) : entries.get(0);
+                    logger.info("[Pull]Truncate at index={} ledgerEndIndex={}", first.getIndex(), dLedgerStore.getLedgerEndIndex());
+                    long index = dLedgerStore.truncate(first, term, leaderId);
+                    PreConditions.check(index == first.getIndex(), DLedgerResponseCode.INCONSISTENT_STATE, "truncateIndex=%d", first.getIndex());
+                    from = 1;
+                }
+                if (response.isEncoded()) {
+                    List<ByteBuffer> entryBuffers = response.getEntryBuffers();
+                    if (from < entryBuffers.size()) {
+                        dLedgerStore.appendAsFollower(entryBuffers.subList(from, entryBuffers.size()), term, leaderId);
+                    }
+                } else {
+                    for (int i = from; i < entries.size(); i++) {
+                        dLedgerStore.appendAsFollower(entries.get(i), term, leaderId);
+                    }
+                }
+            }
+            dLedgerStore.updateCommittedIndex(term, response.getCommitIndex());
+        }
+
+        private void handleInconsistent(PullEntriesRequest request, PullEntriesResponse response) {
+            long nextIndex = Math.min(request.getBeginIndex() - 1, response.getEndIndex() + 1);
+            if (response.getProbeIndex() != -1) {
+                //the leader skips the entries that could not match by the terms
+                nextIndex = Math.min(nextIndex, response.getProbeIndex());
+            }
+            //the entries before the leader's begin index cannot be verified, pull from there directly
+            nextIndex = Math.max(nextIndex, response.getBeginIndex());
+            probeIndex = Math.max(nextIndex, 0);
+            logger.info("[Pull]The entry before {} does not match the leader's {}-{}, probe from {}", request.getBeginIndex(), response.getBeginIndex(), response.getEndIndex(), probeIndex);
+        }
+
+        @Override
+        public void doWork() {
+            try {
+                if (!checkAndFreshState()) {
+                    waitForRunning(MAX_IDLE_WAIT_MS);
+                    return;
+                }
+                if (dLedgerStore.getFlushedIndex() < dLedgerStore.getLedgerEndIndex()) {
+                    //the pull acks the entries before its begin index, so wait until they are flushed in the SYNC_FLUSH mode
+                    waitForRunning(MAX_IDLE_WAIT_MS);
+                    return;
+                }
+                PullEntriesRequest request = buildPullRequest();
+                PullEntriesResponse response = dLedgerRpcService.pull(request).get(request.getMaxWaitMs() + 3000, TimeUnit.MILLISECONDS);
+                if (response.getTerm() != term) {
+                    waitForRunning(MAX_IDLE_WAIT_MS);
+                    return;
+                }
+                DLedgerResponseCode responseCode = DLedgerResponseCode.valueOf(response.getCode());
+                switch (responseCode) {
+                    case SUCCESS:
+                        handleEntries(request, response);
+                        break;
+                    case INCONSISTENT_STATE:
+                        handleInconsistent(request, response);
+                        break;
+                    default:
+                        logger.warn("[Pull]Get error response code {} {}", responseCode, response.baseInfo());
+                        waitForRunning(MAX_IDLE_WAIT_MS);
+                        break;
+                }
+            } catch (Throwable t) {
+                DLedgerEntryPuller.logger.error("[Pull]Error in {} term={} leaderId={} probeIndex={}", getName(), term, leaderId, probeIndex, t);
+                DLedgerUtils.sleep(500);
+            }
+        }
+    }
+}
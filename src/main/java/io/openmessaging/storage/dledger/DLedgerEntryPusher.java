@@ -19,26 +19,47 @@ package io.openmessaging.storage.dledger;
 
 import com.alibaba.fastjson.JSON;
 import io.openmessaging.storage.dledger.entry.DLedgerEntry;
+import io.openmessaging.storage.dledger.entry.DLedgerEntryCoder;
 import io.openmessaging.storage.dledger.protocol.AppendEntryResponse;
 import io.openmessaging.storage.dledger.protocol.DLedgerResponseCode;
+import io.openmessaging.storage.dledger.protocol.PullEntriesRequest;
+import io.openmessaging.storage.dledger.protocol.PullEntriesResponse;
 import io.openmessaging.storage.dledger.protocol.PushEntryRequest;
 import io.openmessaging.storage.dledger.protocol.PushEntryResponse;
 import io.openmessaging.storage.dledger.store.DLedgerMemoryStore;
 import io.openmessaging.storage.dledger.store.DLedgerStore;
 import io.openmessaging.storage.dledger.store.file.DLedgerMmapFileStore;
+import io.openmessaging.storage.dledger.store.file.EntryRangeResult;
+import io.openmessaging.storage.dledger.store.file.EntryView;
+import io.openmessaging.storage.dledger.store.file.SelectMmapBufferResult;
 import io.openmessaging.storage.dledger.utils.DLedgerUtils;
 import io.openmessaging.storage.dledger.utils.Pair;
 import io.openmessaging.storage.dledger.utils.PreConditions;
 import io.openmessaging.storage.dledger.utils.Quota;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -46,97 +67,262 @@ public class DLedgerEntryPusher {
 
     private static Logger logger = LoggerFactory.getLogger(DLedgerEntryPusher.class);
 
+    /**
+     * The threads are woken up by the events they wait on, the idle wait only serves the periodical checks.
+     */
+    private static final long MAX_IDLE_WAIT_MS = 100;
+
     private DLedgerConfig dLedgerConfig;
     private DLedgerStore dLedgerStore;
+    private EntryBufferCache entryBufferCache;
 
     private final MemberState memberState;
 
     private DLedgerRpcService dLedgerRpcService;
 
-    private Map<Long, ConcurrentMap<String, Long>> peerWaterMarksByTerm = new ConcurrentHashMap<>();
-    private Map<Long, ConcurrentMap<Long, TimeoutFuture<AppendEntryResponse>>> pendingAppendResponsesByTerm = new ConcurrentHashMap<>();
+    private final Map<String, Integer> peerOrdinals = new HashMap<>();
+    private final AtomicReference<PeerWaterMarks> peerWaterMarks = new AtomicReference<>();
+    private Map<Long, PendingAppends> pendingAppendResponsesByTerm = new ConcurrentHashMap<>();
 
-    private EntryHandler entryHandler = new EntryHandler(logger);
+    private EntryHandler entryHandler;
 
     private QuorumAckChecker quorumAckChecker = new QuorumAckChecker(logger);
 
     private Map<String, EntryDispatcher> dispatcherMap = new HashMap<>();
 
+    private PullHandler pullHandler = new PullHandler(logger);
+
     public DLedgerEntryPusher(DLedgerConfig dLedgerConfig, MemberState memberState, DLedgerStore dLedgerStore,
-        DLedgerRpcService dLedgerRpcService) {
+        EntryBufferCache entryBufferCache, DLedgerRpcService dLedgerRpcService) {
         this.dLedgerConfig = dLedgerConfig;
         this.memberState = memberState;
         this.dLedgerStore = dLedgerStore;
+        this.entryBufferCache = entryBufferCache;
         this.dLedgerRpcService = dLedgerRpcService;
+        this.entryHandler = new EntryHandler(logger);
         for (String peer : memberState.getPeerMap().keySet()) {
+            peerOrdinals.put(peer, peerOrdinals.size());
             if (!peer.equals(memberState.getSelfId())) {
                 dispatcherMap.put(peer, new EntryDispatcher(peer, logger));
             }
         }
+        dLedgerStore.addFlushHook(this::handleFlushed);
     }
 
     public void startup() {
-        entryHandler.start();
         quorumAckChecker.start();
+        if (dLedgerConfig.isPullReplication()) {
+            pullHandler.start();
+            return;
+        }
+        entryHandler.start();
         for (EntryDispatcher dispatcher : dispatcherMap.values()) {
             dispatcher.start();
         }
     }
 
     public void shutdown() {
-        entryHandler.shutdown();
         quorumAckChecker.shutdown();
+        if (dLedgerConfig.isPullReplication()) {
+            pullHandler.shutdown();
+            return;
+        }
+        entryHandler.shutdown();
         for (EntryDispatcher dispatcher : dispatcherMap.values()) {
             dispatcher.shutdown();
         }
     }
 
     public CompletableFuture<PushEntryResponse> handlePush(PushEntryRequest request) throws Exception {
+        PreConditions.check(!dLedgerConfig.isPullReplication(), DLedgerResponseCode.UNSUPPORTED, "replicationMode=%s", dLedgerConfig.getReplicationMode());
         return entryHandler.handlePush(request);
     }
 
-    private void checkTermForWaterMark(long term, String env) {
-        if (!peerWaterMarksByTerm.containsKey(term)) {
-            logger.info("Initialize the watermark in {} for term={}", env, term);
-            ConcurrentMap<String, Long> waterMarks = new ConcurrentHashMap<>();
-            for (String peer : memberState.getPeerMap().keySet()) {
-                waterMarks.put(peer, -1L);
+    public CompletableFuture<PullEntriesResponse> handlePull(PullEntriesRequest request) throws Exception {
+        PreConditions.check(dLedgerConfig.isPullReplication(), DLedgerResponseCode.UNSUPPORTED, "replicationMode=%s", dLedgerConfig.getReplicationMode());
+        return pullHandler.handlePull(request);
+    }
+
+    /**
+     * Get the watermarks of the term, the watermarks of the former term are replaced as a whole when the term changes.
+     * @return the watermarks of the term, or null if the term is stale
+     */
+    private PeerWaterMarks checkTermForWaterMark(long term, String env) {
+        PeerWaterMarks waterMarks = peerWaterMarks.get();
+        while (waterMarks == null || waterMarks.getTerm() < term) {
+            PeerWaterMarks newWaterMarks = new PeerWaterMarks(term, peerOrdinals);
+            if (peerWaterMarks.compareAndSet(waterMarks, newWaterMarks)) {
+                logger.info("Initialize the watermark in {} for term={}", env, term);
+                return newWaterMarks;
             }
-            peerWaterMarksByTerm.putIfAbsent(term, waterMarks);
+            waterMarks = peerWaterMarks.get();
         }
+        return waterMarks.getTerm() == term ? waterMarks : null;
     }
 
     private void checkTermForPendingMap(long term, String env) {
         if (!pendingAppendResponsesByTerm.containsKey(term)) {
             logger.info("Initialize the pending append map in {} for term={}", env, term);
-            pendingAppendResponsesByTerm.putIfAbsent(term, new ConcurrentHashMap<>());
+            pendingAppendResponsesByTerm.putIfAbsent(term, new PendingAppends());
+        }
+    }
+
+    void updatePeerWaterMark(long term, String peerId, long index) {
+        PeerWaterMarks waterMarks = checkTermForWaterMark(term, "updatePeerWaterMark");
+        if (waterMarks != null) {
+            waterMarks.update(peerId, index);
         }
     }
 
-    private void updatePeerWaterMark(long term, String peerId, long index) {
-        synchronized (peerWaterMarksByTerm) {
-            checkTermForWaterMark(term, "updatePeerWaterMark");
-            if (peerWaterMarksByTerm.get(term).get(peerId) < index) {
-                peerWaterMarksByTerm.get(term).put(peerId, index);
+    long getPeerWaterMark(long term, String peerId) {
+        PeerWaterMarks waterMarks = checkTermForWaterMark(term, "getPeerWaterMark");
+        return waterMarks != null ? waterMarks.get(peerId) : -1;
+    }
+
+    private long getTerm(long index) {
+        DLedgerEntry entry = dLedgerStore.getMeta(index);
+        PreConditions.check(entry != null, DLedgerResponseCode.UNKNOWN, "index=%d", index);
+        return entry.getTerm();
+    }
+
+    /**
+     * The terms of the entries never decrease with the index, so the entries of one term are contiguous
+     * and could be located by binary search.
+     * @return the first index in the ledger up to maxIndex whose term is not smaller than the term, -1 if absent
+     */
+    private long firstIndexOfTerm(long term, long maxIndex) {
+        long low = Math.max(0, dLedgerStore.getLedgerBeginIndex());
+        long high = Math.min(maxIndex, dLedgerStore.getLedgerEndIndex());
+        long result = -1;
+        while (low <= high) {
+            long mid = (low + high) >>> 1;
+            if (getTerm(mid) >= term) {
+                result = mid;
+                high = mid - 1;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the last index in the ledger up to maxIndex whose term is not greater than the term, -1 if absent
+     */
+    private long lastIndexNotAfterTerm(long term, long maxIndex) {
+        long low = Math.max(0, dLedgerStore.getLedgerBeginIndex());
+        long high = Math.min(maxIndex, dLedgerStore.getLedgerEndIndex());
+        long result = -1;
+        while (low <= high) {
+            long mid = (low + high) >>> 1;
+            if (getTerm(mid) <= term) {
+                result = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
             }
         }
+        return result;
+    }
+
+    /**
+     * Find the next index to compare before the conflicted one, skipping the entries that could not match.
+     * The entries of the same term at the same index are the same, so the leader's last entry in the conflicted term
+     * is the candidate. If the leader has no entry of the term, the follower's entries of the term are all stale.
+     * @param index the conflicted index
+     * @param conflictTerm the term of the other's entry at the conflicted index
+     * @param conflictIndex the first index of the term in the other's ledger, -1 if unknown
+     */
+    private long nextCompareIndex(long index, long conflictTerm, long conflictIndex) {
+        //the entries with the greater terms after it could not match the other's
+        long nextIndex = lastIndexNotAfterTerm(conflictTerm, index - 1);
+        if (nextIndex != -1 && conflictIndex != -1 && getTerm(nextIndex) != conflictTerm) {
+            nextIndex = Math.min(nextIndex, conflictIndex - 1);
+        }
+        return nextIndex;
     }
 
-    private long getPeerWaterMark(long term, String peerId) {
-        synchronized (peerWaterMarksByTerm) {
-            checkTermForWaterMark(term, "getPeerWaterMark");
-            return peerWaterMarksByTerm.get(term).get(peerId);
+    /**
+     * Copy the encoded entry for replication, from the cache if it hits, otherwise from the store.
+     */
+    private ByteBuffer copyEntryBuffer(long index) {
+        EntryBufferCache.CachedEntry cached = entryBufferCache.get(index);
+        if (cached != null) {
+            try {
+                return copyOf(cached.getByteBuffer());
+            } finally {
+                cached.release();
+            }
+        }
+        if (dLedgerStore instanceof DLedgerMmapFileStore) {
+            SelectMmapBufferResult sbr = ((DLedgerMmapFileStore) dLedgerStore).getEntryData(index);
+            try {
+                return copyOf(sbr.getByteBuffer());
+            } finally {
+                sbr.release();
+            }
         }
+        DLedgerEntry entry = dLedgerStore.get(index);
+        PreConditions.check(entry != null, DLedgerResponseCode.UNKNOWN, "index=%d", index);
+        ByteBuffer entryBuffer = ByteBuffer.allocate(entry.computSizeInBytes());
+        DLedgerEntryCoder.encode(entry, entryBuffer);
+        return entryBuffer;
+    }
+
+    /**
+     * Copy the encoded entries from the index for replication, the cached one if it hits, otherwise a range from the store.
+     */
+    private List<ByteBuffer> copyEntryBuffers(long index, int maxCount, int maxBytes) {
+        EntryBufferCache.CachedEntry cached = entryBufferCache.get(index);
+        if (cached != null) {
+            try {
+                return Collections.singletonList(copyOf(cached.getByteBuffer()));
+            } finally {
+                cached.release();
+            }
+        }
+        if (!(dLedgerStore instanceof DLedgerMmapFileStore)) {
+            return Collections.singletonList(copyEntryBuffer(index));
+        }
+        EntryRangeResult range = ((DLedgerMmapFileStore) dLedgerStore).getEntryRange(index, maxCount, maxBytes);
+        try {
+            List<ByteBuffer> entryBuffers = new ArrayList<>(range.getCount());
+            for (int i = 0; i < range.getCount(); i++) {
+                entryBuffers.add(copyOf(range.getEntryBuffer(i)));
+            }
+            return entryBuffers;
+        } finally {
+            range.release();
+        }
+    }
+
+    private static ByteBuffer copyOf(ByteBuffer byteBuffer) {
+        ByteBuffer copy = ByteBuffer.allocate(byteBuffer.remaining());
+        copy.put(byteBuffer.duplicate());
+        copy.flip();
+        return copy;
     }
 
     public boolean isPendingFull(long currTerm) {
         checkTermForPendingMap(currTerm, "isPendingFull");
-        return pendingAppendResponsesByTerm.get(currTerm).size() > dLedgerConfig.getMaxPendingRequestsNum();
+        return pendingAppendResponsesByTerm.get(currTerm).size() >= dLedgerConfig.getMaxPendingRequestsNum();
+    }
+
+    /**
+     * The entries are acked by this node only after they are flushed in the SYNC_FLUSH mode, see {@link DLedgerStore#getFlushedIndex()}.
+     */
+    private void handleFlushed(long flushedIndex) {
+        if (memberState.isLeader()) {
+            updatePeerWaterMark(memberState.currTerm(), memberState.getSelfId(), flushedIndex);
+            quorumAckChecker.wakeup();
+        } else {
+            entryHandler.wakeup();
+        }
     }
 
     public CompletableFuture<AppendEntryResponse> waitAck(DLedgerEntry entry) {
-        updatePeerWaterMark(entry.getTerm(), memberState.getSelfId(), entry.getIndex());
-        if (memberState.getPeerMap().size() == 1) {
+        updatePeerWaterMark(entry.getTerm(), memberState.getSelfId(), Math.min(entry.getIndex(), dLedgerStore.getFlushedIndex()));
+        if (memberState.getPeerMap().size() == 1 && entry.getIndex() <= dLedgerStore.getFlushedIndex()) {
             AppendEntryResponse response = new AppendEntryResponse();
             response.setGroup(memberState.getGroup());
             response.setLeaderId(memberState.getSelfId());
@@ -148,11 +334,14 @@ public class DLedgerEntryPusher {
             checkTermForPendingMap(entry.getTerm(), "waitAck");
             AppendFuture<AppendEntryResponse> future = new AppendFuture<>(dLedgerConfig.getMaxWaitAckTimeMs());
             future.setPos(entry.getPos());
-            CompletableFuture<AppendEntryResponse> old = pendingAppendResponsesByTerm.get(entry.getTerm()).put(entry.getIndex(), future);
+            TimeoutFuture<AppendEntryResponse> old = pendingAppendResponsesByTerm.get(entry.getTerm()).put(entry.getIndex(), future);
             if (old != null) {
                 logger.warn("[MONITOR] get old wait at index={}", entry.getIndex());
             }
             wakeUpDispatchers();
+            pullHandler.wakeup();
+            //the entry may have been acked by the followers before the future is registered
+            quorumAckChecker.wakeup();
             return future;
         }
     }
@@ -163,6 +352,145 @@ public class DLedgerEntryPusher {
         }
     }
 
+    public void handleRoleChange(long term, MemberState.Role role) {
+        entryBufferCache.clear();
+        entryHandler.wakeup();
+        quorumAckChecker.wakeup();
+        pullHandler.wakeup();
+        wakeUpDispatchers();
+    }
+
+    /**
+     * The watermarks of all the peers in one term, indexed by the ordinal of the peer.
+     */
+    private static class PeerWaterMarks {
+
+        private final long term;
+        private final Map<String, Integer> peerOrdinals;
+        private final AtomicLongArray waterMarks;
+
+        PeerWaterMarks(long term, Map<String, Integer> peerOrdinals) {
+            this.term = term;
+            this.peerOrdinals = peerOrdinals;
+            this.waterMarks = new AtomicLongArray(peerOrdinals.size());
+            for (int i = 0; i < waterMarks.length(); i++) {
+                waterMarks.set(i, -1);
+            }
+        }
+
+        public long getTerm() {
+            return term;
+        }
+
+        public long get(String peerId) {
+            return waterMarks.get(peerOrdinals.get(peerId));
+        }
+
+        public void update(String peerId, long index) {
+            int ordinal = peerOrdinals.get(peerId);
+            long waterMark;
+            while ((waterMark = waterMarks.get(ordinal)) < index) {
+                if (waterMarks.compareAndSet(ordinal, waterMark, index)) {
+                    break;
+                }
+            }
+        }
+
+        public long[] snapshot() {
+            long[] snapshot = new long[waterMarks.length()];
+            for (int i = 0; i < snapshot.length; i++) {
+                snapshot[i] = waterMarks.get(i);
+            }
+            return snapshot;
+        }
+
+        @Override
+        public String toString() {
+            Map<String, Long> peerWaterMarks = new HashMap<>();
+            for (Map.Entry<String, Integer> entry : peerOrdinals.entrySet()) {
+                peerWaterMarks.put(entry.getKey(), waterMarks.get(entry.getValue()));
+            }
+            return "{" + term + ":" + JSON.toJSONString(peerWaterMarks) + "}";
+        }
+    }
+
+    /**
+     * The pending futures of a term, ordered by index for the acks, and by deadline for the timeouts.
+     * The waiters may register out of order, so the two orders may differ.
+     */
+    private static class PendingAppends {
+
+        private final ConcurrentSkipListMap<Long, TimeoutFuture<AppendEntryResponse>> futures = new ConcurrentSkipListMap<>();
+        //the futures share the same timeout, so the order of registration is the order of the deadlines
+        private final ConcurrentLinkedQueue<Map.Entry<Long, TimeoutFuture<AppendEntryResponse>>> deadlines = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger(0);
+
+        public TimeoutFuture<AppendEntryResponse> put(long index, TimeoutFuture<AppendEntryResponse> future) {
+            TimeoutFuture<AppendEntryResponse> old = futures.put(index, future);
+            if (old == null) {
+                size.incrementAndGet();
+            }
+            deadlines.add(new AbstractMap.SimpleImmutableEntry<>(index, future));
+            return old;
+        }
+
+        public Map.Entry<Long, TimeoutFuture<AppendEntryResponse>> firstEntry() {
+            return futures.firstEntry();
+        }
+
+        public Map.Entry<Long, TimeoutFuture<AppendEntryResponse>> pollFirstEntry() {
+            Map.Entry<Long, TimeoutFuture<AppendEntryResponse>> entry = futures.pollFirstEntry();
+            if (entry != null) {
+                size.decrementAndGet();
+            }
+            return entry;
+        }
+
+        public boolean remove(long index, TimeoutFuture<AppendEntryResponse> future) {
+            if (futures.remove(index, future)) {
+                size.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Skip the futures which are no longer pending, should be called by a single thread.
+         *
+         * @return the pending future with the earliest deadline, null if there is none
+         */
+        public Map.Entry<Long, TimeoutFuture<AppendEntryResponse>> firstDeadline() {
+            Map.Entry<Long, TimeoutFuture<AppendEntryResponse>> head;
+            while ((head = deadlines.peek()) != null) {
+                if (!head.getValue().isDone() && futures.get(head.getKey()) == head.getValue()) {
+                    return head;
+                }
+                deadlines.poll();
+            }
+            return null;
+        }
+
+        /**
+         * Remove the pending future with the earliest deadline if it is timed out, should be called by a single thread.
+         *
+         * @return the removed future, null if none is timed out
+         */
+        public Map.Entry<Long, TimeoutFuture<AppendEntryResponse>> pollTimeOut() {
+            Map.Entry<Long, TimeoutFuture<AppendEntryResponse>> head;
+            while ((head = firstDeadline()) != null && head.getValue().isTimeOut()) {
+                deadlines.poll();
+                if (remove(head.getKey(), head.getValue())) {
+                    return head;
+                }
+            }
+            return null;
+        }
+
+        public int size() {
+            return size.get();
+        }
+    }
+
     /**
      * This thread will check the quorum index and complete the pending requests.
      */
@@ -170,7 +498,6 @@ public class DLedgerEntryPusher {
 
         private long lastPrintWatermarkTimeMs = System.currentTimeMillis();
         private long lastCheckLeakTimeMs = System.currentTimeMillis();
-        private long lastQuorumIndex = -1;
 
         public QuorumAckChecker(Logger logger) {
             super("QuorumAckChecker", logger);
@@ -181,22 +508,23 @@ public class DLedgerEntryPusher {
             try {
                 if (DLedgerUtils.elapsed(lastPrintWatermarkTimeMs) > 3000) {
                     logger.info("[{}][{}] term={} ledgerBegin={} ledgerEnd={} committed={} watermarks={}",
-                        memberState.getSelfId(), memberState.getRole(), memberState.currTerm(), dLedgerStore.getLedgerBeginIndex(), dLedgerStore.getLedgerEndIndex(), dLedgerStore.getCommittedIndex(), JSON.toJSONString(peerWaterMarksByTerm));
+                        memberState.getSelfId(), memberState.getRole(), memberState.currTerm(), dLedgerStore.getLedgerBeginIndex(), dLedgerStore.getLedgerEndIndex(), dLedgerStore.getCommittedIndex(), peerWaterMarks.get());
                     lastPrintWatermarkTimeMs = System.currentTimeMillis();
                 }
                 if (!memberState.isLeader()) {
-                    waitForRunning(1);
+                    waitForRunning(MAX_IDLE_WAIT_MS);
                     return;
                 }
                 long currTerm = memberState.currTerm();
                 checkTermForPendingMap(currTerm, "QuorumAckChecker");
-                checkTermForWaterMark(currTerm, "QuorumAckChecker");
+                PeerWaterMarks currWaterMarks = checkTermForWaterMark(currTerm, "QuorumAckChecker");
                 if (pendingAppendResponsesByTerm.size() > 1) {
                     for (Long term : pendingAppendResponsesByTerm.keySet()) {
                         if (term == currTerm) {
                             continue;
                         }
-                        for (Map.Entry<Long, TimeoutFuture<AppendEntryResponse>> futureEntry : pendingAppendResponsesByTerm.get(term).entrySet()) {
+                        Map.Entry<Long, TimeoutFuture<AppendEntryResponse>> futureEntry;
+                        while ((futureEntry = pendingAppendResponsesByTerm.get(term).pollFirstEntry()) != null) {
                             AppendEntryResponse response = new AppendEntryResponse();
                             response.setGroup(memberState.getGroup());
                             response.setIndex(futureEntry.getKey());
@@ -208,93 +536,73 @@ public class DLedgerEntryPusher {
                         pendingAppendResponsesByTerm.remove(term);
                     }
                 }
-                if (peerWaterMarksByTerm.size() > 1) {
-                    for (Long term : peerWaterMarksByTerm.keySet()) {
-                        if (term == currTerm) {
-                            continue;
-                        }
-                        logger.info("[TermChange] Will clear the watermarks for term changed from {} to {}", term, currTerm);
-                        peerWaterMarksByTerm.remove(term);
-                    }
+                if (currWaterMarks == null) {
+                    waitForRunning(MAX_IDLE_WAIT_MS);
+                    return;
                 }
-                Map<String, Long> peerWaterMarks = peerWaterMarksByTerm.get(currTerm);
-
+                long[] waterMarks = currWaterMarks.snapshot();
+                Arrays.sort(waterMarks);
                 long quorumIndex = -1;
-                for (Long index : peerWaterMarks.values()) {
-                    int num = 0;
-                    for (Long another : peerWaterMarks.values()) {
-                        if (another >= index) {
-                            num++;
-                        }
-                    }
-                    if (memberState.isQuorum(num) && index > quorumIndex) {
-                        quorumIndex = index;
+                for (int i = waterMarks.length - 1; i >= 0; i--) {
+                    if (memberState.isQuorum(waterMarks.length - i)) {
+                        quorumIndex = waterMarks[i];
+                        break;
                     }
                 }
                 dLedgerStore.updateCommittedIndex(currTerm, quorumIndex);
-                ConcurrentMap<Long, TimeoutFuture<AppendEntryResponse>> responses = pendingAppendResponsesByTerm.get(currTerm);
-                boolean needCheck = false;
+                PendingAppends responses = pendingAppendResponsesByTerm.get(currTerm);
                 int ackNum = 0;
-                if (quorumIndex >= 0) {
-                    for (Long i = quorumIndex; i >= 0; i--) {
-                        try {
-                            CompletableFuture<AppendEntryResponse> future = responses.remove(i);
-                            if (future == null) {
-                                needCheck = lastQuorumIndex != -1 && lastQuorumIndex != quorumIndex && i != lastQuorumIndex;
-                                break;
-                            } else if (!future.isDone()) {
-                                AppendEntryResponse response = new AppendEntryResponse();
-                                response.setGroup(memberState.getGroup());
-                                response.setTerm(currTerm);
-                                response.setIndex(i);
-                                response.setLeaderId(memberState.getSelfId());
-                                response.setPos(((AppendFuture) future).getPos());
-                                future.complete(response);
-                            }
-                            ackNum++;
-                        } catch (Throwable t) {
-                            logger.error("Error in ack to index={} term={}", i, currTerm, t);
-                        }
+                Map.Entry<Long, TimeoutFuture<AppendEntryResponse>> head;
+                while ((head = responses.firstEntry()) != null && head.getKey() <= quorumIndex) {
+                    if (!responses.remove(head.getKey(), head.getValue())) {
+                        continue;
                     }
-                }
-
-                if (ackNum == 0) {
-                    for (long i = quorumIndex + 1; i < Integer.MAX_VALUE; i++) {
-                        TimeoutFuture<AppendEntryResponse> future = responses.get(i);
-                        if (future == null) {
-                            break;
-                        } else if (future.isTimeOut()) {
+                    try {
+                        if (!head.getValue().isDone()) {
                             AppendEntryResponse response = new AppendEntryResponse();
                             response.setGroup(memberState.getGroup());
-                            response.setCode(DLedgerResponseCode.WAIT_QUORUM_ACK_TIMEOUT.getCode());
                             response.setTerm(currTerm);
-                            response.setIndex(i);
+                            response.setIndex(head.getKey());
                             response.setLeaderId(memberState.getSelfId());
-                            future.complete(response);
-                        } else {
-                            break;
+                            response.setPos(((AppendFuture) head.getValue()).getPos());
+                            head.getValue().complete(response);
                         }
+                        ackNum++;
+                    } catch (Throwable t) {
+                        logger.error("Error in ack to index={} term={}", head.getKey(), currTerm, t);
                     }
-                    waitForRunning(1);
+                }
+                if (ackNum > 0) {
+                    //the pullers are waiting for the new committed index
+                    pullHandler.wakeup();
+                    //drop the acked futures from the deadlines
+                    responses.firstDeadline();
                 }
 
-                if (DLedgerUtils.elapsed(lastCheckLeakTimeMs) > 1000 || needCheck) {
-                    updatePeerWaterMark(currTerm, memberState.getSelfId(), dLedgerStore.getLedgerEndIndex());
-                    for (Map.Entry<Long, TimeoutFuture<AppendEntryResponse>> futureEntry : responses.entrySet()) {
-                        if (futureEntry.getKey() < quorumIndex) {
-                            AppendEntryResponse response = new AppendEntryResponse();
-                            response.setGroup(memberState.getGroup());
-                            response.setTerm(currTerm);
-                            response.setIndex(futureEntry.getKey());
-                            response.setLeaderId(memberState.getSelfId());
-                            response.setPos(((AppendFuture) futureEntry.getValue()).getPos());
-                            futureEntry.getValue().complete(response);
-                            responses.remove(futureEntry.getKey());
-                        }
+                if (ackNum == 0) {
+                    //the waiters may register out of order, so the timeouts are checked in the order of the deadlines
+                    while ((head = responses.pollTimeOut()) != null) {
+                        AppendEntryResponse response = new AppendEntryResponse();
+                        response.setGroup(memberState.getGroup());
+                        response.setCode(DLedgerResponseCode.WAIT_QUORUM_ACK_TIMEOUT.getCode());
+                        response.setTerm(currTerm);
+                        response.setIndex(head.getKey());
+                        response.setLeaderId(memberState.getSelfId());
+                        head.getValue().complete(response);
+                    }
+                    //wait for the watermarks to move, or until the earliest deadline
+                    long waitMs = MAX_IDLE_WAIT_MS;
+                    if ((head = responses.firstDeadline()) != null) {
+                        long leftMs = head.getValue().getCreateTimeMs() + head.getValue().getTimeOutMs() - System.currentTimeMillis();
+                        waitMs = Math.max(1, Math.min(waitMs, leftMs));
                     }
+                    waitForRunning(waitMs);
+                }
+
+                if (DLedgerUtils.elapsed(lastCheckLeakTimeMs) > 1000) {
+                    updatePeerWaterMark(currTerm, memberState.getSelfId(), dLedgerStore.getFlushedIndex());
                     lastCheckLeakTimeMs = System.currentTimeMillis();
                 }
-                lastQuorumIndex = quorumIndex;
             } catch (Throwable t) {
                 DLedgerEntryPusher.logger.error("Error in {}", getName(), t);
                 DLedgerUtils.sleep(100);
@@ -307,7 +615,7 @@ public class DLedgerEntryPusher {
      * This thread will push the entry to follower(identified by peerId) and update the completed pushed index to index map.
      * Should generate a single thread for each peer.
      * The push has 4 types:
-     *   APPEND : append the entries to the follower
+     *   APPEND : append the entries to the follower, the contiguous entries are pushed in batch, bounded by count and bytes
      *   COMPARE : if the leader changes, the new leader should compare its entries to follower's
      *   TRUNCATE : if the leader finished comparing by an index, the leader will send a request to truncate the follower's ledger
      *   COMMIT: usually, the leader will attach the committed index with the APPEND request, but if the append requests are few and scattered,
@@ -327,11 +635,14 @@ public class DLedgerEntryPusher {
         private String peerId;
         private long compareIndex = -1;
         private long writeIndex = -1;
-        private int maxPendingSize = 1000;
+        private int maxPendingSize = dLedgerConfig.getMaxPendingPushNum();
         private long term = -1;
         private String leaderId = null;
         private long lastCheckLeakTimeMs = System.currentTimeMillis();
-        private ConcurrentMap<Long, Long> pendingMap = new ConcurrentHashMap<>();
+        //the first index of the pushed batch -> (send time, entry count)
+        private ConcurrentMap<Long, Pair<Long, Integer>> pendingMap = new ConcurrentHashMap<>();
+        //the number of the entries in the pending batches, limited by maxPendingSize
+        private AtomicLong pendingCount = new AtomicLong(0);
         private Quota quota = new Quota(dLedgerConfig.getPeerPushQuota());
 
         public EntryDispatcher(String peerId, Logger logger) {
@@ -385,26 +696,84 @@ public class DLedgerEntryPusher {
                 DLedgerUtils.sleep(quota.leftNow());
             }
         }
-        private void doAppendInner(long index) throws Exception {
-            DLedgerEntry entry = dLedgerStore.get(index);
-            PreConditions.check(entry != null, DLedgerResponseCode.UNKNOWN, "writeIndex=%d", index);
-            checkQuotaAndWait(entry);
-            PushEntryRequest request = buildPushRequest(entry, PushEntryRequest.Type.APPEND);
-            CompletableFuture<PushEntryResponse> responseFuture = dLedgerRpcService.push(request);
-            pendingMap.put(index, System.currentTimeMillis());
+
+        /**
+         * Build the push request of the contiguous entries starting from index.
+         * With the binary codec, the entries are shipped as the encoded bytes without decoding, which are read from
+         * the shared cache of the recent entries, or from the data files of the mmap file store for the lagging peers.
+         * The buffers are held until the release actions in releases run, which should be done once the request is sent.
+         */
+        private PushEntryRequest buildBatchPushRequest(long index, int maxCount, List<Runnable> releases) {
+            PushEntryRequest request = buildPushRequest(null, PushEntryRequest.Type.APPEND);
+            boolean useEncoded = !dLedgerConfig.isUseJsonCodec();
+            long endIndex = dLedgerStore.getLedgerEndIndex();
+            for (long i = index; i <= endIndex && request.getCount() < maxCount; i++) {
+                EntryBufferCache.CachedEntry cached = useEncoded ? entryBufferCache.get(i) : null;
+                if (cached != null) {
+                    releases.add(cached::release);
+                    checkQuotaAndWait(cached.getEntry());
+                    request.addEntry(cached.getEntry(), cached.getByteBuffer());
+                } else if (useEncoded && dLedgerStore instanceof DLedgerMmapFileStore) {
+                    EntryView view = ((DLedgerMmapFileStore) dLedgerStore).getEntryView(i);
+                    releases.add(view::release);
+                    DLedgerEntry entry = view.toHeader();
+                    checkQuotaAndWait(entry);
+                    request.addEntry(entry, view.getByteBuffer());
+                } else if (useEncoded) {
+                    ByteBuffer entryBuffer = copyEntryBuffer(i);
+                    DLedgerEntry entry = DLedgerEntryCoder.decode(entryBuffer.duplicate(), false);
+                    checkQuotaAndWait(entry);
+                    request.addEntry(entry, entryBuffer);
+                } else {
+                    DLedgerEntry entry = dLedgerStore.get(i);
+                    PreConditions.check(entry != null, DLedgerResponseCode.UNKNOWN, "writeIndex=%d", i);
+                    checkQuotaAndWait(entry);
+                    request.addEntry(entry);
+                }
+                if (request.getTotalSize() >= dLedgerConfig.getMaxBatchPushSize()) {
+                    break;
+                }
+            }
+            return request;
+        }
+
+        /**
+         * Push the contiguous entries starting from index as one request.
+         * @param index the first index to push
+         * @param maxCount the max number of entries to push
+         * @return the number of the pushed entries
+         */
+        private int doAppendInner(long index, int maxCount) throws Exception {
+            List<Runnable> releases = new ArrayList<>();
+            PushEntryRequest request;
+            CompletableFuture<PushEntryResponse> responseFuture;
+            try {
+                request = buildBatchPushRequest(index, maxCount, releases);
+                PreConditions.check(request.isBatch(), DLedgerResponseCode.UNKNOWN, "writeIndex=%d", index);
+                //the request is encoded before the push returns, so the buffers could be released right after it
+                responseFuture = dLedgerRpcService.push(request);
+            } finally {
+                for (Runnable release : releases) {
+                    release.run();
+                }
+            }
+            long lastIndex = request.getLastEntryIndex();
+            putPending(index, request.getCount());
             responseFuture.whenComplete((x, ex) -> {
                 try {
                     PreConditions.check(ex == null, DLedgerResponseCode.UNKNOWN);
                     DLedgerResponseCode responseCode = DLedgerResponseCode.valueOf(x.getCode());
                     switch (responseCode) {
                         case SUCCESS:
-                            pendingMap.remove(x.getIndex());
-                            updatePeerWaterMark(x.getTerm(), peerId, x.getIndex());
+                            removePending(index);
+                            updatePeerWaterMark(x.getTerm(), peerId, lastIndex);
                             quorumAckChecker.wakeup();
+                            wakeup();
                             break;
                         case INCONSISTENT_STATE:
                             logger.info("[Push-{}]Get INCONSISTENT_STATE when push index={} term={}", peerId, x.getIndex(), x.getTerm());
                             changeState(-1, PushEntryRequest.Type.COMPARE);
+                            wakeup();
                             break;
                         default:
                             logger.warn("[Push-{}]Get error response code {} {}", peerId, responseCode, x.baseInfo());
@@ -415,6 +784,19 @@ public class DLedgerEntryPusher {
                 }
             });
             lastPushCommitTimeMs = System.currentTimeMillis();
+            return request.getCount();
+        }
+
+        private void putPending(long index, int count) {
+            Pair<Long, Integer> old = pendingMap.put(index, new Pair<>(System.currentTimeMillis(), count));
+            pendingCount.addAndGet(old == null ? count : count - old.getValue());
+        }
+
+        private void removePending(long index) {
+            Pair<Long, Integer> old = pendingMap.remove(index);
+            if (old != null) {
+                pendingCount.addAndGet(-old.getValue());
+            }
         }
 
         private void doCommit() throws Exception {
@@ -428,10 +810,10 @@ public class DLedgerEntryPusher {
 
         private void doCheckAppendResponse() throws Exception {
             long peerWaterMark = getPeerWaterMark(term, peerId);
-            Long sendTimeMs = pendingMap.get(peerWaterMark + 1);
-            if (sendTimeMs != null && System.currentTimeMillis() - sendTimeMs > dLedgerConfig.getMaxPushTimeOutMs()) {
-                logger.warn("[Push-{}]Retry to push entry at {}", peerId, peerWaterMark + 1);
-                doAppendInner(peerWaterMark + 1);
+            Pair<Long, Integer> pending = pendingMap.get(peerWaterMark + 1);
+            if (pending != null && System.currentTimeMillis() - pending.getKey() > dLedgerConfig.getMaxPushTimeOutMs()) {
+                logger.warn("[Push-{}]Retry to push entry at {} count={}", peerId, peerWaterMark + 1, pending.getValue());
+                doAppendInner(peerWaterMark + 1, pending.getValue());
             }
         }
 
@@ -448,27 +830,40 @@ public class DLedgerEntryPusher {
                     doCheckAppendResponse();
                     break;
                 }
-                if (pendingMap.size() >= maxPendingSize || (DLedgerUtils.elapsed(lastCheckLeakTimeMs) > 1000)) {
+                if (pendingCount.get() >= maxPendingSize || (DLedgerUtils.elapsed(lastCheckLeakTimeMs) > 1000)) {
                     long peerWaterMark = getPeerWaterMark(term, peerId);
-                    for (Long index : pendingMap.keySet()) {
-                        if (index < peerWaterMark) {
-                            pendingMap.remove(index);
+                    for (Map.Entry<Long, Pair<Long, Integer>> pending : pendingMap.entrySet()) {
+                        if (pending.getKey() + pending.getValue().getValue() - 1 < peerWaterMark) {
+                            removePending(pending.getKey());
                         }
                     }
                     lastCheckLeakTimeMs = System.currentTimeMillis();
                 }
-                if (pendingMap.size() >= maxPendingSize) {
+                long pendingRoom = maxPendingSize - pendingCount.get();
+                if (pendingRoom <= 0) {
                     doCheckAppendResponse();
                     break;
                 }
-                doAppendInner(writeIndex);
-                writeIndex++;
+                writeIndex += doAppendInner(writeIndex, (int) Math.min(pendingRoom, dLedgerConfig.getMaxBatchPushNum()));
             }
         }
 
-        private void doTruncate(long truncateIndex) throws Exception {
+        /**
+         * Get the entry to probe the follower, only the header is sent if the entry has the crcs,
+         * and the follower compares it with the header of its own entry.
+         */
+        private DLedgerEntry getProbeEntry(long index) {
+            DLedgerEntry header = dLedgerStore.getEntryHeader(index);
+            PreConditions.check(header != null, DLedgerResponseCode.INTERNAL_ERROR, "index=%d", index);
+            return header.hasCrc() ? header : dLedgerStore.get(index);
+        }
+
+        /**
+         * @param matched whether the follower has the same entry, otherwise the whole entry is sent to be written
+         */
+        private void doTruncate(long truncateIndex, boolean matched) throws Exception {
             PreConditions.check(type.get() == PushEntryRequest.Type.TRUNCATE, DLedgerResponseCode.UNKNOWN);
-            DLedgerEntry truncateEntry = dLedgerStore.get(truncateIndex);
+            DLedgerEntry truncateEntry = matched ? getProbeEntry(truncateIndex) : dLedgerStore.get(truncateIndex);
             PreConditions.check(truncateEntry != null, DLedgerResponseCode.UNKNOWN);
             logger.info("[Push-{}]Will push data to truncate truncateIndex={} pos={}", peerId, truncateIndex, truncateEntry.getPos());
             PushEntryRequest truncateRequest = buildPushRequest(truncateEntry, PushEntryRequest.Type.TRUNCATE);
@@ -491,7 +886,9 @@ public class DLedgerEntryPusher {
                 case COMPARE:
                     if (this.type.compareAndSet(PushEntryRequest.Type.APPEND, PushEntryRequest.Type.COMPARE)) {
                         compareIndex = -1;
-                        pendingMap.clear();
+                        for (Long pendingIndex : pendingMap.keySet()) {
+                            removePending(pendingIndex);
+                        }
                     }
                     break;
                 case TRUNCATE:
@@ -524,8 +921,7 @@ public class DLedgerEntryPusher {
                     compareIndex = dLedgerStore.getLedgerEndIndex();
                 }
 
-                DLedgerEntry entry = dLedgerStore.get(compareIndex);
-                PreConditions.check(entry != null, DLedgerResponseCode.INTERNAL_ERROR, "compareIndex=%d", compareIndex);
+                DLedgerEntry entry = getProbeEntry(compareIndex);
                 PushEntryRequest request = buildPushRequest(entry, PushEntryRequest.Type.COMPARE);
                 CompletableFuture<PushEntryResponse> responseFuture = dLedgerRpcService.push(request);
                 PushEntryResponse response = responseFuture.get(3, TimeUnit.SECONDS);
@@ -567,10 +963,14 @@ public class DLedgerEntryPusher {
                      This happened frequently. For the compared index is usually starting from the end index of the leader.
                      */
                     compareIndex = response.getEndIndex();
-                } else {
+                } else if (response.getConflictTerm() != -1) {
                     /*
                       Compare failed and the compared index is in the range of follower's entries.
+                      Skip the conflicted terms by the hints of the follower, instead of comparing one by one.
                      */
+                    compareIndex = nextCompareIndex(compareIndex, response.getConflictTerm(), response.getConflictIndex());
+                    logger.info("[Push-{}][DoCompare] skip to compareIndex={} by conflictTerm={} conflictIndex={}", peerId, compareIndex, response.getConflictTerm(), response.getConflictIndex());
+                } else {
                     compareIndex--;
                 }
                 /*
@@ -584,7 +984,7 @@ public class DLedgerEntryPusher {
                  */
                 if (truncateIndex != -1) {
                     changeState(truncateIndex, PushEntryRequest.Type.TRUNCATE);
-                    doTruncate(truncateIndex);
+                    doTruncate(truncateIndex, response.getCode() == DLedgerResponseCode.SUCCESS.getCode());
                     break;
                 }
             }
@@ -594,7 +994,7 @@ public class DLedgerEntryPusher {
         public void doWork() {
             try {
                 if (!checkAndFreshState()) {
-                    waitForRunning(1);
+                    waitForRunning(MAX_IDLE_WAIT_MS);
                     return;
                 }
 
@@ -603,7 +1003,8 @@ public class DLedgerEntryPusher {
                 } else {
                     doCompare();
                 }
-                waitForRunning(1);
+                //woken up by the new entries and the push responses
+                waitForRunning(MAX_IDLE_WAIT_MS);
             } catch (Throwable t) {
                 DLedgerEntryPusher.logger.error("[Push-{}]Error in {} writeIndex={} compareIndex={}", peerId, getName(), writeIndex, compareIndex, t);
                 DLedgerUtils.sleep(500);
@@ -613,18 +1014,133 @@ public class DLedgerEntryPusher {
 
     /**
      * This thread will be activated by the follower.
-     * Accept the push request and order it by the index, then append to ledger store one by one.
+     * Accept the push request and order it by the (first) index, then append the contiguous ones to ledger store in one batch.
      *
      */
     private class EntryHandler extends ShutdownAbleThread {
 
+        private static final int MAX_WRITE_REQUEST_SLOTS = 1 << 22;
+
         private long lastCheckFastForwardTimeMs = System.currentTimeMillis();
 
-        ConcurrentMap<Long, Pair<PushEntryRequest, CompletableFuture<PushEntryResponse>>> writeRequestMap = new ConcurrentHashMap<>();
+        //the ring of the append requests, addressed by the first index, covering the in-flight window of the leader
+        private final AtomicReferenceArray<Pair<PushEntryRequest, CompletableFuture<PushEntryResponse>>> writeRequests;
+        private final int writeRequestMask;
+        private final AtomicInteger writeRequestNum = new AtomicInteger(0);
+        //the lowest and the highest first index of the queued requests, the abnormal check only scans the slots between them
+        private final AtomicLong minWriteIndex = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong maxWriteIndex = new AtomicLong(-1);
         BlockingQueue<Pair<PushEntryRequest, CompletableFuture<PushEntryResponse>>> compareOrTruncateRequests = new ArrayBlockingQueue<Pair<PushEntryRequest, CompletableFuture<PushEntryResponse>>>(100);
+        //the appended requests waiting for their entries to be flushed, only accessed by the handler thread
+        private final ArrayDeque<Pair<PushEntryRequest, CompletableFuture<PushEntryResponse>>> flushWaitingAcks = new ArrayDeque<>();
 
         public EntryHandler(Logger logger) {
             super("EntryHandler", logger);
+            long window = (long) dLedgerConfig.getMaxPendingPushNum() * dLedgerConfig.getMaxBatchPushNum();
+            int slots = 1;
+            while (slots < window && slots < MAX_WRITE_REQUEST_SLOTS) {
+                slots <<= 1;
+            }
+            writeRequests = new AtomicReferenceArray<>(slots);
+            writeRequestMask = slots - 1;
+        }
+
+        private int slotOf(long index) {
+            return (int) (index & writeRequestMask);
+        }
+
+        /**
+         * Ack the appended request once its entries are flushed, the entries count once appended in the ASYNC_FLUSH mode.
+         */
+        private void ackOnFlushed(Pair<PushEntryRequest, CompletableFuture<PushEntryResponse>> pair) {
+            if (pair.getKey().getLastEntryIndex() <= dLedgerStore.getFlushedIndex()) {
+                pair.getValue().complete(buildResponse(pair.getKey(), DLedgerResponseCode.SUCCESS.getCode()));
+            } else {
+                flushWaitingAcks.add(pair);
+            }
+        }
+
+        private void checkFlushWaitingAcks() {
+            long flushedIndex = dLedgerStore.getFlushedIndex();
+            Pair<PushEntryRequest, CompletableFuture<PushEntryResponse>> pair;
+            while ((pair = flushWaitingAcks.peek()) != null && pair.getKey().getLastEntryIndex() <= flushedIndex) {
+                flushWaitingAcks.poll();
+                pair.getValue().complete(buildResponse(pair.getKey(), DLedgerResponseCode.SUCCESS.getCode()));
+            }
+        }
+
+        /**
+         * The entries waiting for the flush may be truncated, or the leader has changed, let the leader push them again.
+         */
+        private void failFlushWaitingAcks() {
+            Pair<PushEntryRequest, CompletableFuture<PushEntryResponse>> pair;
+            while ((pair = flushWaitingAcks.poll()) != null) {
+                pair.getValue().complete(buildResponse(pair.getKey(), DLedgerResponseCode.INCONSISTENT_STATE.getCode()));
+            }
+        }
+
+        private void removeWriteRequest(int slot, Pair<PushEntryRequest, CompletableFuture<PushEntryResponse>> pair) {
+            if (writeRequests.compareAndSet(slot, pair, null)) {
+                writeRequestNum.decrementAndGet();
+            }
+        }
+
+        private void recordWriteIndex(long minIndex, long maxIndex) {
+            long index;
+            while ((index = minWriteIndex.get()) > minIndex) {
+                if (minWriteIndex.compareAndSet(index, minIndex)) {
+                    break;
+                }
+            }
+            while ((index = maxWriteIndex.get()) < maxIndex) {
+                if (maxWriteIndex.compareAndSet(index, maxIndex)) {
+                    break;
+                }
+            }
+        }
+
+        private void clearWriteRequests() {
+            //reset before clearing, the requests queued in between are recorded again
+            minWriteIndex.set(Long.MAX_VALUE);
+            maxWriteIndex.set(-1);
+            for (int i = 0; i < writeRequests.length() && writeRequestNum.get() > 0; i++) {
+                if (writeRequests.getAndSet(i, null) != null) {
+                    writeRequestNum.decrementAndGet();
+                }
+            }
+        }
+
+        /**
+         * Poll the contiguous append requests from the next index, which could be appended in one batch.
+         */
+        private List<Pair<PushEntryRequest, CompletableFuture<PushEntryResponse>>> pollWriteRequests(long nextIndex) {
+            List<Pair<PushEntryRequest, CompletableFuture<PushEntryResponse>>> batch = new ArrayList<>();
+            int entryNum = 0;
+            while (true) {
+                int slot = slotOf(nextIndex);
+                Pair<PushEntryRequest, CompletableFuture<PushEntryResponse>> pair = writeRequests.get(slot);
+                if (pair == null || pair.getKey().getFirstEntryIndex() != nextIndex) {
+                    break;
+                }
+                PushEntryRequest request = pair.getKey();
+                if (!batch.isEmpty()) {
+                    PushEntryRequest first = batch.get(0).getKey();
+                    if (request.getTerm() != first.getTerm()
+                        || !Objects.equals(request.getLeaderId(), first.getLeaderId())
+                        || request.isEncoded() != first.isEncoded()
+                        || entryNum + request.getCount() > dLedgerConfig.getMaxBatchAppendNum()) {
+                        break;
+                    }
+                }
+                if (!writeRequests.compareAndSet(slot, pair, null)) {
+                    break;
+                }
+                writeRequestNum.decrementAndGet();
+                batch.add(pair);
+                entryNum += request.getCount();
+                nextIndex = request.getLastEntryIndex() + 1;
+            }
+            return batch;
         }
 
         public CompletableFuture<PushEntryResponse> handlePush(PushEntryRequest request) throws Exception {
@@ -632,11 +1148,20 @@ public class DLedgerEntryPusher {
             CompletableFuture<PushEntryResponse> future = new TimeoutFuture<>(1000);
             switch (request.getType()) {
                 case APPEND:
-                    PreConditions.check(request.getEntry() != null, DLedgerResponseCode.UNEXPECTED_ARGUMENT);
-                    long index = request.getEntry().getIndex();
-                    Pair<PushEntryRequest, CompletableFuture<PushEntryResponse>> old = writeRequestMap.putIfAbsent(index, new Pair<>(request, future));
-                    if (old != null) {
-                        logger.warn("[MONITOR]The index {} has already existed with {} and curr is {}", index, old.getKey().baseInfo(), request.baseInfo());
+                    PreConditions.check(request.isBatch() || request.getEntry() != null, DLedgerResponseCode.UNEXPECTED_ARGUMENT);
+                    long index = request.getFirstEntryIndex();
+                    if (index - dLedgerStore.getLedgerEndIndex() > writeRequests.length()) {
+                        logger.warn("[MONITOR]The index {} is out of the window from ledgerEndIndex={}", index, dLedgerStore.getLedgerEndIndex());
+                        future.complete(buildResponse(request, DLedgerResponseCode.INDEX_OUT_OF_RANGE.getCode()));
+                        break;
+                    }
+                    int slot = slotOf(index);
+                    if (writeRequests.compareAndSet(slot, null, new Pair<>(request, future))) {
+                        writeRequestNum.incrementAndGet();
+                        recordWriteIndex(index, index);
+                    } else {
+                        Pair<PushEntryRequest, CompletableFuture<PushEntryResponse>> old = writeRequests.get(slot);
+                        logger.warn("[MONITOR]The index {} has already existed with {} and curr is {}", index, old == null ? null : old.getKey().baseInfo(), request.baseInfo());
                         future.complete(buildResponse(request, DLedgerResponseCode.REPEATED_PUSH.getCode()));
                     }
                     break;
@@ -646,7 +1171,7 @@ public class DLedgerEntryPusher {
                 case COMPARE:
                 case TRUNCATE:
                     PreConditions.check(request.getEntry() != null, DLedgerResponseCode.UNEXPECTED_ARGUMENT);
-                    writeRequestMap.clear();
+                    clearWriteRequests();
                     compareOrTruncateRequests.put(new Pair<>(request, future));
                     break;
                 default:
@@ -654,6 +1179,7 @@ public class DLedgerEntryPusher {
                     future.complete(buildResponse(request, DLedgerResponseCode.UNEXPECTED_ARGUMENT.getCode()));
                     break;
             }
+            wakeup();
             return future;
         }
 
@@ -663,24 +1189,65 @@ public class DLedgerEntryPusher {
             response.setCode(code);
             response.setTerm(request.getTerm());
             if (request.getType() != PushEntryRequest.Type.COMMIT) {
-                response.setIndex(request.getEntry().getIndex());
+                response.setIndex(request.getFirstEntryIndex());
+                response.setCount(request.getCount());
             }
             response.setBeginIndex(dLedgerStore.getLedgerBeginIndex());
             response.setEndIndex(dLedgerStore.getLedgerEndIndex());
             return response;
         }
 
-        private void handleDoAppend(long writeIndex, PushEntryRequest request,
-            CompletableFuture<PushEntryResponse> future) {
+        private List<DLedgerEntry> entriesOf(PushEntryRequest request) {
+            if (!request.isBatch()) {
+                return Collections.singletonList(request.getEntry());
+            }
+            if (!request.isEncoded()) {
+                return request.getBatchEntry();
+            }
+            //the bodies are absent, decode them from the encoded bytes
+            List<DLedgerEntry> entries = new ArrayList<>(request.getCount());
+            for (ByteBuffer entryBuffer : request.getBatchEntryBuffer()) {
+                entries.add(DLedgerEntryCoder.decode(entryBuffer.duplicate()));
+            }
+            return entries;
+        }
+
+        private void handleDoAppend(long writeIndex, List<Pair<PushEntryRequest, CompletableFuture<PushEntryResponse>>> batch) {
+            PushEntryRequest first = batch.get(0).getKey();
             try {
-                PreConditions.check(writeIndex == request.getEntry().getIndex(), DLedgerResponseCode.INCONSISTENT_STATE);
-                DLedgerEntry entry = dLedgerStore.appendAsFollower(request.getEntry(), request.getTerm(), request.getLeaderId());
-                PreConditions.check(entry.getIndex() == writeIndex, DLedgerResponseCode.INCONSISTENT_STATE);
-                future.complete(buildResponse(request, DLedgerResponseCode.SUCCESS.getCode()));
-                dLedgerStore.updateCommittedIndex(request.getTerm(), request.getCommitIndex());
+                PreConditions.check(writeIndex == first.getFirstEntryIndex(), DLedgerResponseCode.INCONSISTENT_STATE);
+                if (first.isEncoded()) {
+                    //write the encoded bytes directly, without decoding and encoding the bodies again
+                    List<ByteBuffer> entryBuffers = new ArrayList<>();
+                    for (Pair<PushEntryRequest, CompletableFuture<PushEntryResponse>> pair : batch) {
+                        entryBuffers.addAll(pair.getKey().getBatchEntryBuffer());
+                    }
+                    dLedgerStore.appendAsFollower(entryBuffers, first.getTerm(), first.getLeaderId());
+                } else {
+                    for (Pair<PushEntryRequest, CompletableFuture<PushEntryResponse>> pair : batch) {
+                        for (DLedgerEntry entry : entriesOf(pair.getKey())) {
+                            DLedgerEntry appended = dLedgerStore.appendAsFollower(entry, first.getTerm(), first.getLeaderId());
+                            PreConditions.check(appended.getIndex() == writeIndex, DLedgerResponseCode.INCONSISTENT_STATE);
+                            writeIndex++;
+                        }
+                    }
+                }
             } catch (Throwable t) {
                 logger.error("[HandleDoWrite] writeIndex={}", writeIndex, t);
-                future.complete(buildResponse(request, DLedgerResponseCode.INCONSISTENT_STATE.getCode()));
+            }
+            //the batch may be appended partially, only ack the requests whose entries have all been appended
+            long endIndex = dLedgerStore.getLedgerEndIndex();
+            PushEntryRequest lastAppended = null;
+            for (Pair<PushEntryRequest, CompletableFuture<PushEntryResponse>> pair : batch) {
+                if (pair.getKey().getLastEntryIndex() <= endIndex) {
+                    ackOnFlushed(pair);
+                    lastAppended = pair.getKey();
+                } else {
+                    pair.getValue().complete(buildResponse(pair.getKey(), DLedgerResponseCode.INCONSISTENT_STATE.getCode()));
+                }
+            }
+            if (lastAppended != null) {
+                dLedgerStore.updateCommittedIndex(lastAppended.getTerm(), lastAppended.getCommitIndex());
             }
         }
 
@@ -689,8 +1256,16 @@ public class DLedgerEntryPusher {
             try {
                 PreConditions.check(compareIndex == request.getEntry().getIndex(), DLedgerResponseCode.UNKNOWN);
                 PreConditions.check(request.getType() == PushEntryRequest.Type.COMPARE, DLedgerResponseCode.UNKNOWN);
-                DLedgerEntry local = dLedgerStore.get(compareIndex);
-                PreConditions.check(request.getEntry().equals(local), DLedgerResponseCode.INCONSISTENT_STATE);
+                DLedgerEntry local = request.getEntry().getBody() == null ? dLedgerStore.getEntryHeader(compareIndex) : dLedgerStore.get(compareIndex);
+                if (local != null && !request.getEntry().matches(local)) {
+                    //tell the leader where the conflicted term begins, so it could skip the whole term
+                    PushEntryResponse response = buildResponse(request, DLedgerResponseCode.INCONSISTENT_STATE.getCode());
+                    response.setConflictTerm(local.getTerm());
+                    response.setConflictIndex(firstIndexOfTerm(local.getTerm(), compareIndex));
+                    future.complete(response);
+                    return future;
+                }
+                PreConditions.check(request.getEntry().matches(local), DLedgerResponseCode.INCONSISTENT_STATE);
                 future.complete(buildResponse(request, DLedgerResponseCode.SUCCESS.getCode()));
             } catch (Throwable t) {
                 logger.error("[HandleDoCompare] compareIndex={}", compareIndex, t);
@@ -730,6 +1305,26 @@ public class DLedgerEntryPusher {
             return future;
         }
 
+        /**
+         * Check the pushed entries are the same as the appended ones, by the headers if they carry the crcs.
+         */
+        private void checkAppended(PushEntryRequest request) {
+            List<DLedgerEntry> entries = request.isBatch() ? request.getBatchEntry() : Collections.singletonList(request.getEntry());
+            for (int i = 0; i < entries.size(); i++) {
+                DLedgerEntry entry = entries.get(i);
+                DLedgerEntry local;
+                if (entry.hasCrc()) {
+                    local = dLedgerStore.getEntryHeader(entry.getIndex());
+                } else {
+                    if (entry.getBody() == null) {
+                        entry = DLedgerEntryCoder.decode(request.getBatchEntryBuffer().get(i).duplicate());
+                    }
+                    local = dLedgerStore.get(entry.getIndex());
+                }
+                PreConditions.check(entry.matches(local), DLedgerResponseCode.INCONSISTENT_STATE, "index=%d", entry.getIndex());
+            }
+        }
+
         /**
          * The leader does push entries to follower, and record the pushed index. But in the following conditions, the push may get stopped.
          *   * If the follower is abnormally shutdown, its ledger end index may be smaller than before. At this time, the leader may push fast-forward entries, and retry all the time.
@@ -741,30 +1336,62 @@ public class DLedgerEntryPusher {
                 return;
             }
             lastCheckFastForwardTimeMs  = System.currentTimeMillis();
-            if (writeRequestMap.isEmpty()) {
+            if (writeRequestNum.get() == 0) {
                 return;
             }
+            //the min index is taken away, and recorded again with the requests left after the scan,
+            //so each scan covers the requests queued since the former one
+            long minIndex = minWriteIndex.getAndSet(Long.MAX_VALUE);
+            long remainingMinIndex = minIndex;
+            try {
+                remainingMinIndex = checkAbnormalFuture(endIndex, minIndex, maxWriteIndex.get());
+            } finally {
+                recordWriteIndex(remainingMinIndex, -1);
+            }
+        }
+
+        /**
+         * Scan the slots of the indexes from min to max, or the whole ring if the window is larger than it.
+         *
+         * @return the min index of the requests left in the ring
+         */
+        private long checkAbnormalFuture(long endIndex, long minIndex, long maxIndex) {
+            long remainingMinIndex = Long.MAX_VALUE;
             long minFastForwardIndex = Long.MAX_VALUE;
-            for (Pair<PushEntryRequest, CompletableFuture<PushEntryResponse>> pair : writeRequestMap.values()) {
-                long index = pair.getKey().getEntry().getIndex();
+            long slotNum = minIndex <= maxIndex ? Math.min(maxIndex - minIndex + 1, writeRequests.length()) : 0;
+            for (long i = 0; i < slotNum; i++) {
+                int slot = slotOf(minIndex + i);
+                Pair<PushEntryRequest, CompletableFuture<PushEntryResponse>> pair = writeRequests.get(slot);
+                if (pair == null) {
+                    continue;
+                }
+                long index = pair.getKey().getFirstEntryIndex();
+                long lastIndex = pair.getKey().getLastEntryIndex();
                 //Fall behind
-                if (index <= endIndex) {
+                if (lastIndex <= endIndex) {
                     try {
-                        DLedgerEntry local = dLedgerStore.get(index);
-                        PreConditions.check(pair.getKey().getEntry().equals(local), DLedgerResponseCode.INCONSISTENT_STATE);
-                        pair.getValue().complete(buildResponse(pair.getKey(), DLedgerResponseCode.SUCCESS.getCode()));
+                        checkAppended(pair.getKey());
+                        ackOnFlushed(pair);
                         logger.warn("[PushFallBehind]The leader pushed an entry index={} smaller than current ledgerEndIndex={}, maybe the last ack is missed", index, endIndex);
                     } catch (Throwable t) {
                         logger.error("[PushFallBehind]The leader pushed an entry index={} smaller than current ledgerEndIndex={}, maybe the last ack is missed", index, endIndex, t);
                         pair.getValue().complete(buildResponse(pair.getKey(), DLedgerResponseCode.INCONSISTENT_STATE.getCode()));
                     }
-                    writeRequestMap.remove(index);
+                    removeWriteRequest(slot, pair);
+                    continue;
+                }
+                //Partially overlapped, the batch cannot be appended as a whole
+                if (index <= endIndex) {
+                    logger.warn("[PushOverlap]The leader pushed entries {}-{} overlapped with current ledgerEndIndex={}", index, lastIndex, endIndex);
+                    pair.getValue().complete(buildResponse(pair.getKey(), DLedgerResponseCode.INCONSISTENT_STATE.getCode()));
+                    removeWriteRequest(slot, pair);
                     continue;
                 }
+                remainingMinIndex = Math.min(remainingMinIndex, index);
                 //Just OK
                 if (index ==  endIndex + 1) {
-                    //The next entry is coming, just return
-                    return;
+                    //The next entry is coming, just return, the requests not scanned have larger indexes
+                    return remainingMinIndex;
                 }
                 //Fast forward
                 TimeoutFuture<PushEntryResponse> future  = (TimeoutFuture<PushEntryResponse>) pair.getValue();
@@ -776,28 +1403,32 @@ public class DLedgerEntryPusher {
                 }
             }
             if (minFastForwardIndex == Long.MAX_VALUE) {
-                return;
+                return remainingMinIndex;
             }
-            Pair<PushEntryRequest, CompletableFuture<PushEntryResponse>> pair = writeRequestMap.get(minFastForwardIndex);
-            if (pair == null) {
-                return;
+            Pair<PushEntryRequest, CompletableFuture<PushEntryResponse>> pair = writeRequests.get(slotOf(minFastForwardIndex));
+            if (pair == null || pair.getKey().getFirstEntryIndex() != minFastForwardIndex) {
+                return remainingMinIndex;
             }
             logger.warn("[PushFastForward] ledgerEndIndex={} entryIndex={}", endIndex, minFastForwardIndex);
             pair.getValue().complete(buildResponse(pair.getKey(), DLedgerResponseCode.INCONSISTENT_STATE.getCode()));
+            return remainingMinIndex;
         }
 
         @Override
         public void doWork() {
             try {
                 if (!memberState.isFollower()) {
-                    waitForRunning(1);
+                    failFlushWaitingAcks();
+                    waitForRunning(MAX_IDLE_WAIT_MS);
                     return;
                 }
+                checkFlushWaitingAcks();
                 if (compareOrTruncateRequests.peek() != null) {
                     Pair<PushEntryRequest, CompletableFuture<PushEntryResponse>> pair = compareOrTruncateRequests.poll();
                     PreConditions.check(pair != null, DLedgerResponseCode.UNKNOWN);
                     switch (pair.getKey().getType()) {
                         case TRUNCATE:
+                            failFlushWaitingAcks();
                             handleDoTruncate(pair.getKey().getEntry().getIndex(), pair.getKey(), pair.getValue());
                             break;
                         case COMPARE:
@@ -811,19 +1442,177 @@ public class DLedgerEntryPusher {
                     }
                 } else {
                     long nextIndex = dLedgerStore.getLedgerEndIndex() + 1;
-                    Pair<PushEntryRequest, CompletableFuture<PushEntryResponse>> pair = writeRequestMap.remove(nextIndex);
-                    if (pair == null) {
+                    List<Pair<PushEntryRequest, CompletableFuture<PushEntryResponse>>> batch = pollWriteRequests(nextIndex);
+                    if (batch.isEmpty()) {
                         checkAbnormalFuture(dLedgerStore.getLedgerEndIndex());
-                        waitForRunning(1);
+                        //woken up by the new push requests
+                        waitForRunning(MAX_IDLE_WAIT_MS);
                         return;
                     }
-                    PushEntryRequest request = pair.getKey();
-                    handleDoAppend(nextIndex, request, pair.getValue());
+                    handleDoAppend(nextIndex, batch);
+                }
+            } catch (Throwable t) {
+                DLedgerEntryPusher.logger.error("Error in {}", getName(), t);
+                DLedgerUtils.sleep(100);
+            }
+        }
+    }
+
+    /**
+     * This thread will be activated by the leader in the pull mode.
+     * The followers pull the entries after their ledger end, and the pull acks the entry before the begin index
+     * if its term matches the leader's. If there is nothing new, the pull is held until there are new entries,
+     * the committed index moves, or it has waited for maxWaitMs, so that the followers do not need to poll.
+     */
+    private class PullHandler extends ShutdownAbleThread {
+
+        private final ConcurrentLinkedQueue<HeldPull> heldPulls = new ConcurrentLinkedQueue<>();
+
+        public PullHandler(Logger logger) {
+            super("PullHandler", logger);
+        }
+
+        public CompletableFuture<PullEntriesResponse> handlePull(PullEntriesRequest request) {
+            PreConditions.check(memberState.isLeader(), DLedgerResponseCode.NOT_LEADER);
+            PreConditions.check(request.getTerm() == memberState.currTerm(), DLedgerResponseCode.INCONSISTENT_TERM, "term %d != %d", request.getTerm(), memberState.currTerm());
+            PreConditions.check(peerOrdinals.containsKey(request.getNodeId()), DLedgerResponseCode.UNKNOWN_MEMBER, "nodeId=%s", request.getNodeId());
+            long maxWaitMs = Math.max(0, Math.min(request.getMaxWaitMs(), dLedgerConfig.getMaxPullWaitMs()));
+            HeldPull heldPull = new HeldPull(request, new TimeoutFuture<>(maxWaitMs), dLedgerStore.getCommittedIndex());
+            if (!tryCompletePull(heldPull)) {
+                heldPulls.offer(heldPull);
+                wakeup();
+            }
+            return heldPull.future;
+        }
+
+        private PullEntriesResponse buildResponse(PullEntriesRequest request, long term, int code) {
+            PullEntriesResponse response = new PullEntriesResponse();
+            response.setGroup(memberState.getGroup());
+            response.setCode(code);
+            response.setTerm(term);
+            response.setLeaderId(memberState.getSelfId());
+            response.setCommitIndex(dLedgerStore.getCommittedIndex());
+            response.setBeginIndex(dLedgerStore.getLedgerBeginIndex());
+            response.setEndIndex(dLedgerStore.getLedgerEndIndex());
+            return response;
+        }
+
+        /**
+         * Try to complete the pull.
+         * @return false if there is nothing to respond yet and the pull should be held
+         */
+        private boolean tryCompletePull(HeldPull heldPull) {
+            PullEntriesRequest request = heldPull.request;
+            long term = memberState.currTerm();
+            if (!memberState.isLeader() || request.getTerm() != term) {
+                heldPull.future.complete(buildResponse(request, term, DLedgerResponseCode.NOT_LEADER.getCode()));
+                return true;
+            }
+            long ledgerBeginIndex = dLedgerStore.getLedgerBeginIndex();
+            long ledgerEndIndex = dLedgerStore.getLedgerEndIndex();
+            long beginIndex = request.getBeginIndex() == null ? ledgerEndIndex + 1 : request.getBeginIndex();
+            long prevIndex = beginIndex - 1;
+            if (prevIndex > ledgerEndIndex) {
+                heldPull.future.complete(buildResponse(request, term, DLedgerResponseCode.INCONSISTENT_STATE.getCode()));
+                return true;
+            }
+            //the entry before the begin index cannot be verified if it has been deleted by the leader
+            if (prevIndex >= 0 && prevIndex >= ledgerBeginIndex) {
+                DLedgerEntry prevEntry = dLedgerStore.getMeta(prevIndex);
+                if (prevEntry == null || prevEntry.getTerm() != request.getPrevTerm()) {
+                    PullEntriesResponse response = buildResponse(request, term, DLedgerResponseCode.INCONSISTENT_STATE.getCode());
+                    if (request.getPrevTerm() != -1) {
+                        //the puller's entries before it have no greater term, skip the leader's entries that could not match
+                        response.setProbeIndex(nextCompareIndex(prevIndex, request.getPrevTerm(), -1) + 1);
+                    }
+                    logger.info("[Pull-{}]The entry at {} does not match, prevTerm={} local={} probeIndex={}", request.getNodeId(), prevIndex, request.getPrevTerm(), prevEntry == null ? null : prevEntry.getTerm(), response.getProbeIndex());
+                    heldPull.future.complete(response);
+                    return true;
+                }
+                if (prevIndex > getPeerWaterMark(term, request.getNodeId())) {
+                    updatePeerWaterMark(term, request.getNodeId(), prevIndex);
+                    quorumAckChecker.wakeup();
+                }
+            }
+            long fromIndex = Math.max(beginIndex, ledgerBeginIndex);
+            if (fromIndex > ledgerEndIndex) {
+                if (heldPull.future.isTimeOut() || dLedgerStore.getCommittedIndex() > heldPull.commitIndex) {
+                    heldPull.future.complete(buildResponse(request, term, DLedgerResponseCode.SUCCESS.getCode()));
+                    return true;
+                }
+                return false;
+            }
+            PullEntriesResponse response = buildResponse(request, term, DLedgerResponseCode.SUCCESS.getCode());
+            int maxCount = request.getMaxCount() > 0 ? Math.min(request.getMaxCount(), dLedgerConfig.getMaxPullNum()) : dLedgerConfig.getMaxPullNum();
+            int maxSize = request.getMaxSize() > 0 ? Math.min(request.getMaxSize(), dLedgerConfig.getMaxPullSize()) : dLedgerConfig.getMaxPullSize();
+            boolean useEncoded = !dLedgerConfig.isUseJsonCodec();
+            long totalSize = 0;
+            long i = fromIndex;
+            while (i <= ledgerEndIndex && response.getEntries().size() < maxCount && totalSize < maxSize) {
+                int leftCount = maxCount - response.getEntries().size();
+                int leftSize = (int) (maxSize - totalSize);
+                if (useEncoded) {
+                    //the response is encoded after the future completes, so the bytes are copied out of the cache or the mapped file
+                    for (ByteBuffer entryBuffer : copyEntryBuffers(i, leftCount, leftSize)) {
+                        response.addEntry(DLedgerEntryCoder.decode(entryBuffer.duplicate(), false), entryBuffer);
+                        totalSize += entryBuffer.remaining();
+                        i++;
+                    }
+                } else {
+                    List<DLedgerEntry> entries = dLedgerStore.get(i, leftCount, leftSize);
+                    PreConditions.check(!entries.isEmpty(), DLedgerResponseCode.UNKNOWN, "pullIndex=%d", i);
+                    for (DLedgerEntry entry : entries) {
+                        response.getEntries().add(entry);
+                        totalSize += entry.getSize();
+                        i++;
+                    }
+                }
+            }
+            heldPull.future.complete(response);
+            return true;
+        }
+
+        @Override
+        public void doWork() {
+            try {
+                long waitMs = MAX_IDLE_WAIT_MS;
+                Iterator<HeldPull> iterator = heldPulls.iterator();
+                while (iterator.hasNext()) {
+                    HeldPull heldPull = iterator.next();
+                    boolean done;
+                    try {
+                        done = tryCompletePull(heldPull);
+                    } catch (Throwable t) {
+                        logger.error("[Pull-{}]Error in completing the pull {}", heldPull.request.getNodeId(), heldPull.request.baseInfo(), t);
+                        heldPull.future.complete(buildResponse(heldPull.request, memberState.currTerm(), DLedgerResponseCode.UNKNOWN.getCode()));
+                        done = true;
+                    }
+                    if (done) {
+                        iterator.remove();
+                    } else {
+                        long leftMs = heldPull.future.getCreateTimeMs() + heldPull.future.getTimeOutMs() - System.currentTimeMillis();
+                        waitMs = Math.max(1, Math.min(waitMs, leftMs));
+                    }
                 }
+                //woken up by the new entries, the new committed index and the new pulls
+                waitForRunning(waitMs);
             } catch (Throwable t) {
                 DLedgerEntryPusher.logger.error("Error in {}", getName(), t);
                 DLedgerUtils.sleep(100);
             }
         }
     }
+
+    private static class HeldPull {
+        private final PullEntriesRequest request;
+        private final TimeoutFuture<PullEntriesResponse> future;
+        //the committed index when the pull arrives, the puller is told once it moves
+        private final long commitIndex;
+
+        HeldPull(PullEntriesRequest request, TimeoutFuture<PullEntriesResponse> future, long commitIndex) {
+            this.request = request;
+            this.future = future;
+            this.commitIndex = commitIndex;
+        }
+    }
 }
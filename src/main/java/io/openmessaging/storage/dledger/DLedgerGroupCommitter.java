@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.openmessaging.storage.dledger;
+
+import io.openmessaging.storage.dledger.entry.DLedgerEntry;
+import io.openmessaging.storage.dledger.store.DLedgerStore;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Group commit for the appends on the leader.
+ * The concurrent appends are queued, and whoever holds the commit lock drains the queue
+ * and writes all the queued entries to the store by one batch append.
+ */
+public class DLedgerGroupCommitter {
+
+    private final DLedgerConfig dLedgerConfig;
+    private final DLedgerStore dLedgerStore;
+    private final EntryBufferCache entryBufferCache;
+
+    private final ConcurrentLinkedQueue<PendingAppend> pendingAppends = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock commitLock = new ReentrantLock();
+
+    public DLedgerGroupCommitter(DLedgerConfig dLedgerConfig, DLedgerStore dLedgerStore,
+        EntryBufferCache entryBufferCache) {
+        this.dLedgerConfig = dLedgerConfig;
+        this.dLedgerStore = dLedgerStore;
+        this.entryBufferCache = entryBufferCache;
+    }
+
+    public DLedgerEntry append(DLedgerEntry entry) {
+        PendingAppend pendingAppend = new PendingAppend(entry);
+        pendingAppends.offer(pendingAppend);
+        commitLock.lock();
+        try {
+            //the entry may have been committed by the former lock holder
+            while (!pendingAppend.done) {
+                commitBatch();
+            }
+        } finally {
+            commitLock.unlock();
+        }
+        Throwable error = pendingAppend.error;
+        if (error instanceof Error) {
+            throw (Error) error;
+        } else if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        } else if (error != null) {
+            throw new IllegalStateException(error);
+        }
+        return entry;
+    }
+
+    private void commitBatch() {
+        List<PendingAppend> batch = new ArrayList<>();
+        List<DLedgerEntry> entries = new ArrayList<>();
+        //every polled waiter should be done whatever is thrown, or its owner would wait for the empty queue forever
+        Throwable error = null;
+        try {
+            long totalSize = 0;
+            PendingAppend pendingAppend;
+            while (batch.size() < dLedgerConfig.getMaxBatchAppendNum()
+                && (batch.isEmpty() || totalSize < dLedgerConfig.getMaxBatchAppendSize())
+                && (pendingAppend = pendingAppends.poll()) != null) {
+                batch.add(pendingAppend);
+                entries.add(pendingAppend.entry);
+                totalSize += pendingAppend.entry.computSizeInBytes();
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            dLedgerStore.appendAsLeader(entries);
+        } catch (Throwable t) {
+            error = t;
+        }
+        if (error == null) {
+            //the entries are put by the lock holder only, before the dispatchers are woken up to push them,
+            //and the failure of caching is only logged, since the entries are in the store already
+            entryBufferCache.put(entries);
+        }
+        for (PendingAppend appended : batch) {
+            appended.error = error;
+            appended.done = true;
+        }
+    }
+
+    private static class PendingAppend {
+        private final DLedgerEntry entry;
+        private Throwable error;
+        private boolean done;
+
+        PendingAppend(DLedgerEntry entry) {
+            this.entry = entry;
+        }
+    }
+}
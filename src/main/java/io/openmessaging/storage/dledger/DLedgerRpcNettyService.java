@@ -17,10 +17,10 @@
 
 package io.openmessaging.storage.dledger;
 
-import com.alibaba.fastjson.JSON;
 import io.netty.channel.ChannelHandlerContext;
 import io.openmessaging.storage.dledger.protocol.AppendEntryRequest;
 import io.openmessaging.storage.dledger.protocol.AppendEntryResponse;
+import io.openmessaging.storage.dledger.protocol.DLedgerProtocolCoder;
 import io.openmessaging.storage.dledger.protocol.DLedgerRequestCode;
 import io.openmessaging.storage.dledger.protocol.DLedgerResponseCode;
 import io.openmessaging.storage.dledger.protocol.GetEntriesRequest;
@@ -66,6 +66,8 @@ public class DLedgerRpcNettyService extends DLedgerRpcService {
 
     private DLedgerServer dLedgerServer;
 
+    private boolean useJsonCodec;
+
     private ExecutorService futureExecutor = Executors.newFixedThreadPool(4, new ThreadFactory() {
         private AtomicInteger threadIndex = new AtomicInteger(0);
 
@@ -78,6 +80,7 @@ public class DLedgerRpcNettyService extends DLedgerRpcService {
     public DLedgerRpcNettyService(DLedgerServer dLedgerServer) {
         this.dLedgerServer = dLedgerServer;
         this.memberState = dLedgerServer.getMemberState();
+        this.useJsonCodec = dLedgerServer.getdLedgerConfig().isUseJsonCodec();
         NettyRequestProcessor protocolProcessor = new NettyRequestProcessor() {
             @Override
             public RemotingCommand processRequest(ChannelHandlerContext ctx, RemotingCommand request) throws Exception {
@@ -105,6 +108,10 @@ public class DLedgerRpcNettyService extends DLedgerRpcService {
 
     }
 
+    private byte[] encode(RequestOrResponse request) {
+        return DLedgerProtocolCoder.encode(request, useJsonCodec);
+    }
+
     private String getPeerAddr(RequestOrResponse request) {
         //support different groups in the near future
         return memberState.getPeerAddr(request.getRemoteId());
@@ -114,9 +121,9 @@ public class DLedgerRpcNettyService extends DLedgerRpcService {
         CompletableFuture<HeartBeatResponse> future = new CompletableFuture<>();
         try {
             RemotingCommand wrapperRequest = RemotingCommand.createRequestCommand(DLedgerRequestCode.HEART_BEAT.getCode(), null);
-            wrapperRequest.setBody(JSON.toJSONBytes(request));
+            wrapperRequest.setBody(encode(request));
             remotingClient.invokeAsync(getPeerAddr(request), wrapperRequest, 3000, responseFuture -> {
-                HeartBeatResponse response = JSON.parseObject(responseFuture.getResponseCommand().getBody(), HeartBeatResponse.class);
+                HeartBeatResponse response = DLedgerProtocolCoder.decode(responseFuture.getResponseCommand().getBody(), HeartBeatResponse.class);
                 future.complete(response);
             });
         } catch (Throwable t) {
@@ -130,9 +137,9 @@ public class DLedgerRpcNettyService extends DLedgerRpcService {
         CompletableFuture<VoteResponse> future = new CompletableFuture<>();
         try {
             RemotingCommand wrapperRequest = RemotingCommand.createRequestCommand(DLedgerRequestCode.VOTE.getCode(), null);
-            wrapperRequest.setBody(JSON.toJSONBytes(request));
+            wrapperRequest.setBody(encode(request));
             remotingClient.invokeAsync(getPeerAddr(request), wrapperRequest, 3000, responseFuture -> {
-                VoteResponse response = JSON.parseObject(responseFuture.getResponseCommand().getBody(), VoteResponse.class);
+                VoteResponse response = DLedgerProtocolCoder.decode(responseFuture.getResponseCommand().getBody(), VoteResponse.class);
                 future.complete(response);
             });
         } catch (Throwable t) {
@@ -152,9 +159,9 @@ public class DLedgerRpcNettyService extends DLedgerRpcService {
         CompletableFuture<AppendEntryResponse> future = new CompletableFuture<>();
         try {
             RemotingCommand wrapperRequest = RemotingCommand.createRequestCommand(DLedgerRequestCode.APPEND.getCode(), null);
-            wrapperRequest.setBody(JSON.toJSONBytes(request));
+            wrapperRequest.setBody(encode(request));
             remotingClient.invokeAsync(getPeerAddr(request), wrapperRequest, 3000, responseFuture -> {
-                AppendEntryResponse response = JSON.parseObject(responseFuture.getResponseCommand().getBody(), AppendEntryResponse.class);
+                AppendEntryResponse response = DLedgerProtocolCoder.decode(responseFuture.getResponseCommand().getBody(), AppendEntryResponse.class);
                 future.complete(response);
             });
         } catch (Throwable t) {
@@ -174,20 +181,40 @@ public class DLedgerRpcNettyService extends DLedgerRpcService {
     }
 
     @Override public CompletableFuture<PullEntriesResponse> pull(PullEntriesRequest request) throws Exception {
-        RemotingCommand wrapperRequest = RemotingCommand.createRequestCommand(DLedgerRequestCode.PULL.getCode(), null);
-        wrapperRequest.setBody(JSON.toJSONBytes(request));
-        RemotingCommand wrapperResponse = remotingClient.invokeSync(getPeerAddr(request), wrapperRequest, 3000);
-        PullEntriesResponse response = JSON.parseObject(wrapperResponse.getBody(), PullEntriesResponse.class);
-        return CompletableFuture.completedFuture(response);
+        CompletableFuture<PullEntriesResponse> future = new CompletableFuture<>();
+        try {
+            RemotingCommand wrapperRequest = RemotingCommand.createRequestCommand(DLedgerRequestCode.PULL.getCode(), null);
+            wrapperRequest.setBody(encode(request));
+            //the leader may hold the request for maxWaitMs before responding
+            remotingClient.invokeAsync(getPeerAddr(request), wrapperRequest, request.getMaxWaitMs() + 3000, responseFuture -> {
+                RemotingCommand wrapperResponse = responseFuture.getResponseCommand();
+                if (wrapperResponse == null) {
+                    future.complete(pullFailed(request, responseFuture.isTimeout() ? DLedgerResponseCode.TIMEOUT : DLedgerResponseCode.NETWORK_ERROR));
+                    return;
+                }
+                future.complete(DLedgerProtocolCoder.decode(wrapperResponse.getBody(), PullEntriesResponse.class));
+            });
+        } catch (Throwable t) {
+            logger.error("Send pull request failed {}", request.baseInfo(), t);
+            future.complete(pullFailed(request, DLedgerResponseCode.NETWORK_ERROR));
+        }
+        return future;
+    }
+
+    private PullEntriesResponse pullFailed(PullEntriesRequest request, DLedgerResponseCode code) {
+        PullEntriesResponse response = new PullEntriesResponse();
+        response.copyBaseInfo(request);
+        response.setCode(code.getCode());
+        return response;
     }
 
     @Override public CompletableFuture<PushEntryResponse> push(PushEntryRequest request) throws Exception {
         CompletableFuture<PushEntryResponse> future = new CompletableFuture<>();
         try {
             RemotingCommand wrapperRequest = RemotingCommand.createRequestCommand(DLedgerRequestCode.PUSH.getCode(), null);
-            wrapperRequest.setBody(JSON.toJSONBytes(request));
+            wrapperRequest.setBody(encode(request));
             remotingClient.invokeAsync(getPeerAddr(request), wrapperRequest, 3000, responseFuture -> {
-                PushEntryResponse response = JSON.parseObject(responseFuture.getResponseCommand().getBody(), PushEntryResponse.class);
+                PushEntryResponse response = DLedgerProtocolCoder.decode(responseFuture.getResponseCommand().getBody(), PushEntryResponse.class);
                 future.complete(response);
             });
         } catch (Throwable t) {
@@ -237,7 +264,7 @@ public class DLedgerRpcNettyService extends DLedgerRpcService {
         DLedgerRequestCode requestCode = DLedgerRequestCode.valueOf(request.getCode());
         switch (requestCode) {
             case METADATA: {
-                MetadataRequest metadataRequest = JSON.parseObject(request.getBody(), MetadataRequest.class);
+                MetadataRequest metadataRequest = DLedgerProtocolCoder.decode(request.getBody(), MetadataRequest.class);
                 CompletableFuture<MetadataResponse> future = handleMetadata(metadataRequest);
                 future.whenCompleteAsync((x, y) -> {
                     writeResponse(x, y, request, ctx);
@@ -245,7 +272,7 @@ public class DLedgerRpcNettyService extends DLedgerRpcService {
                 break;
             }
             case APPEND: {
-                AppendEntryRequest appendEntryRequest = JSON.parseObject(request.getBody(), AppendEntryRequest.class);
+                AppendEntryRequest appendEntryRequest = DLedgerProtocolCoder.decode(request.getBody(), AppendEntryRequest.class);
                 CompletableFuture<AppendEntryResponse> future = handleAppend(appendEntryRequest);
                 future.whenCompleteAsync((x, y) -> {
                     writeResponse(x, y, request, ctx);
@@ -253,15 +280,24 @@ public class DLedgerRpcNettyService extends DLedgerRpcService {
                 break;
             }
             case GET: {
-                GetEntriesRequest getEntriesRequest = JSON.parseObject(request.getBody(), GetEntriesRequest.class);
-                CompletableFuture<GetEntriesResponse> future = handleGet(getEntriesRequest);
+                GetEntriesRequest getEntriesRequest = DLedgerProtocolCoder.decode(request.getBody(), GetEntriesRequest.class);
+                //the binary codec writes the bytes of the entries directly, so they are read as the views without copying
+                CompletableFuture<GetEntriesResponse> future = DLedgerProtocolCoder.isBinary(request.getBody())
+                    ? dLedgerServer.handleGetEncoded(getEntriesRequest) : handleGet(getEntriesRequest);
                 future.whenCompleteAsync((x, y) -> {
-                    writeResponse(x, y, request, ctx);
+                    try {
+                        writeResponse(x, y, request, ctx);
+                    } finally {
+                        //the entries are copied into the body once it is encoded, so the views could be released
+                        if (x != null) {
+                            x.release();
+                        }
+                    }
                 }, futureExecutor);
                 break;
             }
             case PULL: {
-                PullEntriesRequest pullEntriesRequest = JSON.parseObject(request.getBody(), PullEntriesRequest.class);
+                PullEntriesRequest pullEntriesRequest = DLedgerProtocolCoder.decode(request.getBody(), PullEntriesRequest.class);
                 CompletableFuture<PullEntriesResponse> future = handlePull(pullEntriesRequest);
                 future.whenCompleteAsync((x, y) -> {
                     writeResponse(x, y, request, ctx);
@@ -269,7 +305,7 @@ public class DLedgerRpcNettyService extends DLedgerRpcService {
                 break;
             }
             case PUSH: {
-                PushEntryRequest pushEntryRequest = JSON.parseObject(request.getBody(), PushEntryRequest.class);
+                PushEntryRequest pushEntryRequest = DLedgerProtocolCoder.decode(request.getBody(), PushEntryRequest.class);
                 CompletableFuture<PushEntryResponse> future = handlePush(pushEntryRequest);
                 future.whenCompleteAsync((x, y) -> {
                     writeResponse(x, y, request, ctx);
@@ -277,7 +313,7 @@ public class DLedgerRpcNettyService extends DLedgerRpcService {
                 break;
             }
             case VOTE: {
-                VoteRequest voteRequest = JSON.parseObject(request.getBody(), VoteRequest.class);
+                VoteRequest voteRequest = DLedgerProtocolCoder.decode(request.getBody(), VoteRequest.class);
                 CompletableFuture<VoteResponse> future = handleVote(voteRequest);
                 future.whenCompleteAsync((x, y) -> {
                     writeResponse(x, y, request, ctx);
@@ -285,7 +321,7 @@ public class DLedgerRpcNettyService extends DLedgerRpcService {
                 break;
             }
             case HEART_BEAT: {
-                HeartBeatRequest heartBeatRequest = JSON.parseObject(request.getBody(), HeartBeatRequest.class);
+                HeartBeatRequest heartBeatRequest = DLedgerProtocolCoder.decode(request.getBody(), HeartBeatRequest.class);
                 CompletableFuture<HeartBeatResponse> future = handleHeartBeat(heartBeatRequest);
                 future.whenCompleteAsync((x, y) -> {
                     writeResponse(x, y, request, ctx);
@@ -334,7 +370,8 @@ public class DLedgerRpcNettyService extends DLedgerRpcService {
 
     public RemotingCommand handleResponse(RequestOrResponse response, RemotingCommand request) {
         RemotingCommand remotingCommand = RemotingCommand.createResponseCommand(DLedgerResponseCode.SUCCESS.getCode(), null);
-        remotingCommand.setBody(JSON.toJSONBytes(response));
+        //reply in the codec of the request, so the peers of the old versions could understand it
+        remotingCommand.setBody(DLedgerProtocolCoder.encode(response, !DLedgerProtocolCoder.isBinary(request.getBody())));
         remotingCommand.setOpaque(request.getOpaque());
         return remotingCommand;
     }
@@ -38,9 +38,12 @@ import io.openmessaging.storage.dledger.protocol.VoteResponse;
 import io.openmessaging.storage.dledger.store.DLedgerMemoryStore;
 import io.openmessaging.storage.dledger.store.DLedgerStore;
 import io.openmessaging.storage.dledger.store.file.DLedgerMmapFileStore;
+import io.openmessaging.storage.dledger.store.file.EntryView;
 import io.openmessaging.storage.dledger.utils.PreConditions;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -53,17 +56,37 @@ public class DLedgerServer implements DLedgerProtocolHander {
     private DLedgerConfig dLedgerConfig;
 
     private DLedgerStore dLedgerStore;
+    private DLedgerGroupCommitter dLedgerGroupCommitter;
     private DLedgerRpcService dLedgerRpcService;
     private DLedgerEntryPusher dLedgerEntryPusher;
+    private DLedgerEntryPuller dLedgerEntryPuller;
     private DLedgerLeaderElector dLedgerLeaderElector;
 
     public DLedgerServer(DLedgerConfig dLedgerConfig) {
         this.dLedgerConfig = dLedgerConfig;
         this.memberState = new MemberState(dLedgerConfig);
         this.dLedgerStore = createDLedgerStore(dLedgerConfig.getStoreType(), this.dLedgerConfig, this.memberState);
+        //there is nothing to replicate for the single node
+        EntryBufferCache entryBufferCache = new EntryBufferCache(memberState.getPeerMap().size() > 1 ? dLedgerConfig.getReplicationCacheSize() : 0);
+        this.dLedgerGroupCommitter = new DLedgerGroupCommitter(dLedgerConfig, dLedgerStore, entryBufferCache);
         dLedgerRpcService = new DLedgerRpcNettyService(this);
-        dLedgerEntryPusher = new DLedgerEntryPusher(dLedgerConfig, memberState, dLedgerStore, dLedgerRpcService);
+        dLedgerEntryPusher = new DLedgerEntryPusher(dLedgerConfig, memberState, dLedgerStore, entryBufferCache, dLedgerRpcService);
+        dLedgerEntryPuller = new DLedgerEntryPuller(dLedgerConfig, memberState, dLedgerStore, dLedgerRpcService);
         dLedgerLeaderElector = new DLedgerLeaderElector(dLedgerConfig, memberState, dLedgerRpcService);
+        dLedgerLeaderElector.addRoleChangeHandler(new DLedgerLeaderElector.RoleChangeHandler() {
+            @Override public void handle(long term, MemberState.Role role) {
+                dLedgerEntryPusher.handleRoleChange(term, role);
+                dLedgerEntryPuller.handleRoleChange(term, role);
+            }
+
+            @Override public void startup() {
+
+            }
+
+            @Override public void shutdown() {
+
+            }
+        });
     }
 
 
@@ -72,11 +95,13 @@ public class DLedgerServer implements DLedgerProtocolHander {
         this.dLedgerStore.startup();
         this.dLedgerRpcService.startup();
         this.dLedgerEntryPusher.startup();
+        this.dLedgerEntryPuller.startup();
         this.dLedgerLeaderElector.startup();
     }
 
     public void shutdown() {
         this.dLedgerLeaderElector.shutdown();
+        this.dLedgerEntryPuller.shutdown();
         this.dLedgerEntryPusher.shutdown();
         this.dLedgerRpcService.shutdown();
         this.dLedgerStore.shutdown();
@@ -129,7 +154,7 @@ public class DLedgerServer implements DLedgerProtocolHander {
 
     /**
      * Handle the append requests:
-     *  1.append the entry to local store
+     *  1.append the entry to local store, the concurrent appends are group committed in one batch
      *  2.submit the future to entry pusher and wait the quorum ack
      *  3.if the pending requests are full, then reject it immediately
      * @param request
@@ -153,7 +178,7 @@ public class DLedgerServer implements DLedgerProtocolHander {
             } else {
                 DLedgerEntry dLedgerEntry = new DLedgerEntry();
                 dLedgerEntry.setBody(request.getBody());
-                DLedgerEntry resEntry = dLedgerStore.appendAsLeader(dLedgerEntry);
+                DLedgerEntry resEntry = dLedgerGroupCommitter.append(dLedgerEntry);
                 return dLedgerEntryPusher.waitAck(resEntry);
             }
         } catch (DLedgerException e) {
@@ -168,15 +193,35 @@ public class DLedgerServer implements DLedgerProtocolHander {
 
     @Override
     public CompletableFuture<GetEntriesResponse> handleGet(GetEntriesRequest request) throws IOException {
+        return handleGet(request, false);
+    }
+
+    /**
+     * Get the entries as the views of the data files for the rpc service to encode, the bodies are not copied until
+     * the response is encoded, and the caller should release the response after that.
+     * The entries of the response only have the headers if they are read as the views.
+     */
+    CompletableFuture<GetEntriesResponse> handleGetEncoded(GetEntriesRequest request) {
+        return handleGet(request, true);
+    }
+
+    private CompletableFuture<GetEntriesResponse> handleGet(GetEntriesRequest request, boolean encoded) {
         try {
             PreConditions.check(memberState.getSelfId().equals(request.getRemoteId()), DLedgerResponseCode.UNKNOWN_MEMBER, "%s != %s", request.getRemoteId(), memberState.getSelfId());
             PreConditions.check(memberState.getGroup().equals(request.getGroup()), DLedgerResponseCode.UNKNOWN_GROUP, "%s != %s", request.getGroup(), memberState.getGroup());
             PreConditions.check(memberState.isLeader(), DLedgerResponseCode.NOT_LEADER);
-            DLedgerEntry entry = dLedgerStore.get(request.getBeginIndex());
             GetEntriesResponse response = new GetEntriesResponse();
             response.setGroup(memberState.getGroup());
-            if (entry != null) {
-                response.setEntries(Collections.singletonList(entry));
+            if (encoded && dLedgerStore instanceof DLedgerMmapFileStore) {
+                addEntryViews(request, response);
+            } else if (request.getMaxSize() > 0) {
+                //get the entries from the begin index up to the max size
+                response.setEntries(dLedgerStore.get(request.getBeginIndex(), dLedgerConfig.getMaxPullNum(), request.getMaxSize()));
+            } else {
+                DLedgerEntry entry = dLedgerStore.get(request.getBeginIndex());
+                if (entry != null) {
+                    response.setEntries(Collections.singletonList(entry));
+                }
             }
             return CompletableFuture.completedFuture(response);
         } catch (DLedgerException e) {
@@ -189,6 +234,33 @@ public class DLedgerServer implements DLedgerProtocolHander {
         }
     }
 
+    /**
+     * Add the entries as the views of the data files, which are released with the response.
+     */
+    private void addEntryViews(GetEntriesRequest request, GetEntriesResponse response) {
+        DLedgerMmapFileStore fileStore = (DLedgerMmapFileStore) dLedgerStore;
+        List<Runnable> releases = new ArrayList<>();
+        try {
+            List<EntryView> views;
+            if (request.getMaxSize() > 0) {
+                views = fileStore.getEntryViews(request.getBeginIndex(), dLedgerConfig.getMaxPullNum(), request.getMaxSize(), releases);
+            } else {
+                EntryView view = fileStore.getEntryView(request.getBeginIndex());
+                releases.add(view::release);
+                views = Collections.singletonList(view);
+            }
+            for (EntryView view : views) {
+                response.addEntry(view.toHeader(), view.getByteBuffer());
+            }
+        } catch (Throwable t) {
+            for (Runnable release : releases) {
+                release.run();
+            }
+            throw t;
+        }
+        releases.forEach(response::addRelease);
+    }
+
     @Override public CompletableFuture<MetadataResponse> handleMetadata(MetadataRequest request) throws Exception {
         try {
             PreConditions.check(memberState.getSelfId().equals(request.getRemoteId()), DLedgerResponseCode.UNKNOWN_MEMBER, "%s != %s", request.getRemoteId(), memberState.getSelfId());
@@ -210,8 +282,19 @@ public class DLedgerServer implements DLedgerProtocolHander {
     }
 
     @Override
-    public CompletableFuture<PullEntriesResponse> handlePull(PullEntriesRequest request) {
-        return null;
+    public CompletableFuture<PullEntriesResponse> handlePull(PullEntriesRequest request) throws Exception {
+        try {
+            PreConditions.check(memberState.getSelfId().equals(request.getRemoteId()), DLedgerResponseCode.UNKNOWN_MEMBER, "%s != %s", request.getRemoteId(), memberState.getSelfId());
+            PreConditions.check(memberState.getGroup().equals(request.getGroup()), DLedgerResponseCode.UNKNOWN_GROUP, "%s != %s", request.getGroup(), memberState.getGroup());
+            return dLedgerEntryPusher.handlePull(request);
+        } catch (DLedgerException e) {
+            logger.error("[{}][HandlePull] failed", memberState.getSelfId(), e);
+            PullEntriesResponse response = new PullEntriesResponse();
+            response.copyBaseInfo(request);
+            response.setCode(e.getCode().getCode());
+            response.setLeaderId(memberState.getLeaderId());
+            return CompletableFuture.completedFuture(response);
+        }
     }
 
     @Override public CompletableFuture<PushEntryResponse> handlePush(PushEntryRequest request) throws Exception {
@@ -238,6 +321,10 @@ public class DLedgerServer implements DLedgerProtocolHander {
         return dLedgerRpcService;
     }
 
+    public DLedgerEntryPusher getdLedgerEntryPusher() {
+        return dLedgerEntryPusher;
+    }
+
     public DLedgerLeaderElector getdLedgerLeaderElector() {
         return dLedgerLeaderElector;
     }
@@ -0,0 +1,190 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.openmessaging.storage.dledger;
+
+import io.openmessaging.storage.dledger.entry.DLedgerEntry;
+import io.openmessaging.storage.dledger.entry.DLedgerEntryCoder;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The cache of the recently appended entries on the leader, in the encoded form used by the replication.
+ * The appender encodes each entry once into the off-heap chunks, then all the dispatchers read it from here,
+ * only the lagging ones need to read the store.
+ *
+ * The chunks are written in turn as a ring. The readers hold the chunk by the reference count until the bytes are copied,
+ * and the writer skips caching rather than overwriting a held chunk, so the appends never wait for the readers.
+ */
+public class EntryBufferCache {
+
+    private static Logger logger = LoggerFactory.getLogger(EntryBufferCache.class);
+
+    private static final int CHUNK_NUM = 8;
+    private static final int MAX_SLOTS = 1 << 16;
+
+    private final int chunkSize;
+    private final Chunk[] chunks = new Chunk[CHUNK_NUM];
+    //the cached entries, addressed by the index
+    private final AtomicReferenceArray<CachedEntry> slots = new AtomicReferenceArray<>(MAX_SLOTS);
+
+    //only accessed by the writer
+    private int writeChunk = CHUNK_NUM - 1;
+
+    /**
+     * @param cacheSize the total size of the chunks in bytes, 0 to disable the cache
+     */
+    public EntryBufferCache(int cacheSize) {
+        this.chunkSize = Math.max(0, cacheSize / CHUNK_NUM);
+        for (int i = 0; i < CHUNK_NUM; i++) {
+            chunks[i] = new Chunk();
+        }
+    }
+
+    public boolean isEnabled() {
+        return chunkSize > 0;
+    }
+
+    private int slotOf(long index) {
+        return (int) (index & (MAX_SLOTS - 1));
+    }
+
+    /**
+     * Cache the appended entries, the entries should be put by one thread at a time.
+     */
+    public void put(List<DLedgerEntry> entries) {
+        if (!isEnabled()) {
+            return;
+        }
+        for (DLedgerEntry entry : entries) {
+            try {
+                put(entry);
+            } catch (Throwable t) {
+                //the entry is in the store already, so the dispatchers read it from there instead
+                logger.warn("Put the entry {} to the cache failed", entry.getIndex(), t);
+                slots.set(slotOf(entry.getIndex()), null);
+            }
+        }
+    }
+
+    private void put(DLedgerEntry entry) {
+        int size = entry.computSizeInBytes();
+        if (size > chunkSize) {
+            return;
+        }
+        Chunk chunk = chunks[writeChunk];
+        if (chunk.buffer == null || chunk.buffer.remaining() < size) {
+            int nextChunk = (writeChunk + 1) % CHUNK_NUM;
+            if (!chunks[nextChunk].reset()) {
+                return;
+            }
+            writeChunk = nextChunk;
+            chunk = chunks[nextChunk];
+        }
+        ByteBuffer entryBuffer = chunk.buffer.slice();
+        entryBuffer.limit(size);
+        DLedgerEntryCoder.put(entry, chunk.buffer);
+        DLedgerEntry header = DLedgerEntryCoder.decode(entryBuffer.duplicate(), false);
+        slots.set(slotOf(entry.getIndex()), new CachedEntry(header, entryBuffer, chunk, chunk.generation.get()));
+    }
+
+    /**
+     * Get the cached entry, the returned entry holds the chunk and should be released once its bytes are copied.
+     * @return the cached entry, or null if missed
+     */
+    public CachedEntry get(long index) {
+        if (!isEnabled()) {
+            return null;
+        }
+        CachedEntry cached = slots.get(slotOf(index));
+        if (cached == null || cached.entry.getIndex() != index) {
+            return null;
+        }
+        //hold the chunk before checking the generation, the writer bumps the generation before checking the holders
+        cached.chunk.refCount.incrementAndGet();
+        if (cached.chunk.generation.get() != cached.generation) {
+            cached.release();
+            return null;
+        }
+        return cached;
+    }
+
+    /**
+     * Drop all the cached entries, the entries may be truncated once the leader steps down.
+     */
+    public void clear() {
+        for (int i = 0; i < MAX_SLOTS; i++) {
+            slots.set(i, null);
+        }
+    }
+
+    private class Chunk {
+        //only accessed by the writer
+        private ByteBuffer buffer;
+        private final AtomicInteger generation = new AtomicInteger(0);
+        private final AtomicInteger refCount = new AtomicInteger(0);
+
+        /**
+         * Invalidate the entries in the chunk, and rewind it for writing.
+         * @return false if the chunk is still held by the readers
+         */
+        private boolean reset() {
+            generation.incrementAndGet();
+            if (refCount.get() > 0) {
+                return false;
+            }
+            if (buffer == null) {
+                buffer = ByteBuffer.allocateDirect(chunkSize);
+            }
+            buffer.clear();
+            return true;
+        }
+    }
+
+    public static class CachedEntry {
+        private final DLedgerEntry entry;
+        private final ByteBuffer entryBuffer;
+        private final Chunk chunk;
+        private final int generation;
+
+        private CachedEntry(DLedgerEntry entry, ByteBuffer entryBuffer, Chunk chunk, int generation) {
+            this.entry = entry;
+            this.entryBuffer = entryBuffer;
+            this.chunk = chunk;
+            this.generation = generation;
+        }
+
+        /**
+         * @return the header of the entry, without the body
+         */
+        public DLedgerEntry getEntry() {
+            return entry;
+        }
+
+        public ByteBuffer getByteBuffer() {
+            return entryBuffer.duplicate();
+        }
+
+        public void release() {
+            chunk.refCount.decrementAndGet();
+        }
+    }
+}
@@ -64,13 +64,14 @@ public abstract class ShutdownAbleThread extends Thread {
     }
 
     public void waitForRunning(long interval) throws InterruptedException {
+        //reset before checking the notification, otherwise a wakeup in between will be lost
+        waitPoint.reset();
+
         if (hasNotified.compareAndSet(true, false)) {
             return;
         }
 
         //entry to wait
-        waitPoint.reset();
-
         try {
             waitPoint.await(interval, TimeUnit.MILLISECONDS);
         } catch (InterruptedException e) {
@@ -44,9 +44,17 @@ public class DLedgerClient {
     private MetadataUpdater metadataUpdater = new MetadataUpdater("MetadataUpdater", logger);
 
     public DLedgerClient(String group, String peers) {
+        this(group, peers, false);
+    }
+
+    /**
+     * @param useJsonCodec true to encode the requests by json, which the servers of all versions understand,
+     * false to use the binary codec by default, which only the upgraded servers understand
+     */
+    public DLedgerClient(String group, String peers, boolean useJsonCodec) {
         this.group = group;
         updatePeers(peers);
-        dLedgerClientRpcService = new DLedgerClientRpcNettyService();
+        dLedgerClientRpcService = new DLedgerClientRpcNettyService(useJsonCodec);
         dLedgerClientRpcService.updatePeers(peers);
         leaderId = peerMap.keySet().iterator().next();
     }
@@ -17,9 +17,9 @@
 
 package io.openmessaging.storage.dledger.client;
 
-import com.alibaba.fastjson.JSON;
 import io.openmessaging.storage.dledger.protocol.AppendEntryRequest;
 import io.openmessaging.storage.dledger.protocol.AppendEntryResponse;
+import io.openmessaging.storage.dledger.protocol.DLedgerProtocolCoder;
 import io.openmessaging.storage.dledger.protocol.DLedgerRequestCode;
 import io.openmessaging.storage.dledger.protocol.GetEntriesRequest;
 import io.openmessaging.storage.dledger.protocol.GetEntriesResponse;
@@ -34,33 +34,40 @@ public class DLedgerClientRpcNettyService extends DLedgerClientRpcService {
 
     private NettyRemotingClient remotingClient;
 
+    private final boolean useJsonCodec;
+
     public DLedgerClientRpcNettyService() {
+        this(false);
+    }
+
+    public DLedgerClientRpcNettyService(boolean useJsonCodec) {
+        this.useJsonCodec = useJsonCodec;
         this.remotingClient = new NettyRemotingClient(new NettyClientConfig(), null);
     }
 
     @Override
     public CompletableFuture<AppendEntryResponse> append(AppendEntryRequest request) throws Exception {
         RemotingCommand wrapperRequest = RemotingCommand.createRequestCommand(DLedgerRequestCode.APPEND.getCode(), null);
-        wrapperRequest.setBody(JSON.toJSONBytes(request));
+        wrapperRequest.setBody(DLedgerProtocolCoder.encode(request, useJsonCodec));
         RemotingCommand wrapperResponse = this.remotingClient.invokeSync(getPeerAddr(request.getRemoteId()), wrapperRequest, 3000);
-        AppendEntryResponse response = JSON.parseObject(wrapperResponse.getBody(), AppendEntryResponse.class);
+        AppendEntryResponse response = DLedgerProtocolCoder.decode(wrapperResponse.getBody(), AppendEntryResponse.class);
         return CompletableFuture.completedFuture(response);
     }
 
     @Override public CompletableFuture<MetadataResponse> metadata(MetadataRequest request) throws Exception {
         RemotingCommand wrapperRequest = RemotingCommand.createRequestCommand(DLedgerRequestCode.METADATA.getCode(), null);
-        wrapperRequest.setBody(JSON.toJSONBytes(request));
+        wrapperRequest.setBody(DLedgerProtocolCoder.encode(request, useJsonCodec));
         RemotingCommand wrapperResponse = this.remotingClient.invokeSync(getPeerAddr(request.getRemoteId()), wrapperRequest, 3000);
-        MetadataResponse response = JSON.parseObject(wrapperResponse.getBody(), MetadataResponse.class);
+        MetadataResponse response = DLedgerProtocolCoder.decode(wrapperResponse.getBody(), MetadataResponse.class);
         return CompletableFuture.completedFuture(response);
     }
 
     @Override
     public CompletableFuture<GetEntriesResponse> get(GetEntriesRequest request) throws Exception {
         RemotingCommand wrapperRequest = RemotingCommand.createRequestCommand(DLedgerRequestCode.GET.getCode(), null);
-        wrapperRequest.setBody(JSON.toJSONBytes(request));
+        wrapperRequest.setBody(DLedgerProtocolCoder.encode(request, useJsonCodec));
         RemotingCommand wrapperResponse = this.remotingClient.invokeSync(getPeerAddr(request.getRemoteId()), wrapperRequest, 3000);
-        GetEntriesResponse response = JSON.parseObject(wrapperResponse.getBody(), GetEntriesResponse.class);
+        GetEntriesResponse response = DLedgerProtocolCoder.decode(wrapperResponse.getBody(), GetEntriesResponse.class);
         return CompletableFuture.completedFuture(response);
     }
 
@@ -19,9 +19,8 @@ package io.openmessaging.storage.dledger.cmdline;
 
 import com.alibaba.fastjson.JSON;
 import com.beust.jcommander.Parameter;
-import io.openmessaging.storage.dledger.entry.DLedgerEntry;
-import io.openmessaging.storage.dledger.entry.DLedgerEntryCoder;
 import io.openmessaging.storage.dledger.store.file.DLedgerMmapFileStore;
+import io.openmessaging.storage.dledger.store.file.EntryView;
 import io.openmessaging.storage.dledger.store.file.MmapFile;
 import io.openmessaging.storage.dledger.store.file.MmapFileList;
 import io.openmessaging.storage.dledger.store.file.SelectMmapBufferResult;
@@ -68,12 +67,23 @@ public class ReadFileCommand extends BaseCommand {
             return;
         }
         SelectMmapBufferResult result = mmapFile.selectMappedBuffer((int) (pos % size));
-        ByteBuffer buffer = result.getByteBuffer();
         if (index != -1) {
+            ByteBuffer buffer = result.getByteBuffer();
             logger.info("magic={} pos={} size={} index={} term={}", buffer.getInt(), buffer.getLong(), buffer.getInt(), buffer.getLong(), buffer.getLong());
-        } else {
-            DLedgerEntry entry = DLedgerEntryCoder.decode(buffer, readBody);
-            logger.info(JSON.toJSONString(entry));
+            result.release();
+            return;
+        }
+        EntryView view = new EntryView(result.getByteBuffer(), result);
+        try {
+            if (readBody) {
+                logger.info(JSON.toJSONString(view.toEntry()));
+            } else {
+                //the header is read in place, the body is not copied
+                logger.info("magic={} size={} index={} term={} pos={} channel={} chainCrc={} bodyCrc={} bodySize={}", view.getMagic(), view.getSize(),
+                    view.getIndex(), view.getTerm(), view.getPos(), view.getChannel(), view.getChainCrc(), view.getBodyCrc(), view.getBodySize());
+            }
+        } finally {
+            view.release();
         }
     }
 }
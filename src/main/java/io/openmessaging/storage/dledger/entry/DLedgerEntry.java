@@ -134,6 +134,32 @@ public class DLedgerEntry {
         return true;
     }
 
+    /**
+     * Check whether the entries are the same by the headers and the crcs, without comparing the bodies.
+     * The bodies are compared only if the crcs are absent, as in the entries written by the former versions,
+     * so the headers without the bodies never match then.
+     */
+    public boolean matches(DLedgerEntry other) {
+        if (other == null) {
+            return false;
+        }
+        if (!this.hasCrc() || !other.hasCrc()) {
+            return this.body != null && other.body != null && equals(other);
+        }
+        return this.size == other.size
+            && this.magic == other.magic
+            && this.index == other.index
+            && this.term == other.term
+            && this.channel == other.channel
+            && this.pos == other.pos
+            && this.bodyCrc == other.bodyCrc
+            && this.chainCrc == other.chainCrc;
+    }
+
+    public boolean hasCrc() {
+        return bodyCrc != 0 && chainCrc != 0;
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
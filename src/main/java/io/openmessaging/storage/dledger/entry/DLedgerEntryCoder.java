@@ -17,12 +17,21 @@
 
 package io.openmessaging.storage.dledger.entry;
 
+import io.openmessaging.storage.dledger.utils.Crc32C;
 import java.nio.ByteBuffer;
 
 public class DLedgerEntryCoder {
 
     public static void encode(DLedgerEntry entry, ByteBuffer byteBuffer) {
         byteBuffer.clear();
+        put(entry, byteBuffer);
+        byteBuffer.flip();
+    }
+
+    /**
+     * Write the entry at the current position of the buffer, so that several entries could be encoded back to back.
+     */
+    public static void put(DLedgerEntry entry, ByteBuffer byteBuffer) {
         int size = entry.computSizeInBytes();
         //always put magic on the first position
         byteBuffer.putInt(entry.getMagic());
@@ -35,17 +44,48 @@ public class DLedgerEntryCoder {
         byteBuffer.putInt(entry.getBodyCrc());
         byteBuffer.putInt(entry.getBody().length);
         byteBuffer.put(entry.getBody());
-        byteBuffer.flip();
+    }
+
+    /**
+     * Write only the header of the entry, the size is kept as the whole entry's, so the entry could be compared by the crcs.
+     */
+    public static void putHeader(DLedgerEntry entry, ByteBuffer byteBuffer) {
+        byteBuffer.putInt(entry.getMagic());
+        byteBuffer.putInt(entry.getSize());
+        byteBuffer.putLong(entry.getIndex());
+        byteBuffer.putLong(entry.getTerm());
+        byteBuffer.putLong(entry.getPos());
+        byteBuffer.putInt(entry.getChannel());
+        byteBuffer.putInt(entry.getChainCrc());
+        byteBuffer.putInt(entry.getBodyCrc());
+        byteBuffer.putInt(entry.getSize() - DLedgerEntry.BODY_OFFSET);
     }
 
     public static void encodeIndex(long pos, int size, int magic, long index, long term, ByteBuffer byteBuffer) {
         byteBuffer.clear();
+        putIndex(pos, size, magic, index, term, byteBuffer);
+        byteBuffer.flip();
+    }
+
+    public static void putIndex(long pos, int size, int magic, long index, long term, ByteBuffer byteBuffer) {
         byteBuffer.putInt(magic);
         byteBuffer.putLong(pos);
         byteBuffer.putInt(size);
         byteBuffer.putLong(index);
         byteBuffer.putLong(term);
-        byteBuffer.flip();
+    }
+
+    /**
+     * Decode the index unit, the entry has only the magic, pos, size, index and term.
+     */
+    public static DLedgerEntry decodeIndex(ByteBuffer byteBuffer) {
+        DLedgerEntry entry = new DLedgerEntry();
+        entry.setMagic(byteBuffer.getInt());
+        entry.setPos(byteBuffer.getLong());
+        entry.setSize(byteBuffer.getInt());
+        entry.setIndex(byteBuffer.getLong());
+        entry.setTerm(byteBuffer.getLong());
+        return entry;
     }
 
     public static DLedgerEntry decode(ByteBuffer byteBuffer) {
@@ -71,6 +111,30 @@ public class DLedgerEntryCoder {
         return entry;
     }
 
+    /**
+     * The chain crc covers the entry and all the entries before it in the same data file, so two logs match up to the entry
+     * in the file if the chain crcs match. The chain begins again at each data file, so that the files could be verified alone.
+     * The entries written by the former versions carry no crc, which is 0.
+     */
+    public static int chainCrc(int prevChainCrc, long index, long term, int bodyCrc) {
+        ByteBuffer buffer = ByteBuffer.allocate(24);
+        buffer.putInt(prevChainCrc);
+        buffer.putLong(index);
+        buffer.putLong(term);
+        buffer.putInt(bodyCrc);
+        return Crc32C.compute(buffer.array());
+    }
+
+    /**
+     * Compute the crc of the body of the encoded entry, from the position of the buffer.
+     */
+    public static int bodyCrc(ByteBuffer entryBuffer, int entrySize) {
+        ByteBuffer body = entryBuffer.duplicate();
+        body.position(entryBuffer.position() + DLedgerEntry.BODY_OFFSET);
+        body.limit(entryBuffer.position() + entrySize);
+        return Crc32C.compute(body);
+    }
+
     public static void setPos(ByteBuffer byteBuffer, long pos) {
         byteBuffer.mark();
         byteBuffer.position(byteBuffer.position() + DLedgerEntry.POS_OFFSET);
@@ -0,0 +1,434 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.openmessaging.storage.dledger.protocol;
+
+import com.alibaba.fastjson.JSON;
+import io.openmessaging.storage.dledger.entry.DLedgerEntry;
+import io.openmessaging.storage.dledger.entry.DLedgerEntryCoder;
+import io.openmessaging.storage.dledger.utils.PreConditions;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The wire codec of the requests and responses.
+ *
+ * The binary layout is: magic(1) version(1) group remoteId localId leaderId code(4) term(8), followed by the fields of
+ * the concrete type. Strings and byte arrays are prefixed by the length, -1 for null, and the entries are written in
+ * the same layout as the store, so the bodies travel as raw bytes. The batch entries of the push request are decoded
+ * lazily, the follower could write their bytes to the store directly.
+ *
+ * The json layout is kept for compatibility, the decoder tells them apart by the first byte.
+ */
+public class DLedgerProtocolCoder {
+
+    public static final byte BINARY_MAGIC = (byte) 0xD1;
+    public static final byte VERSION_1 = 1;
+    public static final byte CURRENT_VERSION = VERSION_1;
+
+    private static final int NULL_LENGTH = -1;
+
+    private static final byte ENTRY_NULL = 0;
+    private static final byte ENTRY_FULL = 1;
+    private static final byte ENTRY_HEADER = 2;
+
+    public static boolean isBinary(byte[] body) {
+        return body != null && body.length >= 2 && body[0] == BINARY_MAGIC;
+    }
+
+    public static byte[] encode(RequestOrResponse request, boolean useJson) {
+        if (useJson) {
+            if (request instanceof GetEntriesResponse) {
+                ((GetEntriesResponse) request).decodeEntryBuffers();
+            }
+            return JSON.toJSONBytes(request);
+        }
+        return encode(request);
+    }
+
+    public static byte[] encode(RequestOrResponse request) {
+        ByteBuffer byteBuffer = ByteBuffer.allocate(computeSize(request));
+        byteBuffer.put(BINARY_MAGIC);
+        byteBuffer.put(CURRENT_VERSION);
+        putString(byteBuffer, request.group);
+        putString(byteBuffer, request.remoteId);
+        putString(byteBuffer, request.localId);
+        putString(byteBuffer, request.leaderId);
+        byteBuffer.putInt(request.code);
+        byteBuffer.putLong(request.term);
+        if (request instanceof PushEntryRequest) {
+            PushEntryRequest pushRequest = (PushEntryRequest) request;
+            byteBuffer.putLong(pushRequest.getCommitIndex());
+            byteBuffer.put((byte) pushRequest.getType().ordinal());
+            putEntry(byteBuffer, pushRequest.getEntry());
+            if (pushRequest.isEncoded()) {
+                putEntryBuffers(byteBuffer, pushRequest.getBatchEntryBuffer());
+            } else {
+                putEntries(byteBuffer, pushRequest.getBatchEntry());
+            }
+            byteBuffer.putLong(pushRequest.getTotalSize());
+        } else if (request instanceof PushEntryResponse) {
+            PushEntryResponse pushResponse = (PushEntryResponse) request;
+            putNullableLong(byteBuffer, pushResponse.getIndex());
+            byteBuffer.putInt(pushResponse.getCount());
+            byteBuffer.putLong(pushResponse.getBeginIndex());
+            byteBuffer.putLong(pushResponse.getEndIndex());
+            byteBuffer.putLong(pushResponse.getConflictTerm());
+            byteBuffer.putLong(pushResponse.getConflictIndex());
+        } else if (request instanceof AppendEntryRequest) {
+            putBytes(byteBuffer, ((AppendEntryRequest) request).getBody());
+        } else if (request instanceof AppendEntryResponse) {
+            byteBuffer.putLong(((AppendEntryResponse) request).getIndex());
+            byteBuffer.putLong(((AppendEntryResponse) request).getPos());
+        } else if (request instanceof GetEntriesRequest) {
+            GetEntriesRequest getRequest = (GetEntriesRequest) request;
+            putNullableLong(byteBuffer, getRequest.getBeginIndex());
+            byteBuffer.putInt(getRequest.getMaxSize());
+            List<Long> indexList = getRequest.getIndexList();
+            byteBuffer.putInt(indexList == null ? NULL_LENGTH : indexList.size());
+            if (indexList != null) {
+                for (Long index : indexList) {
+                    byteBuffer.putLong(index);
+                }
+            }
+        } else if (request instanceof GetEntriesResponse) {
+            GetEntriesResponse getResponse = (GetEntriesResponse) request;
+            if (getResponse.isEncoded()) {
+                putEntryBuffers(byteBuffer, getResponse.getEntryBuffers());
+            } else {
+                putEntries(byteBuffer, getResponse.getEntries());
+            }
+        } else if (request instanceof PullEntriesRequest) {
+            PullEntriesRequest pullRequest = (PullEntriesRequest) request;
+            putString(byteBuffer, pullRequest.getNodeId());
+            putNullableLong(byteBuffer, pullRequest.getBeginIndex());
+            byteBuffer.putLong(pullRequest.getPrevTerm());
+            byteBuffer.putInt(pullRequest.getMaxCount());
+            byteBuffer.putInt(pullRequest.getMaxSize());
+            byteBuffer.putLong(pullRequest.getMaxWaitMs());
+        } else if (request instanceof PullEntriesResponse) {
+            PullEntriesResponse pullResponse = (PullEntriesResponse) request;
+            byteBuffer.putLong(pullResponse.getCommitIndex());
+            byteBuffer.putLong(pullResponse.getBeginIndex());
+            byteBuffer.putLong(pullResponse.getEndIndex());
+            byteBuffer.putLong(pullResponse.getProbeIndex());
+            if (pullResponse.isEncoded()) {
+                putEntryBuffers(byteBuffer, pullResponse.getEntryBuffers());
+            } else {
+                putEntries(byteBuffer, pullResponse.getEntries());
+            }
+        } else if (request instanceof VoteRequest) {
+            byteBuffer.putLong(((VoteRequest) request).getLedgerEndIndex());
+            byteBuffer.putLong(((VoteRequest) request).getLedgerEndTerm());
+        } else if (request instanceof VoteResponse) {
+            byteBuffer.put((byte) ((VoteResponse) request).getVoteResult().ordinal());
+        } else if (request instanceof MetadataResponse) {
+            Map<String, String> peers = ((MetadataResponse) request).getPeers();
+            byteBuffer.putInt(peers == null ? NULL_LENGTH : peers.size());
+            if (peers != null) {
+                for (Map.Entry<String, String> peer : peers.entrySet()) {
+                    putString(byteBuffer, peer.getKey());
+                    putString(byteBuffer, peer.getValue());
+                }
+            }
+        }
+        return byteBuffer.array();
+    }
+
+    public static <T extends RequestOrResponse> T decode(byte[] body, Class<T> clazz) {
+        if (!isBinary(body)) {
+            return JSON.parseObject(body, clazz);
+        }
+        ByteBuffer byteBuffer = ByteBuffer.wrap(body);
+        byteBuffer.get(); //magic
+        byte version = byteBuffer.get();
+        PreConditions.check(version == VERSION_1, DLedgerResponseCode.UNSUPPORTED, "unknown codec version %d", version);
+        T request;
+        try {
+            request = clazz.newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Cannot create " + clazz.getName(), e);
+        }
+        request.group = getString(byteBuffer);
+        request.remoteId = getString(byteBuffer);
+        request.localId = getString(byteBuffer);
+        request.leaderId = getString(byteBuffer);
+        request.code = byteBuffer.getInt();
+        request.term = byteBuffer.getLong();
+        if (request instanceof PushEntryRequest) {
+            PushEntryRequest pushRequest = (PushEntryRequest) request;
+            pushRequest.setCommitIndex(byteBuffer.getLong());
+            pushRequest.setType(PushEntryRequest.Type.values()[byteBuffer.get()]);
+            pushRequest.setEntry(getEntry(byteBuffer));
+            getEntryBuffers(byteBuffer, pushRequest.getBatchEntry(), pushRequest.getBatchEntryBuffer());
+            pushRequest.setTotalSize(byteBuffer.getLong());
+        } else if (request instanceof PushEntryResponse) {
+            PushEntryResponse pushResponse = (PushEntryResponse) request;
+            pushResponse.setIndex(getNullableLong(byteBuffer));
+            pushResponse.setCount(byteBuffer.getInt());
+            pushResponse.setBeginIndex(byteBuffer.getLong());
+            pushResponse.setEndIndex(byteBuffer.getLong());
+            pushResponse.setConflictTerm(byteBuffer.getLong());
+            pushResponse.setConflictIndex(byteBuffer.getLong());
+        } else if (request instanceof AppendEntryRequest) {
+            ((AppendEntryRequest) request).setBody(getBytes(byteBuffer));
+        } else if (request instanceof AppendEntryResponse) {
+            ((AppendEntryResponse) request).setIndex(byteBuffer.getLong());
+            ((AppendEntryResponse) request).setPos(byteBuffer.getLong());
+        } else if (request instanceof GetEntriesRequest) {
+            GetEntriesRequest getRequest = (GetEntriesRequest) request;
+            getRequest.setBeginIndex(getNullableLong(byteBuffer));
+            getRequest.setMaxSize(byteBuffer.getInt());
+            int num = byteBuffer.getInt();
+            if (num != NULL_LENGTH) {
+                List<Long> indexList = new ArrayList<>(num);
+                for (int i = 0; i < num; i++) {
+                    indexList.add(byteBuffer.getLong());
+                }
+                getRequest.setIndexList(indexList);
+            }
+        } else if (request instanceof GetEntriesResponse) {
+            ((GetEntriesResponse) request).setEntries(getEntries(byteBuffer));
+        } else if (request instanceof PullEntriesRequest) {
+            PullEntriesRequest pullRequest = (PullEntriesRequest) request;
+            pullRequest.setNodeId(getString(byteBuffer));
+            pullRequest.setBeginIndex(getNullableLong(byteBuffer));
+            pullRequest.setPrevTerm(byteBuffer.getLong());
+            pullRequest.setMaxCount(byteBuffer.getInt());
+            pullRequest.setMaxSize(byteBuffer.getInt());
+            pullRequest.setMaxWaitMs(byteBuffer.getLong());
+        } else if (request instanceof PullEntriesResponse) {
+            PullEntriesResponse pullResponse = (PullEntriesResponse) request;
+            pullResponse.setCommitIndex(byteBuffer.getLong());
+            pullResponse.setBeginIndex(byteBuffer.getLong());
+            pullResponse.setEndIndex(byteBuffer.getLong());
+            pullResponse.setProbeIndex(byteBuffer.getLong());
+            getEntryBuffers(byteBuffer, pullResponse.getEntries(), pullResponse.getEntryBuffers());
+        } else if (request instanceof VoteRequest) {
+            ((VoteRequest) request).setLedgerEndIndex(byteBuffer.getLong());
+            ((VoteRequest) request).setLedgerEndTerm(byteBuffer.getLong());
+        } else if (request instanceof VoteResponse) {
+            ((VoteResponse) request).setVoteResult(VoteResponse.RESULT.values()[byteBuffer.get()]);
+        } else if (request instanceof MetadataResponse) {
+            int num = byteBuffer.getInt();
+            if (num != NULL_LENGTH) {
+                Map<String, String> peers = new HashMap<>();
+                for (int i = 0; i < num; i++) {
+                    peers.put(getString(byteBuffer), getString(byteBuffer));
+                }
+                ((MetadataResponse) request).setPeers(peers);
+            }
+        }
+        return request;
+    }
+
+    private static int computeSize(RequestOrResponse request) {
+        int size = 1 + 1 + sizeOf(request.group) + sizeOf(request.remoteId) + sizeOf(request.localId) + sizeOf(request.leaderId) + 4 + 8;
+        if (request instanceof PushEntryRequest) {
+            PushEntryRequest pushRequest = (PushEntryRequest) request;
+            size += 8 + 1 + sizeOf(pushRequest.getEntry()) + 8;
+            if (pushRequest.isEncoded()) {
+                size += sizeOfBuffers(pushRequest.getBatchEntryBuffer());
+            } else {
+                size += sizeOf(pushRequest.getBatchEntry());
+            }
+        } else if (request instanceof PushEntryResponse) {
+            size += 9 + 4 + 8 + 8 + 8 + 8;
+        } else if (request instanceof AppendEntryRequest) {
+            byte[] body = ((AppendEntryRequest) request).getBody();
+            size += 4 + (body == null ? 0 : body.length);
+        } else if (request instanceof AppendEntryResponse) {
+            size += 8 + 8;
+        } else if (request instanceof GetEntriesRequest) {
+            List<Long> indexList = ((GetEntriesRequest) request).getIndexList();
+            size += 9 + 4 + 4 + (indexList == null ? 0 : indexList.size() * 8);
+        } else if (request instanceof GetEntriesResponse) {
+            GetEntriesResponse getResponse = (GetEntriesResponse) request;
+            if (getResponse.isEncoded()) {
+                size += sizeOfBuffers(getResponse.getEntryBuffers());
+            } else {
+                size += sizeOf(getResponse.getEntries());
+            }
+        } else if (request instanceof PullEntriesRequest) {
+            size += sizeOf(((PullEntriesRequest) request).getNodeId()) + 9 + 8 + 4 + 4 + 8;
+        } else if (request instanceof PullEntriesResponse) {
+            PullEntriesResponse pullResponse = (PullEntriesResponse) request;
+            size += 8 + 8 + 8 + 8;
+            if (pullResponse.isEncoded()) {
+                size += sizeOfBuffers(pullResponse.getEntryBuffers());
+            } else {
+                size += sizeOf(pullResponse.getEntries());
+            }
+        } else if (request instanceof VoteRequest) {
+            size += 8 + 8;
+        } else if (request instanceof VoteResponse) {
+            size += 1;
+        } else if (request instanceof MetadataResponse) {
+            size += 4;
+            Map<String, String> peers = ((MetadataResponse) request).getPeers();
+            if (peers != null) {
+                for (Map.Entry<String, String> peer : peers.entrySet()) {
+                    size += sizeOf(peer.getKey()) + sizeOf(peer.getValue());
+                }
+            }
+        }
+        return size;
+    }
+
+    private static int sizeOf(String str) {
+        return 4 + (str == null ? 0 : str.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    private static int sizeOf(DLedgerEntry entry) {
+        if (entry == null) {
+            return 1;
+        }
+        return 1 + (entry.getBody() == null ? DLedgerEntry.BODY_OFFSET : entry.computSizeInBytes());
+    }
+
+    private static int sizeOf(List<DLedgerEntry> entries) {
+        int size = 4;
+        if (entries != null) {
+            for (DLedgerEntry entry : entries) {
+                size += sizeOf(entry);
+            }
+        }
+        return size;
+    }
+
+    private static int sizeOfBuffers(List<ByteBuffer> entryBuffers) {
+        int size = 4;
+        for (ByteBuffer entryBuffer : entryBuffers) {
+            size += 1 + entryBuffer.remaining();
+        }
+        return size;
+    }
+
+    private static void putString(ByteBuffer byteBuffer, String str) {
+        putBytes(byteBuffer, str == null ? null : str.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String getString(ByteBuffer byteBuffer) {
+        byte[] bytes = getBytes(byteBuffer);
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void putBytes(ByteBuffer byteBuffer, byte[] bytes) {
+        if (bytes == null) {
+            byteBuffer.putInt(NULL_LENGTH);
+        } else {
+            byteBuffer.putInt(bytes.length);
+            byteBuffer.put(bytes);
+        }
+    }
+
+    private static byte[] getBytes(ByteBuffer byteBuffer) {
+        int len = byteBuffer.getInt();
+        if (len == NULL_LENGTH) {
+            return null;
+        }
+        byte[] bytes = new byte[len];
+        byteBuffer.get(bytes);
+        return bytes;
+    }
+
+    private static void putNullableLong(ByteBuffer byteBuffer, Long value) {
+        byteBuffer.put((byte) (value == null ? 0 : 1));
+        byteBuffer.putLong(value == null ? 0 : value);
+    }
+
+    private static Long getNullableLong(ByteBuffer byteBuffer) {
+        boolean isNull = byteBuffer.get() == 0;
+        long value = byteBuffer.getLong();
+        return isNull ? null : value;
+    }
+
+    /**
+     * The entry without the body is put as the header only, such as the probes of the compare and the truncate.
+     */
+    private static void putEntry(ByteBuffer byteBuffer, DLedgerEntry entry) {
+        if (entry == null) {
+            byteBuffer.put(ENTRY_NULL);
+        } else if (entry.getBody() == null) {
+            byteBuffer.put(ENTRY_HEADER);
+            DLedgerEntryCoder.putHeader(entry, byteBuffer);
+        } else {
+            byteBuffer.put(ENTRY_FULL);
+            DLedgerEntryCoder.put(entry, byteBuffer);
+        }
+    }
+
+    private static DLedgerEntry getEntry(ByteBuffer byteBuffer) {
+        byte flag = byteBuffer.get();
+        if (flag == ENTRY_NULL) {
+            return null;
+        }
+        return DLedgerEntryCoder.decode(byteBuffer, flag == ENTRY_FULL);
+    }
+
+    private static void putEntries(ByteBuffer byteBuffer, List<DLedgerEntry> entries) {
+        byteBuffer.putInt(entries == null ? NULL_LENGTH : entries.size());
+        if (entries != null) {
+            for (DLedgerEntry entry : entries) {
+                putEntry(byteBuffer, entry);
+            }
+        }
+    }
+
+    private static void putEntryBuffers(ByteBuffer byteBuffer, List<ByteBuffer> entryBuffers) {
+        byteBuffer.putInt(entryBuffers.size());
+        for (ByteBuffer entryBuffer : entryBuffers) {
+            byteBuffer.put(ENTRY_FULL);
+            byteBuffer.put(entryBuffer.duplicate());
+        }
+    }
+
+    /**
+     * Read the entries without copying the bodies, the entries only have the header,
+     * and the encoded bytes are kept as the slices of the body.
+     */
+    private static void getEntryBuffers(ByteBuffer byteBuffer, List<DLedgerEntry> entries, List<ByteBuffer> entryBuffers) {
+        int num = byteBuffer.getInt();
+        for (int i = 0; i < num; i++) {
+            if (byteBuffer.get() == ENTRY_NULL) {
+                continue;
+            }
+            int size = byteBuffer.getInt(byteBuffer.position() + 4);
+            ByteBuffer entryBuffer = byteBuffer.slice();
+            entryBuffer.limit(size);
+            byteBuffer.position(byteBuffer.position() + size);
+            entries.add(DLedgerEntryCoder.decode(entryBuffer.duplicate(), false));
+            entryBuffers.add(entryBuffer);
+        }
+    }
+
+    private static List<DLedgerEntry> getEntries(ByteBuffer byteBuffer) {
+        int num = byteBuffer.getInt();
+        if (num == NULL_LENGTH) {
+            return null;
+        }
+        List<DLedgerEntry> entries = new ArrayList<>(num);
+        for (int i = 0; i < num; i++) {
+            entries.add(getEntry(byteBuffer));
+        }
+        return entries;
+    }
+}
@@ -17,13 +17,22 @@
 
 package io.openmessaging.storage.dledger.protocol;
 
+import com.alibaba.fastjson.annotation.JSONField;
 import io.openmessaging.storage.dledger.entry.DLedgerEntry;
+import io.openmessaging.storage.dledger.entry.DLedgerEntryCoder;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
 public class GetEntriesResponse extends RequestOrResponse {
     private List<DLedgerEntry> entries = new ArrayList<>();
 
+    //the entries encoded in the layout of the store, the bodies of entries may be absent if they are present
+    private List<ByteBuffer> entryBuffers = new ArrayList<>();
+
+    //the release actions of the views the entry buffers are read from, which run once the response is written
+    private List<Runnable> releases = new ArrayList<>();
+
     public List<DLedgerEntry> getEntries() {
         return entries;
     }
@@ -31,4 +40,50 @@ public class GetEntriesResponse extends RequestOrResponse {
     public void setEntries(List<DLedgerEntry> entries) {
         this.entries = entries;
     }
+
+    @JSONField(serialize = false, deserialize = false)
+    public List<ByteBuffer> getEntryBuffers() {
+        return entryBuffers;
+    }
+
+    @JSONField(serialize = false, deserialize = false)
+    public void setEntryBuffers(List<ByteBuffer> entryBuffers) {
+        this.entryBuffers = entryBuffers;
+    }
+
+    /**
+     * Add the entry together with its encoded bytes, the header of the entry should be the same as the bytes.
+     */
+    public void addEntry(DLedgerEntry entry, ByteBuffer entryBuffer) {
+        entries.add(entry);
+        entryBuffers.add(entryBuffer);
+    }
+
+    @JSONField(serialize = false, deserialize = false)
+    public boolean isEncoded() {
+        return entries != null && !entries.isEmpty() && entryBuffers != null && entryBuffers.size() == entries.size();
+    }
+
+    /**
+     * Replace the entries with the ones decoded from the encoded bytes, for the json codec which cannot write the bytes.
+     */
+    public void decodeEntryBuffers() {
+        if (isEncoded()) {
+            for (int i = 0; i < entries.size(); i++) {
+                entries.set(i, DLedgerEntryCoder.decode(entryBuffers.get(i).duplicate()));
+            }
+            entryBuffers = new ArrayList<>();
+        }
+    }
+
+    public void addRelease(Runnable release) {
+        releases.add(release);
+    }
+
+    public void release() {
+        for (Runnable release : releases) {
+            release.run();
+        }
+        releases.clear();
+    }
 }
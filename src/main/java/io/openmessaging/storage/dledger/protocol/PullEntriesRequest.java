@@ -20,6 +20,13 @@ package io.openmessaging.storage.dledger.protocol;
 public class PullEntriesRequest extends RequestOrResponse {
     private String nodeId;
     private Long beginIndex;
+    //the term of the puller's entry before the begin index, -1 if absent
+    private long prevTerm = -1;
+    //the limits of the entries in one response, at least one entry will be returned
+    private int maxCount;
+    private int maxSize;
+    //the leader could hold the request for this long if there is no new entry
+    private long maxWaitMs;
 
     public Long getBeginIndex() {
         return beginIndex;
@@ -36,4 +43,36 @@ public class PullEntriesRequest extends RequestOrResponse {
     public void setNodeId(String nodeId) {
         this.nodeId = nodeId;
     }
+
+    public long getPrevTerm() {
+        return prevTerm;
+    }
+
+    public void setPrevTerm(long prevTerm) {
+        this.prevTerm = prevTerm;
+    }
+
+    public int getMaxCount() {
+        return maxCount;
+    }
+
+    public void setMaxCount(int maxCount) {
+        this.maxCount = maxCount;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public long getMaxWaitMs() {
+        return maxWaitMs;
+    }
+
+    public void setMaxWaitMs(long maxWaitMs) {
+        this.maxWaitMs = maxWaitMs;
+    }
 }
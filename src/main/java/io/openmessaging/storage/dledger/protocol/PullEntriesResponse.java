@@ -17,12 +17,23 @@
 
 package io.openmessaging.storage.dledger.protocol;
 
+import com.alibaba.fastjson.annotation.JSONField;
 import io.openmessaging.storage.dledger.entry.DLedgerEntry;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
 public class PullEntriesResponse extends RequestOrResponse {
     private List<DLedgerEntry> entries = new ArrayList<>();
+    private long commitIndex = -1;
+    //the range of the leader's entries
+    private long beginIndex = -1;
+    private long endIndex = -1;
+    //the begin index for the puller to probe next if the entries are inconsistent, -1 if absent
+    private long probeIndex = -1;
+
+    //the entries encoded in the layout of the store, the bodies of entries may be absent if they are present
+    private List<ByteBuffer> entryBuffers = new ArrayList<>();
 
     public List<DLedgerEntry> getEntries() {
         return entries;
@@ -31,4 +42,59 @@ public class PullEntriesResponse extends RequestOrResponse {
     public void setEntries(List<DLedgerEntry> entries) {
         this.entries = entries;
     }
+
+    public long getCommitIndex() {
+        return commitIndex;
+    }
+
+    public void setCommitIndex(long commitIndex) {
+        this.commitIndex = commitIndex;
+    }
+
+    public long getBeginIndex() {
+        return beginIndex;
+    }
+
+    public void setBeginIndex(long beginIndex) {
+        this.beginIndex = beginIndex;
+    }
+
+    public long getEndIndex() {
+        return endIndex;
+    }
+
+    public void setEndIndex(long endIndex) {
+        this.endIndex = endIndex;
+    }
+
+    public long getProbeIndex() {
+        return probeIndex;
+    }
+
+    public void setProbeIndex(long probeIndex) {
+        this.probeIndex = probeIndex;
+    }
+
+    @JSONField(serialize = false, deserialize = false)
+    public List<ByteBuffer> getEntryBuffers() {
+        return entryBuffers;
+    }
+
+    @JSONField(serialize = false, deserialize = false)
+    public void setEntryBuffers(List<ByteBuffer> entryBuffers) {
+        this.entryBuffers = entryBuffers;
+    }
+
+    /**
+     * Add the entry together with its encoded bytes, the header of the entry should be the same as the bytes.
+     */
+    public void addEntry(DLedgerEntry entry, ByteBuffer entryBuffer) {
+        entries.add(entry);
+        entryBuffers.add(entryBuffer);
+    }
+
+    @JSONField(serialize = false, deserialize = false)
+    public boolean isEncoded() {
+        return entries != null && !entries.isEmpty() && entryBuffers != null && entryBuffers.size() == entries.size();
+    }
 }
@@ -17,13 +17,24 @@
 
 package io.openmessaging.storage.dledger.protocol;
 
+import com.alibaba.fastjson.annotation.JSONField;
 import io.openmessaging.storage.dledger.entry.DLedgerEntry;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 
 public class PushEntryRequest extends RequestOrResponse {
     private long commitIndex = -1;
     private Type type = Type.APPEND;
     private DLedgerEntry entry;
 
+    //for batch append push, the entries should be contiguous
+    private List<DLedgerEntry> batchEntry = new ArrayList<>();
+    private long totalSize;
+
+    //the batch entries encoded in the layout of the store, the bodies of batchEntry may be absent if they are present
+    private List<ByteBuffer> batchEntryBuffer = new ArrayList<>();
+
     public DLedgerEntry getEntry() {
         return entry;
     }
@@ -48,6 +59,79 @@ public class PushEntryRequest extends RequestOrResponse {
         this.commitIndex = commitIndex;
     }
 
+    public List<DLedgerEntry> getBatchEntry() {
+        return batchEntry;
+    }
+
+    public void setBatchEntry(List<DLedgerEntry> batchEntry) {
+        this.batchEntry = batchEntry;
+    }
+
+    public long getTotalSize() {
+        return totalSize;
+    }
+
+    public void setTotalSize(long totalSize) {
+        this.totalSize = totalSize;
+    }
+
+    @JSONField(serialize = false, deserialize = false)
+    public List<ByteBuffer> getBatchEntryBuffer() {
+        return batchEntryBuffer;
+    }
+
+    @JSONField(serialize = false, deserialize = false)
+    public void setBatchEntryBuffer(List<ByteBuffer> batchEntryBuffer) {
+        this.batchEntryBuffer = batchEntryBuffer;
+    }
+
+    public void addEntry(DLedgerEntry entry) {
+        if (entry != null) {
+            batchEntry.add(entry);
+            totalSize += entry.getSize();
+        }
+    }
+
+    /**
+     * Add the entry together with its encoded bytes, the header of the entry should be the same as the bytes.
+     */
+    public void addEntry(DLedgerEntry entry, ByteBuffer entryBuffer) {
+        if (entry != null) {
+            addEntry(entry);
+            batchEntryBuffer.add(entryBuffer);
+        }
+    }
+
+    @JSONField(serialize = false, deserialize = false)
+    public boolean isEncoded() {
+        return isBatch() && batchEntryBuffer != null && batchEntryBuffer.size() == batchEntry.size();
+    }
+
+    public boolean isBatch() {
+        return batchEntry != null && !batchEntry.isEmpty();
+    }
+
+    public int getCount() {
+        if (isBatch()) {
+            return batchEntry.size();
+        }
+        return entry != null ? 1 : 0;
+    }
+
+    public long getFirstEntryIndex() {
+        if (isBatch()) {
+            return batchEntry.get(0).getIndex();
+        }
+        return entry != null ? entry.getIndex() : -1;
+    }
+
+    public long getLastEntryIndex() {
+        if (isBatch()) {
+            return batchEntry.get(batchEntry.size() - 1).getIndex();
+        }
+        return entry != null ? entry.getIndex() : -1;
+    }
+
     public enum Type {
         APPEND,
         COMMIT,
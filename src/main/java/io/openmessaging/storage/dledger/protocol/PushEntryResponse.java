@@ -19,10 +19,16 @@ package io.openmessaging.storage.dledger.protocol;
 
 public class PushEntryResponse extends RequestOrResponse {
     private Long index;
+    private int count;
 
     private long beginIndex;
     private long endIndex;
 
+    //the hints for the leader if the compared entry conflicts, the term of the follower's entry
+    //and the first index of the term in the follower's ledger, -1 if absent
+    private long conflictTerm = -1;
+    private long conflictIndex = -1;
+
     public Long getIndex() {
         return index;
     }
@@ -31,6 +37,14 @@ public class PushEntryResponse extends RequestOrResponse {
         this.index = index;
     }
 
+    public int getCount() {
+        return count;
+    }
+
+    public void setCount(int count) {
+        this.count = count;
+    }
+
     public long getBeginIndex() {
         return beginIndex;
     }
@@ -46,4 +60,20 @@ public class PushEntryResponse extends RequestOrResponse {
     public void setEndIndex(long endIndex) {
         this.endIndex = endIndex;
     }
+
+    public long getConflictTerm() {
+        return conflictTerm;
+    }
+
+    public void setConflictTerm(long conflictTerm) {
+        this.conflictTerm = conflictTerm;
+    }
+
+    public long getConflictIndex() {
+        return conflictIndex;
+    }
+
+    public void setConflictIndex(long conflictIndex) {
+        this.conflictIndex = conflictIndex;
+    }
 }
@@ -22,6 +22,7 @@ import io.openmessaging.storage.dledger.MemberState;
 import io.openmessaging.storage.dledger.entry.DLedgerEntry;
 import io.openmessaging.storage.dledger.protocol.DLedgerResponseCode;
 import io.openmessaging.storage.dledger.utils.PreConditions;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import org.slf4j.Logger;
@@ -50,23 +51,40 @@ public class DLedgerMemoryStore extends DLedgerStore {
         PreConditions.check(memberState.isLeader(), DLedgerResponseCode.NOT_LEADER);
         synchronized (memberState) {
             PreConditions.check(memberState.isLeader(), DLedgerResponseCode.NOT_LEADER);
-            ledgerEndIndex++;
-            committedIndex++;
-            ledgerEndTerm = memberState.currTerm();
-            entry.setIndex(ledgerEndIndex);
-            entry.setTerm(memberState.currTerm());
-            if (logger.isDebugEnabled()) {
-                logger.debug("[{}] Append as Leader {} {}", memberState.getSelfId(), entry.getIndex(), entry.getBody().length);
-            }
-            cachedEntries.put(entry.getIndex(), entry);
-            if (ledgerBeginIndex == -1) {
-                ledgerBeginIndex = ledgerEndIndex;
-            }
+            appendInner(entry);
             updateLedgerEndIndexAndTerm();
             return entry;
         }
     }
 
+    @Override
+    public List<DLedgerEntry> appendAsLeader(List<DLedgerEntry> entries) {
+        PreConditions.check(memberState.isLeader(), DLedgerResponseCode.NOT_LEADER);
+        synchronized (memberState) {
+            PreConditions.check(memberState.isLeader(), DLedgerResponseCode.NOT_LEADER);
+            for (DLedgerEntry entry : entries) {
+                appendInner(entry);
+            }
+            updateLedgerEndIndexAndTerm();
+            return entries;
+        }
+    }
+
+    private void appendInner(DLedgerEntry entry) {
+        ledgerEndIndex++;
+        committedIndex++;
+        ledgerEndTerm = memberState.currTerm();
+        entry.setIndex(ledgerEndIndex);
+        entry.setTerm(memberState.currTerm());
+        if (logger.isDebugEnabled()) {
+            logger.debug("[{}] Append as Leader {} {}", memberState.getSelfId(), entry.getIndex(), entry.getBody().length);
+        }
+        cachedEntries.put(entry.getIndex(), entry);
+        if (ledgerBeginIndex == -1) {
+            ledgerBeginIndex = ledgerEndIndex;
+        }
+    }
+
     @Override
     public long truncate(DLedgerEntry entry, long leaderTerm, String leaderId) {
         return appendAsFollower(entry, leaderTerm, leaderId).getIndex();
@@ -19,19 +19,94 @@ package io.openmessaging.storage.dledger.store;
 
 import io.openmessaging.storage.dledger.MemberState;
 import io.openmessaging.storage.dledger.entry.DLedgerEntry;
+import io.openmessaging.storage.dledger.entry.DLedgerEntryCoder;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public abstract class DLedgerStore {
 
+    protected List<FlushHook> flushHooks = new CopyOnWriteArrayList<>();
+
     public MemberState getMemberState() {
         return null;
     }
 
     public abstract DLedgerEntry appendAsLeader(DLedgerEntry entry);
 
+    /**
+     * Append the entries as leader in order, the implementations should append them as a whole under one lock.
+     * @param entries the entries to append
+     * @return the appended entries, with the index, term and pos assigned
+     */
+    public List<DLedgerEntry> appendAsLeader(List<DLedgerEntry> entries) {
+        for (DLedgerEntry entry : entries) {
+            appendAsLeader(entry);
+        }
+        return entries;
+    }
+
     public abstract DLedgerEntry appendAsFollower(DLedgerEntry entry, long leaderTerm, String leaderId);
 
+    /**
+     * Append the entry encoded in the layout of the store as follower, the implementations could write the bytes directly.
+     * @param entryBuffer the encoded entry, from the position to the limit
+     * @return the appended entry, the body may be absent
+     */
+    public DLedgerEntry appendAsFollower(ByteBuffer entryBuffer, long leaderTerm, String leaderId) {
+        return appendAsFollower(DLedgerEntryCoder.decode(entryBuffer.duplicate()), leaderTerm, leaderId);
+    }
+
+    /**
+     * Append the encoded entries as follower in order, the implementations should append them under one lock.
+     * @param entryBuffers the encoded entries, each from the position to the limit
+     * @return the appended entries, the bodies may be absent
+     */
+    public List<DLedgerEntry> appendAsFollower(List<ByteBuffer> entryBuffers, long leaderTerm, String leaderId) {
+        List<DLedgerEntry> entries = new ArrayList<>(entryBuffers.size());
+        for (ByteBuffer entryBuffer : entryBuffers) {
+            entries.add(appendAsFollower(entryBuffer, leaderTerm, leaderId));
+        }
+        return entries;
+    }
+
     public abstract DLedgerEntry get(Long index);
 
+    /**
+     * Get the contiguous entries from the begin index, at most maxCount entries and maxBytes bytes, but one entry at least.
+     * The implementations could read them as a whole, the default one gets them one by one.
+     */
+    public List<DLedgerEntry> get(long beginIndex, int maxCount, int maxBytes) {
+        List<DLedgerEntry> entries = new ArrayList<>();
+        long totalSize = 0;
+        for (long i = beginIndex; i <= getLedgerEndIndex() && entries.size() < maxCount; i++) {
+            DLedgerEntry entry = get(i);
+            if (entry == null || !entries.isEmpty() && totalSize + entry.getSize() > maxBytes) {
+                break;
+            }
+            entries.add(entry);
+            totalSize += entry.getSize();
+        }
+        return entries;
+    }
+
+    /**
+     * Get the entry without the body, which is enough to compare the entries carrying the crcs.
+     * The implementations could read the header only, the default one reads the whole entry.
+     */
+    public DLedgerEntry getEntryHeader(long index) {
+        return get(index);
+    }
+
+    /**
+     * Get the metadata of the entry, that is the magic, pos, size, index and term, for the callers not caring about the rest.
+     * The implementations could read the index only, the default one reads the whole entry.
+     */
+    public DLedgerEntry getMeta(long index) {
+        return get(index);
+    }
+
     public abstract long getCommittedIndex();
 
     public void updateCommittedIndex(long term, long committedIndex) {
@@ -44,6 +119,26 @@ public abstract class DLedgerStore {
 
     public abstract long getLedgerBeginIndex();
 
+    /**
+     * Get the index up to which the entries could be acked by this node.
+     * In the SYNC_FLUSH mode it is the last entry forced to the disk, otherwise the entries count once appended.
+     */
+    public long getFlushedIndex() {
+        return getLedgerEndIndex();
+    }
+
+    public void addFlushHook(FlushHook flushHook) {
+        if (!flushHooks.contains(flushHook)) {
+            flushHooks.add(flushHook);
+        }
+    }
+
+    protected void notifyFlushed(long flushedIndex) {
+        for (FlushHook flushHook : flushHooks) {
+            flushHook.doHook(flushedIndex);
+        }
+    }
+
     protected void updateLedgerEndIndexAndTerm() {
         if (getMemberState() != null) {
             getMemberState().updateLedgerIndexAndTerm(getLedgerEndIndex(), getLedgerEndTerm());
@@ -65,4 +160,8 @@ public abstract class DLedgerStore {
     public void shutdown() {
 
     }
+
+    public interface FlushHook {
+        void doHook(long flushedIndex);
+    }
 }
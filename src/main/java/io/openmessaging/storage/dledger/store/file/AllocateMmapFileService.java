@@ -0,0 +1,180 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.openmessaging.storage.dledger.store.file;
+
+import io.openmessaging.storage.dledger.ShutdownAbleThread;
+import io.openmessaging.storage.dledger.utils.DLedgerUtils;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static io.openmessaging.storage.dledger.store.file.DefaultMmapFile.OS_PAGE_SIZE;
+
+/**
+ * Create and map the next file of each file list ahead of time, so that the append path only swaps in a ready file
+ * instead of creating and mapping it under the lock when the last file is full.
+ * Each file list has at most one file allocated ahead, the unclaimed files are destroyed on shutdown,
+ * and a file left by a crash is truncated by the recovery as it is beyond the end of the data.
+ */
+public class AllocateMmapFileService extends ShutdownAbleThread {
+    private static Logger logger = LoggerFactory.getLogger(AllocateMmapFileService.class);
+
+    private final boolean warmMappedFile;
+
+    //the file allocated ahead of each file list, by the store path
+    private final ConcurrentMap<String, AllocateRequest> requestTable = new ConcurrentHashMap<>();
+    private final Queue<AllocateRequest> requestQueue = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param warmMappedFile whether to touch every page of the allocated files, so that the page faults happen ahead too
+     */
+    public AllocateMmapFileService(boolean warmMappedFile) {
+        super("AllocateMmapFileService", logger);
+        this.warmMappedFile = warmMappedFile;
+    }
+
+    /**
+     * Take the file allocated ahead if it is the requested one, otherwise create it in place.
+     * Then request to allocate the file after it.
+     *
+     * @return the file, or null if failed to create it
+     */
+    public MmapFile allocate(String storePath, String filePath, String nextFilePath, int fileSize,
+        TransientStorePool transientStorePool) {
+        MmapFile mappedFile = null;
+        AllocateRequest request = requestTable.remove(storePath);
+        if (request != null) {
+            MmapFile allocated = request.take();
+            if (allocated != null && request.filePath.equals(filePath)) {
+                mappedFile = allocated;
+            } else if (allocated != null) {
+                //the files have been truncated since it was requested
+                logger.info("Destroy the allocated file {} as {} is requested", request.filePath, filePath);
+                allocated.destroy(1000);
+            }
+        }
+        if (mappedFile == null) {
+            mappedFile = create(filePath, fileSize, transientStorePool, false);
+        }
+        AllocateRequest nextRequest = new AllocateRequest(nextFilePath, fileSize, transientStorePool);
+        if (requestTable.putIfAbsent(storePath, nextRequest) == null) {
+            requestQueue.offer(nextRequest);
+            wakeup();
+        }
+        return mappedFile;
+    }
+
+    private MmapFile create(String filePath, int fileSize, TransientStorePool transientStorePool, boolean warm) {
+        long start = System.currentTimeMillis();
+        try {
+            MmapFile mappedFile = new DefaultMmapFile(filePath, fileSize, transientStorePool);
+            if (warm) {
+                ByteBuffer byteBuffer = mappedFile.sliceByteBuffer();
+                for (int pos = 0; pos < fileSize; pos += OS_PAGE_SIZE) {
+                    byteBuffer.put(pos, (byte) 0);
+                }
+            }
+            if (DLedgerUtils.elapsed(start) > 100) {
+                logger.info("Create mapped file {} warm={} cost={} ms", filePath, warm, DLedgerUtils.elapsed(start));
+            }
+            return mappedFile;
+        } catch (IOException e) {
+            logger.error("create mappedFile exception", e);
+            return null;
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        for (AllocateRequest request : requestTable.values()) {
+            MmapFile allocated = request.take();
+            if (allocated != null) {
+                logger.info("Destroy the unclaimed allocated file {}", request.filePath);
+                allocated.destroy(1000);
+            }
+        }
+        requestTable.clear();
+    }
+
+    @Override
+    public void doWork() {
+        try {
+            AllocateRequest request = requestQueue.poll();
+            if (request == null) {
+                waitForRunning(1000);
+                return;
+            }
+            if (request.state.compareAndSet(AllocateRequest.QUEUED, AllocateRequest.RUNNING)) {
+                request.mappedFile = create(request.filePath, request.fileSize, request.transientStorePool, warmMappedFile);
+                request.state.set(AllocateRequest.DONE);
+                request.latch.countDown();
+            }
+        } catch (Throwable t) {
+            logger.error("Error in {}", getName(), t);
+            DLedgerUtils.sleep(100);
+        }
+    }
+
+    private class AllocateRequest {
+        private static final int QUEUED = 0;
+        private static final int RUNNING = 1;
+        private static final int DONE = 2;
+        private static final int CANCELLED = 3;
+
+        private final String filePath;
+        private final int fileSize;
+        private final TransientStorePool transientStorePool;
+        private final AtomicInteger state = new AtomicInteger(QUEUED);
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private volatile MmapFile mappedFile;
+
+        AllocateRequest(String filePath, int fileSize, TransientStorePool transientStorePool) {
+            this.filePath = filePath;
+            this.fileSize = fileSize;
+            this.transientStorePool = transientStorePool;
+        }
+
+        /**
+         * Cancel the request if it is not started yet, otherwise wait for the allocated file.
+         *
+         * @return the allocated file, or null if cancelled or failed
+         */
+        private MmapFile take() {
+            if (state.compareAndSet(QUEUED, CANCELLED)) {
+                return null;
+            }
+            //the file is being created, wait for it rather than creating the same file twice
+            while (true) {
+                try {
+                    latch.await();
+                    return mappedFile;
+                } catch (InterruptedException e) {
+                    logger.warn("Interrupted in waiting for the allocated file {}", filePath);
+                }
+            }
+        }
+    }
+}
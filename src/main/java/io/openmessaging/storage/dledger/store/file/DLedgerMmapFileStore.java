@@ -24,14 +24,23 @@ import io.openmessaging.storage.dledger.entry.DLedgerEntry;
 import io.openmessaging.storage.dledger.entry.DLedgerEntryCoder;
 import io.openmessaging.storage.dledger.protocol.DLedgerResponseCode;
 import io.openmessaging.storage.dledger.store.DLedgerStore;
+import io.openmessaging.storage.dledger.utils.Crc32C;
 import io.openmessaging.storage.dledger.utils.IOUtils;
 import io.openmessaging.storage.dledger.utils.PreConditions;
 import io.openmessaging.storage.dledger.utils.DLedgerUtils;
 import java.io.File;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,9 +50,16 @@ public class DLedgerMmapFileStore extends DLedgerStore {
     public static final String CHECK_POINT_FILE = "checkpoint";
     public static final String END_INDEX_KEY = "endIndex";
     public static final String COMMITTED_INDEX_KEY = "committedIndex";
+    //written only by the clean shutdown, along with the exact end positions
+    public static final String CLEAN_SHUTDOWN_KEY = "cleanShutdown";
+    public static final String END_TERM_KEY = "endTerm";
+    public static final String END_CHAIN_CRC_KEY = "endChainCrc";
+    public static final String DATA_END_POS_KEY = "dataEndPos";
+    public static final String INDEX_END_POS_KEY = "indexEndPos";
     public static final int MAGIC_1 = 1;
     public static final int CURRENT_MAGIC = MAGIC_1;
     public static final int INDEX_UNIT_SIZE = 32;
+    public static final int MAX_BATCH_APPEND_NUM = 1024;
 
     private static Logger logger = LoggerFactory.getLogger(DLedgerMmapFileStore.class);
     public List<AppendHook> appendHooks = new ArrayList<>();
@@ -52,13 +68,28 @@ public class DLedgerMmapFileStore extends DLedgerStore {
     private long committedIndex = -1;
     private long committedPos = -1;
     private long ledgerEndTerm;
+    //the chain crc of the last entry, guarded by the lock of the member state
+    private int ledgerEndChainCrc = 0;
+    //only maintained in the SYNC_FLUSH mode, the truncation moves it back under the lock of the member state
+    private volatile long flushedIndex = -1;
+    private long truncateTimes = 0;
+    //bumped before and after the truncation, the cold data read ahead with another version is dropped
+    private volatile long truncateVersion = 0;
+    private final Object flushLock = new Object();
     private DLedgerConfig dLedgerConfig;
     private MemberState memberState;
     private MmapFileList dataFileList;
     private MmapFileList indexFileList;
-    private ThreadLocal<ByteBuffer> localEntryBuffer;
     private ThreadLocal<ByteBuffer> localIndexBuffer;
+    private ThreadLocal<ByteBuffer> localBatchIndexBuffer;
+    private ReadAheadPool readAheadPool;
+    private TransientStorePool transientStorePool;
+    private AllocateMmapFileService allocateMmapFileService;
+    private CommitDataService commitDataService;
     private FlushDataService flushDataService;
+    private GroupFlushService groupFlushService;
+    //flush the index files in parallel with the data files
+    private ExecutorService flushIndexExecutor;
     private CleanSpaceService cleanSpaceService;
     private boolean isDiskFull = false;
 
@@ -70,27 +101,66 @@ public class DLedgerMmapFileStore extends DLedgerStore {
     public DLedgerMmapFileStore(DLedgerConfig dLedgerConfig, MemberState memberState) {
         this.dLedgerConfig = dLedgerConfig;
         this.memberState = memberState;
-        this.dataFileList = new MmapFileList(dLedgerConfig.getDataStorePath(), dLedgerConfig.getMappedFileSizeForEntryData());
-        this.indexFileList = new MmapFileList(dLedgerConfig.getIndexStorePath(), dLedgerConfig.getMappedFileSizeForEntryIndex());
-        localEntryBuffer = ThreadLocal.withInitial(() -> ByteBuffer.allocate(4 * 1024 * 1024));
+        if (dLedgerConfig.isTransientStorePoolEnable()) {
+            this.transientStorePool = new TransientStorePool(dLedgerConfig.getTransientStorePoolSize(), dLedgerConfig.getMappedFileSizeForEntryData());
+            this.transientStorePool.init();
+            if (!dLedgerConfig.isSyncFlush()) {
+                this.commitDataService = new CommitDataService("DLedgerCommitDataService", logger);
+            }
+        }
+        if (dLedgerConfig.isPreallocateMappedFile()) {
+            this.allocateMmapFileService = new AllocateMmapFileService(dLedgerConfig.isWarmMappedFile());
+        }
+        this.dataFileList = new MmapFileList(dLedgerConfig.getDataStorePath(), dLedgerConfig.getMappedFileSizeForEntryData(), transientStorePool, allocateMmapFileService);
+        this.indexFileList = new MmapFileList(dLedgerConfig.getIndexStorePath(), dLedgerConfig.getMappedFileSizeForEntryIndex(), null, allocateMmapFileService);
         localIndexBuffer = ThreadLocal.withInitial(() -> ByteBuffer.allocate(INDEX_UNIT_SIZE * 2));
+        localBatchIndexBuffer = ThreadLocal.withInitial(() -> ByteBuffer.allocate(INDEX_UNIT_SIZE * MAX_BATCH_APPEND_NUM));
+        readAheadPool = new ReadAheadPool(dLedgerConfig);
+        flushIndexExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "DLedgerFlushIndexThread");
+            thread.setDaemon(true);
+            return thread;
+        });
         flushDataService = new FlushDataService("DLedgerFlushDataService", logger);
+        if (dLedgerConfig.isSyncFlush()) {
+            groupFlushService = new GroupFlushService("DLedgerGroupFlushService", logger);
+        }
         cleanSpaceService = new CleanSpaceService("DLedgerCleanSpaceService", logger);
     }
 
     public void startup() {
         load();
         recover();
+        //the recovery scans the files without holding them, so bound the mappings only after it
+        dataFileList.setMaxMappedFiles(dLedgerConfig.getMaxMappedFilesForEntryData());
+        dataFileList.unmapColdFiles();
+        if (allocateMmapFileService != null) {
+            allocateMmapFileService.start();
+        }
+        if (commitDataService != null) {
+            commitDataService.start();
+        }
+        if (groupFlushService != null) {
+            groupFlushService.start();
+        }
         flushDataService.start();
         cleanSpaceService.start();
     }
 
     public void shutdown() {
-        this.dataFileList.flush(0);
-        this.indexFileList.flush(0);
-        persistCheckPoint();
         cleanSpaceService.shutdown();
+        if (commitDataService != null) {
+            commitDataService.shutdown();
+        }
+        if (groupFlushService != null) {
+            groupFlushService.shutdown();
+        }
         flushDataService.shutdown();
+        flushIndexExecutor.shutdown();
+        persistCleanShutdown();
+        if (allocateMmapFileService != null) {
+            allocateMmapFileService.shutdown();
+        }
     }
 
     public long getWritePos() {
@@ -102,6 +172,7 @@ public class DLedgerMmapFileStore extends DLedgerStore {
     }
 
     public void flush() {
+        this.dataFileList.commit(0);
         this.dataFileList.flush(0);
         this.indexFileList.flush(0);
     }
@@ -126,8 +197,82 @@ public class DLedgerMmapFileStore extends DLedgerStore {
         if (mappedFiles.isEmpty()) {
             this.indexFileList.updateWherePosition(0);
             this.indexFileList.truncateOffset(0);
+            persistCheckPoint();
             return;
         }
+        Properties checkPoint = loadCheckPoint();
+        if (!recoverFromCleanShutdown(checkPoint)) {
+            recoverByScanning(mappedFiles);
+        }
+        PreConditions.check(dataFileList.checkSelf(), DLedgerResponseCode.DISK_ERROR, "check data file order failed after recovery");
+        PreConditions.check(indexFileList.checkSelf(), DLedgerResponseCode.DISK_ERROR, "check index file order failed after recovery");
+        //Load the committed index from checkpoint
+        if (checkPoint != null && checkPoint.containsKey(COMMITTED_INDEX_KEY)) {
+            String committedIndexStr = String.valueOf(checkPoint.get(COMMITTED_INDEX_KEY)).trim();
+            if (committedIndexStr.length() > 0) {
+                logger.info("Recover to get committed index={} from checkpoint", committedIndexStr);
+                updateCommittedIndex(memberState.currTerm(), Long.valueOf(committedIndexStr));
+            }
+        }
+        //drop the clean shutdown mark before any new write, the next startup scans the files unless shut down cleanly again
+        persistCheckPoint();
+    }
+
+    /**
+     * Recover from the end positions marked by the last clean shutdown, without scanning the files.
+     * The mark is trusted only if the last entry agrees with it, otherwise the files are scanned as after a crash.
+     * @return whether recovered from the mark
+     */
+    private boolean recoverFromCleanShutdown(Properties checkPoint) {
+        if (checkPoint == null || !Boolean.parseBoolean(checkPoint.getProperty(CLEAN_SHUTDOWN_KEY))) {
+            return false;
+        }
+        long endIndex;
+        long endTerm;
+        int endChainCrc;
+        long dataEndPos;
+        SelectMmapBufferResult indexSbr = null;
+        SelectMmapBufferResult dataSbr = null;
+        try {
+            endIndex = Long.parseLong(checkPoint.getProperty(END_INDEX_KEY).trim());
+            endTerm = Long.parseLong(checkPoint.getProperty(END_TERM_KEY).trim());
+            endChainCrc = Integer.parseInt(checkPoint.getProperty(END_CHAIN_CRC_KEY).trim());
+            dataEndPos = Long.parseLong(checkPoint.getProperty(DATA_END_POS_KEY).trim());
+            long indexEndPos = Long.parseLong(checkPoint.getProperty(INDEX_END_POS_KEY).trim());
+            PreConditions.check(dataEndPos >= dataFileList.getMinOffset() && dataEndPos <= dataFileList.getMaxWrotePosition(), DLedgerResponseCode.DISK_ERROR,
+                "dataEndPos=%d out of %d-%d", dataEndPos, dataFileList.getMinOffset(), dataFileList.getMaxWrotePosition());
+            PreConditions.check(indexEndPos == (endIndex + 1) * INDEX_UNIT_SIZE && indexEndPos <= indexFileList.getMaxWrotePosition(), DLedgerResponseCode.DISK_ERROR,
+                "indexEndPos=%d endIndex=%d maxPos=%d", indexEndPos, endIndex, indexFileList.getMaxWrotePosition());
+            if (endIndex != -1) {
+                indexSbr = indexFileList.getData(endIndex * INDEX_UNIT_SIZE, INDEX_UNIT_SIZE);
+                PreConditions.check(indexSbr != null, DLedgerResponseCode.DISK_ERROR, "Get null index for %d", endIndex);
+                DLedgerEntry meta = DLedgerEntryCoder.decodeIndex(indexSbr.getByteBuffer());
+                PreConditions.check(meta.getIndex() == endIndex && meta.getTerm() == endTerm, DLedgerResponseCode.DISK_ERROR, "index %d != %d or term %d != %d", meta.getIndex(), endIndex, meta.getTerm(), endTerm);
+                PreConditions.check(meta.getPos() + meta.getSize() <= dataEndPos, DLedgerResponseCode.DISK_ERROR, "entry end %d > %d", meta.getPos() + meta.getSize(), dataEndPos);
+                dataSbr = dataFileList.getData(meta.getPos(), meta.getSize());
+                PreConditions.check(dataSbr != null, DLedgerResponseCode.DISK_ERROR, "Get null data for %d", endIndex);
+                DLedgerEntry header = DLedgerEntryCoder.decode(dataSbr.getByteBuffer().duplicate(), false);
+                PreConditions.check(header.getIndex() == endIndex && header.getTerm() == endTerm && header.getPos() == meta.getPos() && header.getSize() == meta.getSize(),
+                    DLedgerResponseCode.DISK_ERROR, "the entry at %d does not match the index", meta.getPos());
+                PreConditions.check(header.getChainCrc() == endChainCrc, DLedgerResponseCode.DISK_ERROR, "chainCrc %d != %d", header.getChainCrc(), endChainCrc);
+                if (dLedgerConfig.isCheckCrcOnRecover() && header.getBodyCrc() != 0) {
+                    int bodyCrc = DLedgerEntryCoder.bodyCrc(dataSbr.getByteBuffer(), header.getSize());
+                    PreConditions.check(bodyCrc == header.getBodyCrc(), DLedgerResponseCode.DISK_ERROR, "bodyCrc %d != %d", header.getBodyCrc(), bodyCrc);
+                }
+            }
+        } catch (Throwable t) {
+            logger.warn("[Recovery] The clean shutdown mark is not trusted, scan the files instead", t);
+            return false;
+        } finally {
+            SelectMmapBufferResult.release(indexSbr);
+            SelectMmapBufferResult.release(dataSbr);
+        }
+        logger.info("Recover from the clean shutdown endIndex={} endTerm={} dataEndPos={}", endIndex, endTerm, dataEndPos);
+        recoverEnd(endIndex, endTerm, endChainCrc, dataEndPos);
+        return true;
+    }
+
+    private void recoverByScanning(List<MmapFile> mappedFiles) {
         MmapFile lastMappedFile = dataFileList.getLastMappedFile();
         int index = mappedFiles.size() - 3;
         if (index < 0) {
@@ -177,19 +322,39 @@ public class DLedgerMmapFileStore extends DLedgerStore {
             }
         }
 
+        long lastEntryIndex = -1;
+        long lastEntryTerm = -1;
+        int lastChainCrc = 0;
+        //verify the sealed files in parallel, and join the results from the first one, only the tail is scanned serially
+        int tailIndex = mappedFiles.size() - 1;
+        if (tailIndex - index >= 2 && dLedgerConfig.getRecoverThreadNum() > 1) {
+            long start = System.currentTimeMillis();
+            List<SegmentResult> results = verifySegments(mappedFiles.subList(index, tailIndex));
+            for (SegmentResult result : results) {
+                if (!result.canJoin(lastEntryIndex, lastEntryTerm)) {
+                    logger.info("Verify data file {} failed, scan it serially", result.mappedFile.getFileName());
+                    break;
+                }
+                if (result.lastIndex != -1) {
+                    lastEntryIndex = result.lastIndex;
+                    lastEntryTerm = result.lastTerm;
+                    lastChainCrc = result.lastChainCrc;
+                }
+                index++;
+            }
+            logger.info("Verify {} data files in parallel cost={} ms, joined to entryIndex={}", results.size(), DLedgerUtils.elapsed(start), lastEntryIndex);
+        }
+
         MmapFile mappedFile = mappedFiles.get(index);
         ByteBuffer byteBuffer = mappedFile.sliceByteBuffer();
         logger.info("Begin to recover data from entryIndex={} fileIndex={} fileSize={} fileName={} ", firstEntryIndex, index, mappedFiles.size(), mappedFile.getFileName());
-        long lastEntryIndex = -1;
-        long lastEntryTerm = -1;
         long processOffset = mappedFile.getFileFromOffset();
         boolean needWriteIndex = false;
         while (true) {
             try {
                 int relativePos = byteBuffer.position();
-                long absolutePos = mappedFile.getFileFromOffset() + relativePos;
-                int magic = byteBuffer.getInt();
-                if (magic == MmapFileList.BLANK_MAGIC_CODE) {
+                DLedgerEntry header = checkEntry(byteBuffer, mappedFile.getFileFromOffset(), lastEntryIndex, lastEntryTerm, relativePos == 0 ? 0 : lastChainCrc);
+                if (header == null) {
                     processOffset = mappedFile.getFileFromOffset() + mappedFile.getFileSize();
                     index++;
                     if (index >= mappedFiles.size()) {
@@ -199,47 +364,15 @@ public class DLedgerMmapFileStore extends DLedgerStore {
                         mappedFile = mappedFiles.get(index);
                         byteBuffer = mappedFile.sliceByteBuffer();
                         processOffset = mappedFile.getFileFromOffset();
+                        lastChainCrc = 0;
                         logger.info("Trying to recover data file {}", mappedFile.getFileName());
                         continue;
                     }
                 }
-
-                int size = byteBuffer.getInt();
-                long entryIndex = byteBuffer.getLong();
-                long entryTerm = byteBuffer.getLong();
-                long pos = byteBuffer.getLong();
-                byteBuffer.getInt(); //channel
-                byteBuffer.getInt(); //chain crc
-                byteBuffer.getInt(); //body crc
-                int bodySize = byteBuffer.getInt();
-
-                PreConditions.check(pos == absolutePos, DLedgerResponseCode.DISK_ERROR, "pos %d != %d", pos, absolutePos);
-                PreConditions.check(bodySize + DLedgerEntry.BODY_OFFSET == size, DLedgerResponseCode.DISK_ERROR, "size %d != %d + %d", size, bodySize, DLedgerEntry.BODY_OFFSET);
-
-                byteBuffer.position(relativePos + size);
-
-                PreConditions.check(magic <= CURRENT_MAGIC && magic >= MAGIC_1, DLedgerResponseCode.DISK_ERROR, "pos=%d size=%d magic=%d index=%d term=%d currMagic=%d", absolutePos, size, magic, entryIndex, entryTerm, CURRENT_MAGIC);
-                if (lastEntryIndex != -1) {
-                    PreConditions.check(entryIndex == lastEntryIndex + 1, DLedgerResponseCode.DISK_ERROR, "pos=%d size=%d magic=%d index=%d term=%d lastEntryIndex=%d", absolutePos, size, magic, entryIndex, entryTerm, lastEntryIndex);
-                }
-                PreConditions.check(entryTerm >= lastEntryTerm, DLedgerResponseCode.DISK_ERROR, "pos=%d size=%d magic=%d index=%d term=%d lastEntryTerm=%d ", absolutePos, size, magic, entryIndex, entryTerm, lastEntryTerm);
-                PreConditions.check(size > DLedgerEntry.HEADER_SIZE, DLedgerResponseCode.DISK_ERROR, "size %d should > %d", size, DLedgerEntry.HEADER_SIZE);
+                long entryIndex = header.getIndex();
                 if (!needWriteIndex) {
                     try {
-                        SelectMmapBufferResult indexSbr = indexFileList.getData(entryIndex * INDEX_UNIT_SIZE);
-                        PreConditions.check(indexSbr != null, DLedgerResponseCode.DISK_ERROR, "index=%d pos=%d", entryIndex, entryIndex * INDEX_UNIT_SIZE);
-                        indexSbr.release();
-                        ByteBuffer indexByteBuffer = indexSbr.getByteBuffer();
-                        int magicFromIndex = indexByteBuffer.getInt();
-                        long posFromIndex = indexByteBuffer.getLong();
-                        int sizeFromIndex = indexByteBuffer.getInt();
-                        long indexFromIndex = indexByteBuffer.getLong();
-                        long termFromIndex = indexByteBuffer.getLong();
-                        PreConditions.check(magic == magicFromIndex, DLedgerResponseCode.DISK_ERROR, "magic %d != %d", magic, magicFromIndex);
-                        PreConditions.check(size == sizeFromIndex, DLedgerResponseCode.DISK_ERROR, "size %d != %d", size, sizeFromIndex);
-                        PreConditions.check(entryIndex == indexFromIndex, DLedgerResponseCode.DISK_ERROR, "index %d != %d", entryIndex, indexFromIndex);
-                        PreConditions.check(entryTerm == termFromIndex, DLedgerResponseCode.DISK_ERROR, "term %d != %d", entryTerm, termFromIndex);
-                        PreConditions.check(absolutePos == posFromIndex, DLedgerResponseCode.DISK_ERROR, "pos %d != %d", mappedFile.getFileFromOffset(), posFromIndex);
+                        checkIndex(header);
                     } catch (Throwable t) {
                         logger.warn("Compare data to index failed {}", mappedFile.getFileName(), t);
                         indexFileList.truncateOffset(entryIndex * INDEX_UNIT_SIZE);
@@ -253,13 +386,14 @@ public class DLedgerMmapFileStore extends DLedgerStore {
                 }
                 if (needWriteIndex) {
                     ByteBuffer indexBuffer = localIndexBuffer.get();
-                    DLedgerEntryCoder.encodeIndex(absolutePos, size, magic, entryIndex, entryTerm, indexBuffer);
+                    DLedgerEntryCoder.encodeIndex(header.getPos(), header.getSize(), header.getMagic(), entryIndex, header.getTerm(), indexBuffer);
                     long indexPos = indexFileList.append(indexBuffer.array(), 0, indexBuffer.remaining(), false);
                     PreConditions.check(indexPos == entryIndex * INDEX_UNIT_SIZE, DLedgerResponseCode.DISK_ERROR, "Write index failed index=%d", entryIndex);
                 }
                 lastEntryIndex = entryIndex;
-                lastEntryTerm = entryTerm;
-                processOffset += size;
+                lastEntryTerm = header.getTerm();
+                lastChainCrc = header.getChainCrc();
+                processOffset += header.getSize();
             } catch (Throwable t) {
                 logger.info("Recover data file to the end of {} ", mappedFile.getFileName(), t);
                 break;
@@ -271,13 +405,124 @@ public class DLedgerMmapFileStore extends DLedgerStore {
             logger.error("[MONITOR]The processOffset is too small, you should check it manually before truncating the data from {}", processOffset);
             System.exit(-1);
         }
+        recoverEnd(lastEntryIndex, lastEntryTerm, lastChainCrc, processOffset);
+    }
+
+    /**
+     * Read and check the entry at the position of the buffer, and move the position to the next entry.
+     * @param prevChainCrc the chain crc of the entry before it in the same file, 0 for the first one
+     * @return the header of the entry, or null if the rest of the file is blank
+     */
+    private DLedgerEntry checkEntry(ByteBuffer byteBuffer, long fileFromOffset, long lastEntryIndex, long lastEntryTerm, int prevChainCrc) {
+        int relativePos = byteBuffer.position();
+        long absolutePos = fileFromOffset + relativePos;
+        if (byteBuffer.getInt(relativePos) == MmapFileList.BLANK_MAGIC_CODE) {
+            return null;
+        }
+        DLedgerEntry header = DLedgerEntryCoder.decode(byteBuffer, false);
+        int magic = header.getMagic();
+        int size = header.getSize();
+        long entryIndex = header.getIndex();
+        long entryTerm = header.getTerm();
+        int bodySize = byteBuffer.getInt(relativePos + DLedgerEntry.BODY_OFFSET - 4);
+
+        PreConditions.check(header.getPos() == absolutePos, DLedgerResponseCode.DISK_ERROR, "pos %d != %d", header.getPos(), absolutePos);
+        PreConditions.check(bodySize + DLedgerEntry.BODY_OFFSET == size, DLedgerResponseCode.DISK_ERROR, "size %d != %d + %d", size, bodySize, DLedgerEntry.BODY_OFFSET);
+
+        byteBuffer.position(relativePos + size);
+
+        PreConditions.check(magic <= CURRENT_MAGIC && magic >= MAGIC_1, DLedgerResponseCode.DISK_ERROR, "pos=%d size=%d magic=%d index=%d term=%d currMagic=%d", absolutePos, size, magic, entryIndex, entryTerm, CURRENT_MAGIC);
+        if (lastEntryIndex != -1) {
+            PreConditions.check(entryIndex == lastEntryIndex + 1, DLedgerResponseCode.DISK_ERROR, "pos=%d size=%d magic=%d index=%d term=%d lastEntryIndex=%d", absolutePos, size, magic, entryIndex, entryTerm, lastEntryIndex);
+        }
+        PreConditions.check(entryTerm >= lastEntryTerm, DLedgerResponseCode.DISK_ERROR, "pos=%d size=%d magic=%d index=%d term=%d lastEntryTerm=%d ", absolutePos, size, magic, entryIndex, entryTerm, lastEntryTerm);
+        PreConditions.check(size > DLedgerEntry.HEADER_SIZE, DLedgerResponseCode.DISK_ERROR, "size %d should > %d", size, DLedgerEntry.HEADER_SIZE);
+        if (dLedgerConfig.isCheckCrcOnRecover()) {
+            //the torn or corrupted entries at the end are truncated along with the ones after them
+            ByteBuffer entryBuffer = byteBuffer.duplicate();
+            entryBuffer.position(relativePos);
+            checkCrc(entryBuffer, size, entryIndex, entryTerm, header.getChainCrc(), header.getBodyCrc(), prevChainCrc);
+        }
+        return header;
+    }
+
+    /**
+     * Check the index unit of the entry is the same as its header.
+     */
+    private void checkIndex(DLedgerEntry header) {
+        long entryIndex = header.getIndex();
+        SelectMmapBufferResult indexSbr = indexFileList.getData(entryIndex * INDEX_UNIT_SIZE);
+        PreConditions.check(indexSbr != null, DLedgerResponseCode.DISK_ERROR, "index=%d pos=%d", entryIndex, entryIndex * INDEX_UNIT_SIZE);
+        indexSbr.release();
+        DLedgerEntry meta = DLedgerEntryCoder.decodeIndex(indexSbr.getByteBuffer());
+        PreConditions.check(header.getMagic() == meta.getMagic(), DLedgerResponseCode.DISK_ERROR, "magic %d != %d", header.getMagic(), meta.getMagic());
+        PreConditions.check(header.getSize() == meta.getSize(), DLedgerResponseCode.DISK_ERROR, "size %d != %d", header.getSize(), meta.getSize());
+        PreConditions.check(entryIndex == meta.getIndex(), DLedgerResponseCode.DISK_ERROR, "index %d != %d", entryIndex, meta.getIndex());
+        PreConditions.check(header.getTerm() == meta.getTerm(), DLedgerResponseCode.DISK_ERROR, "term %d != %d", header.getTerm(), meta.getTerm());
+        PreConditions.check(header.getPos() == meta.getPos(), DLedgerResponseCode.DISK_ERROR, "pos %d != %d", header.getPos(), meta.getPos());
+    }
+
+    /**
+     * Verify the data files and their index independently on the fork join pool.
+     * @return the results in the order of the files
+     */
+    private List<SegmentResult> verifySegments(List<MmapFile> sealedFiles) {
+        ForkJoinPool pool = new ForkJoinPool(Math.min(dLedgerConfig.getRecoverThreadNum(), sealedFiles.size()));
+        try {
+            List<Callable<SegmentResult>> tasks = new ArrayList<>(sealedFiles.size());
+            for (MmapFile mappedFile : sealedFiles) {
+                tasks.add(() -> verifySegment(mappedFile));
+            }
+            List<SegmentResult> results = new ArrayList<>(sealedFiles.size());
+            for (Future<SegmentResult> future : pool.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (Throwable t) {
+            logger.warn("Verify the data files in parallel failed, scan them serially", t);
+            return Collections.emptyList();
+        } finally {
+            pool.shutdown();
+        }
+    }
 
+    private SegmentResult verifySegment(MmapFile mappedFile) {
+        SegmentResult result = new SegmentResult(mappedFile);
+        ByteBuffer byteBuffer = mappedFile.sliceByteBuffer();
+        try {
+            while (true) {
+                int relativePos = byteBuffer.position();
+                DLedgerEntry header = checkEntry(byteBuffer, mappedFile.getFileFromOffset(), result.lastIndex, result.lastTerm, relativePos == 0 ? 0 : result.lastChainCrc);
+                if (header == null) {
+                    result.sealed = true;
+                    break;
+                }
+                checkIndex(header);
+                if (result.firstIndex == -1) {
+                    result.firstIndex = header.getIndex();
+                    result.firstTerm = header.getTerm();
+                }
+                result.lastIndex = header.getIndex();
+                result.lastTerm = header.getTerm();
+                result.lastChainCrc = header.getChainCrc();
+            }
+        } catch (Throwable t) {
+            logger.warn("Verify data file {} failed", mappedFile.getFileName(), t);
+        }
+        return result;
+    }
+
+    /**
+     * Set the ledger end to the recovered entry, and drop the bytes after it.
+     */
+    private void recoverEnd(long lastEntryIndex, long lastEntryTerm, int lastChainCrc, long processOffset) {
         ledgerEndIndex = lastEntryIndex;
         ledgerEndTerm = lastEntryTerm;
+        ledgerEndChainCrc = lastChainCrc;
         if (lastEntryIndex != -1) {
-            DLedgerEntry entry = get(lastEntryIndex);
-            PreConditions.check(entry != null, DLedgerResponseCode.DISK_ERROR, "recheck get null entry");
-            PreConditions.check(entry.getIndex() == lastEntryIndex, DLedgerResponseCode.DISK_ERROR, "recheck index %d != %d", entry.getIndex(), lastEntryIndex);
+            DLedgerEntry meta = getMeta(lastEntryIndex);
+            PreConditions.check(meta != null, DLedgerResponseCode.DISK_ERROR, "recheck get null entry");
+            PreConditions.check(meta.getIndex() == lastEntryIndex, DLedgerResponseCode.DISK_ERROR, "recheck index %d != %d", meta.getIndex(), lastEntryIndex);
             reviseLedgerBeginIndex();
         }
         this.dataFileList.updateWherePosition(processOffset);
@@ -285,22 +530,9 @@ public class DLedgerMmapFileStore extends DLedgerStore {
         long indexProcessOffset = (lastEntryIndex + 1) * INDEX_UNIT_SIZE;
         this.indexFileList.updateWherePosition(indexProcessOffset);
         this.indexFileList.truncateOffset(indexProcessOffset);
+        //the recovered entries are regarded as flushed, the same as the flushed where
+        flushedIndex = lastEntryIndex;
         updateLedgerEndIndexAndTerm();
-        PreConditions.check(dataFileList.checkSelf(), DLedgerResponseCode.DISK_ERROR, "check data file order failed after recovery");
-        PreConditions.check(indexFileList.checkSelf(), DLedgerResponseCode.DISK_ERROR, "check index file order failed after recovery");
-        //Load the committed index from checkpoint
-        Properties properties = loadCheckPoint();
-        if (properties == null || !properties.containsKey(COMMITTED_INDEX_KEY)) {
-            return;
-        }
-        String committedIndexStr = String.valueOf(properties.get(COMMITTED_INDEX_KEY)).trim();
-        if (committedIndexStr.length() <= 0) {
-            return;
-        }
-        logger.info("Recover to get committed index={} from checkpoint", committedIndexStr);
-        updateCommittedIndex(memberState.currTerm(), Long.valueOf(committedIndexStr));
-
-        return;
     }
 
     private void reviseLedgerBeginIndex() {
@@ -324,28 +556,16 @@ public class DLedgerMmapFileStore extends DLedgerStore {
     public DLedgerEntry appendAsLeader(DLedgerEntry entry) {
         PreConditions.check(memberState.isLeader(), DLedgerResponseCode.NOT_LEADER);
         PreConditions.check(!isDiskFull, DLedgerResponseCode.DISK_FULL);
-        ByteBuffer dataBuffer = localEntryBuffer.get();
         ByteBuffer indexBuffer = localIndexBuffer.get();
-        DLedgerEntryCoder.encode(entry, dataBuffer);
-        int entrySize = dataBuffer.remaining();
+        entry.setBodyCrc(Crc32C.compute(entry.getBody()));
         synchronized (memberState) {
             PreConditions.check(memberState.isLeader(), DLedgerResponseCode.NOT_LEADER, null);
             long nextIndex = ledgerEndIndex + 1;
             entry.setIndex(nextIndex);
             entry.setTerm(memberState.currTerm());
             entry.setMagic(CURRENT_MAGIC);
-            DLedgerEntryCoder.setIndexTerm(dataBuffer, nextIndex, memberState.currTerm(), CURRENT_MAGIC);
-            long prePos = dataFileList.preAppend(dataBuffer.remaining());
-            entry.setPos(prePos);
-            PreConditions.check(prePos != -1, DLedgerResponseCode.DISK_ERROR, null);
-            DLedgerEntryCoder.setPos(dataBuffer, prePos);
-            for (AppendHook writeHook : appendHooks) {
-                writeHook.doHook(entry, dataBuffer.slice(), DLedgerEntry.BODY_OFFSET);
-            }
-            long dataPos = dataFileList.append(dataBuffer.array(), 0, dataBuffer.remaining());
-            PreConditions.check(dataPos != -1, DLedgerResponseCode.DISK_ERROR, null);
-            PreConditions.check(dataPos == prePos, DLedgerResponseCode.DISK_ERROR, null);
-            DLedgerEntryCoder.encodeIndex(dataPos, entrySize, CURRENT_MAGIC, nextIndex, memberState.currTerm(), indexBuffer);
+            appendDataAsLeader(entry);
+            DLedgerEntryCoder.encodeIndex(entry.getPos(), entry.getSize(), CURRENT_MAGIC, nextIndex, memberState.currTerm(), indexBuffer);
             long indexPos = indexFileList.append(indexBuffer.array(), 0, indexBuffer.remaining(), false);
             PreConditions.check(indexPos == entry.getIndex() * INDEX_UNIT_SIZE, DLedgerResponseCode.DISK_ERROR, null);
             if (logger.isDebugEnabled()) {
@@ -361,52 +581,187 @@ public class DLedgerMmapFileStore extends DLedgerStore {
         }
     }
 
+    @Override
+    public List<DLedgerEntry> appendAsLeader(List<DLedgerEntry> entries) {
+        PreConditions.check(memberState.isLeader(), DLedgerResponseCode.NOT_LEADER);
+        PreConditions.check(!isDiskFull, DLedgerResponseCode.DISK_FULL);
+        //compute the body crcs out of the lock
+        for (DLedgerEntry entry : entries) {
+            entry.setBodyCrc(Crc32C.compute(entry.getBody()));
+        }
+        for (int from = 0; from < entries.size(); from += MAX_BATCH_APPEND_NUM) {
+            //write as many entries as the local index buffer could hold under one lock
+            appendBatchAsLeader(entries.subList(from, Math.min(entries.size(), from + MAX_BATCH_APPEND_NUM)));
+        }
+        return entries;
+    }
+
+    private void appendBatchAsLeader(List<DLedgerEntry> entries) {
+        ByteBuffer indexBuffer = localBatchIndexBuffer.get();
+        indexBuffer.clear();
+        synchronized (memberState) {
+            PreConditions.check(memberState.isLeader(), DLedgerResponseCode.NOT_LEADER, null);
+            long firstIndex = ledgerEndIndex + 1;
+            long currTerm = memberState.currTerm();
+            try {
+                for (int i = 0; i < entries.size(); i++) {
+                    DLedgerEntry entry = entries.get(i);
+                    entry.setIndex(firstIndex + i);
+                    entry.setTerm(currTerm);
+                    entry.setMagic(CURRENT_MAGIC);
+                    appendDataAsLeader(entry);
+                    DLedgerEntryCoder.putIndex(entry.getPos(), entry.getSize(), CURRENT_MAGIC, entry.getIndex(), currTerm, indexBuffer);
+                }
+            } finally {
+                //the data of the entries already written is committed and chained, so their indexes should be appended anyway
+                appendPendingIndexes(indexBuffer);
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("[{}] Append as Leader from {} num {}", memberState.getSelfId(), firstIndex, entries.size());
+            }
+        }
+    }
+
+    /**
+     * Encode the entry in place into the region reserved at the end of the data file, the pos and the chain crc are set before encoding.
+     * Should be called under the lock.
+     */
+    private void appendDataAsLeader(DLedgerEntry entry) {
+        int entrySize = entry.computSizeInBytes();
+        long prePos = dataFileList.preAppend(entrySize);
+        PreConditions.check(prePos != -1, DLedgerResponseCode.DISK_ERROR, null);
+        entry.setPos(prePos);
+        entry.setChainCrc(nextChainCrc(prePos, entry.getIndex(), entry.getTerm(), entry.getBodyCrc()));
+        ByteBuffer dataBuffer = dataFileList.reserveAppend(entrySize);
+        PreConditions.check(dataBuffer != null, DLedgerResponseCode.DISK_ERROR, null);
+        DLedgerEntryCoder.put(entry, dataBuffer);
+        dataBuffer.flip();
+        for (AppendHook writeHook : appendHooks) {
+            writeHook.doHook(entry, dataBuffer.slice(), DLedgerEntry.BODY_OFFSET);
+        }
+        long dataPos = dataFileList.commitAppend(entrySize);
+        PreConditions.check(dataPos == prePos, DLedgerResponseCode.DISK_ERROR, "%d != %d", dataPos, prePos);
+        ledgerEndChainCrc = entry.getChainCrc();
+    }
+
+    /**
+     * Should be called under the lock.
+     */
+    private int nextChainCrc(long pos, long index, long term, int bodyCrc) {
+        int prevChainCrc = pos % dataFileList.getMappedFileSize() == 0 ? 0 : ledgerEndChainCrc;
+        return DLedgerEntryCoder.chainCrc(prevChainCrc, index, term, bodyCrc);
+    }
+
+    /**
+     * Check the chain crc of the entry from the leader against the last entry, should be called under the lock.
+     * The logs are consistent if the leader's entry could be chained after the local ones.
+     */
+    private void checkChainCrc(DLedgerEntry entry) {
+        if (entry.getChainCrc() != 0) {
+            int chainCrc = nextChainCrc(entry.getPos(), entry.getIndex(), entry.getTerm(), entry.getBodyCrc());
+            PreConditions.check(chainCrc == entry.getChainCrc(), DLedgerResponseCode.INCONSISTENT_STATE, "index=%d chainCrc %d != %d", entry.getIndex(), entry.getChainCrc(), chainCrc);
+        }
+    }
+
+    /**
+     * Check the crcs of the encoded entry, the crcs are absent in the entries of the former versions.
+     */
+    private void checkCrc(ByteBuffer entryBuffer, int entrySize, long index, long term, int chainCrc, int bodyCrc, int prevChainCrc) {
+        if (bodyCrc != 0) {
+            int computedBodyCrc = DLedgerEntryCoder.bodyCrc(entryBuffer, entrySize);
+            PreConditions.check(computedBodyCrc == bodyCrc, DLedgerResponseCode.DISK_ERROR, "index=%d bodyCrc %d != %d", index, bodyCrc, computedBodyCrc);
+        }
+        if (chainCrc != 0) {
+            int computedChainCrc = DLedgerEntryCoder.chainCrc(prevChainCrc, index, term, bodyCrc);
+            PreConditions.check(computedChainCrc == chainCrc, DLedgerResponseCode.DISK_ERROR, "index=%d chainCrc %d != %d", index, chainCrc, computedChainCrc);
+        }
+    }
+
+    /**
+     * Write the entry into the region reserved at the end of the data file, either by encoding the entry
+     * or by copying the encoded bytes if the entry buffer is not null. Should be called under the lock.
+     *
+     * @return the pos of the written entry
+     */
+    private long appendData(DLedgerEntry entry, ByteBuffer entryBuffer, int entrySize) {
+        ByteBuffer dataBuffer = dataFileList.reserveAppend(entrySize);
+        PreConditions.check(dataBuffer != null, DLedgerResponseCode.DISK_ERROR, null);
+        if (entryBuffer == null) {
+            DLedgerEntryCoder.put(entry, dataBuffer);
+        } else {
+            dataBuffer.put(entryBuffer.duplicate());
+        }
+        return dataFileList.commitAppend(entrySize);
+    }
+
+    private void appendIndexes(ByteBuffer indexBuffer, long firstIndex) {
+        int fileSize = indexFileList.getMappedFileSize();
+        long expectedPos = firstIndex * INDEX_UNIT_SIZE;
+        while (indexBuffer.hasRemaining()) {
+            //the index file is never padded with blank, so split the units at the file boundary
+            int len = Math.min(indexBuffer.remaining(), fileSize - (int) (indexFileList.getMaxWrotePosition() % fileSize));
+            long indexPos = indexFileList.append(indexBuffer.array(), indexBuffer.position(), len, false);
+            PreConditions.check(indexPos == expectedPos, DLedgerResponseCode.DISK_ERROR, "%d != %d", indexPos, expectedPos);
+            indexBuffer.position(indexBuffer.position() + len);
+            expectedPos += len;
+        }
+    }
+
     @Override
     public long truncate(DLedgerEntry entry, long leaderTerm, String leaderId) {
         PreConditions.check(memberState.isFollower(), DLedgerResponseCode.NOT_FOLLOWER, null);
-        ByteBuffer dataBuffer = localEntryBuffer.get();
         ByteBuffer indexBuffer = localIndexBuffer.get();
-        DLedgerEntryCoder.encode(entry, dataBuffer);
-        int entrySize = dataBuffer.remaining();
+        //the entry without the body is the header sent by the leader, which should match the local one
+        boolean headerOnly = entry.getBody() == null;
+        int entrySize = headerOnly ? entry.getSize() : entry.computSizeInBytes();
         synchronized (memberState) {
             PreConditions.check(memberState.isFollower(), DLedgerResponseCode.NOT_FOLLOWER, "role=%s", memberState.getRole());
             PreConditions.check(leaderTerm == memberState.currTerm(), DLedgerResponseCode.INCONSISTENT_TERM, "term %d != %d", leaderTerm, memberState.currTerm());
             PreConditions.check(leaderId.equals(memberState.getLeaderId()), DLedgerResponseCode.INCONSISTENT_LEADER, "leaderId %s != %s", leaderId, memberState.getLeaderId());
             boolean existedEntry;
             try {
-                DLedgerEntry tmp = get(entry.getIndex());
-                existedEntry = entry.equals(tmp);
+                DLedgerEntry tmp = headerOnly ? getEntryHeader(entry.getIndex()) : get(entry.getIndex());
+                existedEntry = entry.matches(tmp);
             } catch (Throwable ignored) {
                 existedEntry = false;
             }
+            PreConditions.check(existedEntry || !headerOnly, DLedgerResponseCode.INCONSISTENT_STATE, "the header of index=%d does not match", entry.getIndex());
             long truncatePos = existedEntry ? entry.getPos() + entry.getSize() : entry.getPos();
-            if (truncatePos != dataFileList.getMaxWrotePosition()) {
-                logger.warn("[TRUNCATE]leaderId={} index={} truncatePos={} != maxPos={}, this is usually happened on the old leader", leaderId, entry.getIndex(), truncatePos, dataFileList.getMaxWrotePosition());
-            }
-            dataFileList.truncateOffset(truncatePos);
-            if (dataFileList.getMaxWrotePosition() != truncatePos) {
-                logger.warn("[TRUNCATE] rebuild for data wrotePos: {} != truncatePos: {}", dataFileList.getMaxWrotePosition(), truncatePos);
-                PreConditions.check(dataFileList.rebuildWithPos(truncatePos), DLedgerResponseCode.DISK_ERROR, "rebuild data truncatePos=%d", truncatePos);
-            }
-            if (!existedEntry) {
-                long dataPos = dataFileList.append(dataBuffer.array(), 0, dataBuffer.remaining());
-                PreConditions.check(dataPos == entry.getPos(), DLedgerResponseCode.DISK_ERROR, " %d != %d", dataPos, entry.getPos());
-            }
+            //wait for the flush in progress, the flushed positions are moved back along with the truncation
+            synchronized (flushLock) {
+                truncateTimes++;
+                truncateVersion++;
+                flushedIndex = Math.min(flushedIndex, entry.getIndex() - 1);
+                if (truncatePos != dataFileList.getMaxWrotePosition()) {
+                    logger.warn("[TRUNCATE]leaderId={} index={} truncatePos={} != maxPos={}, this is usually happened on the old leader", leaderId, entry.getIndex(), truncatePos, dataFileList.getMaxWrotePosition());
+                }
+                dataFileList.truncateOffset(truncatePos);
+                if (dataFileList.getMaxWrotePosition() != truncatePos) {
+                    logger.warn("[TRUNCATE] rebuild for data wrotePos: {} != truncatePos: {}", dataFileList.getMaxWrotePosition(), truncatePos);
+                    PreConditions.check(dataFileList.rebuildWithPos(truncatePos), DLedgerResponseCode.DISK_ERROR, "rebuild data truncatePos=%d", truncatePos);
+                }
+                if (!existedEntry) {
+                    long dataPos = appendData(entry, null, entrySize);
+                    PreConditions.check(dataPos == entry.getPos(), DLedgerResponseCode.DISK_ERROR, " %d != %d", dataPos, entry.getPos());
+                }
 
-            long truncateIndexOffset = entry.getIndex() * INDEX_UNIT_SIZE;
-            indexFileList.truncateOffset(truncateIndexOffset);
-            if (indexFileList.getMaxWrotePosition() != truncateIndexOffset) {
-                logger.warn("[TRUNCATE] rebuild for index wrotePos: {} != truncatePos: {}", indexFileList.getMaxWrotePosition(), truncateIndexOffset);
-                PreConditions.check(indexFileList.rebuildWithPos(truncateIndexOffset), DLedgerResponseCode.DISK_ERROR, "rebuild index truncatePos=%d", truncateIndexOffset);
+                long truncateIndexOffset = entry.getIndex() * INDEX_UNIT_SIZE;
+                indexFileList.truncateOffset(truncateIndexOffset);
+                if (indexFileList.getMaxWrotePosition() != truncateIndexOffset) {
+                    logger.warn("[TRUNCATE] rebuild for index wrotePos: {} != truncatePos: {}", indexFileList.getMaxWrotePosition(), truncateIndexOffset);
+                    PreConditions.check(indexFileList.rebuildWithPos(truncateIndexOffset), DLedgerResponseCode.DISK_ERROR, "rebuild index truncatePos=%d", truncateIndexOffset);
+                }
+                DLedgerEntryCoder.encodeIndex(entry.getPos(), entrySize, entry.getMagic(), entry.getIndex(), entry.getTerm(), indexBuffer);
+                long indexPos = indexFileList.append(indexBuffer.array(), 0, indexBuffer.remaining(), false);
+                PreConditions.check(indexPos == entry.getIndex() * INDEX_UNIT_SIZE, DLedgerResponseCode.DISK_ERROR, null);
+                ledgerEndTerm = memberState.currTerm();
+                ledgerEndIndex = entry.getIndex();
+                ledgerEndChainCrc = entry.getChainCrc();
+                truncateVersion++;
+                reviseLedgerBeginIndex();
+                updateLedgerEndIndexAndTerm();
+                return entry.getIndex();
             }
-            DLedgerEntryCoder.encodeIndex(entry.getPos(), entrySize, entry.getMagic(), entry.getIndex(), entry.getTerm(), indexBuffer);
-            long indexPos = indexFileList.append(indexBuffer.array(), 0, indexBuffer.remaining(), false);
-            PreConditions.check(indexPos == entry.getIndex() * INDEX_UNIT_SIZE, DLedgerResponseCode.DISK_ERROR, null);
-            ledgerEndTerm = memberState.currTerm();
-            ledgerEndIndex = entry.getIndex();
-            reviseLedgerBeginIndex();
-            updateLedgerEndIndexAndTerm();
-            return entry.getIndex();
         }
     }
 
@@ -414,18 +769,102 @@ public class DLedgerMmapFileStore extends DLedgerStore {
     public DLedgerEntry appendAsFollower(DLedgerEntry entry, long leaderTerm, String leaderId) {
         PreConditions.check(memberState.isFollower(), DLedgerResponseCode.NOT_FOLLOWER, "role=%s", memberState.getRole());
         PreConditions.check(!isDiskFull, DLedgerResponseCode.DISK_FULL);
-        ByteBuffer dataBuffer = localEntryBuffer.get();
+        appendAsFollowerInner(entry, null, entry.computSizeInBytes(), leaderTerm, leaderId);
+        return entry;
+    }
+
+    @Override
+    public DLedgerEntry appendAsFollower(ByteBuffer entryBuffer, long leaderTerm, String leaderId) {
+        PreConditions.check(memberState.isFollower(), DLedgerResponseCode.NOT_FOLLOWER, "role=%s", memberState.getRole());
+        PreConditions.check(!isDiskFull, DLedgerResponseCode.DISK_FULL);
+        DLedgerEntry entry = checkEntryBuffer(entryBuffer, leaderTerm);
+        appendAsFollowerInner(entry, entryBuffer, entry.getSize(), leaderTerm, leaderId);
+        return entry;
+    }
+
+    @Override
+    public List<DLedgerEntry> appendAsFollower(List<ByteBuffer> entryBuffers, long leaderTerm, String leaderId) {
+        PreConditions.check(memberState.isFollower(), DLedgerResponseCode.NOT_FOLLOWER, "role=%s", memberState.getRole());
+        PreConditions.check(!isDiskFull, DLedgerResponseCode.DISK_FULL);
+        List<DLedgerEntry> entries = new ArrayList<>(entryBuffers.size());
+        for (ByteBuffer entryBuffer : entryBuffers) {
+            entries.add(checkEntryBuffer(entryBuffer, leaderTerm));
+        }
+        ByteBuffer indexBuffer = localBatchIndexBuffer.get();
+        indexBuffer.clear();
+        synchronized (memberState) {
+            PreConditions.check(memberState.isFollower(), DLedgerResponseCode.NOT_FOLLOWER, "role=%s", memberState.getRole());
+            PreConditions.check(leaderTerm == memberState.currTerm(), DLedgerResponseCode.INCONSISTENT_TERM, null);
+            PreConditions.check(leaderId.equals(memberState.getLeaderId()), DLedgerResponseCode.INCONSISTENT_LEADER, null);
+            long nextIndex = ledgerEndIndex + 1;
+            try {
+                for (int i = 0; i < entries.size(); i++) {
+                    DLedgerEntry entry = entries.get(i);
+                    ByteBuffer entryBuffer = entryBuffers.get(i);
+                    PreConditions.check(nextIndex == entry.getIndex(), DLedgerResponseCode.INCONSISTENT_INDEX, "%d != %d", nextIndex, entry.getIndex());
+                    checkChainCrc(entry);
+                    long dataPos = appendData(entry, entryBuffer, entry.getSize());
+                    PreConditions.check(dataPos == entry.getPos(), DLedgerResponseCode.DISK_ERROR, "%d != %d", dataPos, entry.getPos());
+                    ledgerEndChainCrc = entry.getChainCrc();
+                    if (!indexBuffer.hasRemaining()) {
+                        appendPendingIndexes(indexBuffer);
+                    }
+                    DLedgerEntryCoder.putIndex(dataPos, entry.getSize(), entry.getMagic(), entry.getIndex(), entry.getTerm(), indexBuffer);
+                    nextIndex++;
+                }
+            } finally {
+                //the indexes of the entries already written should be appended anyway
+                appendPendingIndexes(indexBuffer);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Append the indexes in the buffer, which are of the entries written after the ledger end,
+     * and move the ledger end to the last of them. Should be called under the lock.
+     */
+    private void appendPendingIndexes(ByteBuffer indexBuffer) {
+        indexBuffer.flip();
+        if (indexBuffer.hasRemaining()) {
+            long firstIndex = ledgerEndIndex + 1;
+            appendIndexes(indexBuffer, firstIndex);
+            ledgerEndTerm = memberState.currTerm();
+            ledgerEndIndex = firstIndex + indexBuffer.limit() / INDEX_UNIT_SIZE - 1;
+            if (ledgerBeginIndex == -1) {
+                ledgerBeginIndex = firstIndex;
+            }
+            updateLedgerEndIndexAndTerm();
+        }
+        indexBuffer.clear();
+    }
+
+    /**
+     * Check the header of the encoded entry, only the header is decoded, the bytes are written as they are.
+     */
+    private DLedgerEntry checkEntryBuffer(ByteBuffer entryBuffer, long leaderTerm) {
+        DLedgerEntry entry = DLedgerEntryCoder.decode(entryBuffer.duplicate(), false);
+        int entrySize = entryBuffer.remaining();
+        int bodySize = entryBuffer.getInt(entryBuffer.position() + DLedgerEntry.BODY_OFFSET - 4);
+        PreConditions.check(entry.getMagic() <= CURRENT_MAGIC && entry.getMagic() >= MAGIC_1, DLedgerResponseCode.UNEXPECTED_ARGUMENT, "magic=%d", entry.getMagic());
+        PreConditions.check(entry.getSize() == entrySize, DLedgerResponseCode.UNEXPECTED_ARGUMENT, "size %d != %d", entry.getSize(), entrySize);
+        PreConditions.check(bodySize + DLedgerEntry.BODY_OFFSET == entrySize, DLedgerResponseCode.UNEXPECTED_ARGUMENT, "size %d != %d + %d", entrySize, bodySize, DLedgerEntry.BODY_OFFSET);
+        PreConditions.check(entry.getTerm() <= leaderTerm, DLedgerResponseCode.UNEXPECTED_ARGUMENT, "term %d > %d", entry.getTerm(), leaderTerm);
+        return entry;
+    }
+
+    private void appendAsFollowerInner(DLedgerEntry entry, ByteBuffer entryBuffer, int entrySize, long leaderTerm, String leaderId) {
         ByteBuffer indexBuffer = localIndexBuffer.get();
-        DLedgerEntryCoder.encode(entry, dataBuffer);
-        int entrySize = dataBuffer.remaining();
         synchronized (memberState) {
             PreConditions.check(memberState.isFollower(), DLedgerResponseCode.NOT_FOLLOWER, "role=%s", memberState.getRole());
             long nextIndex = ledgerEndIndex + 1;
             PreConditions.check(nextIndex == entry.getIndex(), DLedgerResponseCode.INCONSISTENT_INDEX, null);
             PreConditions.check(leaderTerm == memberState.currTerm(), DLedgerResponseCode.INCONSISTENT_TERM, null);
             PreConditions.check(leaderId.equals(memberState.getLeaderId()), DLedgerResponseCode.INCONSISTENT_LEADER, null);
-            long dataPos = dataFileList.append(dataBuffer.array(), 0, dataBuffer.remaining());
+            checkChainCrc(entry);
+            long dataPos = appendData(entry, entryBuffer, entrySize);
             PreConditions.check(dataPos == entry.getPos(), DLedgerResponseCode.DISK_ERROR, "%d != %d", dataPos, entry.getPos());
+            ledgerEndChainCrc = entry.getChainCrc();
             DLedgerEntryCoder.encodeIndex(dataPos, entrySize, entry.getMagic(), entry.getIndex(), entry.getTerm(), indexBuffer);
             long indexPos = indexFileList.append(indexBuffer.array(), 0, indexBuffer.remaining(), false);
             PreConditions.check(indexPos == entry.getIndex() * INDEX_UNIT_SIZE, DLedgerResponseCode.DISK_ERROR, null);
@@ -435,9 +874,7 @@ public class DLedgerMmapFileStore extends DLedgerStore {
                 ledgerBeginIndex = ledgerEndIndex;
             }
             updateLedgerEndIndexAndTerm();
-            return entry;
         }
-
     }
 
     void persistCheckPoint() {
@@ -452,6 +889,52 @@ public class DLedgerMmapFileStore extends DLedgerStore {
         }
     }
 
+    /**
+     * Flush all the files and persist the checkpoint with the clean shutdown mark and the exact end positions,
+     * so the next startup could skip the scan. The mark is left only if everything is flushed.
+     */
+    private void persistCleanShutdown() {
+        if (!hasRecovered.get()) {
+            return;
+        }
+        synchronized (memberState) {
+            try {
+                long dataEndPos = dataFileList.getMaxWrotePosition();
+                long indexEndPos = indexFileList.getMaxWrotePosition();
+                if (!flushTo(dataFileList, dataEndPos) || !flushTo(indexFileList, indexEndPos)) {
+                    logger.warn("[MONITOR]Flush failed on shutdown, dataEndPos={} flushed={} indexEndPos={} flushed={}", dataEndPos, dataFileList.getFlushedWhere(), indexEndPos, indexFileList.getFlushedWhere());
+                    persistCheckPoint();
+                    return;
+                }
+                //the term of the last entry, the ledger end term is the current term once appended as a follower
+                long endIndex = getLedgerEndIndex();
+                long endTerm = endIndex >= 0 ? getMeta(endIndex).getTerm() : ledgerEndTerm;
+                Properties properties = new Properties();
+                properties.put(END_INDEX_KEY, endIndex);
+                properties.put(COMMITTED_INDEX_KEY, getCommittedIndex());
+                properties.put(CLEAN_SHUTDOWN_KEY, true);
+                properties.put(END_TERM_KEY, endTerm);
+                properties.put(END_CHAIN_CRC_KEY, ledgerEndChainCrc);
+                properties.put(DATA_END_POS_KEY, dataEndPos);
+                properties.put(INDEX_END_POS_KEY, indexEndPos);
+                String data = IOUtils.properties2String(properties);
+                IOUtils.string2File(data, dLedgerConfig.getDefaultPath() + File.separator + CHECK_POINT_FILE);
+            } catch (Throwable t) {
+                logger.error("Persist clean shutdown checkpoint failed", t);
+            }
+        }
+    }
+
+    private static boolean flushTo(MmapFileList fileList, long where) {
+        long lastFlushedWhere = -1;
+        while (fileList.getFlushedWhere() < where && fileList.getFlushedWhere() != lastFlushedWhere) {
+            lastFlushedWhere = fileList.getFlushedWhere();
+            fileList.commit(0);
+            fileList.flush(0);
+        }
+        return fileList.getFlushedWhere() >= where;
+    }
+
     Properties loadCheckPoint() {
         try {
             String data = IOUtils.file2String(dLedgerConfig.getDefaultPath() + File.separator + CHECK_POINT_FILE);
@@ -473,6 +956,118 @@ public class DLedgerMmapFileStore extends DLedgerStore {
         return ledgerBeginIndex;
     }
 
+    @Override
+    public long getFlushedIndex() {
+        return groupFlushService != null ? flushedIndex : ledgerEndIndex;
+    }
+
+    @Override
+    protected void updateLedgerEndIndexAndTerm() {
+        super.updateLedgerEndIndexAndTerm();
+        if (groupFlushService != null) {
+            groupFlushService.wakeup();
+        }
+    }
+
+    /**
+     * Get the encoded entry from the data file without decoding it, the caller should release the result.
+     */
+    public SelectMmapBufferResult getEntryData(long index) {
+        PreConditions.check(index >= 0, DLedgerResponseCode.INDEX_OUT_OF_RANGE, "%d should gt 0", index);
+        PreConditions.check(index <= ledgerEndIndex && index >= ledgerBeginIndex, DLedgerResponseCode.INDEX_OUT_OF_RANGE, "%d should between %d-%d", index, ledgerBeginIndex, ledgerEndIndex);
+        SelectMmapBufferResult indexSbr = null;
+        SelectMmapBufferResult dataSbr = null;
+        try {
+            indexSbr = indexFileList.getData(index * INDEX_UNIT_SIZE, INDEX_UNIT_SIZE);
+            PreConditions.check(indexSbr != null && indexSbr.getByteBuffer() != null, DLedgerResponseCode.DISK_ERROR, "Get null index for %d", index);
+            indexSbr.getByteBuffer().getInt(); //magic
+            long pos = indexSbr.getByteBuffer().getLong();
+            int size = indexSbr.getByteBuffer().getInt();
+            dataSbr = readColdData(index, pos, size);
+            if (dataSbr == null) {
+                dataSbr = dataFileList.getData(pos, size);
+            }
+            PreConditions.check(dataSbr != null && dataSbr.getByteBuffer() != null, DLedgerResponseCode.DISK_ERROR, "Get null data for %d", index);
+            PreConditions.check(pos == DLedgerEntryCoder.getPos(dataSbr.getByteBuffer()), DLedgerResponseCode.DISK_ERROR, "%d != %d", pos, DLedgerEntryCoder.getPos(dataSbr.getByteBuffer()));
+            SelectMmapBufferResult result = dataSbr;
+            dataSbr = null;
+            return result;
+        } finally {
+            SelectMmapBufferResult.release(indexSbr);
+            SelectMmapBufferResult.release(dataSbr);
+        }
+    }
+
+    /**
+     * Read the entry far behind the ledger end by the file channel with a buffer of the read-ahead pool, which does not
+     * fault the old pages in through the mapping of the cold file.
+     *
+     * @return the view of the data in the buffer, which should be released by the caller, or null if it is not cold,
+     * too large to read ahead, or the pool runs out
+     */
+    private SelectMmapBufferResult readColdData(long index, long pos, int size) {
+        int distance = dLedgerConfig.getColdReadDistance();
+        if (distance <= 0 || ledgerEndIndex - index <= distance) {
+            return null;
+        }
+        if (size > dLedgerConfig.getColdReadAheadSize()) {
+            //nothing is read ahead for the data larger than the window, and the copy would be as large as it
+            return null;
+        }
+        long version = truncateVersion;
+        ReadAheadBuffer buffer = readAheadPool.borrowBuffer(pos, size, version);
+        if (buffer == null) {
+            //all the buffers are in use, read through the mapping
+            return null;
+        }
+        ByteBuffer data = buffer.read(dataFileList, pos, size, version);
+        if (data == null) {
+            readAheadPool.returnBuffer(buffer);
+        }
+        PreConditions.check(data != null, DLedgerResponseCode.DISK_ERROR, "Read null data for %d pos=%d size=%d", index, pos, size);
+        return readAheadPool.new ReadAheadResult(pos, data, size, buffer);
+    }
+
+    /**
+     * Read the metadata from the index unit without touching the data file, the crcs and the body are absent.
+     */
+    @Override
+    public DLedgerEntry getMeta(long index) {
+        PreConditions.check(index >= 0, DLedgerResponseCode.INDEX_OUT_OF_RANGE, "%d should gt 0", index);
+        PreConditions.check(index <= ledgerEndIndex && index >= ledgerBeginIndex, DLedgerResponseCode.INDEX_OUT_OF_RANGE, "%d should between %d-%d", index, ledgerBeginIndex, ledgerEndIndex);
+        SelectMmapBufferResult indexSbr = indexFileList.getData(index * INDEX_UNIT_SIZE, INDEX_UNIT_SIZE);
+        try {
+            PreConditions.check(indexSbr != null && indexSbr.getByteBuffer() != null, DLedgerResponseCode.DISK_ERROR, "Get null index for %d", index);
+            DLedgerEntry meta = DLedgerEntryCoder.decodeIndex(indexSbr.getByteBuffer());
+            PreConditions.check(meta.getIndex() == index, DLedgerResponseCode.DISK_ERROR, "index %d != %d", meta.getIndex(), index);
+            return meta;
+        } finally {
+            SelectMmapBufferResult.release(indexSbr);
+        }
+    }
+
+    @Override
+    public DLedgerEntry getEntryHeader(long index) {
+        PreConditions.check(index >= 0, DLedgerResponseCode.INDEX_OUT_OF_RANGE, "%d should gt 0", index);
+        PreConditions.check(index <= ledgerEndIndex && index >= ledgerBeginIndex, DLedgerResponseCode.INDEX_OUT_OF_RANGE, "%d should between %d-%d", index, ledgerBeginIndex, ledgerEndIndex);
+        SelectMmapBufferResult indexSbr = null;
+        SelectMmapBufferResult dataSbr = null;
+        try {
+            indexSbr = indexFileList.getData(index * INDEX_UNIT_SIZE, INDEX_UNIT_SIZE);
+            PreConditions.check(indexSbr != null && indexSbr.getByteBuffer() != null, DLedgerResponseCode.DISK_ERROR, "Get null index for %d", index);
+            indexSbr.getByteBuffer().getInt(); //magic
+            long pos = indexSbr.getByteBuffer().getLong();
+            dataSbr = dataFileList.getData(pos, DLedgerEntry.BODY_OFFSET);
+            PreConditions.check(dataSbr != null && dataSbr.getByteBuffer() != null, DLedgerResponseCode.DISK_ERROR, "Get null data for %d", index);
+            DLedgerEntry header = DLedgerEntryCoder.decode(dataSbr.getByteBuffer(), false);
+            PreConditions.check(pos == header.getPos(), DLedgerResponseCode.DISK_ERROR, "%d != %d", pos, header.getPos());
+            return header;
+        } finally {
+            SelectMmapBufferResult.release(indexSbr);
+            SelectMmapBufferResult.release(dataSbr);
+        }
+    }
+
     @Override
     public DLedgerEntry get(Long index) {
         PreConditions.check(index >= 0, DLedgerResponseCode.INDEX_OUT_OF_RANGE, "%d should gt 0", index);
@@ -485,10 +1080,14 @@ public class DLedgerMmapFileStore extends DLedgerStore {
             indexSbr.getByteBuffer().getInt(); //magic
             long pos = indexSbr.getByteBuffer().getLong();
             int size = indexSbr.getByteBuffer().getInt();
-            dataSbr = dataFileList.getData(pos, size);
+            dataSbr = readColdData(index, pos, size);
+            if (dataSbr == null) {
+                dataSbr = dataFileList.getData(pos, size);
+            }
             PreConditions.check(dataSbr != null && dataSbr.getByteBuffer() != null, DLedgerResponseCode.DISK_ERROR, "Get null data for %d", index);
             DLedgerEntry dLedgerEntry = DLedgerEntryCoder.decode(dataSbr.getByteBuffer());
             PreConditions.check(pos == dLedgerEntry.getPos(), DLedgerResponseCode.DISK_ERROR, "%d != %d", pos, dLedgerEntry.getPos());
+            checkCrcOnRead(dLedgerEntry);
             return dLedgerEntry;
         } finally {
             SelectMmapBufferResult.release(indexSbr);
@@ -496,6 +1095,140 @@ public class DLedgerMmapFileStore extends DLedgerStore {
         }
     }
 
+    /**
+     * Get the entries decoded from the views of {@link #getEntryViews(long, int, int, List)}.
+     */
+    @Override
+    public List<DLedgerEntry> get(long beginIndex, int maxCount, int maxBytes) {
+        List<Runnable> releases = new ArrayList<>();
+        try {
+            List<EntryView> views = getEntryViews(beginIndex, maxCount, maxBytes, releases);
+            List<DLedgerEntry> entries = new ArrayList<>(views.size());
+            for (EntryView view : views) {
+                entries.add(view.toEntry());
+            }
+            return entries;
+        } finally {
+            for (Runnable release : releases) {
+                release.run();
+            }
+        }
+    }
+
+    /**
+     * Get the view of the entry without copying the body, the caller should release the view.
+     */
+    public EntryView getEntryView(long index) {
+        SelectMmapBufferResult sbr = getEntryData(index);
+        try {
+            EntryView view = new EntryView(sbr.getByteBuffer(), sbr);
+            PreConditions.check(view.getIndex() == index, DLedgerResponseCode.DISK_ERROR, "index %d != %d", view.getIndex(), index);
+            checkCrcOnRead(view);
+            sbr = null;
+            return view;
+        } finally {
+            SelectMmapBufferResult.release(sbr);
+        }
+    }
+
+    /**
+     * Get the views of the entries from the begin index by the ranges read by {@link #getEntryRange(long, int, int)},
+     * up to the max count or bytes, but one entry at least. The views share the ranges, the release actions of which
+     * are added to releases, and should run once the views are consumed, even if this method throws.
+     */
+    public List<EntryView> getEntryViews(long beginIndex, int maxCount, int maxBytes, List<Runnable> releases) {
+        List<EntryView> views = new ArrayList<>();
+        long totalSize = 0;
+        long index = beginIndex;
+        while (views.size() < maxCount && (views.isEmpty() || totalSize < maxBytes) && index <= ledgerEndIndex) {
+            EntryRangeResult range = getEntryRange(index, maxCount - views.size(), (int) (maxBytes - totalSize));
+            releases.add(range::release);
+            for (int i = 0; i < range.getCount(); i++) {
+                if (!views.isEmpty() && totalSize + range.getEntrySize(i) > maxBytes) {
+                    return views;
+                }
+                EntryView view = range.getEntryView(i);
+                PreConditions.check(view.getIndex() == index, DLedgerResponseCode.DISK_ERROR, "index %d != %d", view.getIndex(), index);
+                checkCrcOnRead(view);
+                views.add(view);
+                totalSize += view.getSize();
+                index++;
+            }
+        }
+        return views;
+    }
+
+    /**
+     * Read the contiguous encoded entries from the begin index as one view of the data file, the index units of them
+     * are read at once. The range stops at the end of the index or the data file, and at the max count or bytes,
+     * but has one entry at least. The caller should release the result.
+     */
+    public EntryRangeResult getEntryRange(long beginIndex, int maxCount, int maxBytes) {
+        PreConditions.check(beginIndex >= 0, DLedgerResponseCode.INDEX_OUT_OF_RANGE, "%d should gt 0", beginIndex);
+        PreConditions.check(beginIndex <= ledgerEndIndex && beginIndex >= ledgerBeginIndex, DLedgerResponseCode.INDEX_OUT_OF_RANGE, "%d should between %d-%d", beginIndex, ledgerBeginIndex, ledgerEndIndex);
+        int indexFileSize = indexFileList.getMappedFileSize();
+        long indexOffset = beginIndex * INDEX_UNIT_SIZE;
+        long count = Math.min(ledgerEndIndex - beginIndex + 1, Math.max(maxCount, 1));
+        count = Math.min(count, (indexFileSize - indexOffset % indexFileSize) / INDEX_UNIT_SIZE);
+        SelectMmapBufferResult indexSbr = null;
+        SelectMmapBufferResult dataSbr = null;
+        try {
+            indexSbr = indexFileList.getData(indexOffset, (int) count * INDEX_UNIT_SIZE);
+            PreConditions.check(indexSbr != null && indexSbr.getByteBuffer() != null, DLedgerResponseCode.DISK_ERROR, "Get null index for %d-%d", beginIndex, beginIndex + count - 1);
+            ByteBuffer indexBuffer = indexSbr.getByteBuffer();
+            int[] sizes = new int[(int) count];
+            long beginPos = -1;
+            int totalSize = 0;
+            int num = 0;
+            for (; num < count; num++) {
+                DLedgerEntry meta = DLedgerEntryCoder.decodeIndex(indexBuffer);
+                PreConditions.check(meta.getIndex() == beginIndex + num, DLedgerResponseCode.DISK_ERROR, "index %d != %d", meta.getIndex(), beginIndex + num);
+                if (num == 0) {
+                    beginPos = meta.getPos();
+                } else if (meta.getPos() != beginPos + totalSize || (long) totalSize + meta.getSize() > maxBytes) {
+                    //the entry is in the next data file, or beyond the max bytes
+                    break;
+                }
+                sizes[num] = meta.getSize();
+                totalSize += meta.getSize();
+            }
+            dataSbr = readColdData(beginIndex, beginPos, totalSize);
+            if (dataSbr == null) {
+                dataSbr = dataFileList.getData(beginPos, totalSize);
+            }
+            PreConditions.check(dataSbr != null && dataSbr.getByteBuffer() != null, DLedgerResponseCode.DISK_ERROR, "Get null data for %d-%d", beginIndex, beginIndex + num - 1);
+            PreConditions.check(beginPos == DLedgerEntryCoder.getPos(dataSbr.getByteBuffer()), DLedgerResponseCode.DISK_ERROR, "%d != %d", beginPos, DLedgerEntryCoder.getPos(dataSbr.getByteBuffer()));
+            EntryRangeResult result = new EntryRangeResult(beginIndex, dataSbr, Arrays.copyOf(sizes, num));
+            dataSbr = null;
+            return result;
+        } finally {
+            SelectMmapBufferResult.release(indexSbr);
+            SelectMmapBufferResult.release(dataSbr);
+        }
+    }
+
+    /**
+     * Verify the body crc of 1 in every N entries read.
+     */
+    private void checkCrcOnRead(DLedgerEntry entry) {
+        if (shouldCheckCrcOnRead(entry.getBodyCrc())) {
+            int bodyCrc = Crc32C.compute(entry.getBody());
+            PreConditions.check(bodyCrc == entry.getBodyCrc(), DLedgerResponseCode.DISK_ERROR, "index=%d bodyCrc %d != %d", entry.getIndex(), entry.getBodyCrc(), bodyCrc);
+        }
+    }
+
+    private void checkCrcOnRead(EntryView view) {
+        if (shouldCheckCrcOnRead(view.getBodyCrc())) {
+            int bodyCrc = Crc32C.compute(view.getBody());
+            PreConditions.check(bodyCrc == view.getBodyCrc(), DLedgerResponseCode.DISK_ERROR, "index=%d bodyCrc %d != %d", view.getIndex(), view.getBodyCrc(), bodyCrc);
+        }
+    }
+
+    private boolean shouldCheckCrcOnRead(int bodyCrc) {
+        int checkCrcInterval = dLedgerConfig.getCheckCrcOnReadInterval();
+        return bodyCrc != 0 && checkCrcInterval > 0 && ThreadLocalRandom.current().nextInt(checkCrcInterval) == 0;
+    }
+
     @Override
     public long getCommittedIndex() {
         return committedIndex;
@@ -518,10 +1251,10 @@ public class DLedgerMmapFileStore extends DLedgerStore {
             //If the node fall behind too much, the committedIndex will be larger than enIndex.
             newCommittedIndex = endIndex;
         }
-        DLedgerEntry dLedgerEntry = get(newCommittedIndex);
-        PreConditions.check(dLedgerEntry != null, DLedgerResponseCode.DISK_ERROR);
+        DLedgerEntry meta = getMeta(newCommittedIndex);
+        PreConditions.check(meta != null, DLedgerResponseCode.DISK_ERROR);
         this.committedIndex = newCommittedIndex;
-        this.committedPos = dLedgerEntry.getPos() + dLedgerEntry.getSize();
+        this.committedPos = meta.getPos() + meta.getSize();
     }
 
     @Override
@@ -544,6 +1277,10 @@ public class DLedgerMmapFileStore extends DLedgerStore {
         return memberState;
     }
 
+    public DLedgerConfig getDLedgerConfig() {
+        return dLedgerConfig;
+    }
+
     public MmapFileList getDataFileList() {
         return dataFileList;
     }
@@ -556,19 +1293,55 @@ public class DLedgerMmapFileStore extends DLedgerStore {
         void doHook(DLedgerEntry entry, ByteBuffer buffer, int bodyOffset);
     }
 
-    class FlushDataService extends ShutdownAbleThread {
+    /**
+     * Commit the data appended to the pooled write buffers to the file channels, only works if the transient store pool is enabled.
+     * Several pages are committed at a time as one sequential write, and all the data is committed at least once an interval.
+     */
+    class CommitDataService extends ShutdownAbleThread {
 
-        public FlushDataService(String name, Logger logger) {
+        private long lastThoroughCommitTimeMs = System.currentTimeMillis();
+
+        public CommitDataService(String name, Logger logger) {
             super(name, logger);
         }
 
         @Override public void doWork() {
             try {
+                int commitLeastPages = dLedgerConfig.getCommitFileLeastPages();
+                if (DLedgerUtils.elapsed(lastThoroughCommitTimeMs) >= dLedgerConfig.getCommitFileThoroughInterval()) {
+                    lastThoroughCommitTimeMs = System.currentTimeMillis();
+                    commitLeastPages = 0;
+                }
                 long start = System.currentTimeMillis();
-                DLedgerMmapFileStore.this.dataFileList.flush(0);
-                DLedgerMmapFileStore.this.indexFileList.flush(0);
+                DLedgerMmapFileStore.this.dataFileList.commit(commitLeastPages);
                 if (DLedgerUtils.elapsed(start) > 500) {
-                    logger.info("Flush data cost={} ms", DLedgerUtils.elapsed(start));
+                    logger.info("Commit data cost={} ms", DLedgerUtils.elapsed(start));
+                }
+                waitForRunning(dLedgerConfig.getCommitFileInterval());
+            } catch (Throwable t) {
+                logger.info("Error in {}", getName(), t);
+                DLedgerUtils.sleep(200);
+            }
+        }
+    }
+
+    class FlushDataService extends ShutdownAbleThread {
+
+        public FlushDataService(String name, Logger logger) {
+            super(name, logger);
+        }
+
+        @Override public void doWork() {
+            try {
+                //the group flush service flushes the files in the SYNC_FLUSH mode
+                if (groupFlushService == null) {
+                    long start = System.currentTimeMillis();
+                    Future<Boolean> indexFlushed = flushIndexExecutor.submit(() -> DLedgerMmapFileStore.this.indexFileList.flush(0));
+                    DLedgerMmapFileStore.this.dataFileList.flush(0);
+                    indexFlushed.get();
+                    if (DLedgerUtils.elapsed(start) > 500) {
+                        logger.info("Flush data cost={} ms", DLedgerUtils.elapsed(start));
+                    }
                 }
 
                 if (DLedgerUtils.elapsed(lastCheckPointTimeMs) > dLedgerConfig.getCheckPointInterval()) {
@@ -584,6 +1357,66 @@ public class DLedgerMmapFileStore extends DLedgerStore {
         }
     }
 
+    /**
+     * Force the appended entries to the disk in group, only works if the flush disk type is SYNC_FLUSH.
+     * It is woken up by the appends, and the entries appended during one force are forced together by the next one,
+     * so the cost of a force is shared by more entries as the concurrency rises.
+     */
+    class GroupFlushService extends ShutdownAbleThread {
+
+        public GroupFlushService(String name, Logger logger) {
+            super(name, logger);
+        }
+
+        @Override public void doWork() {
+            try {
+                long endIndex;
+                long dataWhere;
+                long indexWhere;
+                long truncateTimesSnapshot;
+                synchronized (memberState) {
+                    endIndex = ledgerEndIndex;
+                    dataWhere = dataFileList.getMaxWrotePosition();
+                    indexWhere = indexFileList.getMaxWrotePosition();
+                    truncateTimesSnapshot = truncateTimes;
+                }
+                if (endIndex <= flushedIndex) {
+                    waitForRunning(dLedgerConfig.getFlushFileInterval());
+                    return;
+                }
+                long start = System.currentTimeMillis();
+                boolean flushed;
+                synchronized (flushLock) {
+                    if (truncateTimesSnapshot == truncateTimes) {
+                        Future<Boolean> indexFlushed = flushIndexExecutor.submit(() -> flushTo(indexFileList, indexWhere));
+                        flushed = flushTo(dataFileList, dataWhere);
+                        flushed = indexFlushed.get() && flushed;
+                    } else {
+                        flushed = false;
+                    }
+                }
+                if (DLedgerUtils.elapsed(start) > 500) {
+                    logger.info("Group flush data cost={} ms endIndex={}", DLedgerUtils.elapsed(start), endIndex);
+                }
+                if (!flushed) {
+                    waitForRunning(dLedgerConfig.getFlushFileInterval());
+                    return;
+                }
+                synchronized (memberState) {
+                    //the entries may have been truncated during the flush
+                    if (truncateTimesSnapshot != truncateTimes || endIndex <= flushedIndex) {
+                        return;
+                    }
+                    flushedIndex = endIndex;
+                }
+                notifyFlushed(endIndex);
+            } catch (Throwable t) {
+                logger.info("Error in {}", getName(), t);
+                DLedgerUtils.sleep(200);
+            }
+        }
+    }
+
     class CleanSpaceService extends ShutdownAbleThread {
 
         double storeBaseRatio = DLedgerUtils.getDiskPartitionSpaceUsedPercent(dLedgerConfig.getStoreBaseDir());
@@ -619,6 +1452,8 @@ public class DLedgerMmapFileStore extends DLedgerStore {
                         DLedgerMmapFileStore.this.reviseLedgerBeginIndex();
                     }
                 }
+                //the cold files mapped again by the readers are unmapped here, out of the read path
+                getDataFileList().unmapColdFiles();
                 waitForRunning(100);
             } catch (Throwable t) {
                 logger.info("Error in {}", getName(), t);
@@ -659,4 +1494,32 @@ public class DLedgerMmapFileStore extends DLedgerStore {
             return false;
         }
     }
+
+    /**
+     * The result of verifying one data file, with its first and last entries to join it with the files around.
+     */
+    private static class SegmentResult {
+        private final MmapFile mappedFile;
+        private long firstIndex = -1;
+        private long firstTerm = -1;
+        private long lastIndex = -1;
+        private long lastTerm = -1;
+        private int lastChainCrc = 0;
+        //whether the file is verified to the blank end
+        private boolean sealed = false;
+
+        private SegmentResult(MmapFile mappedFile) {
+            this.mappedFile = mappedFile;
+        }
+
+        private boolean canJoin(long prevIndex, long prevTerm) {
+            if (!sealed) {
+                return false;
+            }
+            if (firstIndex == -1 || prevIndex == -1) {
+                return true;
+            }
+            return firstIndex == prevIndex + 1 && firstTerm >= prevTerm;
+        }
+    }
 }
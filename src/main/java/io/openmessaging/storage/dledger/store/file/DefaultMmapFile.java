@@ -19,10 +19,13 @@ package io.openmessaging.storage.dledger.store.file;
 
 import io.openmessaging.storage.dledger.utils.DLedgerUtils;
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
@@ -40,6 +43,44 @@ public class DefaultMmapFile extends ReferenceResource implements MmapFile {
     private static final AtomicLong TOTAL_MAPPED_VIRTUAL_MEMORY = new AtomicLong(0);
     private static final AtomicInteger TOTAL_MAPPED_FILES = new AtomicInteger(0);
 
+    //force a range of the mapping, by force(int, int) since JDK 13, or by the native force0 of JDK 8 only,
+    //the whole mapping is forced on the others, where the internals are not accessible or differ
+    private static Method forceRangeMethod;
+    private static Method force0Method;
+    private static Field fdField;
+    private static Field addressField;
+    //the page size of the os, which the address of msync should be aligned to, 64K on some arm64 and ppc64 kernels
+    private static int osPageSize = OS_PAGE_SIZE;
+
+    static {
+        try {
+            forceRangeMethod = MappedByteBuffer.class.getMethod("force", int.class, int.class);
+        } catch (NoSuchMethodException ignored) {
+            String javaVersion = System.getProperty("java.specification.version");
+            if ("1.8".equals(javaVersion)) {
+                try {
+                    Method force0 = MappedByteBuffer.class.getDeclaredMethod("force0", FileDescriptor.class, long.class, long.class);
+                    Field fd = MappedByteBuffer.class.getDeclaredField("fd");
+                    Field address = Buffer.class.getDeclaredField("address");
+                    Field theUnsafe = Class.forName("sun.misc.Unsafe").getDeclaredField("theUnsafe");
+                    force0.setAccessible(true);
+                    fd.setAccessible(true);
+                    address.setAccessible(true);
+                    theUnsafe.setAccessible(true);
+                    Object unsafe = theUnsafe.get(null);
+                    osPageSize = (Integer) unsafe.getClass().getMethod("pageSize").invoke(unsafe);
+                    force0Method = force0;
+                    fdField = fd;
+                    addressField = address;
+                } catch (Throwable t) {
+                    logger.warn("Force the range of the mapping is not supported, the whole mapping will be forced", t);
+                }
+            } else {
+                logger.info("Force the range of the mapping is not supported on java {}, the whole mapping will be forced", javaVersion);
+            }
+        }
+    }
+
     final AtomicInteger startPosition = new AtomicInteger(0);
     final AtomicInteger wrotePosition = new AtomicInteger(0);
     final AtomicInteger committedPosition = new AtomicInteger(0);
@@ -49,11 +90,39 @@ public class DefaultMmapFile extends ReferenceResource implements MmapFile {
     long fileFromOffset;
     private FileChannel fileChannel;
     private String fileName;
-    private MappedByteBuffer mappedByteBuffer;
+    //null if the file is not mapped yet, or unmapped when cold
+    private volatile MappedByteBuffer mappedByteBuffer;
+    private volatile long lastAccessTime = System.currentTimeMillis();
+    //the pooled buffer the data is appended to before committed, null if appending to the mapping directly
+    private volatile ByteBuffer writeBuffer = null;
+    private TransientStorePool transientStorePool = null;
+    //guards the commit against the truncation and the returning of the write buffer
+    private final Object commitLock = new Object();
     private volatile long storeTimestamp = 0;
+    private final AtomicLong flushTimes = new AtomicLong(0);
+    private final AtomicLong flushCostUs = new AtomicLong(0);
+    private volatile long lastFlushCostUs = 0;
     private boolean firstCreateInQueue = false;
 
+    public DefaultMmapFile(final String fileName, final int fileSize,
+        final TransientStorePool transientStorePool) throws IOException {
+        this(fileName, fileSize);
+        if (transientStorePool != null && transientStorePool.getFileSize() == fileSize) {
+            this.writeBuffer = transientStorePool.borrowBuffer();
+            if (this.writeBuffer != null) {
+                this.transientStorePool = transientStorePool;
+            }
+        }
+    }
+
     public DefaultMmapFile(final String fileName, final int fileSize) throws IOException {
+        this(fileName, fileSize, true);
+    }
+
+    /**
+     * @param mapNow false to map the file on the first access, which is used to load the existing files lazily
+     */
+    public DefaultMmapFile(final String fileName, final int fileSize, final boolean mapNow) throws IOException {
         this.fileName = fileName;
         this.fileSize = fileSize;
         this.file = new File(fileName);
@@ -64,9 +133,9 @@ public class DefaultMmapFile extends ReferenceResource implements MmapFile {
 
         try {
             this.fileChannel = new RandomAccessFile(this.file, "rw").getChannel();
-            this.mappedByteBuffer = this.fileChannel.map(MapMode.READ_WRITE, 0, fileSize);
-            TOTAL_MAPPED_VIRTUAL_MEMORY.addAndGet(fileSize);
-            TOTAL_MAPPED_FILES.incrementAndGet();
+            if (mapNow) {
+                map();
+            }
             ok = true;
         } catch (FileNotFoundException e) {
             logger.error("create file channel " + this.fileName + " Failed. ", e);
@@ -81,6 +150,35 @@ public class DefaultMmapFile extends ReferenceResource implements MmapFile {
         }
     }
 
+    private void map() throws IOException {
+        this.mappedByteBuffer = this.fileChannel.map(MapMode.READ_WRITE, 0, fileSize);
+        TOTAL_MAPPED_VIRTUAL_MEMORY.addAndGet(fileSize);
+        TOTAL_MAPPED_FILES.incrementAndGet();
+    }
+
+    /**
+     * Returns the mapping, and maps the file again if it is unmapped. The readers should hold the file before calling it.
+     */
+    private MappedByteBuffer mapping() {
+        this.lastAccessTime = System.currentTimeMillis();
+        MappedByteBuffer buffer = this.mappedByteBuffer;
+        if (buffer != null) {
+            return buffer;
+        }
+        synchronized (this) {
+            if (this.mappedByteBuffer == null) {
+                try {
+                    map();
+                    logger.info("map file {} again", this.fileName);
+                } catch (IOException e) {
+                    logger.error("map file " + this.fileName + " Failed. ", e);
+                    throw new IllegalStateException(e);
+                }
+            }
+            return this.mappedByteBuffer;
+        }
+    }
+
     public static int getTotalMappedFiles() {
         return TOTAL_MAPPED_FILES.get();
     }
@@ -129,6 +227,36 @@ public class DefaultMmapFile extends ReferenceResource implements MmapFile {
         }
     }
 
+    public static boolean isForceRangeSupported() {
+        return forceRangeMethod != null || force0Method != null;
+    }
+
+    /**
+     * Force the range of the mapping to the disk, the begin is aligned down to the page of the os.
+     * The range from the last flushed position is much smaller than the whole mapping, which may be scanned entirely by the kernel.
+     * The whole mapping is forced if the range could not be.
+     */
+    static void force(MappedByteBuffer buffer, int from, int to) throws Exception {
+        if (to <= from) {
+            return;
+        }
+        try {
+            if (forceRangeMethod != null) {
+                //aligned by the jdk
+                forceRangeMethod.invoke(buffer, from, to - from);
+                return;
+            } else if (force0Method != null && fdField.get(buffer) != null) {
+                long address = addressField.getLong(buffer) + from;
+                long alignedAddress = address - address % osPageSize;
+                force0Method.invoke(buffer, fdField.get(buffer), alignedAddress, to - from + address - alignedAddress);
+                return;
+            }
+        } catch (Throwable t) {
+            logger.warn("Force the range {}-{} of the mapping failed, force the whole mapping", from, to, t);
+        }
+        buffer.force();
+    }
+
     private static ByteBuffer viewed(ByteBuffer buffer) {
         String methodName = "viewedBuffer";
 
@@ -182,7 +310,7 @@ public class DefaultMmapFile extends ReferenceResource implements MmapFile {
         int currentPos = this.wrotePosition.get();
 
         if ((currentPos + length) <= this.fileSize) {
-            ByteBuffer byteBuffer = this.mappedByteBuffer.slice();
+            ByteBuffer byteBuffer = appendBuffer().slice();
             byteBuffer.position(currentPos);
             byteBuffer.put(data, offset, length);
             this.wrotePosition.addAndGet(length);
@@ -191,6 +319,28 @@ public class DefaultMmapFile extends ReferenceResource implements MmapFile {
         return false;
     }
 
+    @Override
+    public ByteBuffer reserveRegion(final int length) {
+        int currentPos = this.wrotePosition.get();
+        if ((currentPos + length) > this.fileSize) {
+            return null;
+        }
+        ByteBuffer byteBuffer = appendBuffer().slice();
+        byteBuffer.position(currentPos);
+        byteBuffer.limit(currentPos + length);
+        return byteBuffer.slice();
+    }
+
+    @Override
+    public boolean commitRegion(final int length) {
+        int currentPos = this.wrotePosition.get();
+        if ((currentPos + length) <= this.fileSize) {
+            this.wrotePosition.addAndGet(length);
+            return true;
+        }
+        return false;
+    }
+
     /**
      * @return The current flushed position
      */
@@ -198,32 +348,133 @@ public class DefaultMmapFile extends ReferenceResource implements MmapFile {
     public int flush(final int flushLeastPages) {
         if (this.isAbleToFlush(flushLeastPages)) {
             if (this.hold()) {
-                int value = getReadPosition();
+                int value = getFlushablePosition();
+                long start = System.nanoTime();
                 try {
-                    this.mappedByteBuffer.force();
+                    if (this.transientStorePool != null) {
+                        //the data is written by the file channel
+                        this.fileChannel.force(false);
+                    } else {
+                        force(mapping(), this.flushedPosition.get(), value);
+                    }
                 } catch (Throwable e) {
+                    //the data may not be on the disk, keep the flushed position, the next flush will retry
                     logger.error("Error occurred when force data to disk.", e);
+                    this.release();
+                    throw new IllegalStateException("Force " + this.fileName + " failed", e);
                 }
+                this.lastFlushCostUs = (System.nanoTime() - start) / 1000;
+                this.flushCostUs.addAndGet(this.lastFlushCostUs);
+                this.flushTimes.incrementAndGet();
 
                 this.flushedPosition.set(value);
                 this.release();
             } else {
                 logger.warn("in flush, hold failed, flush offset = " + this.flushedPosition.get());
-                this.flushedPosition.set(getReadPosition());
+                this.flushedPosition.set(getFlushablePosition());
             }
         }
         return this.getFlushedPosition();
     }
 
+    /**
+     * Writes the data appended to the write buffer since the last commit to the file channel.
+     *
+     * @return The current committed position
+     */
     @Override
     public int commit(final int commitLeastPages) {
-        this.committedPosition.set(this.wrotePosition.get());
+        synchronized (this.commitLock) {
+            ByteBuffer buffer = this.writeBuffer;
+            if (buffer == null) {
+                this.committedPosition.set(this.wrotePosition.get());
+                return this.committedPosition.get();
+            }
+            if (this.isAbleToCommit(commitLeastPages) && this.hold()) {
+                try {
+                    int lastCommittedPosition = this.committedPosition.get();
+                    int writePos = this.wrotePosition.get();
+                    ByteBuffer byteBuffer = buffer.duplicate();
+                    byteBuffer.limit(writePos);
+                    byteBuffer.position(lastCommittedPosition);
+                    int pos = lastCommittedPosition;
+                    while (byteBuffer.hasRemaining()) {
+                        pos += this.fileChannel.write(byteBuffer, pos);
+                    }
+                    this.committedPosition.set(writePos);
+                } catch (Throwable e) {
+                    logger.error("Error occurred when commit data to file channel.", e);
+                } finally {
+                    this.release();
+                }
+            }
+        }
         return this.committedPosition.get();
     }
 
+    private boolean isAbleToCommit(final int commitLeastPages) {
+        int committedPos = this.committedPosition.get();
+        int writePos = this.wrotePosition.get();
+
+        if (this.isFull()) {
+            return writePos > committedPos;
+        }
+
+        if (commitLeastPages > 0) {
+            return ((writePos / OS_PAGE_SIZE) - (committedPos / OS_PAGE_SIZE)) >= commitLeastPages;
+        }
+
+        return writePos > committedPos;
+    }
+
+    @Override
+    public boolean releaseWriteBuffer() {
+        synchronized (this.commitLock) {
+            ByteBuffer buffer = this.writeBuffer;
+            if (buffer == null) {
+                return true;
+            }
+            if (!this.isAvailable() || !this.isFull() || this.committedPosition.get() != this.fileSize) {
+                return false;
+            }
+            //the readers hold the file before getting the write buffer, so clear it before checking the holders
+            this.writeBuffer = null;
+            if (this.getRefCount() > 1) {
+                this.writeBuffer = buffer;
+                return false;
+            }
+            this.transientStorePool.returnBuffer(buffer);
+            return true;
+        }
+    }
+
+    /**
+     * Returns the buffer to append to, the write buffer if any, otherwise the mapping.
+     */
+    private ByteBuffer appendBuffer() {
+        ByteBuffer buffer = this.writeBuffer;
+        return buffer != null ? buffer : mapping();
+    }
+
+    /**
+     * Returns the buffer to read the given range from, which should be called after holding the file.
+     * The data not committed yet is only in the write buffer, which has all the data of the file since it is created.
+     */
+    private ByteBuffer readBuffer(int pos, int size) {
+        ByteBuffer buffer = this.writeBuffer;
+        if (buffer != null && pos + size > this.committedPosition.get()) {
+            return buffer;
+        }
+        return mapping();
+    }
+
+    private int getFlushablePosition() {
+        return this.transientStorePool != null ? this.committedPosition.get() : getReadPosition();
+    }
+
     private boolean isAbleToFlush(final int flushLeastPages) {
         int flushedPos = this.flushedPosition.get();
-        int writePos = getReadPosition();
+        int writePos = getFlushablePosition();
 
         if (this.isFull()) {
             return writePos > flushedPos;
@@ -246,6 +497,21 @@ public class DefaultMmapFile extends ReferenceResource implements MmapFile {
         this.flushedPosition.set(pos);
     }
 
+    @Override
+    public long getFlushTimes() {
+        return flushTimes.get();
+    }
+
+    @Override
+    public long getFlushCostUs() {
+        return flushCostUs.get();
+    }
+
+    @Override
+    public long getLastFlushCostUs() {
+        return lastFlushCostUs;
+    }
+
     @Override public int getStartPosition() {
         return startPosition.get();
     }
@@ -265,11 +531,16 @@ public class DefaultMmapFile extends ReferenceResource implements MmapFile {
         if ((pos + size) <= readPosition) {
 
             if (this.hold()) {
-                ByteBuffer byteBuffer = this.mappedByteBuffer.slice();
-                byteBuffer.position(pos);
-                ByteBuffer byteBufferNew = byteBuffer.slice();
-                byteBufferNew.limit(size);
-                return new SelectMmapBufferResult(this.fileFromOffset + pos, byteBufferNew, size, this);
+                try {
+                    ByteBuffer byteBuffer = readBuffer(pos, size).slice();
+                    byteBuffer.position(pos);
+                    ByteBuffer byteBufferNew = byteBuffer.slice();
+                    byteBufferNew.limit(size);
+                    return new SelectMmapBufferResult(this.fileFromOffset + pos, byteBufferNew, size, this);
+                } catch (Throwable t) {
+                    logger.warn("select the buffer failed pos={} size={} fileFromOffset={}", pos, size, this.fileFromOffset, t);
+                    this.release();
+                }
             } else {
                 logger.warn("matched, but hold failed, request pos={} fileFromOffset={}", pos, this.fileFromOffset);
             }
@@ -285,12 +556,17 @@ public class DefaultMmapFile extends ReferenceResource implements MmapFile {
         int readPosition = getReadPosition();
         if (pos < readPosition && pos >= 0) {
             if (this.hold()) {
-                ByteBuffer byteBuffer = this.mappedByteBuffer.slice();
-                byteBuffer.position(pos);
                 int size = readPosition - pos;
-                ByteBuffer byteBufferNew = byteBuffer.slice();
-                byteBufferNew.limit(size);
-                return new SelectMmapBufferResult(this.fileFromOffset + pos, byteBufferNew, size, this);
+                try {
+                    ByteBuffer byteBuffer = readBuffer(pos, size).slice();
+                    byteBuffer.position(pos);
+                    ByteBuffer byteBufferNew = byteBuffer.slice();
+                    byteBufferNew.limit(size);
+                    return new SelectMmapBufferResult(this.fileFromOffset + pos, byteBufferNew, size, this);
+                } catch (Throwable t) {
+                    logger.warn("select the buffer failed pos={} size={} fileFromOffset={}", pos, size, this.fileFromOffset, t);
+                    this.release();
+                }
             }
         }
 
@@ -308,6 +584,15 @@ public class DefaultMmapFile extends ReferenceResource implements MmapFile {
 
             if (this.hold()) {
                 try {
+                    //the committed data is read by the file channel, which does not need the mapping
+                    ByteBuffer buffer = this.writeBuffer;
+                    if (buffer != null && pos + size > this.committedPosition.get()) {
+                        ByteBuffer data = buffer.duplicate();
+                        data.limit(pos + size);
+                        data.position(pos);
+                        byteBuffer.put(data);
+                        return true;
+                    }
                     int readNum = fileChannel.read(byteBuffer, pos);
                     return size == readNum;
                 } catch (Throwable t) {
@@ -342,13 +627,54 @@ public class DefaultMmapFile extends ReferenceResource implements MmapFile {
             return true;
         }
 
-        clean(this.mappedByteBuffer);
+        if (this.mappedByteBuffer != null) {
+            clean(this.mappedByteBuffer);
+            this.mappedByteBuffer = null;
+            TOTAL_MAPPED_VIRTUAL_MEMORY.addAndGet(this.fileSize * (-1));
+            TOTAL_MAPPED_FILES.decrementAndGet();
+        }
+        if (this.writeBuffer != null) {
+            this.transientStorePool.returnBuffer(this.writeBuffer);
+            this.writeBuffer = null;
+        }
+        logger.info("unmap file[REF:" + currentRef + "] " + this.fileName + " OK");
+        return true;
+    }
+
+    @Override
+    public synchronized boolean unmap() {
+        MappedByteBuffer buffer = this.mappedByteBuffer;
+        if (buffer == null) {
+            return true;
+        }
+        //the data not flushed yet is still written through the mapping
+        if (!this.isAvailable() || this.writeBuffer != null || this.flushedPosition.get() != this.fileSize) {
+            return false;
+        }
+        //the readers hold the file before getting the mapping, so clear it before checking the holders,
+        //then a reader holding after the check sees no mapping, and maps the file again after this returns
+        this.mappedByteBuffer = null;
+        if (this.getRefCount() > 1) {
+            this.mappedByteBuffer = buffer;
+            return false;
+        }
+        clean(buffer);
         TOTAL_MAPPED_VIRTUAL_MEMORY.addAndGet(this.fileSize * (-1));
         TOTAL_MAPPED_FILES.decrementAndGet();
-        logger.info("unmap file[REF:" + currentRef + "] " + this.fileName + " OK");
+        logger.info("unmap cold file {}", this.fileName);
         return true;
     }
 
+    @Override
+    public boolean isMapped() {
+        return this.mappedByteBuffer != null;
+    }
+
+    @Override
+    public long getLastAccessTime() {
+        return lastAccessTime;
+    }
+
     @Override
     public boolean destroy(final long intervalForcibly) {
         this.shutdown(intervalForcibly);
@@ -398,7 +724,10 @@ public class DefaultMmapFile extends ReferenceResource implements MmapFile {
 
     @Override
     public void setCommittedPosition(int pos) {
-        this.committedPosition.set(pos);
+        //wait for the running commit, otherwise it may overwrite the truncated position
+        synchronized (this.commitLock) {
+            this.committedPosition.set(pos);
+        }
     }
 
     @Override
@@ -408,12 +737,12 @@ public class DefaultMmapFile extends ReferenceResource implements MmapFile {
 
     @Override
     public MappedByteBuffer getMappedByteBuffer() {
-        return mappedByteBuffer;
+        return mapping();
     }
 
     @Override
     public ByteBuffer sliceByteBuffer() {
-        return this.mappedByteBuffer.slice();
+        return mapping().slice();
     }
 
     @Override
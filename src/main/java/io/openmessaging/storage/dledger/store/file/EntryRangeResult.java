@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.openmessaging.storage.dledger.store.file;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The contiguous encoded entries read from one data file, the entry i is at the offset i of the buffer.
+ * The buffer is a view of the data file, which should be released once the bytes are consumed.
+ */
+public class EntryRangeResult {
+
+    private final long beginIndex;
+    private final SelectMmapBufferResult sbr;
+    private final int[] offsets;
+
+    /**
+     * @param sizes the sizes of the entries in the buffer in order
+     */
+    EntryRangeResult(long beginIndex, SelectMmapBufferResult sbr, int[] sizes) {
+        this.beginIndex = beginIndex;
+        this.sbr = sbr;
+        this.offsets = new int[sizes.length + 1];
+        for (int i = 0; i < sizes.length; i++) {
+            offsets[i + 1] = offsets[i] + sizes[i];
+        }
+    }
+
+    public long getBeginIndex() {
+        return beginIndex;
+    }
+
+    public long getEndIndex() {
+        return beginIndex + getCount() - 1;
+    }
+
+    public int getCount() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * @return the total size of the entries
+     */
+    public int getSize() {
+        return offsets[offsets.length - 1];
+    }
+
+    public int getEntryOffset(int i) {
+        return offsets[i];
+    }
+
+    public int getEntrySize(int i) {
+        return offsets[i + 1] - offsets[i];
+    }
+
+    /**
+     * @return the view of all the entries, positioned at the first one
+     */
+    public ByteBuffer getByteBuffer() {
+        ByteBuffer byteBuffer = sbr.getByteBuffer().duplicate();
+        byteBuffer.limit(byteBuffer.position() + getSize());
+        return byteBuffer;
+    }
+
+    /**
+     * @return the view of the entry i, positioned at 0
+     */
+    public ByteBuffer getEntryBuffer(int i) {
+        ByteBuffer byteBuffer = sbr.getByteBuffer().duplicate();
+        byteBuffer.position(byteBuffer.position() + offsets[i]);
+        byteBuffer.limit(byteBuffer.position() + getEntrySize(i));
+        return byteBuffer.slice();
+    }
+
+    /**
+     * @return the view of the entry i, which is valid until the range is released
+     */
+    public EntryView getEntryView(int i) {
+        return new EntryView(getEntryBuffer(i), null);
+    }
+
+    public void release() {
+        sbr.release();
+    }
+}
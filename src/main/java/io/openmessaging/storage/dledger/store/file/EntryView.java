@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.openmessaging.storage.dledger.store.file;
+
+import io.openmessaging.storage.dledger.entry.DLedgerEntry;
+import io.openmessaging.storage.dledger.entry.DLedgerEntryCoder;
+import java.nio.ByteBuffer;
+
+/**
+ * The read-only view of an encoded entry, the header fields are read from the bytes in place and the body is a slice
+ * of them, so nothing is copied however large the body is. The view is valid until it is released.
+ */
+public class EntryView {
+
+    private final ByteBuffer byteBuffer;
+    //the data the view is read from, null if it is owned by others, such as a range
+    private final SelectMmapBufferResult sbr;
+
+    /**
+     * @param byteBuffer the buffer positioned at the entry
+     * @param sbr the data to release with the view, or null
+     */
+    public EntryView(ByteBuffer byteBuffer, SelectMmapBufferResult sbr) {
+        ByteBuffer entryBuffer = byteBuffer.slice();
+        entryBuffer.limit(entryBuffer.getInt(4));
+        this.byteBuffer = entryBuffer.asReadOnlyBuffer();
+        this.sbr = sbr;
+    }
+
+    public int getMagic() {
+        return byteBuffer.getInt(0);
+    }
+
+    public int getSize() {
+        return byteBuffer.getInt(4);
+    }
+
+    public long getIndex() {
+        return byteBuffer.getLong(8);
+    }
+
+    public long getTerm() {
+        return byteBuffer.getLong(16);
+    }
+
+    public long getPos() {
+        return byteBuffer.getLong(DLedgerEntry.POS_OFFSET);
+    }
+
+    public int getChannel() {
+        return byteBuffer.getInt(DLedgerEntry.POS_OFFSET + 8);
+    }
+
+    public int getChainCrc() {
+        return byteBuffer.getInt(DLedgerEntry.POS_OFFSET + 12);
+    }
+
+    public int getBodyCrc() {
+        return byteBuffer.getInt(DLedgerEntry.POS_OFFSET + 16);
+    }
+
+    public int getBodySize() {
+        return byteBuffer.getInt(DLedgerEntry.HEADER_SIZE);
+    }
+
+    /**
+     * @return the read-only view of the body, positioned at 0
+     */
+    public ByteBuffer getBody() {
+        ByteBuffer body = byteBuffer.duplicate();
+        body.position(DLedgerEntry.BODY_OFFSET);
+        body.limit(DLedgerEntry.BODY_OFFSET + getBodySize());
+        return body.slice();
+    }
+
+    /**
+     * @return the read-only view of the whole entry, positioned at 0
+     */
+    public ByteBuffer getByteBuffer() {
+        return byteBuffer.duplicate();
+    }
+
+    /**
+     * Decode the entry without the body.
+     */
+    public DLedgerEntry toHeader() {
+        return DLedgerEntryCoder.decode(byteBuffer.duplicate(), false);
+    }
+
+    /**
+     * Decode the entry with a copy of the body.
+     */
+    public DLedgerEntry toEntry() {
+        return DLedgerEntryCoder.decode(byteBuffer.duplicate());
+    }
+
+    public void release() {
+        SelectMmapBufferResult.release(sbr);
+    }
+}
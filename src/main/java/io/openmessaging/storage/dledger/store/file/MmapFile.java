@@ -78,6 +78,23 @@ public interface MmapFile {
      */
     boolean appendMessage(byte[] data, int offset, int length);
 
+    /**
+     * Returns a writable slice of the mapped byte buffer starting at the wrote position, so that the data could be
+     * encoded in place. The wrote position is not moved until {@link #commitRegion(int)} is called.
+     *
+     * @param length the length of the region
+     * @return the slice with the limit of the length, or null if there is no enough space
+     */
+    ByteBuffer reserveRegion(int length);
+
+    /**
+     * Moves the wrote position forward after the reserved region has been written.
+     *
+     * @param length the length of the written region
+     * @return true if success; false otherwise.
+     */
+    boolean commitRegion(int length);
+
     /**
      * Returns the global offset of the current {code MappedFile}, it's a long value of the file name.
      *
@@ -90,6 +107,7 @@ public interface MmapFile {
      *
      * @param flushLeastPages the least pages to flush
      * @return the flushed position after the method call
+     * @throws IllegalStateException if the data failed to be forced, the flushed position is kept
      */
     int flush(int flushLeastPages);
 
@@ -101,6 +119,13 @@ public interface MmapFile {
      */
     int commit(int commitLeastPages);
 
+    /**
+     * Returns the write buffer back to the pool once all the data has been committed and nobody reads it.
+     *
+     * @return true if there is no write buffer anymore
+     */
+    boolean releaseWriteBuffer();
+
     /**
      * Selects a slice of the mapped byte buffer's sub-region behind the mapped file,
      * starting at the given position.
@@ -134,6 +159,27 @@ public interface MmapFile {
      */
     ByteBuffer sliceByteBuffer();
 
+    /**
+     * Returns true if the file is mapped now, the file is mapped again on the next access after unmapped.
+     *
+     * @return true or false
+     */
+    boolean isMapped();
+
+    /**
+     * Unmaps the file if it is sealed, flushed and not held by any reader.
+     *
+     * @return true if the file is not mapped now; false otherwise.
+     */
+    boolean unmap();
+
+    /**
+     * Returns the last time the mapping of the file is accessed.
+     *
+     * @return the last access timestamp
+     */
+    long getLastAccessTime();
+
     /**
      * Returns the last modified timestamp of the file.
      *
@@ -198,6 +244,27 @@ public interface MmapFile {
      */
     void setFlushedPosition(int flushedPosition);
 
+    /**
+     * Returns the times this mapped file has been flushed.
+     *
+     * @return the flush times
+     */
+    long getFlushTimes();
+
+    /**
+     * Returns the total time cost of flushing this mapped file.
+     *
+     * @return the flush cost in microseconds
+     */
+    long getFlushCostUs();
+
+    /**
+     * Returns the time cost of the last flush of this mapped file.
+     *
+     * @return the last flush cost in microseconds
+     */
+    long getLastFlushCostUs();
+
     /**
      * Returns the start position of this mapped file, before which the data is truncated
      *
@@ -36,20 +36,45 @@ public class MmapFileList {
     public static final int BLANK_MAGIC_CODE = -1;
     private static Logger logger = LoggerFactory.getLogger(MmapFile.class);
     private static final int DELETE_FILES_BATCH_MAX = 10;
+    private static final long SLOW_FLUSH_COST_US = 500 * 1000;
     private final String storePath;
 
     private final int mappedFileSize;
 
     private final CopyOnWriteArrayList<MmapFile> mappedFiles = new CopyOnWriteArrayList<MmapFile>();
 
+    private final TransientStorePool transientStorePool;
+    private final AllocateMmapFileService allocateMmapFileService;
+
     private long flushedWhere = 0;
     private long committedWhere = 0;
 
     private volatile long storeTimestamp = 0;
 
+    //the max number of the mapped files, the least recently used sealed ones are unmapped beyond it, 0 for no limit
+    private volatile int maxMappedFiles = 0;
+    private final Object unmapLock = new Object();
+
     public MmapFileList(final String storePath, int mappedFileSize) {
+        this(storePath, mappedFileSize, null);
+    }
+
+    /**
+     * @param transientStorePool the pool of the write buffers for the new files, null to append to the mappings directly
+     */
+    public MmapFileList(final String storePath, int mappedFileSize, TransientStorePool transientStorePool) {
+        this(storePath, mappedFileSize, transientStorePool, null);
+    }
+
+    /**
+     * @param allocateMmapFileService the service to create the next files ahead, null to create them in place
+     */
+    public MmapFileList(final String storePath, int mappedFileSize, TransientStorePool transientStorePool,
+        AllocateMmapFileService allocateMmapFileService) {
         this.storePath = storePath;
         this.mappedFileSize = mappedFileSize;
+        this.transientStorePool = transientStorePool;
+        this.allocateMmapFileService = allocateMmapFileService;
     }
 
     public boolean checkSelf() {
@@ -118,6 +143,13 @@ public class MmapFileList {
 
         this.destroyExpiredFiles(willRemoveFiles);
         this.deleteExpiredFiles(willRemoveFiles);
+        //the truncated data should be committed and flushed again once rewritten
+        if (this.committedWhere > offset) {
+            this.committedWhere = Math.max(offset, 0);
+        }
+        if (this.flushedWhere > offset) {
+            this.flushedWhere = Math.max(offset, 0);
+        }
     }
 
     void destroyExpiredFiles(List<MmapFile> files) {
@@ -240,6 +272,39 @@ public class MmapFileList {
         return currPosition;
     }
 
+    /**
+     * Reserve a writable region of the last mapped file for the data to be encoded in place, the data becomes
+     * readable only after {@link #commitAppend(int)}. The region never crosses the file boundary, a blank is padded
+     * to the end of the last file if it has no enough space.
+     *
+     * @return the region positioned at 0 with the limit of len, or null if failed
+     */
+    public ByteBuffer reserveAppend(int len) {
+        if (preAppend(len, true) == -1) {
+            return null;
+        }
+        ByteBuffer region = getLastMappedFile().reserveRegion(len);
+        if (region == null) {
+            logger.error("Reserve {} bytes error for {}", len, storePath);
+        }
+        return region;
+    }
+
+    /**
+     * Commit the region reserved by {@link #reserveAppend(int)}.
+     *
+     * @return the start offset of the region, or -1 if failed
+     */
+    public long commitAppend(int len) {
+        MmapFile mappedFile = getLastMappedFile();
+        long currPosition = mappedFile.getFileFromOffset() + mappedFile.getWrotePosition();
+        if (!mappedFile.commitRegion(len)) {
+            logger.error("Commit error for {}", storePath);
+            return -1;
+        }
+        return currPosition;
+    }
+
     public SelectMmapBufferResult getData(final long offset, final int size) {
         MmapFile mappedFile = findMappedFileByOffset(offset, offset == 0);
         if (mappedFile != null) {
@@ -258,6 +323,72 @@ public class MmapFileList {
         return null;
     }
 
+    /**
+     * Read the data from the offset by the file channel without the mapping, at least size bytes and at most the
+     * remaining of the buffer, but never across the end of the file.
+     *
+     * @return the number of bytes read, or -1 if failed
+     */
+    public int readData(final long offset, final int size, final ByteBuffer byteBuffer) {
+        MmapFile mappedFile = findMappedFileByOffset(offset);
+        if (mappedFile == null) {
+            return -1;
+        }
+        int pos = (int) (offset % mappedFileSize);
+        int length = Math.min(byteBuffer.remaining(), mappedFile.getReadPosition() - pos);
+        if (length < size) {
+            return -1;
+        }
+        ByteBuffer region = byteBuffer.duplicate();
+        region.limit(region.position() + length);
+        if (!mappedFile.getData(pos, length, region)) {
+            return -1;
+        }
+        byteBuffer.position(region.position());
+        return length;
+    }
+
+    /**
+     * Unmap the least recently used files until the mapped ones are no more than the max number.
+     * The last file and the files still held, unflushed or with the write buffer are skipped.
+     * It is called by the background service, the reads only record the access time of the files.
+     */
+    public void unmapColdFiles() {
+        int maxNum = this.maxMappedFiles;
+        if (maxNum <= 0) {
+            return;
+        }
+        synchronized (this.unmapLock) {
+            Object[] mfs = this.copyMappedFiles();
+            if (mfs == null) {
+                return;
+            }
+            int mappedNum = 0;
+            List<MmapFile> candidates = new ArrayList<MmapFile>();
+            for (int i = 0; i < mfs.length; i++) {
+                MmapFile mappedFile = (MmapFile) mfs[i];
+                if (mappedFile.isMapped()) {
+                    mappedNum++;
+                    if (i < mfs.length - 1) {
+                        candidates.add(mappedFile);
+                    }
+                }
+            }
+            if (mappedNum <= maxNum) {
+                return;
+            }
+            candidates.sort(Comparator.comparingLong(MmapFile::getLastAccessTime));
+            for (MmapFile mappedFile : candidates) {
+                if (mappedNum <= maxNum) {
+                    break;
+                }
+                if (mappedFile.unmap()) {
+                    mappedNum--;
+                }
+            }
+        }
+    }
+
     void deleteExpiredFiles(List<MmapFile> files) {
 
         if (!files.isEmpty()) {
@@ -281,6 +412,9 @@ public class MmapFileList {
         }
     }
 
+    /**
+     * Load the existing files, which are mapped lazily on the first access.
+     */
     public boolean load() {
         File dir = new File(this.storePath);
         File[] files = dir.listFiles();
@@ -295,7 +429,7 @@ public class MmapFileList {
                     return false;
                 }
                 try {
-                    MmapFile mappedFile = new DefaultMmapFile(file.getPath(), mappedFileSize);
+                    MmapFile mappedFile = new DefaultMmapFile(file.getPath(), mappedFileSize, false);
 
                     mappedFile.setWrotePosition(this.mappedFileSize);
                     mappedFile.setFlushedPosition(this.mappedFileSize);
@@ -325,10 +459,15 @@ public class MmapFileList {
         if (createOffset != -1 && needCreate) {
             String nextFilePath = this.storePath + File.separator + DLedgerUtils.offset2FileName(createOffset);
             MmapFile mappedFile = null;
-            try {
-                mappedFile = new DefaultMmapFile(nextFilePath, this.mappedFileSize);
-            } catch (IOException e) {
-                logger.error("create mappedFile exception", e);
+            if (this.allocateMmapFileService != null) {
+                String nextNextFilePath = this.storePath + File.separator + DLedgerUtils.offset2FileName(createOffset + this.mappedFileSize);
+                mappedFile = this.allocateMmapFileService.allocate(this.storePath, nextFilePath, nextNextFilePath, this.mappedFileSize, this.transientStorePool);
+            } else {
+                try {
+                    mappedFile = new DefaultMmapFile(nextFilePath, this.mappedFileSize, this.transientStorePool);
+                } catch (IOException e) {
+                    logger.error("create mappedFile exception", e);
+                }
             }
 
             if (mappedFile != null) {
@@ -504,6 +643,10 @@ public class MmapFileList {
             int offset = mappedFile.flush(flushLeastPages);
             long where = mappedFile.getFileFromOffset() + offset;
             result = where == this.flushedWhere;
+            if (!result && mappedFile.getLastFlushCostUs() > SLOW_FLUSH_COST_US) {
+                logger.warn("[MONITOR]Flush {} to {} cost={} us, total times={} cost={} us", mappedFile.getFileName(), offset,
+                    mappedFile.getLastFlushCostUs(), mappedFile.getFlushTimes(), mappedFile.getFlushCostUs());
+            }
             this.flushedWhere = where;
         }
 
@@ -518,6 +661,16 @@ public class MmapFileList {
             long where = mappedFile.getFileFromOffset() + offset;
             result = where == this.committedWhere;
             this.committedWhere = where;
+            if (this.transientStorePool != null) {
+                //retry returning the write buffers of the committed files, which may have been still in reading last time
+                for (MmapFile mf : this.mappedFiles) {
+                    if (mf.getFileFromOffset() >= mappedFile.getFileFromOffset()) {
+                        break;
+                    }
+                    mf.releaseWriteBuffer();
+                }
+                mappedFile.releaseWriteBuffer();
+            }
         }
 
         return result;
@@ -686,6 +839,14 @@ public class MmapFileList {
         return mappedFileSize;
     }
 
+    public int getMaxMappedFiles() {
+        return maxMappedFiles;
+    }
+
+    public void setMaxMappedFiles(int maxMappedFiles) {
+        this.maxMappedFiles = maxMappedFiles;
+    }
+
     public long getCommittedWhere() {
         return committedWhere;
     }
@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.openmessaging.storage.dledger.store.file;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The read-ahead window over the cold data, borrowed from the {@link ReadAheadPool} by one read at a time. The data is
+ * read by the file channel into the direct buffer a window at a time, instead of faulting the old pages in through the
+ * mapping one by one, so the sequential reads of a lagging reader take one read for many entries.
+ */
+class ReadAheadBuffer {
+
+    private final ByteBuffer buffer;
+    //the offset of the window in the file list, -1 if the window is empty
+    private long startOffset = -1;
+    private long version = -1;
+
+    ReadAheadBuffer(int size) {
+        this.buffer = ByteBuffer.allocateDirect(size);
+    }
+
+    int capacity() {
+        return buffer.capacity();
+    }
+
+    /**
+     * @return true if the window has the data of the version
+     */
+    boolean contains(long offset, int size, long version) {
+        return version == this.version && startOffset != -1 && offset >= startOffset && offset + size <= startOffset + buffer.limit();
+    }
+
+    /**
+     * Read the data from the window, which is filled from the offset if it misses.
+     *
+     * @param size no larger than the capacity
+     * @param version the version of the data, the window filled with another version is dropped
+     * @return the view of the data in the window, which is valid until the buffer is returned, or null if failed
+     */
+    ByteBuffer read(MmapFileList fileList, long offset, int size, long version) {
+        if (!contains(offset, size, version)) {
+            startOffset = -1;
+            buffer.clear();
+            if (fileList.readData(offset, size, buffer) < size) {
+                return null;
+            }
+            buffer.flip();
+            startOffset = offset;
+            this.version = version;
+        }
+        ByteBuffer window = buffer.duplicate();
+        window.position((int) (offset - startOffset));
+        window.limit(window.position() + size);
+        return window.slice();
+    }
+}
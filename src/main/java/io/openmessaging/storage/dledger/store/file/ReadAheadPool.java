@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.openmessaging.storage.dledger.store.file;
+
+import io.openmessaging.storage.dledger.DLedgerConfig;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The bounded pool of the read-ahead buffers shared by the readers of the cold data. A buffer is borrowed by a read
+ * and returned once the view read from it is released, so the native memory is bounded however many readers there
+ * are. The buffer whose window covers the read is preferred, so a sequential reader keeps reading ahead.
+ * The buffers are allocated on demand, up to the max number.
+ */
+class ReadAheadPool {
+
+    private final DLedgerConfig dLedgerConfig;
+    //in the order of return, the least recently used first
+    private final List<ReadAheadBuffer> availableBuffers = new ArrayList<>();
+    private int allocatedNum = 0;
+
+    ReadAheadPool(DLedgerConfig dLedgerConfig) {
+        this.dLedgerConfig = dLedgerConfig;
+    }
+
+    /**
+     * @return the buffer to read the data, or null if the pool runs out
+     */
+    ReadAheadBuffer borrowBuffer(long offset, int size, long version) {
+        synchronized (this) {
+            ReadAheadBuffer lruBuffer = null;
+            for (int i = availableBuffers.size() - 1; i >= 0; i--) {
+                ReadAheadBuffer buffer = availableBuffers.get(i);
+                if (buffer.contains(offset, size, version)) {
+                    return availableBuffers.remove(i);
+                }
+                if (buffer.capacity() >= size) {
+                    lruBuffer = buffer;
+                }
+            }
+            if (lruBuffer != null) {
+                availableBuffers.remove(lruBuffer);
+                return lruBuffer;
+            }
+            if (allocatedNum >= dLedgerConfig.getColdReadAheadBufferNum()) {
+                return null;
+            }
+            allocatedNum++;
+        }
+        return new ReadAheadBuffer(Math.max(size, dLedgerConfig.getColdReadAheadSize()));
+    }
+
+    synchronized void returnBuffer(ReadAheadBuffer buffer) {
+        availableBuffers.add(buffer);
+    }
+
+    /**
+     * The view of the data read ahead, the buffer is returned to the pool on release.
+     */
+    class ReadAheadResult extends SelectMmapBufferResult {
+
+        private ReadAheadBuffer buffer;
+
+        ReadAheadResult(long startOffset, ByteBuffer byteBuffer, int size, ReadAheadBuffer buffer) {
+            super(startOffset, byteBuffer, size, null);
+            this.buffer = buffer;
+        }
+
+        @Override
+        public synchronized void release() {
+            if (buffer != null) {
+                returnBuffer(buffer);
+                buffer = null;
+            }
+        }
+    }
+}
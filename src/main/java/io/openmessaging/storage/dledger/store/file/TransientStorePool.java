@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.openmessaging.storage.dledger.store.file;
+
+import java.nio.ByteBuffer;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static io.openmessaging.storage.dledger.store.file.DefaultMmapFile.OS_PAGE_SIZE;
+
+/**
+ * The pool of the off-heap write buffers, each as large as a mapped file.
+ * The appends of a new file go to the borrowed buffer, and are committed to the file channel by the background service,
+ * so the append path never touches the mapping and is not stalled by the page faults or the writeback.
+ * If the pool runs out, the new file is appended to the mapping directly.
+ */
+public class TransientStorePool {
+    private static Logger logger = LoggerFactory.getLogger(TransientStorePool.class);
+
+    private final int poolSize;
+    private final int fileSize;
+    private final Deque<ByteBuffer> availableBuffers = new ConcurrentLinkedDeque<>();
+
+    public TransientStorePool(int poolSize, int fileSize) {
+        this.poolSize = poolSize;
+        this.fileSize = fileSize;
+    }
+
+    /**
+     * Allocate the buffers and touch every page of them, so that the physical memory is taken up before the appends.
+     */
+    public void init() {
+        for (int i = 0; i < poolSize; i++) {
+            ByteBuffer byteBuffer = ByteBuffer.allocateDirect(fileSize);
+            for (int pos = 0; pos < fileSize; pos += OS_PAGE_SIZE) {
+                byteBuffer.put(pos, (byte) 0);
+            }
+            availableBuffers.offer(byteBuffer);
+        }
+        logger.info("Init the transient store pool with {} buffers of {} bytes", poolSize, fileSize);
+    }
+
+    /**
+     * @return the buffer, or null if the pool runs out
+     */
+    public ByteBuffer borrowBuffer() {
+        ByteBuffer byteBuffer = availableBuffers.pollFirst();
+        if (byteBuffer == null) {
+            logger.warn("The transient store pool runs out, the new file will be appended to the mapping directly");
+        }
+        return byteBuffer;
+    }
+
+    public void returnBuffer(ByteBuffer byteBuffer) {
+        byteBuffer.clear();
+        availableBuffers.offerFirst(byteBuffer);
+    }
+
+    public int availableBufferNums() {
+        return availableBuffers.size();
+    }
+
+    public int getFileSize() {
+        return fileSize;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.openmessaging.storage.dledger.utils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
+
+/**
+ * The CRC32C (Castagnoli) checksums of the entries.
+ * It is computed by java.util.zip.CRC32C if the JVM has it (since JDK 9), which is accelerated by the intrinsics,
+ * otherwise by the table driven implementation, both give the same result.
+ */
+public final class Crc32C {
+
+    private static final int POLY = 0x82F63B78;
+    private static final int[][] TABLES = new int[8][256];
+
+    private static final MethodHandle JDK_CONSTRUCTOR;
+    private static final MethodHandle JDK_UPDATE_BUFFER;
+
+    static {
+        for (int n = 0; n < 256; n++) {
+            int crc = n;
+            for (int k = 0; k < 8; k++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLY : crc >>> 1;
+            }
+            TABLES[0][n] = crc;
+        }
+        for (int n = 0; n < 256; n++) {
+            for (int t = 1; t < 8; t++) {
+                TABLES[t][n] = (TABLES[t - 1][n] >>> 8) ^ TABLES[0][TABLES[t - 1][n] & 0xFF];
+            }
+        }
+        MethodHandle constructor = null;
+        MethodHandle updateBuffer = null;
+        try {
+            Class<?> clazz = Class.forName("java.util.zip.CRC32C");
+            constructor = MethodHandles.publicLookup().findConstructor(clazz, MethodType.methodType(void.class));
+            updateBuffer = MethodHandles.publicLookup().findVirtual(clazz, "update", MethodType.methodType(void.class, ByteBuffer.class));
+        } catch (Throwable ignored) {
+            constructor = null;
+            updateBuffer = null;
+        }
+        JDK_CONSTRUCTOR = constructor;
+        JDK_UPDATE_BUFFER = updateBuffer;
+    }
+
+    private Crc32C() {
+    }
+
+    public static boolean isIntrinsic() {
+        return JDK_CONSTRUCTOR != null;
+    }
+
+    public static int compute(byte[] array) {
+        return compute(array, 0, array.length);
+    }
+
+    public static int compute(byte[] array, int offset, int length) {
+        if (JDK_CONSTRUCTOR != null) {
+            Checksum checksum = newJdkChecksum();
+            checksum.update(array, offset, length);
+            return (int) checksum.getValue();
+        }
+        int crc = 0xFFFFFFFF;
+        int i = offset;
+        int end = offset + length;
+        for (; i + 8 <= end; i += 8) {
+            crc ^= (array[i] & 0xFF) | (array[i + 1] & 0xFF) << 8 | (array[i + 2] & 0xFF) << 16 | (array[i + 3] & 0xFF) << 24;
+            crc = TABLES[7][crc & 0xFF] ^ TABLES[6][(crc >>> 8) & 0xFF] ^ TABLES[5][(crc >>> 16) & 0xFF] ^ TABLES[4][crc >>> 24]
+                ^ TABLES[3][array[i + 4] & 0xFF] ^ TABLES[2][array[i + 5] & 0xFF] ^ TABLES[1][array[i + 6] & 0xFF] ^ TABLES[0][array[i + 7] & 0xFF];
+        }
+        for (; i < end; i++) {
+            crc = (crc >>> 8) ^ TABLES[0][(crc ^ array[i]) & 0xFF];
+        }
+        return ~crc;
+    }
+
+    /**
+     * Compute the checksum of the bytes from the position to the limit, the position of the buffer is not changed.
+     */
+    public static int compute(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            return compute(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+        if (JDK_CONSTRUCTOR != null) {
+            Checksum checksum = newJdkChecksum();
+            try {
+                JDK_UPDATE_BUFFER.invoke(checksum, buffer.duplicate());
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+            return (int) checksum.getValue();
+        }
+        int crc = 0xFFFFFFFF;
+        int i = buffer.position();
+        int end = buffer.limit();
+        for (; i + 8 <= end; i += 8) {
+            crc ^= (buffer.get(i) & 0xFF) | (buffer.get(i + 1) & 0xFF) << 8 | (buffer.get(i + 2) & 0xFF) << 16 | (buffer.get(i + 3) & 0xFF) << 24;
+            crc = TABLES[7][crc & 0xFF] ^ TABLES[6][(crc >>> 8) & 0xFF] ^ TABLES[5][(crc >>> 16) & 0xFF] ^ TABLES[4][crc >>> 24]
+                ^ TABLES[3][buffer.get(i + 4) & 0xFF] ^ TABLES[2][buffer.get(i + 5) & 0xFF] ^ TABLES[1][buffer.get(i + 6) & 0xFF] ^ TABLES[0][buffer.get(i + 7) & 0xFF];
+        }
+        for (; i < end; i++) {
+            crc = (crc >>> 8) ^ TABLES[0][(crc ^ buffer.get(i)) & 0xFF];
+        }
+        return ~crc;
+    }
+
+    private static Checksum newJdkChecksum() {
+        try {
+            return (Checksum) JDK_CONSTRUCTOR.invoke();
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+}
@@ -22,11 +22,16 @@ import io.openmessaging.storage.dledger.entry.DLedgerEntry;
 import io.openmessaging.storage.dledger.protocol.AppendEntryRequest;
 import io.openmessaging.storage.dledger.protocol.AppendEntryResponse;
 import io.openmessaging.storage.dledger.protocol.DLedgerResponseCode;
+import io.openmessaging.storage.dledger.protocol.GetEntriesRequest;
 import io.openmessaging.storage.dledger.protocol.GetEntriesResponse;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -162,4 +167,82 @@ public class AppendAndGetTest extends ServerTestHarness {
             Assert.assertEquals(entry.getPos(), future.get().getPos());
         }
     }
+
+    @Test
+    public void testSingleServerInFileWithConcurrentRequests() throws Exception {
+        String group = UUID.randomUUID().toString();
+        String peers = String.format("n0-localhost:%d", nextPort());
+        DLedgerServer dLedgerServer = launchServer(group, peers, "n0", "n0", DLedgerConfig.FILE);
+        ConcurrentMap<Long, String> bodies = new ConcurrentHashMap<>();
+        CountDownLatch latch = new CountDownLatch(8);
+        for (int t = 0; t < 8; t++) {
+            String prefix = "testConcurrentRequests" + t + "-";
+            new Thread(() -> {
+                try {
+                    for (int i = 0; i < 50; i++) {
+                        AppendEntryRequest request = new AppendEntryRequest();
+                        request.setGroup(group);
+                        request.setRemoteId(dLedgerServer.getMemberState().getSelfId());
+                        request.setBody((prefix + i).getBytes());
+                        AppendEntryResponse response = dLedgerServer.handleAppend(request).get(3, TimeUnit.SECONDS);
+                        if (response.getCode() == DLedgerResponseCode.SUCCESS.getCode()) {
+                            bodies.put(response.getIndex(), prefix + i);
+                        }
+                    }
+                } catch (Exception ignored) {
+                } finally {
+                    latch.countDown();
+                }
+            }).start();
+        }
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(400, bodies.size());
+        Assert.assertEquals(399, dLedgerServer.getdLedgerStore().getLedgerEndIndex());
+        for (long i = 0; i < 400; i++) {
+            DLedgerEntry entry = dLedgerServer.getdLedgerStore().get(i);
+            Assert.assertEquals(i, entry.getIndex());
+            Assert.assertArrayEquals(bodies.get(i).getBytes(), entry.getBody());
+        }
+    }
+
+    @Test
+    public void testHandleGetInProcess() throws Exception {
+        String group = UUID.randomUUID().toString();
+        String peers = String.format("n0-localhost:%d", nextPort());
+        DLedgerServer dLedgerServer = launchServer(group, peers, "n0", "n0", DLedgerConfig.FILE);
+        DLedgerClient dLedgerClient = launchClient(group, peers);
+        for (int i = 0; i < 5; i++) {
+            dLedgerClient.append(("HelloInProcess" + i).getBytes());
+        }
+        //the in-process callers get the full entries, the views are only used by the rpc service
+        for (int maxSize : new int[] {0, 1024 * 1024}) {
+            GetEntriesRequest request = new GetEntriesRequest();
+            request.setGroup(group);
+            request.setRemoteId("n0");
+            request.setBeginIndex(0L);
+            request.setMaxSize(maxSize);
+            GetEntriesResponse response = dLedgerServer.handleGet(request).get();
+            Assert.assertEquals(maxSize > 0 ? 5 : 1, response.getEntries().size());
+            for (int i = 0; i < response.getEntries().size(); i++) {
+                Assert.assertArrayEquals(("HelloInProcess" + i).getBytes(), response.getEntries().get(i).getBody());
+            }
+            Assert.assertFalse(response.isEncoded());
+        }
+    }
+
+    @Test
+    public void testClientCodecs() throws Exception {
+        String group = UUID.randomUUID().toString();
+        String peers = String.format("n0-localhost:%d", nextPort());
+        launchServer(group, peers, "n0", "n0", DLedgerConfig.FILE);
+        //the server replies in the codec of each request, so the clients of both codecs work with it
+        for (boolean useJsonCodec : new boolean[] {true, false}) {
+            DLedgerClient dLedgerClient = launchClient(group, peers, useJsonCodec);
+            AppendEntryResponse appendEntryResponse = dLedgerClient.append(("HelloCodec" + useJsonCodec).getBytes());
+            Assert.assertEquals(DLedgerResponseCode.SUCCESS.getCode(), appendEntryResponse.getCode());
+            GetEntriesResponse getEntriesResponse = dLedgerClient.get(appendEntryResponse.getIndex());
+            Assert.assertArrayEquals(("HelloCodec" + useJsonCodec).getBytes(), getEntriesResponse.getEntries().get(0).getBody());
+            dLedgerClient.shutdown();
+        }
+    }
 }
@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.openmessaging.storage.dledger;
+
+import io.openmessaging.storage.dledger.entry.DLedgerEntry;
+import io.openmessaging.storage.dledger.protocol.AppendEntryRequest;
+import io.openmessaging.storage.dledger.protocol.AppendEntryResponse;
+import io.openmessaging.storage.dledger.protocol.DLedgerResponseCode;
+import io.openmessaging.storage.dledger.protocol.PushEntryRequest;
+import io.openmessaging.storage.dledger.protocol.PushEntryResponse;
+import io.openmessaging.storage.dledger.utils.DLedgerUtils;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+
+public class AppendAndPullTest extends ServerTestHarness {
+
+    private CompletableFuture<AppendEntryResponse> append(DLedgerServer leader, String group, int i) throws Exception {
+        AppendEntryRequest appendEntryRequest = new AppendEntryRequest();
+        appendEntryRequest.setGroup(group);
+        appendEntryRequest.setRemoteId(leader.getMemberState().getSelfId());
+        byte[] body = new byte[128];
+        ByteBuffer.wrap(body).putInt(i);
+        appendEntryRequest.setBody(body);
+        return leader.handleAppend(appendEntryRequest);
+    }
+
+    @Test
+    public void testPullCommittedIndex() throws Exception {
+        for (String storeType : new String[] {DLedgerConfig.FILE, DLedgerConfig.MEMORY}) {
+            String group = UUID.randomUUID().toString();
+            String peers = String.format("n0-localhost:%d;n1-localhost:%d", nextPort(), nextPort());
+
+            DLedgerServer dLedgerServer0 = launchServer(group, peers, "n0", "n0", storeType, DLedgerConfig.PULL);
+            DLedgerServer dLedgerServer1 = launchServer(group, peers, "n1", "n0", storeType, DLedgerConfig.PULL);
+            List<CompletableFuture<AppendEntryResponse>> futures = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                futures.add(append(dLedgerServer0, group, i));
+            }
+            for (CompletableFuture<AppendEntryResponse> future : futures) {
+                Assert.assertEquals(DLedgerResponseCode.SUCCESS.getCode(), future.get(3, TimeUnit.SECONDS).getCode());
+            }
+            Assert.assertEquals(9, dLedgerServer0.getdLedgerStore().getCommittedIndex());
+            long start = System.currentTimeMillis();
+            while (DLedgerUtils.elapsed(start) < 3000 && dLedgerServer1.getdLedgerStore().getCommittedIndex() != 9) {
+                DLedgerUtils.sleep(100);
+            }
+            Assert.assertEquals(9, dLedgerServer1.getdLedgerStore().getLedgerEndIndex());
+            Assert.assertEquals(9, dLedgerServer1.getdLedgerStore().getCommittedIndex());
+        }
+    }
+
+    @Test
+    public void testPullToLaggingFollower() throws Exception {
+        String group = UUID.randomUUID().toString();
+        String peers = String.format("n0-localhost:%d;n1-localhost:%d", nextPort(), nextPort());
+
+        DLedgerServer dLedgerServer0 = launchServer(group, peers, "n0", "n0", DLedgerConfig.FILE, DLedgerConfig.PULL);
+        for (int i = 0; i < 500; i++) {
+            append(dLedgerServer0, group, i);
+        }
+        Assert.assertEquals(499, dLedgerServer0.getdLedgerStore().getLedgerEndIndex());
+        DLedgerServer dLedgerServer1 = launchServer(group, peers, "n1", "n0", DLedgerConfig.FILE, DLedgerConfig.PULL);
+        long start = System.currentTimeMillis();
+        while (DLedgerUtils.elapsed(start) < 3000 && dLedgerServer1.getdLedgerStore().getCommittedIndex() != 499) {
+            DLedgerUtils.sleep(100);
+        }
+        Assert.assertEquals(499, dLedgerServer0.getdLedgerStore().getCommittedIndex());
+        Assert.assertEquals(499, dLedgerServer1.getdLedgerStore().getLedgerEndIndex());
+        for (long i = 0; i < 500; i++) {
+            DLedgerEntry entry = dLedgerServer1.getdLedgerStore().get(i);
+            Assert.assertEquals(i, entry.getIndex());
+            Assert.assertEquals(i, ByteBuffer.wrap(entry.getBody()).getInt());
+        }
+    }
+
+    @Test
+    public void testPushUnsupportedInPullMode() throws Exception {
+        String group = UUID.randomUUID().toString();
+        String peers = String.format("n0-localhost:%d;n1-localhost:%d", nextPort(), nextPort());
+
+        DLedgerServer dLedgerServer1 = launchServer(group, peers, "n1", "n0", DLedgerConfig.FILE, DLedgerConfig.PULL);
+        PushEntryRequest request = new PushEntryRequest();
+        request.setGroup(group);
+        request.setRemoteId("n1");
+        request.setType(PushEntryRequest.Type.COMMIT);
+        PushEntryResponse response = dLedgerServer1.handlePush(request).get();
+        Assert.assertEquals(DLedgerResponseCode.UNSUPPORTED.getCode(), response.getCode());
+    }
+
+    @Test
+    public void testPullConflictedTerms() throws Exception {
+        String group = UUID.randomUUID().toString();
+        String peers = String.format("n0-localhost:%d;n1-localhost:%d", nextPort(), nextPort());
+        prepareConflictedLedgers(group, peers, 100, 500);
+
+        DLedgerServer dLedgerServer0 = launchServer(group, peers, "n0", "n0", DLedgerConfig.FILE, DLedgerConfig.PULL, 2);
+        DLedgerServer mockServer0 = Mockito.spy(dLedgerServer0);
+        AtomicInteger pullNum = new AtomicInteger(0);
+        doAnswer(x -> {
+            pullNum.incrementAndGet();
+            return dLedgerServer0.handlePull(x.getArgument(0));
+        }).when(mockServer0).handlePull(any());
+        ((DLedgerRpcNettyService) dLedgerServer0.getdLedgerRpcService()).setdLedgerServer(mockServer0);
+        DLedgerServer dLedgerServer1 = launchServer(group, peers, "n1", "n0", DLedgerConfig.FILE, DLedgerConfig.PULL, 2);
+
+        long start = System.currentTimeMillis();
+        while (DLedgerUtils.elapsed(start) < 3000 && dLedgerServer1.getdLedgerStore().getLedgerEndIndex() != 104) {
+            DLedgerUtils.sleep(100);
+        }
+        Assert.assertEquals(104, dLedgerServer1.getdLedgerStore().getLedgerEndIndex());
+        for (long i = 0; i <= 104; i++) {
+            Assert.assertEquals(dLedgerServer0.getdLedgerStore().get(i), dLedgerServer1.getdLedgerStore().get(i));
+        }
+        //the conflicted term is skipped as a whole instead of probing the entries one by one
+        Assert.assertTrue(pullNum.get() < 10);
+    }
+}
@@ -33,5 +33,9 @@ public class DLedgerConfigTest {
         Assert.assertEquals("test", dLedgerConfig.getGroup());
         Assert.assertEquals("n1-localhost:21911", dLedgerConfig.getPeers());
         Assert.assertEquals("/tmp", dLedgerConfig.getStoreBaseDir());
+        //the binary codec by default, and json could be switched on
+        Assert.assertFalse(dLedgerConfig.isUseJsonCodec());
+        jc.parse("--json-codec");
+        Assert.assertTrue(dLedgerConfig.isUseJsonCodec());
     }
 }
@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.openmessaging.storage.dledger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DLedgerEntryPusherTest extends ServerTestHarness {
+
+    @Test
+    public void testPeerWaterMarkNeverRegress() throws Exception {
+        String group = UUID.randomUUID().toString();
+        String peers = String.format("n0-localhost:%d;n1-localhost:%d;n2-localhost:%d", nextPort(), nextPort(), nextPort());
+        DLedgerServer dLedgerServer0 = launchServer(group, peers, "n0", "n0", DLedgerConfig.FILE);
+        DLedgerEntryPusher pusher = dLedgerServer0.getdLedgerEntryPusher();
+        //the server is in term 0, the watermarks of the later terms are only updated by the test
+        long term = 1;
+        int threadNum = 4;
+        int updateNum = 100000;
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        CountDownLatch latch = new CountDownLatch(threadNum);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < threadNum; i++) {
+            threads.add(new Thread(() -> {
+                try {
+                    //the updates of each thread are out of order, some of them are lower than the current watermark
+                    for (int j = 0; j < updateNum; j++) {
+                        pusher.updatePeerWaterMark(term, "n1", j + ThreadLocalRandom.current().nextInt(-100, 100));
+                    }
+                } catch (Throwable t) {
+                    error.set(t);
+                } finally {
+                    latch.countDown();
+                }
+            }));
+        }
+        Thread reader = new Thread(() -> {
+            long last = -1;
+            while (writing.get()) {
+                long waterMark = pusher.getPeerWaterMark(term, "n1");
+                if (waterMark < last) {
+                    error.set(new AssertionError("The watermark regressed from " + last + " to " + waterMark));
+                    return;
+                }
+                last = waterMark;
+            }
+        });
+        reader.start();
+        threads.forEach(Thread::start);
+        latch.await();
+        writing.set(false);
+        reader.join();
+        Assert.assertNull(error.get());
+        Assert.assertTrue(pusher.getPeerWaterMark(term, "n1") >= updateNum - 1);
+        Assert.assertEquals(-1, pusher.getPeerWaterMark(term, "n2"));
+
+        //a lower index never moves the watermark back
+        long waterMark = pusher.getPeerWaterMark(term, "n1");
+        pusher.updatePeerWaterMark(term, "n1", 0);
+        Assert.assertEquals(waterMark, pusher.getPeerWaterMark(term, "n1"));
+    }
+
+    @Test
+    public void testPeerWaterMarkTermChange() throws Exception {
+        String group = UUID.randomUUID().toString();
+        String peers = String.format("n0-localhost:%d;n1-localhost:%d;n2-localhost:%d", nextPort(), nextPort(), nextPort());
+        DLedgerServer dLedgerServer0 = launchServer(group, peers, "n0", "n0", DLedgerConfig.FILE);
+        DLedgerEntryPusher pusher = dLedgerServer0.getdLedgerEntryPusher();
+        pusher.updatePeerWaterMark(1, "n1", 100);
+        pusher.updatePeerWaterMark(1, "n2", 50);
+        Assert.assertEquals(100, pusher.getPeerWaterMark(1, "n1"));
+
+        //the watermarks are reset by a new term, and the stale term can not update or read them
+        pusher.updatePeerWaterMark(2, "n2", 10);
+        Assert.assertEquals(-1, pusher.getPeerWaterMark(2, "n1"));
+        Assert.assertEquals(10, pusher.getPeerWaterMark(2, "n2"));
+        pusher.updatePeerWaterMark(1, "n1", 200);
+        Assert.assertEquals(-1, pusher.getPeerWaterMark(1, "n1"));
+        Assert.assertEquals(-1, pusher.getPeerWaterMark(2, "n1"));
+
+        //the updates racing with the term change never leak into the new term
+        int threadNum = 4;
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch latch = new CountDownLatch(threadNum);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        for (int i = 0; i < threadNum; i++) {
+            new Thread(() -> {
+                try {
+                    start.await();
+                    for (int j = 0; j < 10000; j++) {
+                        pusher.updatePeerWaterMark(2, "n1", 1000 + j);
+                    }
+                } catch (Throwable t) {
+                    error.set(t);
+                } finally {
+                    latch.countDown();
+                }
+            }).start();
+        }
+        start.countDown();
+        pusher.updatePeerWaterMark(3, "n2", 5);
+        latch.await();
+        Assert.assertNull(error.get());
+        Assert.assertEquals(-1, pusher.getPeerWaterMark(3, "n1"));
+        Assert.assertEquals(5, pusher.getPeerWaterMark(3, "n2"));
+        Assert.assertEquals(-1, pusher.getPeerWaterMark(2, "n1"));
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.openmessaging.storage.dledger;
+
+import io.openmessaging.storage.dledger.entry.DLedgerEntry;
+import io.openmessaging.storage.dledger.store.DLedgerMemoryStore;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DLedgerGroupCommitterTest {
+
+    private DLedgerEntry createEntry() {
+        DLedgerEntry entry = new DLedgerEntry();
+        entry.setBody(new byte[128]);
+        return entry;
+    }
+
+    @Test
+    public void testAppendError() throws Exception {
+        DLedgerConfig config = new DLedgerConfig();
+        config.setGroup("group");
+        config.setSelfId("n0");
+        config.setPeers("n0-localhost:10000");
+        AtomicBoolean fail = new AtomicBoolean(true);
+        DLedgerMemoryStore store = new DLedgerMemoryStore(config, new MemberState(config)) {
+            @Override
+            public List<DLedgerEntry> appendAsLeader(List<DLedgerEntry> entries) {
+                if (fail.get()) {
+                    throw new OutOfMemoryError("injected");
+                }
+                return entries;
+            }
+        };
+        DLedgerGroupCommitter committer = new DLedgerGroupCommitter(config, store, new EntryBufferCache(0));
+        try {
+            committer.append(createEntry());
+            Assert.fail();
+        } catch (OutOfMemoryError e) {
+            Assert.assertEquals("injected", e.getMessage());
+        }
+        //the commit lock is not left to the waiters of the failed batch
+        fail.set(false);
+        Thread thread = new Thread(() -> committer.append(createEntry()));
+        thread.start();
+        thread.join(3000);
+        Assert.assertFalse(thread.isAlive());
+    }
+}
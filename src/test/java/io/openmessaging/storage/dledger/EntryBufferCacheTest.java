@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.openmessaging.storage.dledger;
+
+import io.openmessaging.storage.dledger.entry.DLedgerEntry;
+import io.openmessaging.storage.dledger.entry.DLedgerEntryCoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EntryBufferCacheTest {
+
+    private DLedgerEntry createEntry(long index) {
+        DLedgerEntry entry = new DLedgerEntry();
+        entry.setIndex(index);
+        entry.setTerm(1);
+        entry.setPos(index * 100);
+        entry.setBody(new byte[48]);
+        entry.computSizeInBytes();
+        return entry;
+    }
+
+    @Test
+    public void testPutAndGet() {
+        EntryBufferCache cache = new EntryBufferCache(8 * 1024);
+        List<DLedgerEntry> entries = new ArrayList<>();
+        for (long i = 0; i < 10; i++) {
+            entries.add(createEntry(i));
+        }
+        cache.put(entries);
+        for (long i = 0; i < 10; i++) {
+            EntryBufferCache.CachedEntry cached = cache.get(i);
+            Assert.assertNotNull(cached);
+            Assert.assertEquals(i, cached.getEntry().getIndex());
+            Assert.assertNull(cached.getEntry().getBody());
+            Assert.assertEquals(createEntry(i), DLedgerEntryCoder.decode(cached.getByteBuffer()));
+            cached.release();
+        }
+        Assert.assertNull(cache.get(10));
+        cache.clear();
+        Assert.assertNull(cache.get(0));
+    }
+
+    @Test
+    public void testEvictAndHold() {
+        //each chunk holds 10 entries of 100 bytes
+        EntryBufferCache cache = new EntryBufferCache(8 * 1000);
+        for (long i = 0; i < 80; i++) {
+            cache.put(Collections.singletonList(createEntry(i)));
+        }
+        EntryBufferCache.CachedEntry held = cache.get(0);
+        Assert.assertNotNull(held);
+        //the first chunk is held, so the new entries could not be cached
+        cache.put(Collections.singletonList(createEntry(80)));
+        Assert.assertNull(cache.get(80));
+        Assert.assertEquals(createEntry(0), DLedgerEntryCoder.decode(held.getByteBuffer()));
+        held.release();
+        //the first chunk is reused, and its entries are evicted
+        cache.put(Collections.singletonList(createEntry(81)));
+        Assert.assertNotNull(cache.get(81));
+        Assert.assertNull(cache.get(0));
+        Assert.assertNull(cache.get(9));
+        Assert.assertNotNull(cache.get(10));
+
+        EntryBufferCache disabled = new EntryBufferCache(0);
+        disabled.put(Collections.singletonList(createEntry(0)));
+        Assert.assertNull(disabled.get(0));
+    }
+
+    @Test
+    public void testPutFailure() {
+        EntryBufferCache cache = new EntryBufferCache(8 * 1024);
+        DLedgerEntry bad = new DLedgerEntry();
+        bad.setIndex(1);
+        cache.put(Collections.singletonList(createEntry(1)));
+        //the entry failing to encode is dropped, and the others are still cached
+        cache.put(Arrays.asList(createEntry(0), bad, createEntry(2)));
+        Assert.assertNull(cache.get(1));
+        for (long i : new long[] {0, 2}) {
+            EntryBufferCache.CachedEntry cached = cache.get(i);
+            Assert.assertEquals(createEntry(i), DLedgerEntryCoder.decode(cached.getByteBuffer()));
+            cached.release();
+        }
+    }
+}
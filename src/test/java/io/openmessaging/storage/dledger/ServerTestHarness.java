@@ -18,8 +18,10 @@
 package io.openmessaging.storage.dledger;
 
 import io.openmessaging.storage.dledger.client.DLedgerClient;
+import io.openmessaging.storage.dledger.entry.DLedgerEntry;
 import io.openmessaging.storage.dledger.util.FileTestUtil;
 import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -38,21 +40,44 @@ public class ServerTestHarness extends ServerTestBase {
 
     protected synchronized DLedgerServer launchServer(String group, String peers, String selfId, String leaderId,
         String storeType) {
+        return launchServer(group, peers, selfId, leaderId, storeType, DLedgerConfig.PUSH);
+    }
+
+    protected synchronized DLedgerServer launchServer(String group, String peers, String selfId, String leaderId,
+        String storeType, String replicationMode) {
+        return launchServer(group, peers, selfId, leaderId, storeType, replicationMode, 0);
+    }
+
+    protected synchronized DLedgerServer launchServer(String group, String peers, String selfId, String leaderId,
+        String storeType, String replicationMode, long term) {
+        return launchServer(group, peers, selfId, leaderId, storeType, replicationMode, term, DLedgerConfig.ASYNC_FLUSH);
+    }
+
+    protected synchronized DLedgerServer launchServer(String group, String peers, String selfId, String leaderId,
+        String storeType, String replicationMode, long term, String flushDiskType) {
+        return launchServer(group, peers, selfId, leaderId, storeType, replicationMode, term, flushDiskType, new DLedgerConfig().isUseJsonCodec());
+    }
+
+    protected synchronized DLedgerServer launchServer(String group, String peers, String selfId, String leaderId,
+        String storeType, String replicationMode, long term, String flushDiskType, boolean useJsonCodec) {
         DLedgerConfig config = new DLedgerConfig();
         config.group(group).selfId(selfId).peers(peers);
         config.setStoreBaseDir(FileTestUtil.TEST_BASE + File.separator + group);
         config.setStoreType(storeType);
+        config.setReplicationMode(replicationMode);
+        config.setFlushDiskType(flushDiskType);
         config.setMappedFileSizeForEntryData(10 * 1024 * 1024);
         config.setEnableLeaderElector(false);
         config.setEnableDiskForceClean(false);
         config.setDiskSpaceRatioToForceClean(0.90f);
+        config.setUseJsonCodec(useJsonCodec);
         DLedgerServer dLedgerServer = new DLedgerServer(config);
         MemberState memberState = dLedgerServer.getMemberState();
-        memberState.setCurrTermForTest(0);
+        memberState.setCurrTermForTest(term);
         if (selfId.equals(leaderId)) {
-            memberState.changeToLeader(0);
+            memberState.changeToLeader(term);
         } else {
-            memberState.changeToFollower(0, leaderId);
+            memberState.changeToFollower(term, leaderId);
         }
         bases.add(config.getDataStorePath());
         bases.add(config.getIndexStorePath());
@@ -61,8 +86,47 @@ public class ServerTestHarness extends ServerTestBase {
         return dLedgerServer;
     }
 
+    /**
+     * Prepare the ledgers conflicted by terms, n0 and n1 share 5 entries of term 0,
+     * then n0 has the entries of term 2 while n1 has the entries of term 1. The servers should be launched in term 2 later.
+     */
+    protected void prepareConflictedLedgers(String group, String peers, int leaderEntryNum, int followerEntryNum) {
+        DLedgerServer dLedgerServer0 = launchServer(group, peers, "n0", "n0", DLedgerConfig.FILE);
+        List<DLedgerEntry> commonEntries = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            DLedgerEntry entry = new DLedgerEntry();
+            entry.setBody(new byte[128]);
+            commonEntries.add(dLedgerServer0.getdLedgerStore().appendAsLeader(entry));
+        }
+        dLedgerServer0.getMemberState().setCurrTermForTest(2);
+        dLedgerServer0.getMemberState().changeToLeader(2);
+        for (int i = 0; i < leaderEntryNum; i++) {
+            DLedgerEntry entry = new DLedgerEntry();
+            entry.setBody(new byte[128]);
+            dLedgerServer0.getdLedgerStore().appendAsLeader(entry);
+        }
+        dLedgerServer0.shutdown();
+
+        DLedgerServer dLedgerServer1 = launchServer(group, peers, "n1", "n0", DLedgerConfig.FILE);
+        for (DLedgerEntry entry : commonEntries) {
+            dLedgerServer1.getdLedgerStore().appendAsFollower(entry, 0, "n0");
+        }
+        dLedgerServer1.getMemberState().setCurrTermForTest(1);
+        dLedgerServer1.getMemberState().changeToLeader(1);
+        for (int i = 0; i < followerEntryNum; i++) {
+            DLedgerEntry entry = new DLedgerEntry();
+            entry.setBody(new byte[64]);
+            dLedgerServer1.getdLedgerStore().appendAsLeader(entry);
+        }
+        dLedgerServer1.shutdown();
+    }
+
     protected synchronized DLedgerClient launchClient(String group, String peers) {
-        DLedgerClient dLedgerClient = new DLedgerClient(group, peers);
+        return launchClient(group, peers, new DLedgerConfig().isUseJsonCodec());
+    }
+
+    protected synchronized DLedgerClient launchClient(String group, String peers, boolean useJsonCodec) {
+        DLedgerClient dLedgerClient = new DLedgerClient(group, peers, useJsonCodec);
         dLedgerClient.startup();
         return dLedgerClient;
     }
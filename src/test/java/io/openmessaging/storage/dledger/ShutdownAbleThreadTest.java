@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.openmessaging.storage.dledger;
+
+import io.openmessaging.storage.dledger.utils.DLedgerUtils;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class ShutdownAbleThreadTest {
+
+    private static Logger logger = LoggerFactory.getLogger(ShutdownAbleThreadTest.class);
+
+    @Test
+    public void testWakeupBeforeWait() throws Exception {
+        ShutdownAbleThread thread = new ShutdownAbleThread("WakeupBeforeWait", logger) {
+            @Override
+            public void doWork() {
+            }
+        };
+        //the wakeup issued before waiting is kept, so the wait returns at once
+        thread.wakeup();
+        long start = System.currentTimeMillis();
+        thread.waitForRunning(10000);
+        Assert.assertTrue(DLedgerUtils.elapsed(start) < 1000);
+
+        //the wakeup is consumed by the former wait
+        start = System.currentTimeMillis();
+        thread.waitForRunning(200);
+        Assert.assertTrue(DLedgerUtils.elapsed(start) >= 200);
+    }
+
+    @Test
+    public void testWakeupWaiting() throws Exception {
+        AtomicLong produced = new AtomicLong(0);
+        AtomicLong consumed = new AtomicLong(0);
+        ShutdownAbleThread thread = new ShutdownAbleThread("WakeupWaiting", logger) {
+            @Override
+            public void doWork() {
+                try {
+                    consumed.set(produced.get());
+                    waitForRunning(10000);
+                } catch (InterruptedException ignored) {
+                }
+            }
+        };
+        thread.start();
+        try {
+            //each event is followed by a wakeup, the waiting thread should never sleep out the whole interval,
+            //including the wakeups racing with the thread going to wait
+            for (int i = 0; i < 1000; i++) {
+                produced.incrementAndGet();
+                thread.wakeup();
+                long start = System.currentTimeMillis();
+                while (consumed.get() != produced.get()) {
+                    Assert.assertTrue("The wakeup is lost at round " + i, DLedgerUtils.elapsed(start) < 3000);
+                    Thread.yield();
+                }
+            }
+        } finally {
+            thread.shutdown();
+        }
+    }
+}
@@ -17,6 +17,7 @@
 
 package io.openmessaging.storage.dledger.entry;
 
+import io.openmessaging.storage.dledger.utils.Crc32C;
 import java.nio.ByteBuffer;
 import org.junit.Assert;
 import org.junit.Test;
@@ -102,4 +103,41 @@ public class DLedgerEntryCoderTest {
         Assert.assertEquals(entry, other);
         Assert.assertEquals(entry.hashCode(), other.hashCode());
     }
+
+    @Test
+    public void testCrc() {
+        byte[] check = "123456789".getBytes();
+        Assert.assertEquals(0xE3069283, Crc32C.compute(check));
+        ByteBuffer direct = ByteBuffer.allocateDirect(check.length + 2);
+        direct.put((byte) 1).put(check).put((byte) 2);
+        direct.position(1).limit(1 + check.length);
+        Assert.assertEquals(0xE3069283, Crc32C.compute(direct));
+        Assert.assertEquals(1, direct.position());
+        byte[] large = new byte[1027];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = (byte) (i * 31);
+        }
+        ByteBuffer largeDirect = ByteBuffer.allocateDirect(large.length);
+        largeDirect.put(large).flip();
+        Assert.assertEquals(Crc32C.compute(large), Crc32C.compute(largeDirect));
+
+        DLedgerEntry entry = new DLedgerEntry();
+        entry.setIndex(5);
+        entry.setTerm(2);
+        entry.setBody(large);
+        entry.setBodyCrc(Crc32C.compute(large));
+        entry.setChainCrc(DLedgerEntryCoder.chainCrc(0, 5, 2, entry.getBodyCrc()));
+        ByteBuffer buffer = ByteBuffer.allocate(entry.computSizeInBytes());
+        DLedgerEntryCoder.encode(entry, buffer);
+        Assert.assertEquals(entry.getBodyCrc(), DLedgerEntryCoder.bodyCrc(buffer, entry.getSize()));
+
+        //the entries with the crcs match without the bodies
+        DLedgerEntry header = DLedgerEntryCoder.decode(buffer.duplicate(), false);
+        Assert.assertNotEquals(entry, header);
+        Assert.assertTrue(entry.matches(header));
+        header.setChainCrc(DLedgerEntryCoder.chainCrc(1, 5, 2, entry.getBodyCrc()));
+        Assert.assertFalse(entry.matches(header));
+        header.setChainCrc(0);
+        Assert.assertFalse(entry.matches(header));
+    }
 }
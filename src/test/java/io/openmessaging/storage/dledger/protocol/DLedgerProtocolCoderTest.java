@@ -0,0 +1,244 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.openmessaging.storage.dledger.protocol;
+
+import io.openmessaging.storage.dledger.entry.DLedgerEntry;
+import io.openmessaging.storage.dledger.entry.DLedgerEntryCoder;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DLedgerProtocolCoderTest {
+
+    private DLedgerEntry createEntry(long index) {
+        DLedgerEntry entry = new DLedgerEntry();
+        entry.setIndex(index);
+        entry.setTerm(3);
+        entry.setPos(index * 100);
+        entry.setMagic(1);
+        entry.setBodyCrc(111);
+        entry.setChainCrc(222);
+        entry.setBody(("body" + index).getBytes());
+        entry.computSizeInBytes();
+        return entry;
+    }
+
+    @Test
+    public void testPushEntryRequest() {
+        for (boolean useJson : new boolean[] {false, true}) {
+            PushEntryRequest request = new PushEntryRequest();
+            request.setGroup("group");
+            request.setIds("n0", "n1", "n0");
+            request.setTerm(3);
+            request.setCommitIndex(10);
+            request.setType(PushEntryRequest.Type.APPEND);
+            for (long i = 11; i < 15; i++) {
+                request.addEntry(createEntry(i));
+            }
+            byte[] body = DLedgerProtocolCoder.encode(request, useJson);
+            Assert.assertEquals(!useJson, DLedgerProtocolCoder.isBinary(body));
+
+            PushEntryRequest other = DLedgerProtocolCoder.decode(body, PushEntryRequest.class);
+            Assert.assertEquals(request.baseInfo(), other.baseInfo());
+            Assert.assertEquals(10, other.getCommitIndex());
+            Assert.assertEquals(PushEntryRequest.Type.APPEND, other.getType());
+            Assert.assertNull(other.getEntry());
+            Assert.assertEquals(request.getTotalSize(), other.getTotalSize());
+            Assert.assertEquals(11, other.getFirstEntryIndex());
+            Assert.assertEquals(14, other.getLastEntryIndex());
+            Assert.assertEquals(!useJson, other.isEncoded());
+            if (useJson) {
+                Assert.assertEquals(request.getBatchEntry(), other.getBatchEntry());
+            } else {
+                assertEncodedEntries(request, other);
+            }
+        }
+    }
+
+    @Test
+    public void testEncodedPushEntryRequest() {
+        PushEntryRequest request = new PushEntryRequest();
+        for (long i = 0; i < 3; i++) {
+            DLedgerEntry entry = createEntry(i);
+            ByteBuffer entryBuffer = ByteBuffer.allocate(entry.getSize());
+            DLedgerEntryCoder.encode(entry, entryBuffer);
+            request.addEntry(DLedgerEntryCoder.decode(entryBuffer.duplicate(), false), entryBuffer);
+        }
+        Assert.assertTrue(request.isEncoded());
+        PushEntryRequest other = DLedgerProtocolCoder.decode(DLedgerProtocolCoder.encode(request), PushEntryRequest.class);
+        Assert.assertEquals(3, other.getCount());
+        Assert.assertEquals(request.getTotalSize(), other.getTotalSize());
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(createEntry(i), DLedgerEntryCoder.decode(other.getBatchEntryBuffer().get(i).duplicate()));
+        }
+    }
+
+    private void assertEncodedEntries(PushEntryRequest request, PushEntryRequest other) {
+        Assert.assertEquals(request.getCount(), other.getBatchEntryBuffer().size());
+        for (int i = 0; i < request.getCount(); i++) {
+            DLedgerEntry entry = other.getBatchEntry().get(i);
+            Assert.assertNull(entry.getBody());
+            Assert.assertEquals(request.getBatchEntry().get(i).getIndex(), entry.getIndex());
+            Assert.assertEquals(request.getBatchEntry().get(i).getSize(), entry.getSize());
+            Assert.assertEquals(request.getBatchEntry().get(i), DLedgerEntryCoder.decode(other.getBatchEntryBuffer().get(i).duplicate()));
+        }
+    }
+
+    @Test
+    public void testSingleEntryPush() {
+        PushEntryRequest request = new PushEntryRequest();
+        request.setType(PushEntryRequest.Type.COMPARE);
+        request.setEntry(createEntry(5));
+        PushEntryRequest other = DLedgerProtocolCoder.decode(DLedgerProtocolCoder.encode(request), PushEntryRequest.class);
+        Assert.assertEquals(PushEntryRequest.Type.COMPARE, other.getType());
+        Assert.assertEquals(request.getEntry(), other.getEntry());
+        Assert.assertFalse(other.isBatch());
+
+        //the probe carries only the header
+        DLedgerEntry header = createEntry(6);
+        header.setBody(null);
+        request.setEntry(header);
+        byte[] body = DLedgerProtocolCoder.encode(request);
+        Assert.assertEquals(DLedgerEntry.BODY_OFFSET, body.length - DLedgerProtocolCoder.encode(new PushEntryRequest()).length);
+        other = DLedgerProtocolCoder.decode(body, PushEntryRequest.class);
+        Assert.assertNull(other.getEntry().getBody());
+        Assert.assertEquals(createEntry(6).getSize(), other.getEntry().getSize());
+        Assert.assertTrue(createEntry(6).matches(other.getEntry()));
+
+        PushEntryResponse response = new PushEntryResponse();
+        response.copyBaseInfo(request);
+        response.setCode(DLedgerResponseCode.INCONSISTENT_STATE.getCode());
+        response.setIndex(5L);
+        response.setCount(1);
+        response.setBeginIndex(0);
+        response.setEndIndex(4);
+        response.setConflictTerm(2);
+        response.setConflictIndex(3);
+        PushEntryResponse otherResponse = DLedgerProtocolCoder.decode(DLedgerProtocolCoder.encode(response), PushEntryResponse.class);
+        Assert.assertEquals(DLedgerResponseCode.INCONSISTENT_STATE.getCode(), otherResponse.getCode());
+        Assert.assertEquals(Long.valueOf(5), otherResponse.getIndex());
+        Assert.assertEquals(1, otherResponse.getCount());
+        Assert.assertEquals(4, otherResponse.getEndIndex());
+        Assert.assertEquals(2, otherResponse.getConflictTerm());
+        Assert.assertEquals(3, otherResponse.getConflictIndex());
+    }
+
+    @Test
+    public void testPullEntries() {
+        PullEntriesRequest request = new PullEntriesRequest();
+        request.setIds("n1", "n0", "n0");
+        request.setNodeId("n1");
+        request.setBeginIndex(11L);
+        request.setPrevTerm(3);
+        request.setMaxCount(32);
+        request.setMaxSize(1024);
+        request.setMaxWaitMs(500);
+        PullEntriesRequest otherRequest = DLedgerProtocolCoder.decode(DLedgerProtocolCoder.encode(request), PullEntriesRequest.class);
+        Assert.assertEquals("n1", otherRequest.getNodeId());
+        Assert.assertEquals(Long.valueOf(11), otherRequest.getBeginIndex());
+        Assert.assertEquals(3, otherRequest.getPrevTerm());
+        Assert.assertEquals(32, otherRequest.getMaxCount());
+        Assert.assertEquals(1024, otherRequest.getMaxSize());
+        Assert.assertEquals(500, otherRequest.getMaxWaitMs());
+
+        for (boolean encoded : new boolean[] {false, true}) {
+            PullEntriesResponse response = new PullEntriesResponse();
+            response.copyBaseInfo(request);
+            response.setCommitIndex(10);
+            response.setBeginIndex(0);
+            response.setEndIndex(12);
+            response.setProbeIndex(5);
+            for (long i = 11; i < 13; i++) {
+                DLedgerEntry entry = createEntry(i);
+                if (encoded) {
+                    ByteBuffer entryBuffer = ByteBuffer.allocate(entry.getSize());
+                    DLedgerEntryCoder.encode(entry, entryBuffer);
+                    response.addEntry(DLedgerEntryCoder.decode(entryBuffer.duplicate(), false), entryBuffer);
+                } else {
+                    response.getEntries().add(entry);
+                }
+            }
+            Assert.assertEquals(encoded, response.isEncoded());
+            PullEntriesResponse otherResponse = DLedgerProtocolCoder.decode(DLedgerProtocolCoder.encode(response), PullEntriesResponse.class);
+            Assert.assertEquals(10, otherResponse.getCommitIndex());
+            Assert.assertEquals(0, otherResponse.getBeginIndex());
+            Assert.assertEquals(12, otherResponse.getEndIndex());
+            Assert.assertEquals(5, otherResponse.getProbeIndex());
+            Assert.assertTrue(otherResponse.isEncoded());
+            for (int i = 0; i < 2; i++) {
+                Assert.assertEquals(11 + i, otherResponse.getEntries().get(i).getIndex());
+                Assert.assertEquals(createEntry(11 + i), DLedgerEntryCoder.decode(otherResponse.getEntryBuffers().get(i).duplicate()));
+            }
+        }
+    }
+
+    @Test
+    public void testEncodedGetEntriesResponse() {
+        for (boolean useJson : new boolean[] {false, true}) {
+            GetEntriesResponse response = new GetEntriesResponse();
+            for (long i = 0; i < 3; i++) {
+                DLedgerEntry entry = createEntry(i);
+                ByteBuffer entryBuffer = ByteBuffer.allocate(entry.getSize());
+                DLedgerEntryCoder.encode(entry, entryBuffer);
+                response.addEntry(DLedgerEntryCoder.decode(entryBuffer.duplicate(), false), entryBuffer.asReadOnlyBuffer());
+            }
+            int[] released = new int[1];
+            response.addRelease(() -> released[0]++);
+            Assert.assertTrue(response.isEncoded());
+            //the full entries are read by the clients in either codec
+            GetEntriesResponse other = DLedgerProtocolCoder.decode(DLedgerProtocolCoder.encode(response, useJson), GetEntriesResponse.class);
+            for (int i = 0; i < 3; i++) {
+                Assert.assertEquals(createEntry(i), other.getEntries().get(i));
+            }
+            response.release();
+            response.release();
+            Assert.assertEquals(1, released[0]);
+        }
+    }
+
+    @Test
+    public void testOtherRequests() {
+        AppendEntryRequest appendRequest = new AppendEntryRequest();
+        appendRequest.setRemoteId("n0");
+        appendRequest.setBody(new byte[] {1, 2, 3});
+        AppendEntryRequest otherAppendRequest = DLedgerProtocolCoder.decode(DLedgerProtocolCoder.encode(appendRequest), AppendEntryRequest.class);
+        Assert.assertEquals("n0", otherAppendRequest.getRemoteId());
+        Assert.assertNull(otherAppendRequest.getGroup());
+        Assert.assertArrayEquals(appendRequest.getBody(), otherAppendRequest.getBody());
+
+        VoteResponse voteResponse = new VoteResponse().voteResult(VoteResponse.RESULT.REJECT_ALREADY_VOTED).term(7);
+        VoteResponse otherVoteResponse = DLedgerProtocolCoder.decode(DLedgerProtocolCoder.encode(voteResponse), VoteResponse.class);
+        Assert.assertEquals(VoteResponse.RESULT.REJECT_ALREADY_VOTED, otherVoteResponse.getVoteResult());
+        Assert.assertEquals(7, otherVoteResponse.getTerm());
+
+        MetadataResponse metadataResponse = new MetadataResponse();
+        Map<String, String> peers = new HashMap<>();
+        peers.put("n0", "localhost:10000");
+        peers.put("n1", "localhost:10001");
+        metadataResponse.setPeers(peers);
+        MetadataResponse otherMetadataResponse = DLedgerProtocolCoder.decode(DLedgerProtocolCoder.encode(metadataResponse), MetadataResponse.class);
+        Assert.assertEquals(peers, otherMetadataResponse.getPeers());
+
+        GetEntriesResponse getResponse = new GetEntriesResponse();
+        getResponse.getEntries().add(createEntry(1));
+        GetEntriesResponse otherGetResponse = DLedgerProtocolCoder.decode(DLedgerProtocolCoder.encode(getResponse), GetEntriesResponse.class);
+        Assert.assertEquals(getResponse.getEntries(), otherGetResponse.getEntries());
+    }
+}
@@ -21,12 +21,28 @@ import io.openmessaging.storage.dledger.DLedgerConfig;
 import io.openmessaging.storage.dledger.MemberState;
 import io.openmessaging.storage.dledger.ServerTestHarness;
 import io.openmessaging.storage.dledger.entry.DLedgerEntry;
+import io.openmessaging.storage.dledger.entry.DLedgerEntryCoder;
+import io.openmessaging.storage.dledger.exception.DLedgerException;
+import io.openmessaging.storage.dledger.protocol.DLedgerResponseCode;
 import io.openmessaging.storage.dledger.store.file.DLedgerMmapFileStore;
+import io.openmessaging.storage.dledger.store.file.EntryRangeResult;
+import io.openmessaging.storage.dledger.store.file.EntryView;
+import io.openmessaging.storage.dledger.store.file.MmapFile;
+import io.openmessaging.storage.dledger.store.file.SelectMmapBufferResult;
 import io.openmessaging.storage.dledger.util.FileTestUtil;
+import io.openmessaging.storage.dledger.utils.Crc32C;
+import io.openmessaging.storage.dledger.utils.DLedgerUtils;
+import io.openmessaging.storage.dledger.utils.IOUtils;
 import java.io.File;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
 import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -41,6 +57,16 @@ public class DLedgerMappedFileStoreTest extends ServerTestHarness {
 
     private synchronized DLedgerMmapFileStore createFileStore(String group, String peers, String selfId, String leaderId,
         int dataFileSize, int indexFileSize, int deleteFileNums) {
+        return createFileStore(group, peers, selfId, leaderId, dataFileSize, indexFileSize, deleteFileNums, false);
+    }
+
+    private synchronized DLedgerMmapFileStore createFileStore(String group, String peers, String selfId, String leaderId,
+        int dataFileSize, int indexFileSize, int deleteFileNums, boolean transientStorePoolEnable) {
+        return createFileStore(group, peers, selfId, leaderId, dataFileSize, indexFileSize, deleteFileNums, transientStorePoolEnable, -1);
+    }
+
+    private synchronized DLedgerMmapFileStore createFileStore(String group, String peers, String selfId, String leaderId,
+        int dataFileSize, int indexFileSize, int deleteFileNums, boolean transientStorePoolEnable, int recoverThreadNum) {
         DLedgerConfig config = new DLedgerConfig();
         config.setStoreBaseDir(FileTestUtil.TEST_BASE + File.separator + group);
         config.group(group).selfId(selfId).peers(peers);
@@ -48,12 +74,16 @@ public class DLedgerMappedFileStoreTest extends ServerTestHarness {
         config.setDiskSpaceRatioToForceClean(0.90f);
         config.setEnableDiskForceClean(false);
         config.setEnableLeaderElector(false);
+        config.setTransientStorePoolEnable(transientStorePoolEnable);
         if (dataFileSize != -1) {
             config.setMappedFileSizeForEntryData(dataFileSize);
         }
         if (indexFileSize != -1) {
             config.setMappedFileSizeForEntryIndex(indexFileSize);
         }
+        if (recoverThreadNum != -1) {
+            config.setRecoverThreadNum(recoverThreadNum);
+        }
         if (deleteFileNums > 0) {
             File dir = new File(config.getDataStorePath());
             File[] files = dir.listFiles();
@@ -147,6 +177,13 @@ public class DLedgerMappedFileStoreTest extends ServerTestHarness {
             DLedgerEntry entry = fileStore.get(i);
             Assert.assertEquals(i, entry.getIndex());
             Assert.assertArrayEquals(("Hello Leader" + i).getBytes(), entry.getBody());
+            DLedgerEntry meta = fileStore.getMeta(i);
+            Assert.assertNull(meta.getBody());
+            Assert.assertEquals(entry.getMagic(), meta.getMagic());
+            Assert.assertEquals(entry.getIndex(), meta.getIndex());
+            Assert.assertEquals(entry.getTerm(), meta.getTerm());
+            Assert.assertEquals(entry.getPos(), meta.getPos());
+            Assert.assertEquals(entry.getSize(), meta.getSize());
         }
 
         for (long i = 0; i < 10; i++) {
@@ -166,6 +203,108 @@ public class DLedgerMappedFileStoreTest extends ServerTestHarness {
         Assert.assertEquals(9, fileStore.getLedgerEndIndex());
     }
 
+    @Test
+    public void testBatchAppendAsLeader() {
+        String group = UUID.randomUUID().toString();
+        String peers = String.format("n0-localhost:%d", nextPort());
+        DLedgerMmapFileStore fileStore = createFileStore(group, peers, "n0", "n0", 10 * 1024 + MIN_BLANK_LEN, 10 * DLedgerMmapFileStore.INDEX_UNIT_SIZE, 0);
+        DLedgerMmapFileStore otherFileStore = createFileStore(UUID.randomUUID().toString(), peers, "n0", "n0", 10 * 1024 + MIN_BLANK_LEN, 10 * DLedgerMmapFileStore.INDEX_UNIT_SIZE, 0);
+        for (int i = 0; i < 100; ) {
+            //the batches cross the boundaries of both data and index files
+            List<DLedgerEntry> entries = new ArrayList<>();
+            for (int j = 0; j < 1 + i % 7 && i < 100; j++, i++) {
+                DLedgerEntry entry = new DLedgerEntry();
+                entry.setBody(ByteBuffer.allocate(1000 + i).putInt(i).array());
+                entries.add(entry);
+                DLedgerEntry otherEntry = new DLedgerEntry();
+                otherEntry.setBody(entry.getBody());
+                otherFileStore.appendAsLeader(otherEntry);
+            }
+            long expectedIndex = fileStore.getLedgerEndIndex() + 1;
+            for (DLedgerEntry resEntry : fileStore.appendAsLeader(entries)) {
+                Assert.assertEquals(expectedIndex++, resEntry.getIndex());
+            }
+            Assert.assertEquals(expectedIndex - 1, fileStore.getLedgerEndIndex());
+        }
+        Assert.assertEquals(otherFileStore.getDataFileList().getMappedFiles().size(), fileStore.getDataFileList().getMappedFiles().size());
+        for (long i = 0; i < 100; i++) {
+            DLedgerEntry entry = fileStore.get(i);
+            Assert.assertEquals(otherFileStore.get(i), entry);
+            Assert.assertEquals(i, ByteBuffer.wrap(entry.getBody()).getInt());
+        }
+        while (fileStore.getFlushPos() != fileStore.getWritePos()) {
+            fileStore.flush();
+        }
+        fileStore.shutdown();
+        fileStore = createFileStore(group, peers, "n0", "n0", 10 * 1024 + MIN_BLANK_LEN, 10 * DLedgerMmapFileStore.INDEX_UNIT_SIZE, 0);
+        Assert.assertEquals(0, fileStore.getLedgerBeginIndex());
+        Assert.assertEquals(99, fileStore.getLedgerEndIndex());
+        for (long i = 0; i < 100; i++) {
+            Assert.assertEquals(otherFileStore.get(i), fileStore.get(i));
+        }
+    }
+
+    @Test
+    public void testBatchAppendFailure() {
+        String peers = String.format("n0-localhost:%d", nextPort());
+        DLedgerMmapFileStore fileStore = createFileStore(UUID.randomUUID().toString(), peers, "n0", "n0");
+        //fail the third entry of the batch after it is encoded, before it is committed
+        fileStore.addAppendHook((entry, buffer, bodyOffset) -> {
+            if (entry.getIndex() == 2) {
+                throw new IllegalStateException("injected");
+            }
+        });
+        List<DLedgerEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            DLedgerEntry entry = new DLedgerEntry();
+            entry.setBody(ByteBuffer.allocate(100).putInt(i).array());
+            entries.add(entry);
+        }
+        try {
+            fileStore.appendAsLeader(entries);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("injected", e.getMessage());
+        }
+        //the entries written before the failure are published, and nothing is written after them
+        Assert.assertEquals(1, fileStore.getLedgerEndIndex());
+        DLedgerEntry last = fileStore.get(1L);
+        Assert.assertEquals(last.getPos() + last.getSize(), fileStore.getDataFileList().getMaxWrotePosition());
+
+        fileStore.appendHooks.clear();
+        DLedgerEntry entry = new DLedgerEntry();
+        entry.setBody(new byte[100]);
+        Assert.assertEquals(2, fileStore.appendAsLeader(entry).getIndex());
+        DLedgerEntry next = fileStore.get(2L);
+        Assert.assertEquals(last.getPos() + last.getSize(), next.getPos());
+        Assert.assertEquals(DLedgerEntryCoder.chainCrc(last.getChainCrc(), 2, next.getTerm(), next.getBodyCrc()), next.getChainCrc());
+    }
+
+    @Test
+    public void testTransientStorePool() {
+        String group = UUID.randomUUID().toString();
+        String peers = String.format("n0-localhost:%d", nextPort());
+        DLedgerMmapFileStore fileStore = createFileStore(group, peers, "n0", "n0", 10 * 1024 + MIN_BLANK_LEN, 10 * DLedgerMmapFileStore.INDEX_UNIT_SIZE, 0, true);
+        for (int i = 0; i < 100; i++) {
+            DLedgerEntry entry = new DLedgerEntry();
+            entry.setBody(ByteBuffer.allocate(1000 + i).putInt(i).array());
+            Assert.assertEquals(i, fileStore.appendAsLeader(entry).getIndex());
+            //the entry is readable before committed
+            Assert.assertEquals(i, ByteBuffer.wrap(fileStore.get((long) i).getBody()).getInt());
+        }
+        while (fileStore.getFlushPos() != fileStore.getWritePos()) {
+            fileStore.flush();
+        }
+        fileStore.shutdown();
+        fileStore = createFileStore(group, peers, "n0", "n0", 10 * 1024 + MIN_BLANK_LEN, 10 * DLedgerMmapFileStore.INDEX_UNIT_SIZE, 0);
+        Assert.assertEquals(99, fileStore.getLedgerEndIndex());
+        for (long i = 0; i < 100; i++) {
+            DLedgerEntry entry = fileStore.get(i);
+            Assert.assertEquals(i, entry.getIndex());
+            Assert.assertEquals(i, ByteBuffer.wrap(entry.getBody()).getInt());
+        }
+    }
+
     @Test
     public void testNormalRecovery() {
         String group = UUID.randomUUID().toString();
@@ -191,6 +330,159 @@ public class DLedgerMappedFileStoreTest extends ServerTestHarness {
         }
     }
 
+    @Test
+    public void testCleanShutdownRecovery() throws Exception {
+        String group = UUID.randomUUID().toString();
+        String peers = String.format("n0-localhost:%d", nextPort());
+        int dataFileSize = 1024 + MIN_BLANK_LEN;
+        DLedgerMmapFileStore fileStore = createFileStore(group, peers, "n0", "n0", dataFileSize, 10 * DLedgerMmapFileStore.INDEX_UNIT_SIZE, 0);
+        for (int i = 0; i < 20; i++) {
+            DLedgerEntry entry = new DLedgerEntry();
+            entry.setBody(new byte[200 - DLedgerEntry.BODY_OFFSET]);
+            fileStore.appendAsLeader(entry);
+        }
+        long writePos = fileStore.getWritePos();
+        fileStore.shutdown();
+        File checkPointFile = new File(fileStore.getDLedgerConfig().getDefaultPath(), DLedgerMmapFileStore.CHECK_POINT_FILE);
+        Properties checkPoint = IOUtils.string2Properties(IOUtils.file2String(checkPointFile));
+        Assert.assertEquals("true", checkPoint.getProperty(DLedgerMmapFileStore.CLEAN_SHUTDOWN_KEY));
+        Assert.assertEquals(String.valueOf(writePos), checkPoint.getProperty(DLedgerMmapFileStore.DATA_END_POS_KEY));
+
+        fileStore = createFileStore(group, peers, "n0", "n0", dataFileSize, 10 * DLedgerMmapFileStore.INDEX_UNIT_SIZE, 0);
+        Assert.assertEquals(19, fileStore.getLedgerEndIndex());
+        Assert.assertEquals(writePos, fileStore.getWritePos());
+        //the mark is dropped once started
+        checkPoint = IOUtils.string2Properties(IOUtils.file2String(checkPointFile));
+        Assert.assertNull(checkPoint.getProperty(DLedgerMmapFileStore.CLEAN_SHUTDOWN_KEY));
+        DLedgerEntry entry = new DLedgerEntry();
+        entry.setBody(new byte[200 - DLedgerEntry.BODY_OFFSET]);
+        Assert.assertEquals(20, fileStore.appendAsLeader(entry).getIndex());
+        DLedgerEntry prev = fileStore.get(19L);
+        if (entry.getPos() % dataFileSize != 0) {
+            Assert.assertEquals(DLedgerEntryCoder.chainCrc(prev.getChainCrc(), 20, 0, entry.getBodyCrc()), entry.getChainCrc());
+        }
+        fileStore.shutdown();
+
+        //the mark not agreeing with the files is not trusted
+        checkPoint = IOUtils.string2Properties(IOUtils.file2String(checkPointFile));
+        checkPoint.setProperty(DLedgerMmapFileStore.END_TERM_KEY, "1");
+        IOUtils.string2File(IOUtils.properties2String(checkPoint), checkPointFile.getPath());
+        fileStore = createFileStore(group, peers, "n0", "n0", dataFileSize, 10 * DLedgerMmapFileStore.INDEX_UNIT_SIZE, 0);
+        Assert.assertEquals(20, fileStore.getLedgerEndIndex());
+        Assert.assertEquals(0, fileStore.getLedgerEndTerm());
+        Assert.assertEquals(entry, fileStore.get(20L));
+    }
+
+    @Test
+    public void testFollowerCleanShutdownRecovery() throws Exception {
+        String peers = String.format("n0-localhost:%d;n1-localhost:%d", nextPort(), nextPort());
+        DLedgerMmapFileStore leaderStore = createFileStore(UUID.randomUUID().toString(), peers, "n0", "n0", 10 * 1024 + MIN_BLANK_LEN, 10 * DLedgerMmapFileStore.INDEX_UNIT_SIZE, 0);
+        for (int i = 0; i < 10; i++) {
+            DLedgerEntry entry = new DLedgerEntry();
+            entry.setBody(new byte[100]);
+            leaderStore.appendAsLeader(entry);
+        }
+        String group = UUID.randomUUID().toString();
+        DLedgerMmapFileStore fileStore = createFileStore(group, peers, "n1", "n0", 10 * 1024 + MIN_BLANK_LEN, 10 * DLedgerMmapFileStore.INDEX_UNIT_SIZE, 0);
+        for (long i = 0; i < 5; i++) {
+            fileStore.appendAsFollower(leaderStore.get(i), 0, "n0");
+        }
+        //the leader of the next term pushes the tail entries of the former term
+        fileStore.getMemberState().setCurrTermForTest(1);
+        fileStore.getMemberState().changeToFollower(1, "n0");
+        for (long i = 5; i < 10; i++) {
+            fileStore.appendAsFollower(leaderStore.get(i), 1, "n0");
+        }
+        long writePos = fileStore.getWritePos();
+        fileStore.shutdown();
+        File checkPointFile = new File(fileStore.getDLedgerConfig().getDefaultPath(), DLedgerMmapFileStore.CHECK_POINT_FILE);
+        Properties checkPoint = IOUtils.string2Properties(IOUtils.file2String(checkPointFile));
+        Assert.assertEquals("true", checkPoint.getProperty(DLedgerMmapFileStore.CLEAN_SHUTDOWN_KEY));
+        Assert.assertEquals("9", checkPoint.getProperty(DLedgerMmapFileStore.END_INDEX_KEY));
+        Assert.assertEquals("0", checkPoint.getProperty(DLedgerMmapFileStore.END_TERM_KEY));
+
+        fileStore = createFileStore(group, peers, "n1", "n0", 10 * 1024 + MIN_BLANK_LEN, 10 * DLedgerMmapFileStore.INDEX_UNIT_SIZE, 0);
+        Assert.assertEquals(9, fileStore.getLedgerEndIndex());
+        Assert.assertEquals(0, fileStore.getLedgerEndTerm());
+        Assert.assertEquals(writePos, fileStore.getWritePos());
+        for (long i = 0; i < 10; i++) {
+            Assert.assertEquals(leaderStore.get(i), fileStore.get(i));
+        }
+    }
+
+    @Test
+    public void testCrcRecovery() throws Exception {
+        String group = UUID.randomUUID().toString();
+        String peers = String.format("n0-localhost:%d", nextPort());
+        int dataFileSize = 1024 + MIN_BLANK_LEN;
+        DLedgerMmapFileStore fileStore = createFileStore(group, peers, "n0", "n0", dataFileSize, 10 * DLedgerMmapFileStore.INDEX_UNIT_SIZE, 0);
+        for (int i = 0; i < 20; i++) {
+            DLedgerEntry entry = new DLedgerEntry();
+            entry.setBody(new byte[200 - DLedgerEntry.BODY_OFFSET]);
+            fileStore.appendAsLeader(entry);
+        }
+        long corruptedPos = -1;
+        for (long i = 0; i < 20; i++) {
+            DLedgerEntry entry = fileStore.get(i);
+            Assert.assertEquals(Crc32C.compute(entry.getBody()), entry.getBodyCrc());
+            if (entry.getPos() % dataFileSize == 0) {
+                //the chain begins at each data file
+                Assert.assertEquals(DLedgerEntryCoder.chainCrc(0, i, 0, entry.getBodyCrc()), entry.getChainCrc());
+            } else {
+                DLedgerEntry prev = fileStore.get(i - 1);
+                Assert.assertEquals(DLedgerEntryCoder.chainCrc(prev.getChainCrc(), i, 0, entry.getBodyCrc()), entry.getChainCrc());
+            }
+            if (i == 17) {
+                corruptedPos = entry.getPos();
+            }
+        }
+        while (fileStore.getFlushPos() != fileStore.getWritePos()) {
+            fileStore.flush();
+        }
+        fileStore.shutdown();
+        //the crash leaves no clean shutdown mark, so the files are scanned
+        Assert.assertTrue(new File(fileStore.getDLedgerConfig().getDefaultPath(), DLedgerMmapFileStore.CHECK_POINT_FILE).delete());
+        String fileName = fileStore.getDataFileList().findMappedFileByOffset(corruptedPos).getFileName();
+        try (RandomAccessFile file = new RandomAccessFile(fileName, "rw")) {
+            file.seek(corruptedPos % dataFileSize + DLedgerEntry.BODY_OFFSET);
+            file.write(1);
+        }
+        fileStore = createFileStore(group, peers, "n0", "n0", dataFileSize, 10 * DLedgerMmapFileStore.INDEX_UNIT_SIZE, 0);
+        Assert.assertEquals(16, fileStore.getLedgerEndIndex());
+        Assert.assertEquals(corruptedPos, fileStore.getWritePos());
+    }
+
+    @Test
+    public void testParallelRecovery() throws Exception {
+        String group = UUID.randomUUID().toString();
+        String peers = String.format("n0-localhost:%d", nextPort());
+        int dataFileSize = 1024 + MIN_BLANK_LEN;
+        int indexFileSize = 10 * DLedgerMmapFileStore.INDEX_UNIT_SIZE;
+        DLedgerMmapFileStore fileStore = createFileStore(group, peers, "n0", "n0", dataFileSize, indexFileSize, 0);
+        for (int i = 0; i < 30; i++) {
+            DLedgerEntry entry = new DLedgerEntry();
+            entry.setBody(new byte[200 - DLedgerEntry.BODY_OFFSET]);
+            fileStore.appendAsLeader(entry);
+        }
+        Assert.assertEquals(6, fileStore.getDataFileList().getMappedFiles().size());
+        long writePos = fileStore.getWritePos();
+        fileStore.shutdown();
+        //a crash leaves the index of the entry in the middle sealed file broken
+        Assert.assertTrue(new File(fileStore.getDLedgerConfig().getDefaultPath(), DLedgerMmapFileStore.CHECK_POINT_FILE).delete());
+        String fileName = fileStore.getIndexFileList().findMappedFileByOffset(22 * DLedgerMmapFileStore.INDEX_UNIT_SIZE).getFileName();
+        try (RandomAccessFile file = new RandomAccessFile(fileName, "rw")) {
+            file.seek(22 * DLedgerMmapFileStore.INDEX_UNIT_SIZE % indexFileSize + 24);
+            file.writeLong(7);
+        }
+        fileStore = createFileStore(group, peers, "n0", "n0", dataFileSize, indexFileSize, 0, false, 4);
+        Assert.assertEquals(29, fileStore.getLedgerEndIndex());
+        Assert.assertEquals(writePos, fileStore.getWritePos());
+        for (long i = 0; i < 30; i++) {
+            Assert.assertEquals(0, fileStore.getMeta(i).getTerm());
+            Assert.assertEquals(i, fileStore.get(i).getIndex());
+        }
+    }
+
     @Test
     public void testAbnormalRecovery() {
         String group = UUID.randomUUID().toString();
@@ -231,6 +523,37 @@ public class DLedgerMappedFileStoreTest extends ServerTestHarness {
         }
     }
 
+    @Test
+    public void testRecoveryWithAllocatedFile() throws Exception {
+        String group = UUID.randomUUID().toString();
+        String peers = String.format("n0-localhost:%d", nextPort());
+        DLedgerMmapFileStore fileStore = createFileStore(group, peers, "n0", "n0", 10 * 1024 + MIN_BLANK_LEN, 10 * DLedgerMmapFileStore.INDEX_UNIT_SIZE, 0);
+        for (int i = 0; i < 25; i++) {
+            DLedgerEntry entry = new DLedgerEntry();
+            entry.setBody(new byte[1024]);
+            fileStore.appendAsLeader(entry);
+        }
+        while (fileStore.getFlushPos() != fileStore.getWritePos()) {
+            fileStore.flush();
+        }
+        fileStore.shutdown();
+        Assert.assertEquals(3, fileStore.getDataFileList().getMappedFiles().size());
+        //the file allocated ahead is left by a crash
+        MmapFile lastFile = fileStore.getDataFileList().getLastMappedFile();
+        File allocatedFile = new File(new File(lastFile.getFileName()).getParent(), DLedgerUtils.offset2FileName(lastFile.getFileFromOffset() + lastFile.getFileSize()));
+        try (RandomAccessFile file = new RandomAccessFile(allocatedFile, "rw")) {
+            file.setLength(lastFile.getFileSize());
+        }
+        fileStore = createFileStore(group, peers, "n0", "n0", 10 * 1024 + MIN_BLANK_LEN, 10 * DLedgerMmapFileStore.INDEX_UNIT_SIZE, 0);
+        Assert.assertEquals(3, fileStore.getDataFileList().getMappedFiles().size());
+        Assert.assertFalse(allocatedFile.exists());
+        Assert.assertEquals(24, fileStore.getLedgerEndIndex());
+        DLedgerEntry entry = new DLedgerEntry();
+        entry.setBody(new byte[1024]);
+        Assert.assertEquals(25, fileStore.appendAsLeader(entry).getIndex());
+        Assert.assertEquals(24, fileStore.get(24L).getIndex());
+    }
+
     @Test
     public void testTruncate() {
         String group = UUID.randomUUID().toString();
@@ -286,6 +609,128 @@ public class DLedgerMappedFileStoreTest extends ServerTestHarness {
 
     }
 
+    @Test
+    public void testTruncateByHeader() {
+        String group = UUID.randomUUID().toString();
+        String peers = String.format("n0-localhost:%d", nextPort());
+        DLedgerMmapFileStore fileStore = createFileStore(group, peers, "n0", "n0");
+        for (int i = 0; i < 10; i++) {
+            DLedgerEntry entry = new DLedgerEntry();
+            entry.setBody(new byte[128 + i]);
+            fileStore.appendAsLeader(entry);
+        }
+        fileStore.getMemberState().changeToFollower(fileStore.getLedgerEndTerm(), "n0");
+
+        DLedgerEntry header = fileStore.getEntryHeader(5);
+        DLedgerEntry entry = fileStore.get(5L);
+        Assert.assertNull(header.getBody());
+        Assert.assertTrue(header.hasCrc());
+        Assert.assertEquals(entry.getSize(), header.getSize());
+        Assert.assertTrue(header.matches(entry));
+
+        DLedgerEntry stale = fileStore.getEntryHeader(3);
+        stale.setBodyCrc(stale.getBodyCrc() + 1);
+        try {
+            //the header could not be written if the local entry does not match
+            fileStore.truncate(stale, fileStore.getLedgerEndTerm(), "n0");
+            Assert.fail();
+        } catch (DLedgerException e) {
+            Assert.assertEquals(DLedgerResponseCode.INCONSISTENT_STATE, e.getCode());
+        }
+        Assert.assertEquals(9, fileStore.getLedgerEndIndex());
+
+        Assert.assertEquals(5, fileStore.truncate(header, fileStore.getLedgerEndTerm(), "n0"));
+        Assert.assertEquals(5, fileStore.getLedgerEndIndex());
+        Assert.assertEquals(header.getPos() + header.getSize(), fileStore.getDataFileList().getMaxWrotePosition());
+        Assert.assertEquals(entry, fileStore.get(5L));
+    }
+
+    private void assertMetaOutOfRange(DLedgerMmapFileStore fileStore, long index) {
+        try {
+            fileStore.getMeta(index);
+            Assert.fail();
+        } catch (DLedgerException e) {
+            Assert.assertEquals(DLedgerResponseCode.INDEX_OUT_OF_RANGE, e.getCode());
+        }
+    }
+
+    @Test
+    public void testGetMeta() {
+        String group = UUID.randomUUID().toString();
+        String peers = String.format("n0-localhost:%d", nextPort());
+        DLedgerMmapFileStore fileStore = createFileStore(group, peers, "n0", "n0", 8 * 1024 + MIN_BLANK_LEN, 8 * DLedgerMmapFileStore.INDEX_UNIT_SIZE, 0);
+        //nothing to read from the empty store
+        assertMetaOutOfRange(fileStore, 0);
+        assertMetaOutOfRange(fileStore, -1);
+
+        //the entries of two terms, across the index and the data files
+        List<DLedgerEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            if (i == 12) {
+                fileStore.getMemberState().setCurrTermForTest(1);
+                fileStore.getMemberState().changeToLeader(1);
+            }
+            DLedgerEntry entry = new DLedgerEntry();
+            entry.setBody(new byte[1000 + i]);
+            fileStore.appendAsLeader(entry);
+            entries.add(fileStore.get((long) i));
+        }
+        Assert.assertEquals(3, fileStore.getIndexFileList().getMappedFiles().size());
+        Assert.assertEquals(3, fileStore.getDataFileList().getMappedFiles().size());
+        for (int i = 0; i < 20; i++) {
+            DLedgerEntry entry = entries.get(i);
+            DLedgerEntry meta = fileStore.getMeta(i);
+            Assert.assertEquals(entry.getMagic(), meta.getMagic());
+            Assert.assertEquals(entry.getIndex(), meta.getIndex());
+            Assert.assertEquals(i < 12 ? 0 : 1, meta.getTerm());
+            Assert.assertEquals(entry.getPos(), meta.getPos());
+            Assert.assertEquals(entry.getSize(), meta.getSize());
+            //the crcs and the body are in the data file only
+            Assert.assertFalse(meta.hasCrc());
+            Assert.assertNull(meta.getBody());
+        }
+        //the first entry of a data file is not at the end of the former one
+        Assert.assertEquals(8 * 1024 + MIN_BLANK_LEN, fileStore.getMeta(7).getPos());
+        assertMetaOutOfRange(fileStore, 20);
+
+        //the truncated entries are out of range, and the ones rewritten have the new metadata
+        fileStore.getMemberState().changeToFollower(fileStore.getLedgerEndTerm(), "n0");
+        DLedgerEntry header = fileStore.getEntryHeader(10);
+        Assert.assertEquals(10, fileStore.truncate(header, fileStore.getLedgerEndTerm(), "n0"));
+        assertMetaOutOfRange(fileStore, 11);
+        Assert.assertEquals(entries.get(10).getPos(), fileStore.getMeta(10).getPos());
+        DLedgerEntry entry = new DLedgerEntry();
+        entry.setIndex(11);
+        entry.setTerm(1);
+        entry.setPos(entries.get(11).getPos());
+        entry.setBody(new byte[10]);
+        fileStore.appendAsFollower(entry, 1, "n0");
+        DLedgerEntry meta = fileStore.getMeta(11);
+        Assert.assertEquals(1, meta.getTerm());
+        Assert.assertEquals(entries.get(11).getPos(), meta.getPos());
+        Assert.assertEquals(fileStore.get(11L).getSize(), meta.getSize());
+
+        //the entries before the ledger begin are out of range
+        fileStore.getMemberState().setCurrTermForTest(2);
+        fileStore.getMemberState().changeToLeader(2);
+        for (int i = 0; i < 8; i++) {
+            DLedgerEntry newEntry = new DLedgerEntry();
+            newEntry.setBody(new byte[1000]);
+            fileStore.appendAsLeader(newEntry);
+        }
+        fileStore.getMemberState().changeToFollower(2, "n0");
+        DLedgerEntry endEntry = fileStore.get(19L);
+        DLedgerMmapFileStore otherFileStore = createFileStore(UUID.randomUUID().toString(), peers, "n0", "n0", 8 * 1024 + MIN_BLANK_LEN, 8 * DLedgerMmapFileStore.INDEX_UNIT_SIZE, 0);
+        Assert.assertEquals(-1, otherFileStore.getLedgerEndIndex());
+        otherFileStore.getMemberState().setCurrTermForTest(2);
+        otherFileStore.getMemberState().changeToFollower(2, "n0");
+        Assert.assertEquals(19, otherFileStore.truncate(endEntry, 2, "n0"));
+        Assert.assertEquals(19, otherFileStore.getLedgerBeginIndex());
+        assertMetaOutOfRange(otherFileStore, 18);
+        Assert.assertEquals(19, otherFileStore.getMeta(19).getIndex());
+        Assert.assertEquals(2, otherFileStore.getMeta(19).getTerm());
+    }
+
     @Test
     public void testAppendAsFollower() {
         DLedgerMmapFileStore fileStore = createFileStore(UUID.randomUUID().toString(), "n0-localhost:20913", "n0", "n1");
@@ -307,4 +752,274 @@ public class DLedgerMappedFileStoreTest extends ServerTestHarness {
         }
     }
 
+    @Test
+    public void testAppendEncodedAsFollower() {
+        String peers = String.format("n0-localhost:%d", nextPort());
+        DLedgerMmapFileStore leaderStore = createFileStore(UUID.randomUUID().toString(), peers, "n0", "n0", 10 * 1024 + MIN_BLANK_LEN, 10 * DLedgerMmapFileStore.INDEX_UNIT_SIZE, 0);
+        DLedgerMmapFileStore followerStore = createFileStore(UUID.randomUUID().toString(), peers, "n0", "n1", 10 * 1024 + MIN_BLANK_LEN, 10 * DLedgerMmapFileStore.INDEX_UNIT_SIZE, 0);
+        for (int i = 0; i < 30; i++) {
+            DLedgerEntry entry = new DLedgerEntry();
+            entry.setBody(new byte[1000 + i]);
+            leaderStore.appendAsLeader(entry);
+        }
+        for (long i = 0; i < 30; i++) {
+            SelectMmapBufferResult sbr = leaderStore.getEntryData(i);
+            try {
+                ByteBuffer entryBuffer = ByteBuffer.allocate(sbr.getSize() + 10);
+                entryBuffer.position(10);
+                entryBuffer.put(sbr.getByteBuffer());
+                entryBuffer.position(10);
+                if (i == 20) {
+                    //the broken entry should be rejected
+                    ByteBuffer brokenBuffer = entryBuffer.duplicate();
+                    brokenBuffer.limit(brokenBuffer.limit() - 1);
+                    try {
+                        followerStore.appendAsFollower(brokenBuffer, 0, "n1");
+                        Assert.fail();
+                    } catch (DLedgerException e) {
+                        Assert.assertEquals(DLedgerResponseCode.UNEXPECTED_ARGUMENT, e.getCode());
+                    }
+                }
+                DLedgerEntry resEntry = followerStore.appendAsFollower(entryBuffer.slice(), 0, "n1");
+                Assert.assertEquals(i, resEntry.getIndex());
+            } finally {
+                sbr.release();
+            }
+        }
+        Assert.assertEquals(29, followerStore.getLedgerEndIndex());
+        Assert.assertEquals(leaderStore.getDataFileList().getMaxWrotePosition(), followerStore.getDataFileList().getMaxWrotePosition());
+        for (long i = 0; i < 30; i++) {
+            Assert.assertEquals(leaderStore.get(i), followerStore.get(i));
+        }
+    }
+
+    @Test
+    public void testBatchAppendEncodedAsFollower() {
+        String peers = String.format("n0-localhost:%d", nextPort());
+        DLedgerMmapFileStore leaderStore = createFileStore(UUID.randomUUID().toString(), peers, "n0", "n0", 10 * 1024 + MIN_BLANK_LEN, 10 * DLedgerMmapFileStore.INDEX_UNIT_SIZE, 0);
+        DLedgerMmapFileStore followerStore = createFileStore(UUID.randomUUID().toString(), peers, "n0", "n1", 10 * 1024 + MIN_BLANK_LEN, 10 * DLedgerMmapFileStore.INDEX_UNIT_SIZE, 0);
+        for (int i = 0; i < 30; i++) {
+            DLedgerEntry entry = new DLedgerEntry();
+            entry.setBody(new byte[1000 + i]);
+            leaderStore.appendAsLeader(entry);
+        }
+        List<ByteBuffer> entryBuffers = new ArrayList<>();
+        for (long i = 0; i < 30; i++) {
+            SelectMmapBufferResult sbr = leaderStore.getEntryData(i);
+            ByteBuffer entryBuffer = ByteBuffer.allocate(sbr.getSize());
+            entryBuffer.put(sbr.getByteBuffer());
+            entryBuffer.flip();
+            entryBuffers.add(entryBuffer);
+            sbr.release();
+        }
+        Assert.assertEquals(17, followerStore.appendAsFollower(entryBuffers.subList(0, 17), 0, "n1").size());
+        try {
+            //the entries are not contiguous
+            followerStore.appendAsFollower(entryBuffers.subList(18, 30), 0, "n1");
+            Assert.fail();
+        } catch (DLedgerException e) {
+            Assert.assertEquals(DLedgerResponseCode.INCONSISTENT_INDEX, e.getCode());
+        }
+        Assert.assertEquals(16, followerStore.getLedgerEndIndex());
+        List<DLedgerEntry> appended = followerStore.appendAsFollower(entryBuffers.subList(17, 30), 0, "n1");
+        Assert.assertEquals(29, appended.get(appended.size() - 1).getIndex());
+        Assert.assertEquals(29, followerStore.getLedgerEndIndex());
+        Assert.assertEquals(leaderStore.getDataFileList().getMaxWrotePosition(), followerStore.getDataFileList().getMaxWrotePosition());
+        for (long i = 0; i < 30; i++) {
+            Assert.assertEquals(leaderStore.get(i), followerStore.get(i));
+        }
+    }
+
+    @Test
+    public void testColdRead() {
+        String peers = String.format("n0-localhost:%d", nextPort());
+        DLedgerMmapFileStore fileStore = createFileStore(UUID.randomUUID().toString(), peers, "n0", "n0", 10 * 1024 + MIN_BLANK_LEN, 10 * DLedgerMmapFileStore.INDEX_UNIT_SIZE, 0);
+        DLedgerMmapFileStore otherFileStore = createFileStore(UUID.randomUUID().toString(), peers, "n0", "n0", 10 * 1024 + MIN_BLANK_LEN, 10 * DLedgerMmapFileStore.INDEX_UNIT_SIZE, 0);
+        for (int i = 0; i < 30; i++) {
+            DLedgerEntry entry = new DLedgerEntry();
+            entry.setBody(new byte[1000]);
+            Arrays.fill(entry.getBody(), (byte) i);
+            fileStore.appendAsLeader(entry);
+            //the other one has the same entries before 11
+            DLedgerEntry otherEntry = new DLedgerEntry();
+            otherEntry.setBody(new byte[1000]);
+            Arrays.fill(otherEntry.getBody(), (byte) (i <= 10 ? i : 100 + i));
+            otherFileStore.appendAsLeader(otherEntry);
+        }
+        List<DLedgerEntry> hotEntries = new ArrayList<>();
+        for (long i = 0; i < 30; i++) {
+            hotEntries.add(fileStore.get(i));
+        }
+        fileStore.getDLedgerConfig().setColdReadAheadSize(4096);
+        fileStore.getDLedgerConfig().setColdReadDistance(3);
+        for (long i = 0; i < 30; i++) {
+            Assert.assertEquals(hotEntries.get((int) i), fileStore.get(i));
+            SelectMmapBufferResult sbr = fileStore.getEntryData(i);
+            Assert.assertEquals(hotEntries.get((int) i), DLedgerEntryCoder.decode(sbr.getByteBuffer()));
+            sbr.release();
+        }
+
+        //the data read ahead is dropped once the entries are truncated and rewritten
+        Assert.assertEquals(11, fileStore.get(11L).getBody()[0]);
+        fileStore.getMemberState().changeToFollower(fileStore.getLedgerEndTerm(), "n0");
+        Assert.assertEquals(10, fileStore.truncate(otherFileStore.get(10L), fileStore.getLedgerEndTerm(), "n0"));
+        for (long i = 11; i < 30; i++) {
+            fileStore.appendAsFollower(otherFileStore.get(i), fileStore.getLedgerEndTerm(), "n0");
+        }
+        for (long i = 12; i < 30; i++) {
+            Assert.assertEquals(otherFileStore.get(i), fileStore.get(i));
+        }
+    }
+
+    @Test
+    public void testColdReadPool() throws Exception {
+        String peers = String.format("n0-localhost:%d", nextPort());
+        DLedgerMmapFileStore fileStore = createFileStore(UUID.randomUUID().toString(), peers, "n0", "n0", 10 * 1024 + MIN_BLANK_LEN, 10 * DLedgerMmapFileStore.INDEX_UNIT_SIZE, 0);
+        List<DLedgerEntry> hotEntries = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            DLedgerEntry entry = new DLedgerEntry();
+            entry.setBody(new byte[1000]);
+            Arrays.fill(entry.getBody(), (byte) i);
+            fileStore.appendAsLeader(entry);
+            hotEntries.add(fileStore.get((long) i));
+        }
+        fileStore.getDLedgerConfig().setColdReadAheadSize(2048);
+        fileStore.getDLedgerConfig().setColdReadAheadBufferNum(2);
+        fileStore.getDLedgerConfig().setColdReadDistance(3);
+
+        //the views hold the buffers, the read goes through the mapping once all of them are in use
+        SelectMmapBufferResult sbr0 = fileStore.getEntryData(0);
+        SelectMmapBufferResult sbr5 = fileStore.getEntryData(5);
+        SelectMmapBufferResult sbr10 = fileStore.getEntryData(10);
+        Assert.assertNull(sbr0.getMappedFile());
+        Assert.assertNull(sbr5.getMappedFile());
+        Assert.assertNotNull(sbr10.getMappedFile());
+        Assert.assertEquals(hotEntries.get(0), DLedgerEntryCoder.decode(sbr0.getByteBuffer()));
+        Assert.assertEquals(hotEntries.get(5), DLedgerEntryCoder.decode(sbr5.getByteBuffer().duplicate()));
+        Assert.assertEquals(hotEntries.get(10), DLedgerEntryCoder.decode(sbr10.getByteBuffer()));
+        sbr10.release();
+        //the released buffer is borrowed again
+        sbr0.release();
+        sbr0.release();
+        SelectMmapBufferResult sbr1 = fileStore.getEntryData(1);
+        Assert.assertNull(sbr1.getMappedFile());
+        Assert.assertEquals(hotEntries.get(1), DLedgerEntryCoder.decode(sbr1.getByteBuffer()));
+        //the held view is not overwritten by the other reads
+        Assert.assertEquals(hotEntries.get(5), DLedgerEntryCoder.decode(sbr5.getByteBuffer().duplicate()));
+        sbr1.release();
+        sbr5.release();
+
+        //the readers more than the buffers share them
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            threads.add(new Thread(() -> {
+                try {
+                    for (int j = 0; j < 2000; j++) {
+                        long index = ThreadLocalRandom.current().nextInt(26);
+                        if (j % 2 == 0) {
+                            Assert.assertEquals(hotEntries.get((int) index), fileStore.get(index));
+                        } else {
+                            EntryView view = fileStore.getEntryView(index);
+                            try {
+                                Assert.assertEquals(hotEntries.get((int) index), view.toEntry());
+                            } finally {
+                                view.release();
+                            }
+                        }
+                    }
+                } catch (Throwable t) {
+                    error.set(t);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertNull(error.get());
+        Assert.assertEquals(hotEntries.subList(0, 26), fileStore.get(0, 26, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testGetRange() {
+        String peers = String.format("n0-localhost:%d", nextPort());
+        DLedgerMmapFileStore fileStore = createFileStore(UUID.randomUUID().toString(), peers, "n0", "n0", 10 * 1024 + MIN_BLANK_LEN, 16 * DLedgerMmapFileStore.INDEX_UNIT_SIZE, 0);
+        List<DLedgerEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            DLedgerEntry entry = new DLedgerEntry();
+            entry.setBody(new byte[1000 + i]);
+            Arrays.fill(entry.getBody(), (byte) i);
+            fileStore.appendAsLeader(entry);
+            entries.add(fileStore.get((long) i));
+        }
+        //the range stops at the end of the data file
+        EntryRangeResult range = fileStore.getEntryRange(0, 100, Integer.MAX_VALUE);
+        Assert.assertEquals(9, range.getCount());
+        Assert.assertEquals(entries.get(8).getPos() + entries.get(8).getSize(), range.getSize());
+        Assert.assertEquals(10 * 1024 + MIN_BLANK_LEN, entries.get(9).getPos());
+        for (int i = 0; i < range.getCount(); i++) {
+            Assert.assertEquals(entries.get(i).getPos(), range.getEntryOffset(i));
+            Assert.assertEquals(entries.get(i), DLedgerEntryCoder.decode(range.getEntryBuffer(i)));
+        }
+        range.release();
+        //and at the end of the index file
+        range = fileStore.getEntryRange(14, 100, Integer.MAX_VALUE);
+        Assert.assertEquals(2, range.getCount());
+        Assert.assertEquals(15, range.getEndIndex());
+        range.release();
+
+        Assert.assertEquals(entries, fileStore.get(0, 100, Integer.MAX_VALUE));
+        Assert.assertEquals(entries.subList(5, 7), fileStore.get(5, 100, 3000));
+        Assert.assertEquals(entries.subList(5, 6), fileStore.get(5, 100, 10));
+        Assert.assertEquals(entries.subList(7, 17), fileStore.get(7, 10, Integer.MAX_VALUE));
+        Assert.assertEquals(entries.subList(28, 30), fileStore.get(28, 100, Integer.MAX_VALUE));
+        fileStore.getDLedgerConfig().setColdReadDistance(3);
+        Assert.assertEquals(entries, fileStore.get(0, 100, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testEntryView() {
+        String peers = String.format("n0-localhost:%d", nextPort());
+        DLedgerMmapFileStore fileStore = createFileStore(UUID.randomUUID().toString(), peers, "n0", "n0", 10 * 1024 + MIN_BLANK_LEN, 16 * DLedgerMmapFileStore.INDEX_UNIT_SIZE, 0);
+        List<DLedgerEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            DLedgerEntry entry = new DLedgerEntry();
+            entry.setBody(new byte[1000 + i]);
+            Arrays.fill(entry.getBody(), (byte) i);
+            fileStore.appendAsLeader(entry);
+            entries.add(fileStore.get((long) i));
+        }
+        for (int i = 0; i < 20; i++) {
+            DLedgerEntry entry = entries.get(i);
+            EntryView view = fileStore.getEntryView(i);
+            Assert.assertEquals(entry.getMagic(), view.getMagic());
+            Assert.assertEquals(entry.getSize(), view.getSize());
+            Assert.assertEquals(entry.getIndex(), view.getIndex());
+            Assert.assertEquals(entry.getTerm(), view.getTerm());
+            Assert.assertEquals(entry.getPos(), view.getPos());
+            Assert.assertEquals(entry.getChannel(), view.getChannel());
+            Assert.assertEquals(entry.getChainCrc(), view.getChainCrc());
+            Assert.assertEquals(entry.getBodyCrc(), view.getBodyCrc());
+            Assert.assertEquals(entry.getBody().length, view.getBodySize());
+            Assert.assertEquals(ByteBuffer.wrap(entry.getBody()), view.getBody());
+            Assert.assertTrue(view.getBody().isReadOnly());
+            Assert.assertEquals(entry, view.toEntry());
+            Assert.assertTrue(entry.matches(view.toHeader()));
+            view.release();
+        }
+
+        //the views share the ranges, which stop at the ends of the data and index files
+        List<Runnable> releases = new ArrayList<>();
+        List<EntryView> views = fileStore.getEntryViews(5, 100, Integer.MAX_VALUE, releases);
+        Assert.assertEquals(15, views.size());
+        Assert.assertEquals(4, releases.size());
+        for (int i = 0; i < views.size(); i++) {
+            Assert.assertEquals(entries.get(5 + i), views.get(i).toEntry());
+        }
+        releases.forEach(Runnable::run);
+        releases.clear();
+        Assert.assertEquals(2, fileStore.getEntryViews(5, 100, 3000, releases).size());
+        releases.forEach(Runnable::run);
+    }
 }
@@ -18,8 +18,22 @@
 package io.openmessaging.storage.dledger.store;
 
 import io.openmessaging.storage.dledger.ServerTestBase;
+import io.openmessaging.storage.dledger.store.file.AllocateMmapFileService;
+import io.openmessaging.storage.dledger.store.file.DefaultMmapFile;
+import io.openmessaging.storage.dledger.store.file.MmapFile;
 import io.openmessaging.storage.dledger.store.file.MmapFileList;
+import io.openmessaging.storage.dledger.store.file.SelectMmapBufferResult;
+import io.openmessaging.storage.dledger.store.file.TransientStorePool;
 import io.openmessaging.storage.dledger.util.FileTestUtil;
+import io.openmessaging.storage.dledger.utils.DLedgerUtils;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -36,6 +50,34 @@ public class MmapFileListTest extends ServerTestBase {
         }
     }
 
+    @Test
+    public void testFlushRange() {
+        String javaVersion = System.getProperty("java.specification.version");
+        if ("1.8".equals(javaVersion)) {
+            Assert.assertTrue(DefaultMmapFile.isForceRangeSupported());
+        } else if (Integer.parseInt(javaVersion) < 13) {
+            //the internals are not touched out of java 8, the whole mapping is forced until force(int, int) of java 13
+            Assert.assertFalse(DefaultMmapFile.isForceRangeSupported());
+        }
+        String base = FileTestUtil.createTestDir();
+        bases.add(base);
+        MmapFileList mmapFileList = new MmapFileList(base, OS_PAGE_SIZE * 4);
+        append(mmapFileList, 5000, 1000);
+        Assert.assertFalse(mmapFileList.flush(0));
+        Assert.assertEquals(5000, mmapFileList.getFlushedWhere());
+        MmapFile mmapFile = mmapFileList.getFirstMappedFile();
+        Assert.assertEquals(1, mmapFile.getFlushTimes());
+        //the range begins in the middle of a page
+        append(mmapFileList, 3000, 1000);
+        Assert.assertFalse(mmapFileList.flush(0));
+        Assert.assertEquals(8000, mmapFileList.getFlushedWhere());
+        Assert.assertEquals(2, mmapFile.getFlushTimes());
+        Assert.assertTrue(mmapFile.getFlushCostUs() >= mmapFile.getLastFlushCostUs());
+        Assert.assertTrue(mmapFileList.flush(0));
+        Assert.assertEquals(2, mmapFile.getFlushTimes());
+        mmapFileList.destroy();
+    }
+
     @Test
     public void testTruncateAndReset() {
         String base = FileTestUtil.createTestDir();
@@ -120,4 +162,275 @@ public class MmapFileListTest extends ServerTestBase {
         Assert.assertEquals(OS_PAGE_SIZE + 2 + MIN_BLANK_LEN, mmapFileList.getFlushedWhere());
 
     }
+
+    @Test
+    public void testReserveAndCommit() {
+        String base = FileTestUtil.createTestDir();
+        bases.add(base);
+        MmapFileList mmapFileList = new MmapFileList(base, 512);
+        ByteBuffer region = mmapFileList.reserveAppend(300);
+        Assert.assertNotNull(region);
+        Assert.assertEquals(0, region.position());
+        Assert.assertEquals(300, region.limit());
+        while (region.hasRemaining()) {
+            region.put((byte) 1);
+        }
+        //the region is invisible until committed
+        Assert.assertEquals(0, mmapFileList.getMaxWrotePosition());
+        Assert.assertEquals(0, mmapFileList.commitAppend(300));
+        Assert.assertEquals(300, mmapFileList.getMaxWrotePosition());
+
+        //the region should not cross the file boundary
+        region = mmapFileList.reserveAppend(300);
+        Assert.assertNotNull(region);
+        region.put(new byte[300]);
+        Assert.assertEquals(512, mmapFileList.commitAppend(300));
+        Assert.assertEquals(2, mmapFileList.getMappedFiles().size());
+        Assert.assertEquals(812, mmapFileList.getMaxWrotePosition());
+
+        SelectMmapBufferResult sbr = mmapFileList.getData(0, 300);
+        try {
+            for (int i = 0; i < 300; i++) {
+                Assert.assertEquals(1, sbr.getByteBuffer().get(i));
+            }
+        } finally {
+            sbr.release();
+        }
+        Assert.assertNull(mmapFileList.reserveAppend(513));
+    }
+
+    @Test
+    public void testTransientStorePool() {
+        String base = FileTestUtil.createTestDir();
+        bases.add(base);
+        TransientStorePool transientStorePool = new TransientStorePool(2, 512);
+        transientStorePool.init();
+        MmapFileList mmapFileList = new MmapFileList(base, 512, transientStorePool);
+        byte[] data = new byte[100];
+        Arrays.fill(data, (byte) 1);
+        Assert.assertEquals(0, mmapFileList.append(data));
+        Assert.assertEquals(1, transientStorePool.availableBufferNums());
+        MmapFile firstFile = mmapFileList.getLastMappedFile();
+        //the data is readable before committed, but not in the file yet
+        SelectMmapBufferResult sbr = mmapFileList.getData(0, 100);
+        Assert.assertEquals(1, sbr.getByteBuffer().get(99));
+        sbr.release();
+        Assert.assertEquals(0, firstFile.getMappedByteBuffer().get(99));
+        mmapFileList.commit(0);
+        Assert.assertEquals(100, mmapFileList.getCommittedWhere());
+        Assert.assertEquals(1, firstFile.getMappedByteBuffer().get(99));
+
+        //roll to the next file, the buffer of the first file is held by the reader
+        Assert.assertEquals(100, mmapFileList.append(data));
+        Assert.assertEquals(512, mmapFileList.append(new byte[400]));
+        Assert.assertEquals(0, transientStorePool.availableBufferNums());
+        sbr = mmapFileList.getData(100, 100);
+        mmapFileList.commit(0);
+        Assert.assertEquals(512, mmapFileList.getCommittedWhere());
+        Assert.assertEquals(0, transientStorePool.availableBufferNums());
+        Assert.assertEquals(1, sbr.getByteBuffer().get(99));
+        sbr.release();
+        mmapFileList.commit(0);
+        Assert.assertEquals(912, mmapFileList.getCommittedWhere());
+        Assert.assertEquals(1, transientStorePool.availableBufferNums());
+        sbr = mmapFileList.getData(100, 100);
+        Assert.assertEquals(1, sbr.getByteBuffer().get(99));
+        sbr.release();
+
+        //one file is flushed at a time
+        mmapFileList.flush(0);
+        mmapFileList.flush(0);
+        Assert.assertEquals(912, mmapFileList.getFlushedWhere());
+        mmapFileList.destroy();
+        Assert.assertEquals(2, transientStorePool.availableBufferNums());
+    }
+
+    @Test
+    public void testFlushFailure() throws Exception {
+        String base = FileTestUtil.createTestDir();
+        bases.add(base);
+        TransientStorePool transientStorePool = new TransientStorePool(1, 512);
+        transientStorePool.init();
+        MmapFileList mmapFileList = new MmapFileList(base, 512, transientStorePool);
+        Assert.assertEquals(0, mmapFileList.append(new byte[100]));
+        mmapFileList.commit(0);
+        Assert.assertEquals(100, mmapFileList.getCommittedWhere());
+        //the force fails, the flushed position stays until a flush succeeds
+        mmapFileList.getLastMappedFile().getFileChannel().close();
+        for (int i = 0; i < 2; i++) {
+            try {
+                mmapFileList.flush(0);
+                Assert.fail();
+            } catch (IllegalStateException ignored) {
+            }
+            Assert.assertEquals(0, mmapFileList.getFlushedWhere());
+            Assert.assertEquals(0, mmapFileList.getLastMappedFile().getFlushedPosition());
+        }
+        mmapFileList.destroy();
+    }
+
+    @Test
+    public void testAllocateAhead() {
+        String base = FileTestUtil.createTestDir();
+        bases.add(base);
+        AllocateMmapFileService allocateMmapFileService = new AllocateMmapFileService(true);
+        allocateMmapFileService.start();
+        MmapFileList mmapFileList = new MmapFileList(base, 512, null, allocateMmapFileService);
+        Assert.assertEquals(0, mmapFileList.append(new byte[500]));
+        //the next file is allocated ahead
+        File nextFile = new File(base, DLedgerUtils.offset2FileName(512));
+        long start = System.currentTimeMillis();
+        while (!nextFile.exists() && DLedgerUtils.elapsed(start) < 3000) {
+            DLedgerUtils.sleep(10);
+        }
+        Assert.assertTrue(nextFile.exists());
+        Assert.assertEquals(1, mmapFileList.getMappedFiles().size());
+        Assert.assertEquals(512, mmapFileList.append(new byte[500]));
+        Assert.assertEquals(2, mmapFileList.getMappedFiles().size());
+        Assert.assertEquals(nextFile.getPath(), mmapFileList.getLastMappedFile().getFileName());
+
+        //the file allocated ahead does not match after truncating
+        mmapFileList.truncateOffset(-1);
+        Assert.assertEquals(0, mmapFileList.append(new byte[500]));
+        Assert.assertEquals(1, mmapFileList.getMappedFiles().size());
+        Assert.assertFalse(new File(base, DLedgerUtils.offset2FileName(1024)).exists());
+
+        //the unclaimed file is destroyed on shutdown
+        allocateMmapFileService.shutdown();
+        Assert.assertFalse(nextFile.exists());
+        Assert.assertEquals(1, new File(base).listFiles().length);
+    }
+
+    private int countMappedFiles(MmapFileList mmapFileList) {
+        int count = 0;
+        for (MmapFile mmapFile : mmapFileList.getMappedFiles()) {
+            if (mmapFile.isMapped()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void testLazyMapping() {
+        String base = FileTestUtil.createTestDir();
+        bases.add(base);
+        MmapFileList writeList = new MmapFileList(base, 512);
+        for (int i = 0; i < 6; i++) {
+            byte[] data = new byte[500];
+            Arrays.fill(data, (byte) i);
+            Assert.assertEquals(i * 512, writeList.append(data));
+        }
+        while (!writeList.flush(0)) {
+            DLedgerUtils.sleep(1);
+        }
+        writeList.shutdown(1000);
+
+        MmapFileList mmapFileList = new MmapFileList(base, 512);
+        Assert.assertTrue(mmapFileList.load());
+        Assert.assertEquals(6, mmapFileList.getMappedFiles().size());
+        Assert.assertEquals(0, countMappedFiles(mmapFileList));
+        mmapFileList.setMaxMappedFiles(2);
+
+        //the reads do not unmap the files themselves
+        for (int i = 0; i < 6; i++) {
+            SelectMmapBufferResult sbr = mmapFileList.getData(i * 512, 500);
+            Assert.assertEquals(i, sbr.getByteBuffer().get(499));
+            sbr.release();
+        }
+        Assert.assertEquals(6, countMappedFiles(mmapFileList));
+        mmapFileList.unmapColdFiles();
+        Assert.assertEquals(2, countMappedFiles(mmapFileList));
+
+        //the file held by the reader is not unmapped
+        SelectMmapBufferResult held = mmapFileList.getData(0, 500);
+        for (int i = 0; i < 6; i++) {
+            SelectMmapBufferResult sbr = mmapFileList.getData(i * 512, 500);
+            Assert.assertEquals(i, sbr.getByteBuffer().get(499));
+            sbr.release();
+            mmapFileList.unmapColdFiles();
+            Assert.assertTrue(countMappedFiles(mmapFileList) <= 2);
+        }
+        Assert.assertTrue(mmapFileList.getFirstMappedFile().isMapped());
+        Assert.assertEquals(0, held.getByteBuffer().get(499));
+        held.release();
+
+        //the cold file is mapped again on demand, and read by the file channel without the mapping
+        MmapFile secondFile = mmapFileList.getMappedFiles().get(1);
+        Assert.assertFalse(secondFile.isMapped());
+        ByteBuffer byteBuffer = ByteBuffer.allocate(500);
+        Assert.assertTrue(secondFile.getData(0, 500, byteBuffer));
+        Assert.assertEquals(1, byteBuffer.get(499));
+        Assert.assertFalse(secondFile.isMapped());
+        SelectMmapBufferResult sbr = mmapFileList.getData(512, 500);
+        Assert.assertEquals(1, sbr.getByteBuffer().get(499));
+        sbr.release();
+        Assert.assertTrue(secondFile.isMapped());
+        mmapFileList.unmapColdFiles();
+        Assert.assertEquals(2, countMappedFiles(mmapFileList));
+        mmapFileList.destroy();
+    }
+
+    @Test
+    public void testConcurrentReadAndUnmap() throws Exception {
+        String base = FileTestUtil.createTestDir();
+        bases.add(base);
+        MmapFileList writeList = new MmapFileList(base, 512);
+        for (int i = 0; i < 4; i++) {
+            byte[] data = new byte[500];
+            Arrays.fill(data, (byte) i);
+            writeList.append(data);
+        }
+        while (!writeList.flush(0)) {
+            DLedgerUtils.sleep(1);
+        }
+        writeList.shutdown(1000);
+        MmapFileList mmapFileList = new MmapFileList(base, 512);
+        Assert.assertTrue(mmapFileList.load());
+
+        //a reader touching the mapping unmapped under it would crash the jvm, rather than fail the asserts
+        long deadline = System.currentTimeMillis() + 2000;
+        AtomicLong reads = new AtomicLong();
+        AtomicLong unmaps = new AtomicLong();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 3; t++) {
+            threads.add(new Thread(() -> {
+                try {
+                    while (System.currentTimeMillis() < deadline) {
+                        int i = ThreadLocalRandom.current().nextInt(4);
+                        SelectMmapBufferResult sbr = mmapFileList.getData(i * 512, 500);
+                        try {
+                            ByteBuffer byteBuffer = sbr.getByteBuffer();
+                            for (int j = 0; j < 500; j += 50) {
+                                Assert.assertEquals(i, byteBuffer.get(j));
+                            }
+                        } finally {
+                            sbr.release();
+                        }
+                        reads.incrementAndGet();
+                    }
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                }
+            }));
+        }
+        threads.add(new Thread(() -> {
+            while (System.currentTimeMillis() < deadline) {
+                for (MmapFile mmapFile : mmapFileList.getMappedFiles()) {
+                    if (mmapFile.isMapped() && mmapFile.unmap()) {
+                        unmaps.incrementAndGet();
+                    }
+                }
+            }
+        }));
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertNull(error.get());
+        Assert.assertTrue(reads.get() > 0);
+        Assert.assertTrue(unmaps.get() > 0);
+        mmapFileList.destroy();
+    }
 }